@@ -30,6 +30,7 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import microfont.MFont;
 import microfont.Metrics;
+import microfont.PixselMap;
 import microfont.gui.MSymbolEditor;
 import utils.config.ConfigNode;
 import utils.resource.Resource;
@@ -63,6 +64,14 @@ public class PFontSize extends PanelControl implements PropertyChangeListener {
     final static int      LABEL_SIZE_MAX = 9;
     final static int      LABEL_SIZE_MIN = 10;
 
+    /** Свойства шрифта, изменение которых отображается панелью. */
+    final static String[] PROPERTIES     = { MFont.PROPERTY_ASCENT,
+            MFont.PROPERTY_BASELINE, MFont.PROPERTY_DESCENT,
+            MFont.PROPERTY_LINE, MFont.PROPERTY_MARGIN_LEFT,
+            MFont.PROPERTY_MARGIN_RIGHT, MFont.PROPERTY_SYMBOLS,
+            MFont.PROPERTY_FIXSED, MFont.PROPERTY_WIDTH,
+            MFont.PROPERTY_HEIGHT, PixselMap.PROPERTY_SIZE };
+
     JLabel[]              labels;
     String[]              resNames;
 
@@ -334,10 +343,17 @@ public class PFontSize extends PanelControl implements PropertyChangeListener {
     }
 
     public void setMFont(MFont font) {
-        if (mFont != null) mFont.removePropertyChangeListener(this);
+        if (mFont != null) {
+            for (String property : PROPERTIES) {
+                mFont.removePropertyChangeListener(property, this);
+            }
+        }
         mFont = font;
-        if (mFont != null) mFont.addPropertyChangeListener(this);
-        else return;
+        if (mFont != null) {
+            for (String property : PROPERTIES) {
+                mFont.addPropertyChangeListener(property, this);
+            }
+        } else return;
 
         vFixsed.setSelected(mFont.isFixsed());
         vWidth.setValue(mFont.getWidth());
@@ -355,6 +371,11 @@ public class PFontSize extends PanelControl implements PropertyChangeListener {
 
     @Override
     public void propertyChange(PropertyChangeEvent event) {
+        boolean fix = mFont.isFixsed();
+        vFixsed.setSelected(fix);
+        vWidth.setEnabled(fix);
+        vWidth.setValue(mFont.getWidth());
+        vHeight.setValue(mFont.getHeight());
         vLeft.setValue(mFont.getMetric(Metrics.METRIC_LEFT));
         vRight.setValue(mFont.getMetric(Metrics.METRIC_RIGHT));
         vBase.setValue(mFont.getMetric(Metrics.METRIC_BASELINE));
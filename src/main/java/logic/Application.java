@@ -23,9 +23,9 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Locale;
+import java.util.logging.Level;
 import javax.swing.Action;
 import javax.swing.ActionMap;
 import javax.swing.JFileChooser;
@@ -33,14 +33,26 @@ import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
-import javax.swing.undo.UndoManager;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import microfont.AbstractMFont;
 import microfont.Document;
+import microfont.GlyphLoader;
+import microfont.LazyMFont;
 import microfont.MFont;
+import microfont.edit.AbstractEdit;
+import microfont.edit.AutoSave;
+import microfont.edit.Journal;
+import microfont.edit.UndoHistory;
+import microfont.ls.FontCache;
+import microfont.ls.FontCodec;
+import microfont.ls.FontCodecs;
+import microfont.ls.MFontBinary;
 import microfont.ls.MFontLoadSave;
 import utils.config.ConfigNode;
 import utils.config.RootNode;
 import utils.ini.IniFile;
-import utils.ini.Formater;
 import utils.recent.RecentFiles;
 import utils.recent.SelectFileListener;
 import utils.resource.Resource;
@@ -53,6 +65,10 @@ public class Application {
     public static final String     NAME         = "Methodius";
 
     public static final String     ON_HEAP_SIZE = "heap.size";
+    public static final String     CONFIG_UNDO  = "/undo";
+    public static final String     CONFIG_JOURNAL = "/journal";
+    public static final String     CONFIG_CACHE = "/cache";
+    public static final String     CONFIG_AUTOSAVE = "/autosave";
 
     static Application             SINGLE       = new Application();
     RootNode                       config;
@@ -66,8 +82,12 @@ public class Application {
     public boolean                 exit;
 
     ActionMap                      actions;
-    UndoManager                    uManager;
+    UndoHistory                    uManager;
     int                            undoCount;
+    Journal                        journal;
+    AutoSave                       autoSave;
+    /** Размер и время изменения файла после загрузки или сохранения. */
+    long                           fontLength, fontModified;
 
     WorkShop                       work;
     FontPanel                      fontPanel;
@@ -79,6 +99,7 @@ public class Application {
     private Dialogs                dialogs;
 
     private Directories            directories;
+    private FontCache              fontCache;
 
     public static void main(String[] args) {
         Runtime r;
@@ -92,7 +113,15 @@ public class Application {
         while (!application().exit) {
             us = r.totalMemory() - r.freeMemory();
             heaps = "heap : " + us / 1000 + " kb ("
-                            + (us * 100 / r.totalMemory()) + "%)";
+                            + (us * 100 / r.totalMemory()) + "%), undo : "
+                            + application().uManager.getMemorySize() / 1000
+                            + " kb";
+            us = application().uManager.getSpilledSize();
+            if (us > 0) heaps += " (+" + us / 1000 + " kb on disk)";
+            AutoSave as = application().autoSave;
+            if (as != null && as.getSaves() > 0)
+                heaps += ", autosave : " + as.getLastSaveBytes() / 1000
+                                + " kb in " + as.getLastSaveTime() + " ms";
 
             if (application().actions.get(ON_HEAP_SIZE) != null)
                 application().actions.get(ON_HEAP_SIZE).actionPerformed(
@@ -116,6 +145,11 @@ public class Application {
         config.load();
 
         directories.loadConfig(config);
+        fontCache = new FontCache(directories.cache());
+        fontCache.setMaxEntries(config.node(CONFIG_CACHE).getInt("max",
+                        FontCache.DEFAULT_MAX));
+        fontCache.setBudget(config.node(CONFIG_CACHE).getLong("budget",
+                        FontCache.DEFAULT_BUDGET));
 
         String l = config.node("user").get("locale", null);
         if (l == null) loc = Locale.getDefault();
@@ -194,13 +228,24 @@ public class Application {
         actions = new Actions(res);
         work = new WorkShop(actions);
 
-        uManager = new UndoManager();
-        doc.addUndoableEditListener(uManager);
+        ConfigNode cfg = config.node(CONFIG_UNDO);
+        uManager = new UndoHistory(cfg.getLong("budget",
+                        UndoHistory.DEFAULT_BUDGET),
+                        cfg.getBoolean("spill", true)
+                                        ? UndoHistory.POLICY_SPILL
+                                        : UndoHistory.POLICY_DROP);
         doc.addUndoableEditListener(new UndoableEditListener() {
             @Override
             public void undoableEditHappened(UndoableEditEvent e) {
-                if (undoCount < 0) undoCount = Integer.MIN_VALUE;
-                undoCount++;
+                uManager.undoableEditHappened(e);
+                // Операция, слитая с предыдущей, уничтожается и не меняет
+                // количество шагов до сохранённого состояния.
+                UndoableEdit edit = e.getEdit();
+                if (!(edit instanceof AbstractEdit)
+                                || ((AbstractEdit) edit).isLive()) {
+                    if (undoCount < 0) undoCount = Integer.MIN_VALUE;
+                    undoCount++;
+                }
                 updateUndoRedo();
             }
         });
@@ -240,24 +285,44 @@ public class Application {
         }
 
         application().config().save();
+        closeJournal();
+        closeAutoSave();
+        uManager.close();
         work.dispose();
         exit = true;
     }
 
-    public void loadMFont(File file) {
+    /**
+     * Загружает шрифт в фоновом потоке с показом хода загрузки. Текстовые
+     * шрифты, не изменявшиеся с прошлой загрузки, берутся из
+     * {@linkplain FontCache кэша}. Пиксели символов двоичных шрифтов, как и
+     * шрифтов из кэша, загружаются по требованию.
+     * 
+     * @param file Файл шрифта.
+     */
+    public void loadMFont(final File file) {
         MFont font;
 
         if (file == null) return;
 
         try {
-            font = MFontLoadSave.load(file);
+            font = new FontTask<MFont>() {
+                @Override
+                protected MFont work() throws Exception {
+                    // Правка, прерванная при прошлом сохранении.
+                    MFontBinary.recover(file);
+                    if (MFontBinary.isBinary(file))
+                        return MFontBinary.loadLazy(file,
+                                        fontCache.getBudget());
+                    return fontCache.load(file, this);
+                }
+            }.run(work, "Загрузка " + file.getName());
         } catch (IOException ex) {
             JOptionPane.showMessageDialog(null, "Can't open file.", "Error",
                             JOptionPane.OK_OPTION);
             return;
         } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            // Загрузка отменена пользователем.
             return;
         }
 
@@ -271,14 +336,144 @@ public class Application {
         updateUndoRedo();
         fontFile = file;
         recent().setLastFile(file, font.getName());
+        font.clearModified();
+        setMFont(font);
+        stampFontFile();
+        openJournal();
+        recoverAutoSave();
+        openAutoSave();
+    }
+
+    /**
+     * Создаёт журнал изменений для текущего файла шрифта. Если журнал
+     * содержал несохранённые изменения, то они применяются к шрифту, и шрифт
+     * считается изменённым.
+     */
+    void openJournal() {
+        closeJournal();
+
+        ConfigNode cfg = config.node(CONFIG_JOURNAL);
+        if (fontFile == null || !cfg.getBoolean("enabled", true)) return;
+
+        try {
+            journal = new Journal(fontFile, doc.getFont());
+            journal.setCompactLimit(cfg.getInt("compact",
+                            Journal.DEFAULT_COMPACT_LIMIT));
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "open journal", e);
+            journal = null;
+        }
+        doc.setJournal(journal);
+
+        if (journal != null && journal.getReplayed() > 0) {
+            // Сохранённое состояние недостижимо отменой.
+            undoCount = Integer.MIN_VALUE;
+            updateUndoRedo();
+        }
+    }
+
+    /**
+     * Закрывает журнал изменений. Журнал с несохранёнными изменениями
+     * остаётся на диске и будет применён при следующей загрузке шрифта.
+     */
+    void closeJournal() {
+        if (journal == null) return;
+
+        doc.setJournal(null);
+        journal.close();
+        journal = null;
+    }
+
+    /**
+     * Создаёт автосохранение для текущего файла шрифта. Автосохранение
+     * заменяет журнал изменений и ведётся, только если журнала нет.
+     */
+    void openAutoSave() {
+        closeAutoSave();
+
+        ConfigNode cfg = config.node(CONFIG_AUTOSAVE);
+        if (fontFile == null || journal != null
+                        || !cfg.getBoolean("enabled", true))
+            return;
+
+        autoSave = new AutoSave(fontFile);
+        autoSave.setMinInterval(cfg.getLong("interval",
+                        AutoSave.DEFAULT_INTERVAL));
+        autoSave.setIdle(cfg.getLong("idle", AutoSave.DEFAULT_IDLE));
+        autoSave.setFont(doc.getFont());
+    }
+
+    /**
+     * Останавливает автосохранение. Файл восстановления остаётся на диске.
+     */
+    void closeAutoSave() {
+        if (autoSave == null) return;
+
+        autoSave.close();
+        autoSave = null;
+    }
+
+    /**
+     * Предлагает восстановить шрифт из файла автосохранения, если он новее
+     * файла шрифта. Если несохранённые изменения уже применены из журнала, то
+     * автосохранение устарело и удаляется без вопроса. Восстановленный шрифт
+     * целиком записывается в новый журнал, после чего файл автосохранения не
+     * нужен.
+     */
+    void recoverAutoSave() {
+        File asFile = AutoSave.fileFor(fontFile);
+        if (journal != null && journal.getReplayed() > 0) {
+            asFile.delete();
+            return;
+        }
+
+        MFont font;
+        try {
+            font = AutoSave.recover(fontFile);
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "recover autosave", e);
+            asFile.delete();
+            return;
+        }
+        if (font == null) return;
+
+        int r = JOptionPane.showConfirmDialog(work, "Для файла\n"
+                        + fontFile.getAbsolutePath()
+                        + "\nнайдено несохранённое автосохранение. "
+                        + "Восстановить его?", "Автосохранение",
+                        JOptionPane.YES_NO_OPTION);
+        if (r != JOptionPane.YES_OPTION) {
+            asFile.delete();
+            return;
+        }
+
+        MFont base = doc.getFont();
+        // Пустой журнал относится к шрифту из файла.
+        if (journal != null) {
+            doc.setJournal(null);
+            journal.discard();
+            journal = null;
+        }
         setMFont(font);
+        openJournal();
+        if (journal != null) {
+            journal.rebase(base);
+            asFile.delete();
+        }
+        // Сохранённое состояние недостижимо отменой.
+        undoCount = Integer.MIN_VALUE;
+        updateUndoRedo();
     }
 
     synchronized void setMFont(MFont newFont) {
         MFont font = doc.getFont();
         if (font != null) {
+            closeJournal();
             font.removePropertyChangeListener(atFontChange);
             uManager.discardAllEdits();
+            // Шрифт из кэша держит отображённым файл кэша.
+            if (font != newFont && font instanceof LazyMFont)
+                closeLazy((LazyMFont) font);
         }
 
         font = newFont;
@@ -298,6 +493,14 @@ public class Application {
         setSaved(true);
     }
 
+    private static void closeLazy(LazyMFont font) {
+        try {
+            font.close();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "close font", e);
+        }
+    }
+
     public boolean checkSaveFont() {
         int r;
         if (fontSaved) return true;
@@ -314,6 +517,9 @@ public class Application {
         if (r == JOptionPane.CANCEL_OPTION || r == JOptionPane.CLOSED_OPTION)
             return false;
         if (r == JOptionPane.YES_OPTION) return saveFontFile(false);
+        // Изменения отброшены пользователем.
+        if (journal != null) journal.reset();
+        if (autoSave != null) autoSave.discard();
         return true;
     }
 
@@ -353,6 +559,12 @@ public class Application {
         return ret;
     }
 
+    /**
+     * Сохраняет шрифт в фоновом потоке с показом хода сохранения.
+     * 
+     * @param saveAs Запросить имя нового файла.
+     * @return <b>true</b>, если шрифт сохранён.
+     */
     public boolean saveFontFile(boolean saveAs) {
         File file;
         MFont font = doc.getFont();
@@ -361,6 +573,7 @@ public class Application {
 
         if (fontFile == null) saveAs = true;
         else if (fontFile.exists() && !fontFile.canWrite()) saveAs = true;
+        else if (!canWriteFormat(fontFile)) saveAs = true;
 
         if (saveAs) {
             file = getSaveFile();
@@ -368,9 +581,27 @@ public class Application {
             fontFile = file;
         }
 
+        final MFont saving = font;
+        final File target = fontFile;
+        // Правка возможна только для файла, который не менялся извне.
+        final boolean patch = !saveAs && target.length() == fontLength
+                        && target.lastModified() == fontModified;
         try {
-            MFontLoadSave.save(font, new Formater(
-                            new FileOutputStream(fontFile)));
+            new FontTask<Void>() {
+                @Override
+                protected Void work() throws Exception {
+                    // Существующий файл сохраняется в том же формате.
+                    FontCodec codec = FontCodecs.forWrite(target);
+                    if (codec != FontCodecs.BINARY || !patch
+                                    || !MFontBinary.update(saving, target,
+                                                    this))
+                        codec.write(saving, target, this);
+                    return null;
+                }
+            }.run(work, "Сохранение " + target.getName());
+        } catch (InterruptedException e) {
+            // Сохранение отменено пользователем, файл не сохранён.
+            return false;
         } catch (FileNotFoundException e) {
             JOptionPane.showMessageDialog(null, "Файл не найден.", "Ошибка",
                             JOptionPane.OK_OPTION);
@@ -381,19 +612,76 @@ public class Application {
             return false;
         }
 
-        if (saveAs) uManager.discardAllEdits();
+        font.clearModified();
+        // Изменённые символы снова могут выгружаться.
+        if (font instanceof LazyMFont) rebind((LazyMFont) font, target);
+        stampFontFile();
+        if (saveAs) {
+            uManager.discardAllEdits();
+            // Старый журнал относится к прежнему файлу.
+            if (journal != null) journal.discard();
+            journal = null;
+            openJournal();
+            if (autoSave != null) autoSave.discard();
+            openAutoSave();
+        } else {
+            uManager.seal();
+            if (journal != null) journal.reset();
+        }
         undoCount = 0;
         updateUndoRedo();
         updateTitle();
         return true;
     }
 
+    /**
+     * Перепривязывает шрифт с загрузкой по требованию к сохранённому файлу.
+     * При ошибке шрифт остаётся привязан к прежнему источнику.
+     */
+    private static void rebind(LazyMFont font, File f) {
+        GlyphLoader gl = null;
+        try {
+            gl = MFontLoadSave.openGlyphs(f);
+            font.rebind(gl);
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "rebind font", e);
+        } catch (IllegalArgumentException e) {
+            AbstractMFont.logger().log(Level.WARNING, "rebind font", e);
+            try {
+                gl.close();
+            } catch (IOException e1) {
+                AbstractMFont.logger().log(Level.WARNING, "rebind font", e1);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, умеет ли формат файла записывать шрифты.
+     */
+    private static boolean canWriteFormat(File f) {
+        try {
+            return FontCodecs.forWrite(f) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Запоминает размер и время изменения файла шрифта.
+     */
+    void stampFontFile() {
+        fontLength = fontFile == null ? -1 : fontFile.length();
+        fontModified = fontFile == null ? -1 : fontFile.lastModified();
+    }
+
     void setSaved(boolean saved) {
         boolean old = fontSaved;
 
         if (old != saved) {
             fontSaved = saved;
             actions.get(Actions.ON_SAVE_FONT).setEnabled(!fontSaved);
+            // Файл шрифта совпадает со шрифтом, восстанавливать нечего.
+            if (saved && autoSave != null) autoSave.discard();
         }
     }
 
@@ -417,12 +705,21 @@ public class Application {
                         uManager.getRedoPresentationName());
 
         setSaved(undoCount == 0);
+        if (!fontSaved && autoSave != null) autoSave.changed();
     }
 
     public void undo() {
         if (uManager.canUndo()) {
             undoCount--;
-            uManager.undo();
+            try {
+                uManager.undo();
+            } catch (CannotUndoException e) {
+                AbstractMFont.logger().log(Level.WARNING, "undo", e);
+                // Шрифт не изменился, но более старые операции потеряны.
+                undoCount++;
+                if (undoCount > 0) undoCount = Integer.MIN_VALUE;
+            }
+            if (journal != null) journal.flush();
         }
         updateUndoRedo();
     }
@@ -430,7 +727,15 @@ public class Application {
     public void redo() {
         if (uManager.canRedo()) {
             undoCount++;
-            uManager.redo();
+            try {
+                uManager.redo();
+            } catch (CannotRedoException e) {
+                AbstractMFont.logger().log(Level.WARNING, "redo", e);
+                // Шрифт не изменился, но более новые операции потеряны.
+                undoCount--;
+                if (undoCount < 0) undoCount = Integer.MIN_VALUE;
+            }
+            if (journal != null) journal.flush();
         }
         updateUndoRedo();
     }
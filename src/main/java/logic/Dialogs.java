@@ -19,9 +19,13 @@ package logic;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import microfont.ls.FontCodec;
+import microfont.ls.FontCodecs;
 import utils.config.ConfigNode;
 import utils.resource.Resource;
 
@@ -51,9 +55,7 @@ public class Dialogs {
     synchronized JFileChooser getChooser() {
         if (chooser == null) {
             chooser = new JFileChooser();
-            FileNameExtensionFilter filter = new FileNameExtensionFilter(
-                            "MicroFont (*.mfnt)", "mfnt");
-            chooser.setFileFilter(filter);
+            chooser.setFileFilter(fontFilter());
             chooser.addPropertyChangeListener(
                             JFileChooser.DIRECTORY_CHANGED_PROPERTY,
                             new PropertyChangeListener() {
@@ -70,6 +72,25 @@ public class Dialogs {
         return chooser;
     }
 
+    /**
+     * Возвращает фильтр файлов всех известных форматов шрифтов.
+     */
+    private static FileNameExtensionFilter fontFilter() {
+        List<String> exts = new ArrayList<String>();
+        StringBuilder name = new StringBuilder("MicroFont (");
+        for (FontCodec c : FontCodecs.codecs()) {
+            for (String ext : c.getExtensions()) {
+                if (exts.contains(ext)) continue;
+                if (!exts.isEmpty()) name.append(", ");
+                name.append("*.").append(ext);
+                exts.add(ext);
+            }
+        }
+        name.append(')');
+        return new FileNameExtensionFilter(name.toString(), exts
+                        .toArray(new String[exts.size()]));
+    }
+
     public synchronized JFileChooser chooserOpen() {
         JFileChooser csr = getChooser();
         csr.setDialogTitle(resource.getText("dialogs.open.title"));
@@ -33,6 +33,7 @@ public class Directories {
     public static final String CONFIG_NODE     = "/directories";
     public static final String CONFIG_KEY_USER = "user";
     public static final String CONFIG_KEY_LAST = "last";
+    public static final String CONFIG_KEY_CACHE = "cache";
     private ConfigNode         config;
     private File               work;
     private File               fonts;
@@ -40,6 +41,7 @@ public class Directories {
     private File               user;
     private File               app;
     private File               last;
+    private File               cache;
 
     /**
      * После создания объекта следует создать {@link ConfigNode} и вызвать
@@ -97,6 +99,9 @@ public class Directories {
 
         val = config.get(CONFIG_KEY_USER, null);
         if (val != null) user = new File(val);
+
+        val = config.get(CONFIG_KEY_CACHE, null);
+        if (val != null) cache = new File(val);
     }
 
     /**
@@ -173,6 +178,17 @@ public class Directories {
         return fonts;
     }
 
+    /**
+     * Возвращает папку кэша разобранных шрифтов. По умолчанию это папка
+     * <code>cache</code> рядом с файлом настроек.
+     * 
+     * @see microfont.ls.FontCache
+     */
+    public File cache() {
+        if (cache == null) cache = new File(fonts.getParentFile(), "cache");
+        return cache;
+    }
+
     /**
      * Возвращает папку с шрифтами пользователя.
      * 
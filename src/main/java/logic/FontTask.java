@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package logic;
+
+import java.awt.BorderLayout;
+import java.awt.Dialog.ModalityType;
+import java.awt.EventQueue;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.WindowConstants;
+import microfont.ls.MFontLoadProgress;
+import microfont.ls.MFontSaveProgress;
+
+/**
+ * Загрузка или сохранение шрифта в фоновом потоке.
+ * <p>
+ * Пока задача выполняется, показывается модальное окно с индикатором хода
+ * задачи и кнопкой отмены. Модальное окно не даёт изменять шрифт во время
+ * сохранения, а поток обработки событий продолжает перерисовывать окна.
+ * Отмена кооперативная: задача узнаёт о ней через
+ * {@link MFontLoadProgress} или {@link MFontSaveProgress} и завершается
+ * исключением, а окно закрывается только после завершения задачи.
+ *
+ * @param <T> Тип результата задачи.
+ */
+abstract class FontTask<T> extends SwingWorker<T, Void> implements
+                MFontLoadProgress, MFontSaveProgress {
+    private volatile boolean cancelled;
+
+    /**
+     * Выполняет задачу в фоновом потоке.
+     *
+     * @return Результат задачи.
+     * @throws Exception При ошибке выполнения.
+     */
+    protected abstract T work() throws Exception;
+
+    @Override
+    protected final T doInBackground() throws Exception {
+        return work();
+    }
+
+    /**
+     * Отменяет задачу. Задача завершится при следующем сообщении о ходе
+     * выполнения.
+     */
+    public void cancelTask() {
+        cancelled = true;
+    }
+
+    /**
+     * Возвращает <b>true</b>, если задача была отменена.
+     */
+    public boolean isTaskCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean parseString(int percent) {
+        setProgress(Math.max(0, Math.min(100, percent)));
+        return !cancelled;
+    }
+
+    @Override
+    public boolean saveSymbol(int index, int count) {
+        setProgress(count <= 0 ? 100 : (int) ((long) index * 100 / count));
+        return !cancelled;
+    }
+
+    /**
+     * Запускает задачу и ждёт её завершения. В потоке обработки событий на
+     * время выполнения задачи показывается окно с индикатором хода.
+     *
+     * @param owner Владелец окна с индикатором, может быть <b>null</b>.
+     * @param title Заголовок окна.
+     * @return Результат задачи.
+     * @throws IOException При ошибке ввода-вывода.
+     * @throws InterruptedException Если задача была отменена.
+     */
+    public T run(Window owner, String title) throws IOException,
+                    InterruptedException {
+        if (EventQueue.isDispatchThread()) {
+            final JDialog dialog = createDialog(owner, title);
+            addPropertyChangeListener(new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent evt) {
+                    if ("state".equals(evt.getPropertyName())
+                                    && evt.getNewValue() == StateValue.DONE)
+                        dialog.dispose();
+                }
+            });
+            execute();
+            // Окно закрывается в этом же потоке, поэтому событие завершения
+            // задачи не может прийти раньше, чем окно будет показано.
+            dialog.setVisible(true);
+        } else {
+            execute();
+        }
+
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedIOException
+                            || cause instanceof InterruptedException)
+                throw new InterruptedException(cause.getMessage());
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private JDialog createDialog(Window owner, String title) {
+        final JDialog dialog = new JDialog(owner, title,
+                        ModalityType.APPLICATION_MODAL);
+        final JProgressBar bar = new JProgressBar(0, 100);
+        final JButton cancel = new JButton("Отменить");
+
+        bar.setStringPainted(true);
+        addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName()))
+                    bar.setValue((Integer) evt.getNewValue());
+            }
+        });
+
+        cancel.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelTask();
+                cancel.setEnabled(false);
+            }
+        });
+
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancelTask();
+                cancel.setEnabled(false);
+            }
+        });
+
+        JPanel panel = new JPanel(new BorderLayout(8, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        panel.add(new JLabel(title), BorderLayout.NORTH);
+        panel.add(bar, BorderLayout.CENTER);
+        panel.add(cancel, BorderLayout.EAST);
+        dialog.setContentPane(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+        return dialog;
+    }
+}
@@ -16,6 +16,7 @@
 
 package microfont;
 
+import java.awt.Dimension;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.nio.ByteBuffer;
@@ -25,8 +26,14 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import microfont.events.BatchChange;
+import microfont.events.EventCoalescer;
 import microfont.events.PixselMapEvent;
 import microfont.events.PixselMapListener;
 import utils.event.ListenerChain;
@@ -79,11 +86,52 @@ import utils.event.ListenerChain;
  * Высота шрифта влияет на высоту символов. При смене этого свойства меняется и
  * высота всех символов.
  * 
+ * <h3>Синхронизация.</h3>
+ * <p>
+ * Все изменения шрифта и его символов выполняются под монитором
+ * {@link #getLock()}. Структурные изменения (набор символов, их коды и
+ * размеры) дополнительно отмечаются счётчиком версий, что позволяет читать
+ * шрифт без захвата монитора:
+ * 
+ * <pre>
+ * int stamp = font.tryOptimisticRead();
+ * MSymbol sym = font.symbolByIndex(i);
+ * int w = font.getWidth();
+ * if (!font.validate(stamp)) {
+ *     // Шрифт изменился во время чтения, надо повторить под монитором.
+ * }
+ * </pre>
+ * <p>
+ * Основные методы чтения ({@link #symbolByIndex(int)},
+ * {@link #symbolByCode(int)}, {@link #getWidth()} и др.) уже используют
+ * оптимистичное чтение и захватывают монитор только при неудачной проверке.
+ * Массив символов никогда не изменяется на месте, а заменяется новым.
+ * <p>
+ * Модель памяти Java не упорядочивает обычные чтения относительно повторного
+ * чтения счётчика версий, поэтому всё, что читается оптимистично, хранится в
+ * полях {@code volatile}: либо само значение, либо ссылка на неизменяемый
+ * объект (статистика ширин, массив символов, коды и владельцы символов).
+ * Наследники, расширяющие оптимистичное чтение, обязаны соблюдать то же
+ * правило.
+ * 
+ * <h3>Пакетные изменения.</h3>
+ * <p>
+ * Изменения, сделанные между {@link #beginBatch()} и {@link #endBatch()} или
+ * внутри {@link #runBatch(Runnable)}, не выпускают сообщений сразу. По
+ * окончании пакета получатели шрифта получают по одному сообщению об изменении
+ * пикселей каждого символа (с объединённой областью изменений), по одному
+ * сообщению для каждого изменившегося свойства и отдельные сообщения
+ * {@link #PROPERTY_SYMBOLS} о каждом добавлении и удалении символа в исходном
+ * порядке, а затем сводное сообщение {@link #PROPERTY_BATCH}. Операции над
+ * всеми символами шрифта, например {@link MFont#removeLeft(int)}, выполняются
+ * пакетно.
+ * 
  * <h3>Запись в журнал.</h3>
  * <p>
  * Для записи в журнал используйте статический метод {@link #logger()}.
  */
-public class AbstractMFont implements PixselMapListener, PropertyChangeListener {
+public class AbstractMFont implements PixselMapListener, PropertyChangeListener,
+                Iterable<MSymbol> {
     public static final String LOGGER             = "methodius.microfont";
     public static final String PROPERTY_CODE_PAGE = "mf.CodePage";
     public static final String PROPERTY_CHARSET   = "mf.CharSet";
@@ -91,17 +139,46 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
     public static final String PROPERTY_HEIGHT    = "mf.height";
     public static final String PROPERTY_SYMBOLS   = "mf.symbols";
     public static final String PROPERTY_WIDTH     = "mf.width";
+    /**
+     * Сводка пакетного изменения, новое значение события - {@link BatchChange}.
+     * 
+     * @see #endBatch()
+     */
+    public static final String PROPERTY_BATCH     = "mf.batch";
 
     private static Logger      log                = Logger.getLogger(LOGGER);
-    private MSymbol[]          symbols;
-    private boolean            fixsed;
-    private String             codePage;
-    private Charset            charSet;
-    protected int              width;
+    private volatile MSymbol[] symbols;
+    /**
+     * Версия структуры шрифта. Нечётное значение означает, что идёт изменение.
+     * 
+     * @see #tryOptimisticRead()
+     */
+    private volatile int       version;
+    /** Глубина вложенности {@link #beginWrite()}. */
+    private int                writeDepth;
+    private volatile boolean   fixsed;
+    private volatile String    codePage;
+    private volatile Charset   charSet;
+    protected volatile int     width;
     protected int              validWidth;
-    protected int              height;
+    protected volatile int     height;
     protected int              validHeight;
     protected ListenerChain    listeners;
+    /** Таблица для поиска символов по уникоду. */
+    private UnicodeIndex       unicodeIndex;
+    /** Количество символов для каждой ширины; индекс массива - ширина. */
+    private int[]              widthCount;
+    /**
+     * Сумма, наименьшая и наибольшая ширины символов. Объект неизменяемый и
+     * заменяется целиком, поэтому читается без монитора.
+     */
+    private volatile Widths    widths;
+    /** Глубина вложенности {@link #beginBatch()}. */
+    private int                batchDepth;
+    /** Изменения, накопленные за пакетное изменение, или <b>null</b>. */
+    private EventCoalescer     batch;
+    /** Получатели изменений пикселей символов из диапазона кодов. */
+    private volatile RangeListener[] ranges;
 
     /**
      * Конструктор для пустого шрифта.
@@ -113,6 +190,12 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         charSet = null;
         symbols = new MSymbol[0];
         listeners = new ListenerChain();
+        ranges = new RangeListener[0];
+        unicodeIndex = new UnicodeIndex();
+        widthCount = new int[0];
+        widths = Widths.EMPTY;
+        version = 2;
+        writeDepth = 0;
     }
 
     /**
@@ -223,8 +306,14 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
     public void setFixsed(boolean f) {
         synchronized (getLock()) {
             boolean old = fixsed;
-            fixsed = f;
-            if (!old && fixsed) setWidth(getMaxWidth());
+            int max = getMaxWidth();
+            beginWrite();
+            try {
+                fixsed = f;
+                if (!old && fixsed) setWidth(max);
+            } finally {
+                endWrite();
+            }
             firePropertyChange(PROPERTY_FIXSED, old, fixsed);
         }
     }
@@ -293,10 +382,14 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         int oldCode = sym.getCode();
 
         if (oldCode == newCode) return;
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
 
         if (isUnicode()) {
             try {
-                sym.changeUnicode(toUnicode(newCode));
+                int newUnicode = toUnicode(newCode);
+
+                reindexUnicode(sym, newUnicode);
+                sym.changeUnicode(newUnicode);
             } catch (CharacterCodingException e) {
                 logger().log(Level.WARNING, "unmapped simbol''s code : {0}",
                                 sym.getCode());
@@ -309,7 +402,15 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         int oldPos = position(oldCode);
         int newPos = position(newCode);
 
-        replace(oldPos, newPos);
+        beginWrite();
+        try {
+            // Код меняется здесь же, чтобы читатели не увидели новый порядок
+            // символов со старым кодом.
+            sym.changeCode(newCode);
+            replace(oldPos, newPos);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -322,6 +423,7 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      */
     void preChangeUnicode(MSymbol sym, int newUnicode) {
         if (!isUnicode()) return;
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
 
         int oldCode = sym.getCode();
         int newCode;
@@ -331,6 +433,7 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         } catch (UnsupportedOperationException e) {
             logger().log(Level.WARNING,
                             "This charset does not support encoding");
+            reindexUnicode(sym, newUnicode);
             return;
         } catch (CharacterCodingException e) {
             logger().log(Level.WARNING, "unmapped simbol''s code : {0}",
@@ -340,12 +443,31 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
             return;
         }
 
+        reindexUnicode(sym, newUnicode);
+
         if (oldCode == newCode) return;
 
         int oldPos = position(oldCode);
         int newPos = position(newCode);
-        sym.changeCode(newCode);
-        replace(oldPos, newPos);
+
+        beginWrite();
+        try {
+            sym.changeCode(newCode);
+            replace(oldPos, newPos);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Обновляет таблицу поиска по уникоду перед изменением уникода символа.
+     * 
+     * @param sym Символ шрифта.
+     * @param newUnicode Новый уникод символа.
+     */
+    private void reindexUnicode(MSymbol sym, int newUnicode) {
+        if (sym.isUnicode()) unicodeIndex.remove(sym.getUnicode(), sym);
+        unicodeIndex.put(newUnicode, sym);
     }
 
     /**
@@ -373,25 +495,32 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         synchronized (getLock()) {
             String oldCP = codePage;
             Charset oldCS = charSet;
-            codePage = cp;
 
-            if (codePage == null) {
-                charSet = null;
-            } else {
-                // if (cp.equals(codePage)) return;
-                if (charSet == null || (!charSet.name().equals(codePage))
-                                || (!charSet.aliases().contains(codePage))) {
-                    try {
-                        charSet = Charset.forName(codePage);
-                    } catch (Exception e) {
-                        logger().log(Level.WARNING,
-                                        "apply charset in setCodePage", e);
-                        charSet = null;
+            beginWrite();
+            try {
+                codePage = cp;
+
+                if (codePage == null) {
+                    charSet = null;
+                } else {
+                    // if (cp.equals(codePage)) return;
+                    if (charSet == null
+                                    || (!charSet.name().equals(codePage))
+                                    || (!charSet.aliases().contains(codePage))) {
+                        try {
+                            charSet = Charset.forName(codePage);
+                        } catch (Exception e) {
+                            logger().log(Level.WARNING,
+                                            "apply charset in setCodePage", e);
+                            charSet = null;
+                        }
                     }
                 }
-            }
 
-            applyCharset(oldCS);
+                applyCharset(oldCS);
+            } finally {
+                endWrite();
+            }
             firePropertyChange(PROPERTY_CODE_PAGE, oldCP, codePage);
             firePropertyChange(PROPERTY_CHARSET, oldCS, charSet);
         }
@@ -404,6 +533,7 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      */
     void applyCharset(Charset old) {
         if (!isUnicode()) {
+            unicodeIndex.clear();
             // Сброс unicode для всех символов.
             for (MSymbol sym : symbols) {
                 try {
@@ -488,16 +618,22 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         synchronized (getLock()) {
             String oldCP = codePage;
             Charset oldCS = charSet;
-            charSet = cs;
 
-            if (charSet == null) {
-                codePage = null;
-            } else if (!charSet.name().equals(codePage)
-                            || !charSet.aliases().contains(codePage)) {
-                codePage = charSet.name();
-            }
+            beginWrite();
+            try {
+                charSet = cs;
 
-            applyCharset(oldCS);
+                if (charSet == null) {
+                    codePage = null;
+                } else if (!charSet.name().equals(codePage)
+                                || !charSet.aliases().contains(codePage)) {
+                    codePage = charSet.name();
+                }
+
+                applyCharset(oldCS);
+            } finally {
+                endWrite();
+            }
             firePropertyChange(PROPERTY_CHARSET, oldCS, charSet);
             firePropertyChange(PROPERTY_CODE_PAGE, oldCP, codePage);
         }
@@ -513,17 +649,25 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @see #getMaxWidth()
      */
     public int getWidth() {
-        synchronized (getLock()) {
-            if (isFixsed() || isEmpty()) return width;
+        int stamp = tryOptimisticRead();
+        int ret = width();
+        if (validate(stamp)) return ret;
 
-            long ret = 0;
-            for (MSymbol sym : symbols) {
-                ret += sym.getWidth();
-            }
-            return (int) (ret / symbols.length);
+        synchronized (getLock()) {
+            return width();
         }
     }
 
+    /**
+     * Реализация {@link #getWidth()} без синхронизации.
+     */
+    private int width() {
+        MSymbol[] s = symbols;
+        if (fixsed || s.length == 0) return width;
+
+        return (int) (widths.sum / s.length);
+    }
+
     /**
      * Устанавливает новую ширину символов шрифта. Для моноширинного шрифта
      * символы корректируются в соответствии с новой шириной.<br>
@@ -546,18 +690,14 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * Для не моноширинного шрифта возвращает ширину самого узкого символа.
      */
     public int getMinWidth() {
-        synchronized (getLock()) {
-            if (isEmpty() || isFixsed()) return getWidth();
-
-            int ret = Integer.MAX_VALUE;
-            int w;
+        int stamp = tryOptimisticRead();
+        int ret = symbols.length == 0 || fixsed ? width() : widths.min;
+        if (validate(stamp)) return ret;
 
-            for (MSymbol sym : symbols) {
-                w = sym.getWidth();
-                ret = ret < w ? ret : w;
-            }
+        synchronized (getLock()) {
+            if (isEmpty() || isFixsed()) return width();
 
-            return ret;
+            return widths.min;
         }
     }
 
@@ -567,18 +707,14 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * Для не моноширинного шрифта возвращает ширину самого широкого символа.
      */
     public int getMaxWidth() {
-        synchronized (getLock()) {
-            if (isEmpty() || isFixsed()) return getWidth();
-
-            int ret = 0;
-            int w;
+        int stamp = tryOptimisticRead();
+        int ret = symbols.length == 0 || fixsed ? width() : widths.max;
+        if (validate(stamp)) return ret;
 
-            for (MSymbol sym : symbols) {
-                w = sym.getWidth();
-                ret = ret < w ? w : ret;
-            }
+        synchronized (getLock()) {
+            if (isEmpty() || isFixsed()) return width();
 
-            return ret;
+            return widths.max;
         }
     }
 
@@ -631,6 +767,47 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         return symbols.length;
     }
 
+    /**
+     * Сбрасывает {@linkplain MSymbol#isModified() флаги изменений} всех
+     * символов шрифта, например после загрузки или сохранения шрифта.
+     */
+    public void clearModified() {
+        for (MSymbol sym : symbols) {
+            sym.clearModified();
+        }
+    }
+
+    /**
+     * Возвращает итератор по символам шрифта в порядке возрастания кода.
+     * Итератор перебирает символы, которые были в шрифте на момент его
+     * создания, и не подвержен изменениям шрифта во время перебора. Удаление
+     * символов через итератор не поддерживается.
+     */
+    @Override
+    public Iterator<MSymbol> iterator() {
+        final MSymbol[] s = symbols;
+
+        return new Iterator<MSymbol>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < s.length;
+            }
+
+            @Override
+            public MSymbol next() {
+                if (index >= s.length) throw new NoSuchElementException();
+                return s[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     /**
      * Возвращает индекс символа в массиве символов шрифта.
      * 
@@ -639,8 +816,13 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      *         Для {@code sym == null} так же вернёт {@code -1}.
      */
     public int indexAt(MSymbol sym) {
+        if (sym == null) return -1;
+
+        int stamp = tryOptimisticRead();
+        int ret = isBelong(sym) ? indexByCode(symbols, sym.getCode()) : -1;
+        if (validate(stamp)) return ret;
+
         synchronized (getLock()) {
-            if (sym == null) return -1;
             if (!isBelong(sym)) return -1;
             return indexByCode(sym.getCode());
         }
@@ -656,10 +838,9 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @see #symbolByUnicode(int)
      */
     public MSymbol symbolByIndex(int index) {
-        synchronized (getLock()) {
-            if (index >= length() || index < 0) return null;
-            return symbols[index];
-        }
+        MSymbol[] s = symbols;
+        if (index >= s.length || index < 0) return null;
+        return s[index];
     }
 
     /**
@@ -669,6 +850,11 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @return Символ или <code>null</code> если символа с таким кодом нет.
      */
     public MSymbol symbolByCode(int code) {
+        int stamp = tryOptimisticRead();
+        MSymbol[] s = symbols;
+        int index = indexByCode(s, code);
+        if (validate(stamp)) return index < 0 ? null : s[index];
+
         synchronized (getLock()) {
             return symbolByIndex(indexByCode(code));
         }
@@ -683,7 +869,7 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
     public MSymbol symbolByUnicode(int unicode) {
         synchronized (getLock()) {
             if (!isUnicode()) return null;
-            return symbolByIndex(indexByUnicode(unicode));
+            return unicodeIndex.get(unicode);
         }
     }
 
@@ -696,76 +882,177 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         synchronized (getLock()) {
             if (symbol == null) return;
             if (isBelong(symbol)) return;
-            if (symbol.owner != null) symbol = symbol.clone();
-            // Преобразования свойств код и уникод символа.
-            if (charSet == null) {
-                try {
-                    symbol.clearUnicode();
-                } catch (DisallowOperationException e) {
-                    logger().log(Level.SEVERE, "Clear unicode fail", e);
-                    // XXX Спорный момент - оставлять ли символ шрифте.
-                    return;
-                }
-            } else if (symbol.isUnicode()) {
-                try {
-                    symbol.setCode(toCode(symbol.getUnicode()));
-                } catch (UnsupportedOperationException e) {
-                    logger().log(Level.WARNING,
-                                    "This charset does not support encoding");
-                } catch (CharacterCodingException e) {
-                    logger().log(Level.WARNING,
-                                    "unmapped simbol''s unicode : {0}",
-                                    symbol.getCode());
-                    // XXX Спорный момент - оставлять ли символ шрифте.
-                    return;
+
+            MSymbol old = null;
+
+            beginWrite();
+            try {
+                if (symbol.owner != null) symbol = symbol.clone();
+                if (!prepareSymbol(symbol)) return;
+
+                int pos = position(symbol.getCode());
+
+                if (pos >= symbols.length) {
+                    insert(pos, symbol);
+                } else if (symbols[pos].getCode() != symbol.getCode()) {
+                    insert(pos, symbol);
+                } else {
+                    // Массив символов не изменяется на месте.
+                    MSymbol[] t = new MSymbol[symbols.length];
+                    System.arraycopy(symbols, 0, t, 0, t.length);
+                    old = t[pos];
+                    t[pos] = symbol;
+                    symbols = t;
                 }
-            } else {
-                try {
-                    symbol.setUnicode(toUnicode(symbol.getCode()));
-                } catch (CharacterCodingException e) {
-                    logger().log(Level.WARNING,
-                                    "unmapped simbol''s code : {0}",
-                                    symbol.getCode());
-                    // XXX Спорный момент - оставлять ли символ шрифте.
-                    return;
-                } catch (DisallowOperationException e) {
-                    logger().log(Level.SEVERE, "Set unicode fail", e);
-                    // XXX Спорный момент - оставлять ли символ шрифте.
-                    return;
+
+                if (old != null) {
+                    releaseSymbol(old);
                 }
+            } finally {
+                endWrite();
             }
 
-            captureSymbol(symbol);
+            firePropertyChange(PROPERTY_SYMBOLS, old, symbol);
+        }
+    }
 
+    /**
+     * Добавляет символы в шрифт. Результат такой же, как при добавлении
+     * символов по одному методом {@link #add(MSymbol)} в порядке следования в
+     * массиве, но массив символов шрифта перестраивается один раз. Метод
+     * предназначен для загрузки больших шрифтов.
+     * 
+     * @param syms Добавляемые символы. Элементы <b>null</b> пропускаются.
+     * @param count Количество символов в начале массива.
+     */
+    public void addAll(MSymbol[] syms, int count) {
+        synchronized (getLock()) {
+            MSymbol[] add = new MSymbol[count];
+            MSymbol[] old = new MSymbol[count];
+            int n = 0;
+
+            beginWrite();
             try {
-                if (fixsed) {
-                    symbol.setSize(width, height);
-                } else {
-                    symbol.setHeight(height);
+                for (int i = 0; i < count; i++) {
+                    MSymbol symbol = syms[i];
+                    if (symbol == null || isBelong(symbol)) continue;
+                    if (symbol.owner != null) symbol = symbol.clone();
+                    if (prepareSymbol(symbol)) add[n++] = symbol;
                 }
-            } catch (DisallowOperationException e) {
-                // Это исключение не должно возникнуть никогда.
-                logger().log(Level.SEVERE, "fail apply size", e);
-            }
 
-            int pos = position(symbol.getCode());
-            MSymbol old = null;
+                // Сортировка устойчивая, из символов с одинаковым кодом
+                // остаётся последний.
+                Arrays.sort(add, 0, n, BY_CODE);
+                int m = 0;
+                for (int i = 0; i < n; i++) {
+                    if (i + 1 < n && add[i + 1].getCode() == add[i].getCode()) {
+                        releaseSymbol(add[i]);
+                        continue;
+                    }
+                    add[m++] = add[i];
+                }
+                n = m;
+
+                MSymbol[] t = new MSymbol[symbols.length + n];
+                int i = 0, j = 0, k = 0;
+                while (i < symbols.length || j < n) {
+                    if (j == n || (i < symbols.length && symbols[i]
+                                    .getCode() < add[j].getCode())) {
+                        t[k++] = symbols[i++];
+                        continue;
+                    }
+                    if (i < symbols.length && symbols[i].getCode() == add[j]
+                                    .getCode()) {
+                        old[j] = symbols[i++];
+                        releaseSymbol(old[j]);
+                    }
+                    t[k++] = add[j++];
+                }
 
-            if (pos >= symbols.length) {
-                insert(pos, symbol);
-            } else if (symbols[pos].getCode() != symbol.getCode()) {
-                insert(pos, symbol);
-            } else {
-                old = symbols[pos];
-                symbols[pos] = symbol;
+                if (k < t.length) {
+                    MSymbol[] r = new MSymbol[k];
+                    System.arraycopy(t, 0, r, 0, k);
+                    t = r;
+                }
+                symbols = t;
+            } finally {
+                endWrite();
             }
 
-            if (old != null) {
-                releaseSymbol(old);
+            for (int i = 0; i < n; i++) {
+                firePropertyChange(PROPERTY_SYMBOLS, old[i], add[i]);
             }
+        }
+    }
 
-            firePropertyChange(PROPERTY_SYMBOLS, old, symbol);
+    /** Порядок символов по возрастанию кода. */
+    private static final Comparator<MSymbol> BY_CODE = new CodeOrder();
+
+    private static final class CodeOrder implements Comparator<MSymbol> {
+        @Override
+        public int compare(MSymbol a, MSymbol b) {
+            int x = a.getCode(), y = b.getCode();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    }
+
+    /**
+     * Подготавливает добавляемый символ: согласует код и уникод символа с
+     * кодировкой шрифта, захватывает символ и устанавливает его размеры.
+     * 
+     * @param symbol Добавляемый символ без владельца.
+     * @return <code>false</code> если символ не может быть добавлен.
+     */
+    private boolean prepareSymbol(MSymbol symbol) {
+        // Преобразования свойств код и уникод символа.
+        if (charSet == null) {
+            try {
+                symbol.clearUnicode();
+            } catch (DisallowOperationException e) {
+                logger().log(Level.SEVERE, "Clear unicode fail", e);
+                // XXX Спорный момент - оставлять ли символ шрифте.
+                return false;
+            }
+        } else if (symbol.isUnicode()) {
+            try {
+                symbol.setCode(toCode(symbol.getUnicode()));
+            } catch (UnsupportedOperationException e) {
+                logger().log(Level.WARNING,
+                                "This charset does not support encoding");
+            } catch (CharacterCodingException e) {
+                logger().log(Level.WARNING, "unmapped simbol''s unicode : {0}",
+                                symbol.getCode());
+                // XXX Спорный момент - оставлять ли символ шрифте.
+                return false;
+            }
+        } else {
+            try {
+                symbol.setUnicode(toUnicode(symbol.getCode()));
+            } catch (CharacterCodingException e) {
+                logger().log(Level.WARNING, "unmapped simbol''s code : {0}",
+                                symbol.getCode());
+                // XXX Спорный момент - оставлять ли символ шрифте.
+                return false;
+            } catch (DisallowOperationException e) {
+                logger().log(Level.SEVERE, "Set unicode fail", e);
+                // XXX Спорный момент - оставлять ли символ шрифте.
+                return false;
+            }
         }
+
+        captureSymbol(symbol);
+
+        try {
+            if (fixsed) {
+                symbol.setSize(width, height);
+            } else {
+                symbol.setHeight(height);
+            }
+        } catch (DisallowOperationException e) {
+            // Это исключение не должно возникнуть никогда.
+            logger().log(Level.SEVERE, "fail apply size", e);
+        }
+        return true;
     }
 
     /**
@@ -779,21 +1066,24 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
 
             if (!isBelong(symbol)) return;
 
-            i = 0;
-            for (MSymbol sym : symbols) {
-                if (sym == symbol) {
-                    sym.removePropertyChangeListener(this);
-                    sym.removePixselMapListener(this);
-                    sym.owner = null;
-                    break;
+            beginWrite();
+            try {
+                i = 0;
+                for (MSymbol sym : symbols) {
+                    if (sym == symbol) {
+                        releaseSymbol(sym);
+                        break;
+                    }
+                    i++;
                 }
-                i++;
-            }
 
-            MSymbol[] t = new MSymbol[symbols.length - 1];
-            System.arraycopy(symbols, 0, t, 0, i);
-            System.arraycopy(symbols, i + 1, t, i, symbols.length - i - 1);
-            symbols = t;
+                MSymbol[] t = new MSymbol[symbols.length - 1];
+                System.arraycopy(symbols, 0, t, 0, i);
+                System.arraycopy(symbols, i + 1, t, i, symbols.length - i - 1);
+                symbols = t;
+            } finally {
+                endWrite();
+            }
 
             firePropertyChange(PROPERTY_SYMBOLS, symbol, null);
         }
@@ -846,13 +1136,31 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
     /**
      * Получение уведомляющего события от одного из символов. Это событие
      * {@linkplain #firePropertyChange(PropertyChangeEvent) транслируется}
-     * получателям шрифта.
+     * получателям шрифта.<br>
+     * Изменение размеров символа {@link PixselMap#PROPERTY_SIZE} учитывается
+     * в статистике ширин символов шрифта.
      * 
      * @see #addPropertyChangeListener(PropertyChangeListener)
      * @see #pixselChanged(PixselMapEvent)
      */
     @Override
     public void propertyChange(PropertyChangeEvent event) {
+        if (PixselMap.PROPERTY_SIZE.equals(event.getPropertyName())
+                        && isBelong((MSymbol) event.getSource())) {
+            Dimension oldSize = (Dimension) event.getOldValue();
+            Dimension newSize = (Dimension) event.getNewValue();
+
+            if (oldSize.width != newSize.width) {
+                beginWrite();
+                try {
+                    uncountWidth(oldSize.width);
+                    countWidth(newSize.width);
+                } finally {
+                    endWrite();
+                }
+            }
+        }
+
         firePropertyChange(event);
     }
 
@@ -879,6 +1187,31 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         listeners.remove(PropertyChangeListener.class, listener);
     }
 
+    /**
+     * Добавление получателя события при изменении одного свойства шрифта или
+     * символов шрифта. Получатель не вызывается при изменении других свойств.
+     * 
+     * @param property Название свойства, например {@link #PROPERTY_HEIGHT}.
+     * @param listener Добавляемый получатель события.
+     * @see #removePropertyChangeListener(String, PropertyChangeListener)
+     */
+    public void addPropertyChangeListener(String property,
+                    PropertyChangeListener listener) {
+        listeners.add(PropertyChangeListener.class, property, listener);
+    }
+
+    /**
+     * Удаление получателя события при изменении одного свойства.
+     * 
+     * @param property Название свойства.
+     * @param listener Удаляемый получатель события.
+     * @see #addPropertyChangeListener(String, PropertyChangeListener)
+     */
+    public void removePropertyChangeListener(String property,
+                    PropertyChangeListener listener) {
+        listeners.remove(PropertyChangeListener.class, property, listener);
+    }
+
     /**
      * Добавление получателя события при измении пикселей одного из символов
      * шрифта.
@@ -901,6 +1234,69 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         listeners.remove(PixselMapListener.class, listener);
     }
 
+    /**
+     * Добавление получателя события при измении пикселей символов шрифта с
+     * кодами от <code>first</code> до <code>last</code> включительно.
+     * 
+     * @param first Наименьший код символа.
+     * @param last Наибольший код символа.
+     * @param listener Добавляемый получатель события.
+     * @see #removePixselMapListener(int, int, PixselMapListener)
+     */
+    public void addPixselMapListener(int first, int last,
+                    PixselMapListener listener) {
+        if (listener == null) return;
+
+        synchronized (listeners) {
+            RangeListener[] r = ranges;
+            RangeListener[] t = new RangeListener[r.length + 1];
+            System.arraycopy(r, 0, t, 0, r.length);
+            t[r.length] = new RangeListener(first, last, listener);
+            ranges = t;
+        }
+    }
+
+    /**
+     * Удаление получателя события, добавленного
+     * {@link #addPixselMapListener(int, int, PixselMapListener)}. Удаление
+     * происходит при совпадении диапазона и получателя.
+     * 
+     * @param first Наименьший код символа.
+     * @param last Наибольший код символа.
+     * @param listener Удаляемый получатель события.
+     */
+    public void removePixselMapListener(int first, int last,
+                    PixselMapListener listener) {
+        synchronized (listeners) {
+            RangeListener[] r = ranges;
+
+            for (int i = 0; i < r.length; i++) {
+                if (r[i].first != first || r[i].last != last
+                                || r[i].listener != listener) continue;
+
+                RangeListener[] t = new RangeListener[r.length - 1];
+                System.arraycopy(r, 0, t, 0, i);
+                System.arraycopy(r, i + 1, t, i, r.length - i - 1);
+                ranges = t;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Получатель сообщений об изменении пикселей символов из диапазона кодов.
+     */
+    private static final class RangeListener {
+        final int               first, last;
+        final PixselMapListener listener;
+
+        RangeListener(int first, int last, PixselMapListener listener) {
+            this.first = first;
+            this.last = last;
+            this.listener = listener;
+        }
+    }
+
     /**
      * Возвращает объект для синхронизации.
      */
@@ -908,6 +1304,166 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         return this;
     }
 
+    /**
+     * Возвращает <code>true</code> если шрифт нельзя изменять. Методы,
+     * изменяющие такой шрифт или его символы, выбрасывают
+     * {@link UnsupportedOperationException}.
+     * 
+     * @see MFont#snapshot()
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Делает шрифт копией <code>font</code>, разделяя с ним массивы пикселей
+     * символов. Символы копируются без получателей сообщений, шрифт не
+     * становится получателем сообщений своих символов. Используется для
+     * создания {@linkplain MFont#snapshot() снимков} шрифта.
+     * 
+     * @param font Копируемый шрифт.
+     */
+    void share(AbstractMFont font) {
+        synchronized (font.getLock()) {
+            MSymbol[] s = new MSymbol[font.symbols.length];
+
+            unicodeIndex.clear();
+            for (int i = 0; i < s.length; i++) {
+                s[i] = new MSymbol(font.symbols[i]);
+                s[i].owner = this;
+                if (s[i].isUnicode())
+                    unicodeIndex.put(s[i].getUnicode(), s[i]);
+            }
+
+            symbols = s;
+            fixsed = font.fixsed;
+            codePage = font.codePage;
+            charSet = font.charSet;
+            width = font.width;
+            validWidth = font.validWidth;
+            height = font.height;
+            validHeight = font.validHeight;
+            widthCount = font.widthCount.clone();
+            widths = font.widths;
+        }
+    }
+
+    /**
+     * Возвращает отметку для оптимистичного чтения шрифта. После чтения нужно
+     * {@linkplain #validate(int) проверить} отметку; если проверка не прошла,
+     * то прочитанные данные могут быть несогласованными и чтение следует
+     * повторить под монитором {@link #getLock()}.
+     * 
+     * @return Отметка или ноль, если в данный момент шрифт изменяется.
+     * @see #validate(int)
+     */
+    public int tryOptimisticRead() {
+        int v = version;
+        return (v & 1) == 0 ? v : 0;
+    }
+
+    /**
+     * Проверяет, что с момента получения отметки структура шрифта не
+     * изменялась.
+     * 
+     * @param stamp Отметка, полученная из {@link #tryOptimisticRead()}.
+     * @return {@code true} если данные, прочитанные после получения отметки,
+     *         согласованы. Гарантия относится только к полям {@code volatile}
+     *         и к неизменяемым объектам, опубликованным через них.
+     */
+    public boolean validate(int stamp) {
+        return stamp != 0 && stamp == version;
+    }
+
+    /**
+     * Отмечает начало структурного изменения шрифта. Вызывается только под
+     * монитором {@link #getLock()}, вызовы могут быть вложенными. Каждому
+     * вызову должен соответствовать вызов {@link #endWrite()}.
+     * 
+     * @throws UnsupportedOperationException Если шрифт
+     *             {@linkplain #isReadOnly() только для чтения}.
+     */
+    protected void beginWrite() {
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
+        if (writeDepth++ == 0) version++;
+    }
+
+    /**
+     * Отмечает окончание структурного изменения шрифта.
+     * 
+     * @see #beginWrite()
+     */
+    protected void endWrite() {
+        if (--writeDepth == 0) version++;
+    }
+
+    /**
+     * Начинает пакетное изменение шрифта. Сообщения об изменениях шрифта и его
+     * символов накапливаются до соответствующего вызова {@link #endBatch()}.
+     * Вызовы могут быть вложенными.
+     * 
+     * @see #runBatch(Runnable)
+     */
+    public void beginBatch() {
+        synchronized (getLock()) {
+            if (batchDepth++ == 0) batch = new EventCoalescer();
+        }
+    }
+
+    /**
+     * Заканчивает пакетное изменение шрифта. При выходе из самого внешнего
+     * пакета выпускаются накопленные сообщения и сводное сообщение
+     * {@link #PROPERTY_BATCH}. Если изменений не было, то сообщения не
+     * выпускаются.
+     * 
+     * @throws IllegalStateException Если пакетное изменение не было начато.
+     */
+    public void endBatch() {
+        synchronized (getLock()) {
+            if (batchDepth == 0) throw new IllegalStateException("no batch");
+            if (--batchDepth != 0) return;
+
+            EventCoalescer b = batch;
+            batch = null;
+
+            for (PropertyChangeEvent event : b.getPropertyEvents()) {
+                dispatchPropertyChange(event);
+            }
+            for (PixselMapEvent event : b.getPixselEvents()) {
+                dispatchPixselEvent(event);
+            }
+
+            BatchChange change = b.getChange();
+            if (change != null)
+                dispatchPropertyChange(new PropertyChangeEvent(this,
+                                PROPERTY_BATCH, null, change));
+        }
+    }
+
+    /**
+     * Выполняет <code>task</code> как одно пакетное изменение шрифта.
+     * 
+     * @param task Выполняемые изменения.
+     * @see #beginBatch()
+     */
+    public void runBatch(Runnable task) {
+        beginBatch();
+        try {
+            task.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Возвращает <code>true</code>, если идёт пакетное изменение шрифта.
+     */
+    public boolean isBatch() {
+        synchronized (getLock()) {
+            return batchDepth != 0;
+        }
+    }
+
     /**
      * Возвращает позицию вставки для символа с указанным кодом.
      * 
@@ -934,20 +1490,29 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      *         нет.
      */
     protected int indexByCode(int code) {
-        if (isEmpty()) return -1;
-        // Подготовка к поиску методом последовательного приближения.
-        int len = length();
-        int step = len / 2;
-        int index = step;
-        // Реализация последовательного приближения.
-        while (index >= 0 && index < len) {
+        return indexByCode(symbols, code);
+    }
+
+    /**
+     * Возвращает индекс символа с указанным кодом в массиве {@code symbols}.
+     * 
+     * @param symbols Массив символов, отсортированный по коду.
+     * @param code Код символа.
+     * @return Индекс символа или {@code -1} если символа с таким кодом в
+     *         массиве нет.
+     */
+    static int indexByCode(MSymbol[] symbols, int code) {
+        // Поиск делением пополам.
+        int low = 0;
+        int high = symbols.length - 1;
+
+        while (low <= high) {
+            int index = (low + high) >>> 1;
             int scd = symbols[index].getCode();
-            if (scd == code) return index;
-            step /= 2;
-            if (step == 0) step = 1;
 
-            if (scd < code) index += step;
-            else index -= step;
+            if (scd < code) low = index + 1;
+            else if (scd > code) high = index - 1;
+            else return index;
         }
         return -1;
     }
@@ -961,24 +1526,11 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      */
     protected int indexByUnicode(int unicode) {
         if (!isUnicode()) return -1;
-        if (isEmpty()) return -1;
 
-        int code;
-        try {
-            code = toCode(unicode);
-        } catch (UnsupportedOperationException e) {
-            // Если получение уникода невозможно, то приходится искать
-            // перебором.
-            for (int i = 0; i < length(); i++) {
-                if (symbols[i].getUnicode() == unicode) return i;
-            }
-            return -1;
-        } catch (CharacterCodingException e) {
-            // Символа с таким уникодом в шрифте не может быть.
-            return -1;
-        }
+        MSymbol sym = unicodeIndex.get(unicode);
+        if (sym == null) return -1;
 
-        return indexByCode(code);
+        return indexByCode(sym.getCode());
     }
 
     /**
@@ -991,6 +1543,8 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         sym.addPropertyChangeListener(this);
         sym.addPixselMapListener(this);
         sym.owner = this;
+        if (sym.isUnicode()) unicodeIndex.put(sym.getUnicode(), sym);
+        countWidth(sym.getWidth());
     }
 
     /**
@@ -1003,6 +1557,113 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
         sym.removePropertyChangeListener(this);
         sym.removePixselMapListener(this);
         sym.owner = null;
+        if (sym.isUnicode()) unicodeIndex.remove(sym.getUnicode(), sym);
+        uncountWidth(sym.getWidth());
+    }
+
+    /**
+     * Вызывается символом шрифта при обращении к его
+     * {@linkplain AbstractPixselMap#release() освобождённым} пикселям. Базовый
+     * шрифт не освобождает пиксели символов, поэтому восстанавливает пустой
+     * массив.
+     * 
+     * @param sym Символ шрифта.
+     * @see LazyMFont
+     */
+    void materialize(MSymbol sym) {
+        sym.restore(null);
+    }
+
+    /**
+     * Возвращает источник пикселей для копии
+     * {@linkplain AbstractPixselMap#release() освобождённого} символа шрифта,
+     * чтобы копия могла загрузить пиксели сама, не загружая их в символ
+     * шрифта. Вызывается под монитором шрифта. Базовый шрифт пиксели не
+     * освобождает и возвращает <b>null</b>.
+     * 
+     * @param sym Символ шрифта.
+     * @return Источник пикселей или <b>null</b>, если пиксели символа нужно
+     *         загрузить и использовать совместно.
+     * @see MSymbol#MSymbol(MSymbol)
+     */
+    LazyMFont.Glyph glyphOf(MSymbol sym) {
+        return null;
+    }
+
+    /**
+     * Добавляет ширину символа в статистику ширин шрифта.
+     * 
+     * @param w Ширина символа.
+     * @see #uncountWidth(int)
+     */
+    private void countWidth(int w) {
+        if (w >= widthCount.length) {
+            int[] t = new int[w + 8];
+            System.arraycopy(widthCount, 0, t, 0, widthCount.length);
+            widthCount = t;
+        }
+
+        Widths old = widths;
+        if (isEmptyWidthCount(old)) {
+            widths = new Widths(w, w, w);
+        } else {
+            widths = new Widths(old.sum + w, old.min < w ? old.min : w,
+                            old.max > w ? old.max : w);
+        }
+        widthCount[w]++;
+    }
+
+    /**
+     * Удаляет ширину символа из статистики ширин шрифта. Если символов с
+     * шириной, равной минимальной или максимальной, больше не осталось, то
+     * новая граница ищется по гистограмме ширин.
+     * 
+     * @param w Ширина символа.
+     * @see #countWidth(int)
+     */
+    private void uncountWidth(int w) {
+        if (w >= widthCount.length || widthCount[w] <= 0) return;
+
+        widthCount[w]--;
+        Widths old = widths;
+        int min = old.min, max = old.max;
+
+        if (widthCount[w] == 0) {
+            if (w == min) {
+                while (min < max && widthCount[min] == 0) {
+                    min++;
+                }
+            }
+            if (w == max) {
+                while (max > min && widthCount[max] == 0) {
+                    max--;
+                }
+            }
+        }
+        widths = new Widths(old.sum - w, min, max);
+    }
+
+    /**
+     * Возвращает {@code true} если в статистике ширин нет ни одного символа.
+     */
+    private boolean isEmptyWidthCount(Widths w) {
+        return widthCount[w.min] == 0 && widthCount[w.max] == 0;
+    }
+
+    /**
+     * Неизменяемая статистика ширин символов.
+     */
+    private static final class Widths {
+        static final Widths EMPTY = new Widths(0, 0, 0);
+        final long          sum;
+        final int           min;
+        final int           max;
+
+        Widths(long sum, int min, int max) {
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
     }
 
     /**
@@ -1056,15 +1717,19 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
             releaseSymbol(deleted);
             firePropertyChange(PROPERTY_SYMBOLS, deleted, null);
         } else {
+            // Массив символов не изменяется на месте.
+            MSymbol[] t = new MSymbol[symbols.length];
+            System.arraycopy(symbols, 0, t, 0, t.length);
+
             if (oldPos < newPos) {
-                System.arraycopy(symbols, oldPos + 1, symbols, oldPos, newPos
-                                - oldPos - 1);
-                symbols[newPos - 1] = replaced;
+                System.arraycopy(t, oldPos + 1, t, oldPos, newPos - oldPos - 1);
+                t[newPos - 1] = replaced;
             } else {
-                System.arraycopy(symbols, newPos, symbols, newPos + 1, oldPos
-                                - newPos);
-                symbols[newPos] = replaced;
+                System.arraycopy(t, newPos, t, newPos + 1, oldPos - newPos);
+                t[newPos] = replaced;
             }
+
+            symbols = t;
         }
     }
 
@@ -1114,8 +1779,11 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @param w Будущая ширина шрифта. Должна быть не отрицательным числом.
      * @see #applyWidth()
      * @throws IllegalArgumentException Если <code>w</code> меньше нуля.
+     * @throws UnsupportedOperationException Если шрифт
+     *             {@linkplain #isReadOnly() только для чтения}.
      */
     protected void prepareWidth(int w) {
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
         if (w < 0) throw new IllegalArgumentException("invalid width " + w);
         validWidth = w;
     }
@@ -1129,21 +1797,33 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      */
     protected void applyWidth() {
         int oldWidth = width;
-        width = validWidth;
 
-        if (isFixsed()) {
-            for (MSymbol sym : symbols) {
-                if (sym.getWidth() == width) continue;
-                try {
-                    sym.setWidth(width);
-                } catch (DisallowOperationException e) {
-                    logger().log(Level.SEVERE,
-                                    "MSymbol.setWidth in applyWidth : ", e);
+        beginBatch();
+        try {
+            beginWrite();
+            try {
+                width = validWidth;
+
+                if (isFixsed()) {
+                    for (MSymbol sym : symbols) {
+                        if (sym.getWidth() == width) continue;
+                        try {
+                            sym.setWidth(width);
+                        } catch (DisallowOperationException e) {
+                            logger().log(Level.SEVERE,
+                                            "MSymbol.setWidth in applyWidth : ",
+                                            e);
+                        }
+                    }
                 }
+            } finally {
+                endWrite();
             }
-        }
 
-        firePropertyChange(PROPERTY_WIDTH, oldWidth, width);
+            firePropertyChange(PROPERTY_WIDTH, oldWidth, width);
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -1155,8 +1835,11 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @param h Будущая высота шрифта. Должна быть не отрицательным числом.
      * @see #applyHeight()
      * @throws IllegalArgumentException Если <code>h</code> меньше нуля.
+     * @throws UnsupportedOperationException Если шрифт
+     *             {@linkplain #isReadOnly() только для чтения}.
      */
     protected void prepareHeight(int h) {
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
         if (h < 0) throw new IllegalArgumentException("invalid height " + h);
         validHeight = h;
     }
@@ -1170,21 +1853,33 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      */
     protected void applyHeight() {
         int old = height;
-        height = validHeight;
 
-        if (old != height) {
-            for (MSymbol sym : symbols) {
-                if (sym.getHeight() == height) continue;
-                try {
-                    sym.setHeight(height);
-                } catch (DisallowOperationException e) {
-                    logger().log(Level.SEVERE,
-                                    "MSymbol.setHeight in applyHeight : ", e);
+        beginBatch();
+        try {
+            beginWrite();
+            try {
+                height = validHeight;
+
+                if (old != height) {
+                    for (MSymbol sym : symbols) {
+                        if (sym.getHeight() == height) continue;
+                        try {
+                            sym.setHeight(height);
+                        } catch (DisallowOperationException e) {
+                            logger().log(Level.SEVERE,
+                                            "MSymbol.setHeight in applyHeight : ",
+                                            e);
+                        }
+                    }
                 }
+            } finally {
+                endWrite();
             }
-        }
 
-        firePropertyChange(PROPERTY_HEIGHT, old, height);
+            firePropertyChange(PROPERTY_HEIGHT, old, height);
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -1202,13 +1897,31 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @see #firePropertyChange(String, MSymbol, MSymbol)
      */
     protected void firePropertyChange(PropertyChangeEvent event) {
-        Object[] listenerArray;
+        synchronized (getLock()) {
+            if (batch != null) {
+                batch.add(event);
+                return;
+            }
+        }
+
+        dispatchPropertyChange(event);
+    }
+
+    /**
+     * Передаёт событие получателям без учёта пакетного изменения.
+     */
+    private void dispatchPropertyChange(PropertyChangeEvent event) {
+        for (PropertyChangeListener listener : listeners
+                        .getListeners(PropertyChangeListener.class)) {
+            listener.propertyChange(event);
+        }
+
+        String name = event.getPropertyName();
+        if (name == null) return;
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PropertyChangeListener.class)
-                ((PropertyChangeListener) listenerArray[i + 1])
-                                .propertyChange(event);
+        for (PropertyChangeListener listener : listeners.getListeners(
+                        PropertyChangeListener.class, name)) {
+            listener.propertyChange(event);
         }
     }
 
@@ -1314,12 +2027,32 @@ public class AbstractMFont implements PixselMapListener, PropertyChangeListener
      * @see #pixselChanged(PixselMapEvent)
      */
     protected void firePixselEvent(PixselMapEvent event) {
-        Object[] listenerArray;
+        synchronized (getLock()) {
+            if (batch != null) {
+                batch.add(event);
+                return;
+            }
+        }
+
+        dispatchPixselEvent(event);
+    }
+
+    /**
+     * Передаёт событие получателям без учёта пакетного изменения.
+     */
+    private void dispatchPixselEvent(PixselMapEvent event) {
+        for (PixselMapListener listener : listeners
+                        .getListeners(PixselMapListener.class)) {
+            listener.pixselChanged(event);
+        }
+
+        RangeListener[] r = ranges;
+        if (r.length == 0 || !(event.getSource() instanceof MSymbol)) return;
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PixselMapListener.class)
-                ((PixselMapListener) listenerArray[i + 1]).pixselChanged(event);
+        int code = ((MSymbol) event.getSource()).getCode();
+        for (RangeListener rl : r) {
+            if (code >= rl.first && code <= rl.last)
+                rl.listener.pixselChanged(event);
         }
     }
 }
@@ -19,6 +19,7 @@ package microfont;
 import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import static microfont.AbstractPixselMap.PixselIterator.*;
 
@@ -64,7 +65,10 @@ import static microfont.AbstractPixselMap.PixselIterator.*;
  * {@link #hasChange()}, а так же переменные {@link #left}, {@link #right},
  * {@link #top} и {@link #bottom} предназначены для фиксации границ изменений в
  * карте. Этот механизм в первую очередь предназначен для облегчения генерации
- * сообщений о сделанных изменениях.
+ * сообщений о сделанных изменениях. Кроме общих границ запоминается
+ * {@linkplain #getChangeRegion() область изменений} из нескольких
+ * прямоугольников, что позволяет не перерисовывать всю карту при изменении
+ * удалённых друг от друга пикселей.
  * <p>
  * Суть работы этого механизма проста. Защищённые методы, изменяющие состояние
  * карты, вызывают <code>fixChange</code> только в том случае, если карта
@@ -85,7 +89,7 @@ public class AbstractPixselMap {
     static final byte ITEM_MASK  = 0x07;
 
     /** Массив пикселей */
-    private byte      pixsels[];
+    private volatile byte pixsels[];
     /** Ширина карты в пикселях. */
     private int       width;
     /** Высота карты в пикселях. */
@@ -95,6 +99,29 @@ public class AbstractPixselMap {
     protected int     left, right, top, bottom;
     /** Переменная показывает, были изменения или нет. */
     private boolean   change;
+    /** Область изменений, создаётся при первом изменении. */
+    private DirtyRegion region;
+    /**
+     * Количество карт, использующих общий массив пикселей, или <b>null</b>
+     * если массив принадлежит только этой карте. Пока счётчик больше единицы,
+     * массив перед изменением должен быть скопирован.
+     * 
+     * @see #share(AbstractPixselMap)
+     * @see #dispose()
+     */
+    private AtomicInteger sharers;
+    /**
+     * Массив пикселей находится в памяти. Если <code>false</code>, то массив
+     * должен быть {@linkplain #materialize() загружен} перед обращением.
+     * 
+     * @see #release()
+     */
+    private volatile boolean resident = true;
+    /**
+     * Пиксели или размеры изменялись после последнего вызова
+     * {@link #clearModified()}. Новая карта считается изменённой.
+     */
+    private volatile boolean modified = true;
 
     /**
      * Итератор для последовательного доступа к пикселям прямоугольной области
@@ -377,7 +404,7 @@ public class AbstractPixselMap {
      */
     public AbstractPixselMap(int width, int height, byte[] src) {
         init(width, height);
-        if (src != null) setBytes(src);
+        if (src != null) unpack(src);
     }
 
     /**
@@ -422,6 +449,7 @@ public class AbstractPixselMap {
      * @see #doPixselArray(int, int)
      */
     private void init(int width, int height) {
+        unshare();
         pixsels = doPixselArray(width, height);
         this.width = width;
         this.height = height;
@@ -548,6 +576,7 @@ public class AbstractPixselMap {
      */
     protected void cleanChange() {
         change = false;
+        if (region != null) region.clear();
     }
 
     /**
@@ -569,11 +598,32 @@ public class AbstractPixselMap {
         }
 
         change = true;
+        modified = true;
 
         left = left < x ? left : x;
         right = right > x ? right : x;
         top = top < y ? top : y;
         bottom = bottom > y ? bottom : y;
+
+        if (region == null) region = new DirtyRegion();
+        region.add(x, y);
+    }
+
+    /**
+     * Добавляет к области изменений прямоугольник.
+     * 
+     * @param x Горизонтальная позиция прямоугольника.
+     * @param y Вертикальная позиция прямоугольника.
+     * @param w Ширина прямоугольника.
+     * @param h Высота прямоугольника.
+     * @see #fixChange(int, int)
+     */
+    protected void fixChange(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) return;
+
+        fixChange(x, y);
+        fixChange(x + w - 1, y + h - 1);
+        region.add(x, y, w, h);
     }
 
     /**
@@ -585,13 +635,23 @@ public class AbstractPixselMap {
         return new Rectangle(left, top, right - left + 1, bottom - top + 1);
     }
 
+    /**
+     * Возвращает прямоугольники, покрывающие изменённые пиксели, или
+     * <code>null</code> если изменений не было. Прямоугольники лежат внутри
+     * {@linkplain #getChange() границ изменений}.
+     */
+    protected Rectangle[] getChangeRegion() {
+        if (!hasChange()) return null;
+        return region.getRectangles();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + width;
         result = prime * result + height;
-        result = prime * result + Arrays.hashCode(pixsels);
+        result = prime * result + Arrays.hashCode(pixsels());
         return result;
     }
 
@@ -609,7 +669,7 @@ public class AbstractPixselMap {
         if (!(obj instanceof AbstractPixselMap)) return false;
         AbstractPixselMap other = (AbstractPixselMap) obj;
         if (height != other.height) return false;
-        if (!Arrays.equals(pixsels, other.pixsels)) return false;
+        if (!Arrays.equals(pixsels(), other.pixsels())) return false;
         if (width != other.width) return false;
         return true;
     }
@@ -670,16 +730,21 @@ public class AbstractPixselMap {
         if (nw == width && nh == height) return;
 
         /* Если один из размеров равен нулю, обнуляем символ. */
-        if (nw == 0 || nh == 0) pixsels = null;
-        else {
+        if (nw == 0 || nh == 0) {
+            unshare();
+            pixsels = null;
+            resident = true;
+        } else {
             /*
              * Если старый массив не пуст, копировать его (насколько возможно) в
              * новый.
              */
-            if (pixsels == null) pixsels = doPixselArray(nw, nh);
+            byte[] temp = pixsels();
+
+            if (temp == null) pixsels = doPixselArray(nw, nh);
             else {
-                byte[] temp = pixsels;
                 int oldW = width;
+                unshare();
                 pixsels = doPixselArray(nw, nh);
 
                 int cw = nw > width ? width : nw;
@@ -733,7 +798,7 @@ public class AbstractPixselMap {
      *         <code>x</code> и <code>y</code> выходят за границы символа.
      */
     public boolean getPixsel(int x, int y) {
-        return get(pixsels, width, x, y);
+        return get(pixsels(), width, x, y);
     }
 
     /**
@@ -751,15 +816,20 @@ public class AbstractPixselMap {
         if (x < 0 || x >= width) return;
         if (y < 0 || y >= height) return;
 
+        byte[] p = pixsels();
         index = index(width, x, y);
         mask = (byte) (1 << (x & ITEM_MASK));
 
         // Изменения происходят если состояние пикселя не совпадает с требуемым.
-        if (((pixsels[index] & mask) != 0) != set) {
+        if (((p[index] & mask) != 0) != set) {
+            if (sharers != null) {
+                detach();
+                p = pixsels;
+            }
             if (set) {
-                pixsels[index] |= mask;
+                p[index] |= mask;
             } else {
-                pixsels[index] &= (byte) ~mask;
+                p[index] &= (byte) ~mask;
             }
             fixChange(x, y);
         }
@@ -796,13 +866,14 @@ public class AbstractPixselMap {
                         }
                     }
                 } else {
+                    unshare();
                     pixsels = doPixselArray(src.width, src.height);
+                    resident = true;
 
                     if (pixsels != null) {
-                        System.arraycopy(src.pixsels, 0, pixsels, 0,
+                        System.arraycopy(src.pixsels(), 0, pixsels, 0,
                                         pixsels.length);
-                        fixChange(0, 0);
-                        fixChange(width - 1, height - 1);
+                        fixChange(0, 0, src.width, src.height);
                     }
                     width = src.width;
                     height = src.height;
@@ -811,6 +882,219 @@ public class AbstractPixselMap {
         } // end synchronized (src.writeLock())
     }
 
+    /**
+     * Делает карту копией <code>src</code> без копирования массива пикселей.
+     * Обе карты используют общий массив до первого изменения одной из них,
+     * после чего изменяемая карта получает собственную копию массива.
+     * Сообщения об изменениях не выпускаются.
+     * 
+     * @param src Источник копирования.
+     * @throws NullPointerException если <code>src</code> равен
+     *             <code>null</code>
+     * @see #isReadOnly()
+     */
+    protected final void share(AbstractPixselMap src) {
+        synchronized (src.writeLock()) {
+            byte[] p = src.pixsels();
+
+            unshare();
+            if (p != null) {
+                if (src.sharers == null) src.sharers = new AtomicInteger(1);
+                src.sharers.incrementAndGet();
+                sharers = src.sharers;
+            }
+            pixsels = p;
+            width = src.width;
+            height = src.height;
+            modified = true;
+        }
+    }
+
+    /**
+     * Делает карту копией {@linkplain #release() освобождённой} карты
+     * <code>src</code> без загрузки пикселей. Копируются только размеры, а
+     * пиксели будут {@linkplain #materialize() загружены} наследником при
+     * первом обращении. Сообщения об изменениях не выпускаются.
+     * 
+     * @param src Источник копирования.
+     * @see #share(AbstractPixselMap)
+     */
+    protected final void shareReleased(AbstractPixselMap src) {
+        synchronized (src.writeLock()) {
+            unshare();
+            pixsels = null;
+            resident = false;
+            width = src.width;
+            height = src.height;
+            modified = true;
+        }
+    }
+
+    /**
+     * Освобождает массив пикселей временной копии, созданной методом
+     * {@link #share(AbstractPixselMap)}. Карта становится пустой, а карты,
+     * с которыми массив был общим, снова могут изменять его без копирования.
+     * Сообщения об изменениях не выпускаются.
+     */
+    public final void dispose() {
+        synchronized (writeLock()) {
+            unshare();
+            pixsels = null;
+            resident = true;
+            width = 0;
+            height = 0;
+        }
+    }
+
+    /**
+     * Возвращает <code>true</code>, если пиксели или размеры карты изменялись
+     * после последнего вызова {@link #clearModified()}. В отличие от
+     * {@link #hasChange()} флаг не сбрасывается при выпуске сообщений об
+     * изменениях и служит для определения символов, которые нужно записать
+     * при сохранении шрифта.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Сбрасывает флаг {@link #isModified()}, например после сохранения
+     * шрифта.
+     */
+    public void clearModified() {
+        modified = false;
+    }
+
+    /**
+     * Возвращает массив пикселей, при необходимости
+     * {@linkplain #materialize() загружая} его.
+     */
+    private byte[] pixsels() {
+        byte[] p = pixsels;
+
+        // Массив может быть выгружен другим потоком сразу после загрузки,
+        // поэтому проверка повторяется.
+        while (p == null && !resident) {
+            materialize();
+            p = pixsels;
+        }
+
+        return p;
+    }
+
+    /**
+     * Возвращает <code>true</code> если массив пикселей находится в памяти.
+     * 
+     * @see #release()
+     * @see #restore(byte[])
+     */
+    public boolean isResident() {
+        return resident;
+    }
+
+    /**
+     * Освобождает массив пикселей. Размеры карты сохраняются, а массив будет
+     * {@linkplain #materialize() загружен} при следующем обращении к пикселям.
+     * Сообщения об изменениях не выпускаются.
+     * 
+     * @return Размер освобождённого массива в байтах.
+     * @see #restore(byte[])
+     */
+    protected final int release() {
+        synchronized (writeLock()) {
+            byte[] p = pixsels;
+
+            if (!resident || p == null) return 0;
+            resident = false;
+            unshare();
+            pixsels = null;
+            return p.length;
+        }
+    }
+
+    /**
+     * Восстанавливает освобождённый массив пикселей из упакованного массива.
+     * Формат <code>packed</code> такой же, как у {@link #getBytes()}.
+     * Сообщения об изменениях не выпускаются, область изменений не меняется.
+     * 
+     * @param packed Упакованные пиксели. Если <code>null</code> или массив
+     *            короче, то недостающие пиксели сбрасываются.
+     * @return Размер восстановленного массива в байтах.
+     * @see #release()
+     */
+    protected final int restore(byte[] packed) {
+        synchronized (writeLock()) {
+            if (resident) return 0;
+
+            byte[] p = doPixselArray(width, height);
+
+            if (p != null && packed != null) {
+                int n = width * height;
+                if (n > packed.length * 8) n = packed.length * 8;
+
+                for (int i = 0; i < n; i++) {
+                    if ((packed[i >> ITEM_SHIFT] & (1 << (i & ITEM_MASK))) == 0)
+                        continue;
+                    int x = i % width;
+                    int y = i / width;
+                    p[index(width, x, y)] |= (byte) (1 << (x & ITEM_MASK));
+                }
+            }
+
+            pixsels = p;
+            resident = true;
+            return p == null ? 0 : p.length;
+        }
+    }
+
+    /**
+     * Вызывается при обращении к пикселям, если массив пикселей был
+     * {@linkplain #release() освобождён}. Наследники должны вызвать
+     * {@link #restore(byte[])}. Реализация по умолчанию восстанавливает пустой
+     * массив.
+     */
+    protected void materialize() {
+        restore(null);
+    }
+
+    /**
+     * Заменяет общий массив пикселей собственной копией. Если остальные карты
+     * уже отказались от массива, то копирование не требуется.
+     * 
+     * @throws UnsupportedOperationException если карта
+     *             {@linkplain #isReadOnly() только для чтения}.
+     * @see #share(AbstractPixselMap)
+     */
+    private void detach() {
+        if (isReadOnly()) throw new UnsupportedOperationException("read only");
+        AtomicInteger s = sharers;
+        sharers = null;
+        // Копия снимается до уменьшения счётчика, иначе другая карта может
+        // начать изменять массив на месте раньше, чем он скопирован.
+        if (s.get() > 1) pixsels = pixsels.clone();
+        s.decrementAndGet();
+    }
+
+    /**
+     * Отказывается от общего массива пикселей перед его заменой.
+     */
+    private void unshare() {
+        AtomicInteger s = sharers;
+        if (s == null) return;
+        sharers = null;
+        s.decrementAndGet();
+    }
+
+    /**
+     * Возвращает <code>true</code> если пиксели карты нельзя изменять. Попытка
+     * изменения пикселей такой карты приводит к исключению
+     * {@link UnsupportedOperationException}. Проверяется только для карт,
+     * созданных методом {@link #share(AbstractPixselMap)}.
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
     /**
      * Метод возвращает <b>копию</b> массива пикселей, упакованную в
      * <code>byte</code>. Если символ имеет нулевую ширину и/или высоту, то
@@ -819,7 +1103,7 @@ public class AbstractPixselMap {
      * бита самого первого элемента.
      */
     public byte[] getBytes() {
-        if (pixsels == null) return null;
+        if (pixsels() == null) return null;
 
         PixselIterator pi = new PixselIterator(0, 0, width, height,
                         DIR_LEFT_TOP);
@@ -837,6 +1121,101 @@ public class AbstractPixselMap {
         return rv;
     }
 
+    /**
+     * Записывает пиксели в заданный массив в том же виде, что и
+     * {@link #getBytes()}, но без создания нового массива и без обхода
+     * пикселей по одному. Строки внутреннего массива переносятся сдвигами
+     * байтов.
+     * 
+     * @param dst Массив для пикселей, его длина должна быть не меньше
+     *            <code>(ширина * высота + 7) / 8</code>.
+     * @return Число записанных байтов, 0 для карты нулевого размера.
+     * @throws ArrayIndexOutOfBoundsException если массив слишком мал.
+     */
+    public int getBytes(byte[] dst) {
+        return getBytes(dst, 0);
+    }
+
+    /**
+     * Записывает пиксели в заданный массив, начиная с заданной позиции, см.
+     * {@link #getBytes(byte[])}.
+     * 
+     * @param dst Массив для пикселей.
+     * @param off Позиция первого байта в массиве.
+     * @return Число записанных байтов, 0 для карты нулевого размера.
+     * @throws ArrayIndexOutOfBoundsException если массив слишком мал.
+     */
+    public int getBytes(byte[] dst, int off) {
+        byte[] p = pixsels();
+        int w = width, h = height;
+        if (p == null || w == 0 || h == 0) return 0;
+
+        int stride = (w + ITEM_SIZE - 1) >> ITEM_SHIFT;
+        int length = (w * h + 7) / 8;
+        if (off < 0 || dst.length - off < length)
+            throw new ArrayIndexOutOfBoundsException(off + length);
+
+        // Строки без неполных байтов уже упакованы подряд.
+        if ((w & ITEM_MASK) == 0) {
+            System.arraycopy(p, 0, dst, off, length);
+            return length;
+        }
+
+        int tail = w & ITEM_MASK;
+        int acc = 0, bits = 0, n = off;
+        for (int row = 0; row < h * stride; row += stride) {
+            for (int i = 0; i < stride - 1; i++) {
+                acc |= (p[row + i] & 0xff) << bits;
+                dst[n++] = (byte) acc;
+                acc >>>= 8;
+            }
+            acc |= (p[row + stride - 1] & ((1 << tail) - 1)) << bits;
+            bits += tail;
+            if (bits >= 8) {
+                dst[n++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) dst[n++] = (byte) acc;
+        return n - off;
+    }
+
+    /**
+     * Распаковывает пиксели в только что созданный пустой массив. В отличие от
+     * {@link #setBytes(byte[])} изменения не отмечаются, так как у новой карты
+     * нет получателей сообщений.
+     */
+    private void unpack(byte[] src) {
+        byte[] p = pixsels;
+        int w = width, h = height;
+        if (p == null) return;
+
+        int stride = (w + ITEM_SIZE - 1) >> ITEM_SHIFT;
+        int length = Math.min(src.length, (w * h + 7) / 8);
+
+        // Строки без неполных байтов упакованы так же, как во внутреннем
+        // массиве.
+        if ((w & ITEM_MASK) == 0) {
+            System.arraycopy(src, 0, p, 0, length);
+            return;
+        }
+
+        int tail = (1 << (w & ITEM_MASK)) - 1;
+        for (int y = 0, row = 0; y < h; y++, row += stride) {
+            int bit = y * w;
+            for (int i = 0; i < stride; i++, bit += 8) {
+                int k = bit >> 3, sh = bit & 7;
+                if (k >= length) return;
+                int v = (src[k] & 0xff) >>> sh;
+                if (sh > 0 && k + 1 < length)
+                    v |= (src[k + 1] & 0xff) << (8 - sh);
+                p[row + i] = (byte) v;
+            }
+            p[row + stride - 1] &= tail;
+        }
+    }
+
     /**
      * Метод копирует массив пикселей, упакованных в <code>byte</code>, во
      * внутренний масссив. Пиксели в копируемом массиве располагаются с младшего
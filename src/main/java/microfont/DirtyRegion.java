@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import java.awt.Rectangle;
+
+/**
+ * Область изменений карты, состоящая из нескольких прямоугольников.
+ * <p>
+ * Добавляемый прямоугольник, который касается или пересекается с одним из уже
+ * имеющихся, объединяется с ним. Иначе он добавляется в список, а если
+ * количество прямоугольников превысило {@linkplain #DirtyRegion(int) предел},
+ * то объединяется пара, объединение которой добавляет к области наименьшую
+ * площадь. Таким образом, область всегда покрывает все добавленные точки, но
+ * может включать и лишние.
+ * <p>
+ * Класс не синхронизирован.
+ */
+public class DirtyRegion {
+    /** Предел количества прямоугольников по умолчанию. */
+    public static final int DEFAULT_LIMIT = 8;
+
+    private final int       limit;
+    /** Границы прямоугольников включительно. */
+    private int[]           x0, y0, x1, y1;
+    /** Количество прямоугольников. */
+    private int             count;
+
+    /**
+     * Создание пустой области с пределом {@link #DEFAULT_LIMIT}.
+     */
+    public DirtyRegion() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Создание пустой области.
+     *
+     * @param limit Наибольшее количество прямоугольников.
+     * @throws IllegalArgumentException Если <code>limit</code> меньше единицы.
+     */
+    public DirtyRegion(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("invalid limit " + limit);
+        this.limit = limit;
+    }
+
+    /**
+     * Добавляет точку к области.
+     *
+     * @param x Горизонтальная координата.
+     * @param y Вертикальная координата.
+     */
+    public void add(int x, int y) {
+        add(x, y, 1, 1);
+    }
+
+    /**
+     * Добавляет прямоугольник к области.
+     *
+     * @param r Добавляемый прямоугольник.
+     */
+    public void add(Rectangle r) {
+        add(r.x, r.y, r.width, r.height);
+    }
+
+    /**
+     * Добавляет прямоугольник к области. Прямоугольник с нулевой или
+     * отрицательной шириной или высотой игнорируется.
+     *
+     * @param x Горизонтальная позиция прямоугольника.
+     * @param y Вертикальная позиция прямоугольника.
+     * @param w Ширина прямоугольника.
+     * @param h Высота прямоугольника.
+     */
+    public void add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) return;
+
+        int ax = x, ay = y, bx = x + w - 1, by = y + h - 1;
+
+        for (int i = 0; i < count; i++) {
+            if (touch(i, ax, ay, bx, by)) {
+                union(i, ax, ay, bx, by);
+                absorb(i);
+                return;
+            }
+        }
+
+        if (x0 == null) {
+            x0 = new int[limit + 1];
+            y0 = new int[limit + 1];
+            x1 = new int[limit + 1];
+            y1 = new int[limit + 1];
+        }
+
+        x0[count] = ax;
+        y0[count] = ay;
+        x1[count] = bx;
+        y1[count] = by;
+        count++;
+
+        if (count > limit) reduce();
+    }
+
+    /**
+     * Делает область пустой.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Возвращает <code>true</code> если область пуста.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Возвращает количество прямоугольников области.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Возвращает прямоугольник, охватывающий всю область, или <b>null</b>,
+     * если область пуста.
+     */
+    public Rectangle getBounds() {
+        if (count == 0) return null;
+
+        int ax = x0[0], ay = y0[0], bx = x1[0], by = y1[0];
+        for (int i = 1; i < count; i++) {
+            if (x0[i] < ax) ax = x0[i];
+            if (y0[i] < ay) ay = y0[i];
+            if (x1[i] > bx) bx = x1[i];
+            if (y1[i] > by) by = y1[i];
+        }
+        return new Rectangle(ax, ay, bx - ax + 1, by - ay + 1);
+    }
+
+    /**
+     * Возвращает прямоугольники области. Прямоугольники могут пересекаться.
+     *
+     * @return Новый массив, возможно пустой.
+     */
+    public Rectangle[] getRectangles() {
+        Rectangle[] ret = new Rectangle[count];
+
+        for (int i = 0; i < count; i++) {
+            ret[i] = new Rectangle(x0[i], y0[i], x1[i] - x0[i] + 1, y1[i]
+                            - y0[i] + 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Возвращает <code>true</code> если прямоугольник <code>i</code> касается
+     * или пересекается с заданным.
+     */
+    private boolean touch(int i, int ax, int ay, int bx, int by) {
+        return ax <= x1[i] + 1 && bx >= x0[i] - 1 && ay <= y1[i] + 1
+                        && by >= y0[i] - 1;
+    }
+
+    private void union(int i, int ax, int ay, int bx, int by) {
+        if (ax < x0[i]) x0[i] = ax;
+        if (ay < y0[i]) y0[i] = ay;
+        if (bx > x1[i]) x1[i] = bx;
+        if (by > y1[i]) y1[i] = by;
+    }
+
+    /**
+     * Объединяет с прямоугольником <code>i</code> все касающиеся его
+     * прямоугольники.
+     */
+    private void absorb(int i) {
+        boolean merged = true;
+
+        while (merged) {
+            merged = false;
+            for (int j = 0; j < count; j++) {
+                if (j == i || !touch(i, x0[j], y0[j], x1[j], y1[j])) continue;
+
+                union(i, x0[j], y0[j], x1[j], y1[j]);
+                i = remove(j, i);
+                merged = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Удаляет прямоугольник <code>j</code>, перемещая на его место последний.
+     *
+     * @return Новый номер прямоугольника <code>i</code>.
+     */
+    private int remove(int j, int i) {
+        count--;
+        x0[j] = x0[count];
+        y0[j] = y0[count];
+        x1[j] = x1[count];
+        y1[j] = y1[count];
+        return i == count ? j : i;
+    }
+
+    private long area(int ax, int ay, int bx, int by) {
+        return (long) (bx - ax + 1) * (by - ay + 1);
+    }
+
+    /**
+     * Объединяет пару прямоугольников с наименьшим приростом площади.
+     */
+    private void reduce() {
+        int bi = 0, bj = 1;
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                long waste = area(Math.min(x0[i], x0[j]),
+                                Math.min(y0[i], y0[j]), Math.max(x1[i], x1[j]),
+                                Math.max(y1[i], y1[j]))
+                                - area(x0[i], y0[i], x1[i], y1[i])
+                                - area(x0[j], y0[j], x1[j], y1[j]);
+                if (waste < best) {
+                    best = waste;
+                    bi = i;
+                    bj = j;
+                }
+            }
+        }
+
+        union(bi, x0[bj], y0[bj], x1[bj], y1[bj]);
+        absorb(remove(bj, bi));
+    }
+}
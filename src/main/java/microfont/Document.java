@@ -20,6 +20,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
+import microfont.edit.Journal;
 import microfont.edit.MFontEdit;
 import microfont.edit.MSymbolEdit;
 import utils.event.ListenerChain;
@@ -50,6 +51,9 @@ import utils.event.ListenerChain;
  * Таким образом, методы <code>fontEdit</code>, <code>symbolEdit</code> и
  * <code>endEdit</code> генерируют сообщение для предыдущего вызова
  * <code>fontEdit</code> или <code>symbolEdit</code>.
+ * <p>
+ * Если установлен {@linkplain #setJournal(Journal) журнал}, то
+ * <code>endEdit</code> дописывает в него накопленные изменения шрифта.
  */
 public class Document {
     /** Получатели сообщений. */
@@ -70,6 +74,8 @@ public class Document {
     private MFontEdit          undoFont;
     /** Объект с изменениями символа. */
     private MSymbolEdit        undoSymbol;
+    /** Журнал изменений шрифта. */
+    private Journal            journal;
     /**
      * Имя сообщения <code>PropertyChangeEvent</code> при изменении
      * отслеживаемого шрифта.
@@ -115,15 +121,11 @@ public class Document {
      * @see #addUndoableEditListener(UndoableEditListener)
      */
     protected void fireUndoEvent(UndoableEditEvent change) {
-        Object[] listenerArray;
-
         if (listeners == null) return;
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == UndoableEditListener.class)
-                ((UndoableEditListener) listenerArray[i + 1])
-                                .undoableEditHappened(change);
+        for (UndoableEditListener listener : listeners
+                        .getListeners(UndoableEditListener.class)) {
+            listener.undoableEditHappened(change);
         }
     }
 
@@ -156,13 +158,9 @@ public class Document {
      * @param event Выпускаемое событие.
      */
     protected void firePropertyChange(PropertyChangeEvent event) {
-        Object[] listenerArray;
-
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PropertyChangeListener.class)
-                ((PropertyChangeListener) listenerArray[i + 1])
-                                .propertyChange(event);
+        for (PropertyChangeListener listener : listeners
+                        .getListeners(PropertyChangeListener.class)) {
+            listener.propertyChange(event);
         }
     }
 
@@ -271,6 +269,26 @@ public class Document {
 
         undoFont = null;
         undoSymbol = null;
+        if (journal != null) journal.flush();
+    }
+
+    /**
+     * Возвращает журнал изменений шрифта.
+     * 
+     * @see #setJournal(Journal)
+     */
+    public synchronized Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Устанавливает журнал изменений шрифта. Журнал сбрасывается при каждом
+     * вызове {@link #endEdit()}.
+     * 
+     * @param journal Журнал или <b>null</b>.
+     */
+    public synchronized void setJournal(Journal journal) {
+        this.journal = journal;
     }
 
     /**
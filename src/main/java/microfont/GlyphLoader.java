@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Источник пикселей символов для {@link LazyMFont}. Символы в источнике
+ * нумеруются с нуля в порядке их записи.
+ */
+public interface GlyphLoader extends Closeable {
+
+    /**
+     * Возвращает количество символов в источнике.
+     */
+    int length();
+
+    /**
+     * Загружает пиксели символа. Пиксели упакованы так же, как возвращает
+     * {@link AbstractPixselMap#getBytes()}.
+     * 
+     * @param index Порядковый номер символа в источнике.
+     * @return Упакованные пиксели символа.
+     * @throws IOException При ошибке чтения источника.
+     * @throws IndexOutOfBoundsException Если символа с таким номером нет.
+     */
+    byte[] load(int index) throws IOException;
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.logging.Level;
+import microfont.events.PixselMapEvent;
+
+/**
+ * Шрифт с загрузкой пикселей символов по требованию.
+ * <p>
+ * Код, уникод и размеры символов всегда находятся в памяти, а пиксели
+ * загружаются из {@linkplain GlyphLoader источника} при первом обращении.
+ * Загруженные пиксели выгружаются, если их общий размер превышает
+ * {@linkplain #setBudget(long) заданный предел}; первыми выгружаются символы,
+ * к которым дольше всего не обращались через {@link #symbolByIndex(int)},
+ * {@link #symbolByCode(int)} или {@link #symbolByUnicode(int)}.
+ * <p>
+ * Изменённые символы, а так же символы, добавленные не из источника, не
+ * выгружаются до {@linkplain #rebind(GlyphLoader) сохранения шрифта}.
+ * <p>
+ * {@linkplain MFont#snapshot() Снимки} и другие копии символов, созданные
+ * конструктором {@link MSymbol#MSymbol(MSymbol)}, не загружают пиксели
+ * освобождённых символов, а читают их из источника сами. Перед закрытием
+ * источника пиксели ещё существующих копий читаются в память.
+ * <p>
+ * Обращение к символам этого шрифта захватывает монитор шрифта для учёта
+ * порядка обращений.
+ */
+public class LazyMFont extends MFont {
+    /** Источник пикселей. */
+    private GlyphLoader                          loader;
+    /** Предел размера загруженных пикселей в байтах. */
+    private long                                 budget;
+    /** Размер загруженных пикселей в байтах. */
+    private long                                 used;
+    /** Количество загрузок из источника. */
+    private long                                 loads;
+    /** Номер в источнике для символа, добавляемого в данный момент. */
+    private int                                  pending;
+    /** Сведения о символах шрифта. */
+    private final IdentityHashMap<MSymbol, Entry> entries;
+    /**
+     * Голова списка загруженных символов. Следующий за головой элемент - самый
+     * давний по обращению.
+     */
+    private final Entry                          head;
+    /** Источники пикселей копий освобождённых символов. */
+    private final ArrayList<WeakReference<Glyph>> glyphs;
+    /** Размер {@link #glyphs}, при котором удаляются пустые ссылки. */
+    private int                                  glyphsLimit;
+
+    /**
+     * Сведения о символе шрифта.
+     */
+    private static final class Entry {
+        final MSymbol sym;
+        /** Номер символа в источнике или -1. */
+        int           index;
+        /** Символ изменён и не может быть выгружен. */
+        boolean       dirty;
+        /** Размер загруженных пикселей в байтах. */
+        int           size;
+        Entry         prev, next;
+
+        Entry(MSymbol sym) {
+            this.sym = sym;
+            prev = this;
+            next = this;
+        }
+
+        boolean isLinked() {
+            return next != this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+
+        void linkBefore(Entry e) {
+            prev = e.prev;
+            next = e;
+            e.prev.next = this;
+            e.prev = this;
+        }
+    }
+
+    /**
+     * Источник пикселей копии освобождённого символа. Пиксели читаются из
+     * источника шрифта под его монитором; если источник закрывается раньше,
+     * то пиксели читаются заранее и хранятся до обращения копии.
+     */
+    static final class Glyph {
+        private final LazyMFont   font;
+        /** Источник на момент создания копии. */
+        private final GlyphLoader source;
+        private final int         index;
+        /** Источник или <b>null</b>, если пиксели уже прочитаны. */
+        private GlyphLoader       loader;
+        private byte[]            packed;
+
+        Glyph(LazyMFont font, GlyphLoader loader, int index) {
+            this.font = font;
+            this.source = loader;
+            this.loader = loader;
+            this.index = index;
+        }
+
+        /**
+         * Возвращает упакованные пиксели символа, читая их при необходимости.
+         */
+        byte[] load() {
+            synchronized (font.getLock()) {
+                detach();
+                return packed;
+            }
+        }
+
+        /**
+         * Читает пиксели, пока источник ещё открыт. Вызывается под монитором
+         * шрифта.
+         */
+        void detach() {
+            if (loader == null) return;
+            packed = font.read(loader, index);
+            loader = null;
+        }
+
+        /**
+         * Возвращает <code>true</code>, если оба источника указывают на один
+         * и тот же символ источника.
+         */
+        boolean isSame(Glyph g) {
+            return g == this || (source == g.source && index == g.index);
+        }
+    }
+
+    /**
+     * Создание пустого шрифта без источника пикселей.
+     *
+     * @param budget Предел размера загруженных пикселей в байтах.
+     * @throws IllegalArgumentException Если <code>budget</code> меньше нуля.
+     */
+    public LazyMFont(long budget) {
+        super();
+        if (budget < 0)
+            throw new IllegalArgumentException("invalid budget " + budget);
+        this.budget = budget;
+        pending = -1;
+        entries = new IdentityHashMap<MSymbol, Entry>();
+        head = new Entry(null);
+        glyphs = new ArrayList<WeakReference<Glyph>>();
+        glyphsLimit = 64;
+    }
+
+    /**
+     * Возвращает источник пикселей или <b>null</b>.
+     */
+    public GlyphLoader getLoader() {
+        synchronized (getLock()) {
+            return loader;
+        }
+    }
+
+    /**
+     * Устанавливает источник пикселей. Номера символов в источнике не
+     * меняются.
+     *
+     * @param gl Новый источник.
+     * @see #add(MSymbol, int)
+     * @see #rebind(GlyphLoader)
+     */
+    public void setLoader(GlyphLoader gl) {
+        synchronized (getLock()) {
+            loader = gl;
+        }
+    }
+
+    /**
+     * Заменяет источник пикселей после сохранения шрифта. Предполагается, что
+     * в новом источнике символы записаны в порядке следования в шрифте, как
+     * это делает {@link microfont.ls.MFontLoadSave}. Все символы становятся
+     * не изменёнными и могут быть выгружены. Старый источник закрывается.
+     *
+     * @param gl Новый источник.
+     * @throws IllegalArgumentException Если количество символов в источнике не
+     *             совпадает с количеством символов шрифта.
+     */
+    public void rebind(GlyphLoader gl) {
+        synchronized (getLock()) {
+            if (gl.length() != length())
+                throw new IllegalArgumentException("loader length "
+                                + gl.length() + ", font length " + length());
+
+            if (loader != null && loader != gl) {
+                detachGlyphs();
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    logger().log(Level.WARNING, "close glyph loader", e);
+                }
+            }
+
+            loader = gl;
+            for (int i = 0; i < length(); i++) {
+                Entry e = entries.get(super.symbolByIndex(i));
+                e.index = i;
+                e.dirty = false;
+            }
+            trim(null);
+        }
+    }
+
+    /**
+     * Закрывает источник пикселей. Пиксели, которые не были загружены, после
+     * этого будут пустыми.
+     *
+     * @throws IOException При ошибке закрытия источника.
+     */
+    public void close() throws IOException {
+        synchronized (getLock()) {
+            if (loader == null) return;
+            detachGlyphs();
+            loader.close();
+            loader = null;
+        }
+    }
+
+    /**
+     * Возвращает предел размера загруженных пикселей в байтах.
+     */
+    public long getBudget() {
+        synchronized (getLock()) {
+            return budget;
+        }
+    }
+
+    /**
+     * Устанавливает предел размера загруженных пикселей. При необходимости
+     * лишние символы выгружаются.
+     *
+     * @param b Предел в байтах.
+     * @throws IllegalArgumentException Если <code>b</code> меньше нуля.
+     */
+    public void setBudget(long b) {
+        if (b < 0) throw new IllegalArgumentException("invalid budget " + b);
+        synchronized (getLock()) {
+            budget = b;
+            trim(null);
+        }
+    }
+
+    /**
+     * Возвращает размер загруженных пикселей в байтах, включая изменённые
+     * символы.
+     */
+    public long getResidentBytes() {
+        synchronized (getLock()) {
+            return used;
+        }
+    }
+
+    /**
+     * Возвращает количество загрузок пикселей из источника.
+     */
+    public long getLoadCount() {
+        synchronized (getLock()) {
+            return loads;
+        }
+    }
+
+    /**
+     * Добавляет символ, пиксели которого находятся в источнике под номером
+     * <code>index</code>. Пиксели символа освобождаются и будут загружены при
+     * первом обращении.
+     *
+     * @param symbol Добавляемый символ.
+     * @param index Номер символа в источнике.
+     */
+    public void add(MSymbol symbol, int index) {
+        if (symbol == null) return;
+
+        synchronized (getLock()) {
+            symbol.release();
+            pending = index;
+            try {
+                add(symbol);
+            } finally {
+                pending = -1;
+            }
+        }
+    }
+
+    @Override
+    public MSymbol symbolByIndex(int index) {
+        return touch(super.symbolByIndex(index));
+    }
+
+    @Override
+    public MSymbol symbolByCode(int code) {
+        return touch(super.symbolByCode(code));
+    }
+
+    @Override
+    public MSymbol symbolByUnicode(int unicode) {
+        return touch(super.symbolByUnicode(unicode));
+    }
+
+    /**
+     * Символ, добавленный не из источника, считается изменённым.
+     */
+    @Override
+    protected void captureSymbol(MSymbol sym) {
+        super.captureSymbol(sym);
+
+        Entry e = new Entry(sym);
+        e.index = sym.isResident() ? -1 : pending;
+        e.dirty = e.index < 0;
+        entries.put(sym, e);
+
+        if (sym.isResident()) {
+            e.size = sizeOf(sym);
+            used += e.size;
+            e.linkBefore(head);
+            trim(e);
+        }
+    }
+
+    /**
+     * Перед удалением из шрифта пиксели символа загружаются.
+     */
+    @Override
+    protected void releaseSymbol(MSymbol sym) {
+        if (!sym.isResident()) materialize(sym);
+
+        Entry e = entries.remove(sym);
+        if (e != null && e.isLinked()) {
+            e.unlink();
+            used -= e.size;
+        }
+
+        super.releaseSymbol(sym);
+    }
+
+    @Override
+    void materialize(MSymbol sym) {
+        synchronized (getLock()) {
+            if (sym.isResident()) return;
+
+            Entry e = entries.get(sym);
+            byte[] packed = null;
+
+            if (e != null && e.index >= 0 && loader != null)
+                packed = read(loader, e.index);
+
+            sym.restore(packed);
+
+            if (e != null) {
+                e.size = sizeOf(sym);
+                used += e.size;
+                e.linkBefore(head);
+                trim(e);
+            }
+        }
+    }
+
+    /**
+     * Не загруженный символ из источника копируется без загрузки пикселей.
+     */
+    @Override
+    Glyph glyphOf(MSymbol sym) {
+        if (sym.isResident() || loader == null) return null;
+
+        Entry e = entries.get(sym);
+        if (e == null || e.index < 0) return null;
+
+        if (glyphs.size() >= glyphsLimit) {
+            Iterator<WeakReference<Glyph>> it = glyphs.iterator();
+            while (it.hasNext()) {
+                if (it.next().get() == null) it.remove();
+            }
+            glyphsLimit = Math.max(64, glyphs.size() * 2);
+        }
+
+        Glyph g = new Glyph(this, loader, e.index);
+        glyphs.add(new WeakReference<Glyph>(g));
+        return g;
+    }
+
+    /**
+     * Читает пиксели ещё существующих копий освобождённых символов перед
+     * закрытием источника. Вызывается под монитором шрифта.
+     */
+    private void detachGlyphs() {
+        for (WeakReference<Glyph> ref : glyphs) {
+            Glyph g = ref.get();
+            if (g != null) g.detach();
+        }
+        glyphs.clear();
+        glyphsLimit = 64;
+    }
+
+    /**
+     * Читает пиксели символа из источника. Вызывается под монитором шрифта.
+     * 
+     * @return Упакованные пиксели или <b>null</b> при ошибке чтения.
+     */
+    private byte[] read(GlyphLoader gl, int index) {
+        try {
+            byte[] packed = gl.load(index);
+            loads++;
+            return packed;
+        } catch (IOException ex) {
+            logger().log(Level.SEVERE, "load glyph " + index, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Изменённый символ закрепляется в памяти.
+     */
+    @Override
+    public void pixselChanged(PixselMapEvent change) {
+        if (change.getSource() instanceof MSymbol)
+            markDirty((MSymbol) change.getSource());
+        super.pixselChanged(change);
+    }
+
+    /**
+     * Символ с изменённым размером закрепляется в памяти.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent event) {
+        if (PixselMap.PROPERTY_SIZE.equals(event.getPropertyName())
+                        && event.getSource() instanceof MSymbol)
+            markDirty((MSymbol) event.getSource());
+        super.propertyChange(event);
+    }
+
+    /**
+     * Отмечает символ как изменённый и пересчитывает размер его пикселей.
+     */
+    private void markDirty(MSymbol sym) {
+        synchronized (getLock()) {
+            Entry e = entries.get(sym);
+            if (e == null) return;
+
+            e.dirty = true;
+            if (e.isLinked()) {
+                used -= e.size;
+                e.size = sizeOf(sym);
+                used += e.size;
+            }
+        }
+    }
+
+    /**
+     * Перемещает загруженный символ в конец списка выгрузки.
+     */
+    private MSymbol touch(MSymbol sym) {
+        if (sym == null || !sym.isResident()) return sym;
+
+        synchronized (getLock()) {
+            Entry e = entries.get(sym);
+            if (e != null && e.isLinked()) {
+                e.unlink();
+                e.linkBefore(head);
+            }
+        }
+        return sym;
+    }
+
+    /**
+     * Выгружает давно использованные неизменённые символы, пока размер
+     * загруженных пикселей превышает предел.
+     *
+     * @param keep Символ, который нельзя выгружать, может быть <b>null</b>.
+     */
+    private void trim(Entry keep) {
+        Entry e = head.next;
+
+        while (used > budget && e != head) {
+            Entry next = e.next;
+
+            if (e != keep && !e.dirty && e.index >= 0) {
+                e.unlink();
+                used -= e.size;
+                e.size = 0;
+                e.sym.release();
+            }
+            e = next;
+        }
+    }
+
+    /**
+     * Возвращает размер массива пикселей символа в байтах.
+     */
+    private static int sizeOf(MSymbol sym) {
+        return ((sym.getWidth() + 7) / 8) * sym.getHeight();
+    }
+}
@@ -50,11 +50,16 @@ public class MFont extends AbstractMFont implements Metrics {
     public static final String PROPERTY_NAME                  = "mf.name";
     public static final String PROPERTY_PROTOTYPE             = "mf.prototype";
 
-    private String             name;
-    private String             prototype;
-    private String             description;
-    private int[]              metrics;
-    private boolean[]          actually;
+    private volatile String    name;
+    private volatile String    prototype;
+    private volatile String    description;
+    /**
+     * Метрики шрифта. Массив не изменяется на месте, а заменяется копией, что
+     * позволяет читать метрики без монитора.
+     */
+    private volatile int[]     metrics;
+    /** Актуальность метрик, заменяется так же, как {@link #metrics}. */
+    private volatile boolean[] actually;
 
     /**
      * Создание пустого шрифта.
@@ -63,10 +68,6 @@ public class MFont extends AbstractMFont implements Metrics {
         super();
         metrics = new int[METRIC_MAX + 1];
         actually = new boolean[METRIC_MAX + 1];
-        for (int i = 0; i <= METRIC_MAX; i++) {
-            metrics[i] = 0;
-            actually[i] = false;
-        }
     }
 
     @Override
@@ -78,6 +79,54 @@ public class MFont extends AbstractMFont implements Metrics {
         }
     }
 
+    /**
+     * Возвращает снимок шрифта - неизменяемую копию текущего состояния шрифта.
+     * Снимок можно читать из любого потока, в том числе одновременно с
+     * изменением самого шрифта. Массивы пикселей символов не копируются, а
+     * используются совместно до первого изменения символа шрифта.<br>
+     * Методы, изменяющие снимок или его символы, выбрасывают
+     * {@link UnsupportedOperationException}. Изменяемую копию снимка можно
+     * получить методом {@link #clone()}.
+     * 
+     * @see #isReadOnly()
+     */
+    public MFont snapshot() {
+        return new MFontSnapshot(this);
+    }
+
+    /**
+     * Освобождает снимок, который больше не нужен. Массивы пикселей символов
+     * снимка перестают быть общими с шрифтом, поэтому следующее изменение
+     * символов шрифта обходится без копирования. После вызова символы снимка
+     * пусты. Для изменяемого шрифта вызов ничего не делает.
+     * 
+     * @see #snapshot()
+     */
+    public void dispose() {
+        if (!isReadOnly()) return;
+
+        for (MSymbol sym : this) {
+            sym.dispose();
+        }
+    }
+
+    @Override
+    void share(AbstractMFont font) {
+        synchronized (font.getLock()) {
+            super.share(font);
+
+            if (font instanceof MFont) {
+                MFont mf = (MFont) font;
+
+                name = mf.name;
+                prototype = mf.prototype;
+                description = mf.description;
+                metrics = mf.metrics.clone();
+                actually = mf.actually.clone();
+            }
+        }
+    }
+
     /*
      * @see java.lang.Object#hashCode()
      */
@@ -176,9 +225,7 @@ public class MFont extends AbstractMFont implements Metrics {
      * @return Имя шрифта, может быть {@code null}.
      */
     public String getName() {
-        synchronized (getLock()) {
-            return name;
-        }
+        return name;
     }
 
     /**
@@ -189,7 +236,9 @@ public class MFont extends AbstractMFont implements Metrics {
     public void setName(String s) {
         synchronized (getLock()) {
             String old = name;
+            beginWrite();
             name = s;
+            endWrite();
             firePropertyChange(PROPERTY_NAME, old, name);
         }
     }
@@ -200,9 +249,7 @@ public class MFont extends AbstractMFont implements Metrics {
      * @return Название прототипа, может быть {@code null}.
      */
     public String getPrototype() {
-        synchronized (getLock()) {
-            return prototype;
-        }
+        return prototype;
     }
 
     /**
@@ -213,7 +260,9 @@ public class MFont extends AbstractMFont implements Metrics {
     public void setPrototype(String s) {
         synchronized (getLock()) {
             String old = this.prototype;
+            beginWrite();
             prototype = s;
+            endWrite();
             firePropertyChange(PROPERTY_PROTOTYPE, old, prototype);
         }
     }
@@ -224,9 +273,7 @@ public class MFont extends AbstractMFont implements Metrics {
      * @return Описание шрифта, может быть {@code null}.
      */
     public String getDescriptin() {
-        synchronized (getLock()) {
-            return description;
-        }
+        return description;
     }
 
     /**
@@ -237,7 +284,9 @@ public class MFont extends AbstractMFont implements Metrics {
     public void setDescriptin(String s) {
         synchronized (getLock()) {
             String old = description;
+            beginWrite();
             description = s;
+            endWrite();
             firePropertyChange(PROPERTY_DESCRIPTION, old, description);
         }
     }
@@ -265,9 +314,7 @@ public class MFont extends AbstractMFont implements Metrics {
     public boolean isMetricActually(int index) {
         if (index < 0 || index > METRIC_MAX)
             throw new IllegalArgumentException("index=" + index);
-        synchronized (getLock()) {
-            return actually[index];
-        }
+        return actually[index];
     }
 
     @Override
@@ -276,7 +323,11 @@ public class MFont extends AbstractMFont implements Metrics {
             throw new IllegalArgumentException("index=" + index);
         synchronized (getLock()) {
             boolean old = actually[index];
-            actually[index] = state;
+            beginWrite();
+            boolean[] a = actually.clone();
+            a[index] = state;
+            actually = a;
+            endWrite();
             fireActuallyChange(index, old, state);
         }
     }
@@ -285,9 +336,7 @@ public class MFont extends AbstractMFont implements Metrics {
     public int getMetric(int index) {
         if (index < 0 || index > METRIC_MAX)
             throw new IllegalArgumentException("index=" + index);
-        synchronized (getLock()) {
-            return metrics[index];
-        }
+        return metrics[index];
     }
 
     @Override
@@ -298,33 +347,49 @@ public class MFont extends AbstractMFont implements Metrics {
         synchronized (getLock()) {
             int old = metrics[index];
 
-            switch (index) {
-            case METRIC_BASELINE:
-                metrics[index] = checkBaseline(value);
-                setMetric(METRIC_ASCENT, metrics[METRIC_ASCENT]);
-                setMetric(METRIC_DESCENT, metrics[METRIC_DESCENT]);
-                break;
-            case METRIC_LINE:
-                metrics[index] = checkLine(value);
-                break;
-            case METRIC_ASCENT:
-                metrics[index] = checkAscent(value);
-                setMetric(METRIC_LINE, metrics[METRIC_LINE]);
-                break;
-            case METRIC_DESCENT:
-                metrics[index] = checkDescent(value);
-                break;
-            case METRIC_LEFT:
-            case METRIC_RIGHT:
-                metrics[index] = checkMargin(value);
-                break;
-            default:
-                throw new RuntimeException("can't handle valid index=" + index);
+            beginWrite();
+            try {
+                switch (index) {
+                case METRIC_BASELINE:
+                    putMetric(index, checkBaseline(value));
+                    setMetric(METRIC_ASCENT, metrics[METRIC_ASCENT]);
+                    setMetric(METRIC_DESCENT, metrics[METRIC_DESCENT]);
+                    break;
+                case METRIC_LINE:
+                    putMetric(index, checkLine(value));
+                    break;
+                case METRIC_ASCENT:
+                    putMetric(index, checkAscent(value));
+                    setMetric(METRIC_LINE, metrics[METRIC_LINE]);
+                    break;
+                case METRIC_DESCENT:
+                    putMetric(index, checkDescent(value));
+                    break;
+                case METRIC_LEFT:
+                case METRIC_RIGHT:
+                    putMetric(index, checkMargin(value));
+                    break;
+                default:
+                    throw new RuntimeException("can't handle valid index="
+                                    + index);
+                }
+            } finally {
+                endWrite();
             }
             fireMetricChange(index, old, value);
         }
     }
 
+    /**
+     * Записывает метрику в новую копию массива метрик и публикует её.
+     * Вызывается только под монитором {@link #getLock()}.
+     */
+    private void putMetric(int index, int value) {
+        int[] m = metrics.clone();
+        m[index] = value;
+        metrics = m;
+    }
+
     /**
      * Проверяет {@code value} на допустимость значения для левого или правого
      * поля символов. Поле не может быть больше 30% от ширины самого узкого
@@ -599,20 +664,25 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            int w = getMinWidth();
-            if (num > w) num = w;
-            prepareWidth(w - num);
+            beginBatch();
+            try {
+                int w = getMinWidth();
+                if (num > w) num = w;
+                prepareWidth(w - num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).removeLeft(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail remove left", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).removeLeft(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail remove left", e);
+                    }
                 }
-            }
 
-            applyWidth();
+                applyWidth();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -626,20 +696,25 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            int w = getMinWidth();
-            if (num > w) num = w;
-            prepareWidth(w - num);
+            beginBatch();
+            try {
+                int w = getMinWidth();
+                if (num > w) num = w;
+                prepareWidth(w - num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).removeRight(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail remove right", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).removeRight(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail remove right", e);
+                    }
                 }
-            }
 
-            applyWidth();
+                applyWidth();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -653,20 +728,25 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            int h = getHeight();
-            if (num > h) num = h;
-            prepareHeight(h - num);
+            beginBatch();
+            try {
+                int h = getHeight();
+                if (num > h) num = h;
+                prepareHeight(h - num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).removeTop(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail remove top", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).removeTop(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail remove top", e);
+                    }
                 }
-            }
 
-            applyHeight();
+                applyHeight();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -680,20 +760,25 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            int h = getHeight();
-            if (num > h) num = h;
-            prepareHeight(h - num);
+            beginBatch();
+            try {
+                int h = getHeight();
+                if (num > h) num = h;
+                prepareHeight(h - num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).removeBottom(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail remove bottom", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).removeBottom(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail remove bottom", e);
+                    }
                 }
-            }
 
-            applyHeight();
+                applyHeight();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -707,18 +792,23 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            prepareWidth(getWidth() + num);
+            beginBatch();
+            try {
+                prepareWidth(getWidth() + num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).addLeft(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail add left", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).addLeft(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail add left", e);
+                    }
                 }
-            }
 
-            applyWidth();
+                applyWidth();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -732,18 +822,23 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            prepareWidth(getWidth() + num);
+            beginBatch();
+            try {
+                prepareWidth(getWidth() + num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).addRight(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail add right", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).addRight(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail add right", e);
+                    }
                 }
-            }
 
-            applyWidth();
+                applyWidth();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -757,18 +852,23 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            prepareHeight(getHeight() + num);
+            beginBatch();
+            try {
+                prepareHeight(getHeight() + num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).addTop(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail add top", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).addTop(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail add top", e);
+                    }
                 }
-            }
 
-            applyHeight();
+                applyHeight();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -782,18 +882,23 @@ public class MFont extends AbstractMFont implements Metrics {
         if (num <= 0) return;
 
         synchronized (getLock()) {
-            prepareHeight(getHeight() + num);
+            beginBatch();
+            try {
+                prepareHeight(getHeight() + num);
 
-            for (int i = 0; i < length(); i++) {
-                try {
-                    symbolByIndex(i).addBottom(num);
-                } catch (DisallowOperationException e) {
-                    // Это исключение не должно возникнуть никогда.
-                    logger().log(Level.SEVERE, "fail add bottom", e);
+                for (int i = 0; i < length(); i++) {
+                    try {
+                        symbolByIndex(i).addBottom(num);
+                    } catch (DisallowOperationException e) {
+                        // Это исключение не должно возникнуть никогда.
+                        logger().log(Level.SEVERE, "fail add bottom", e);
+                    }
                 }
-            }
 
-            applyHeight();
+                applyHeight();
+            } finally {
+                endBatch();
+            }
         }
     }
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+/**
+ * Неизменяемый снимок шрифта. Создаётся методом {@link MFont#snapshot()}.
+ * <p>
+ * Символы снимка разделяют массивы пикселей с символами исходного шрифта.
+ * Изменение символа шрифта приводит к копированию его массива, поэтому
+ * содержимое снимка остаётся прежним. Любая попытка изменить снимок или его
+ * символы приводит к исключению {@link UnsupportedOperationException} или
+ * {@link DisallowOperationException}.
+ */
+final class MFontSnapshot extends MFont {
+
+    /**
+     * Создание снимка шрифта.
+     * 
+     * @param font Исходный шрифт.
+     */
+    MFontSnapshot(MFont font) {
+        super();
+        share(font);
+    }
+
+    /**
+     * Снимок всегда только для чтения.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * Снимок и так неизменяем, поэтому возвращается он сам.
+     */
+    @Override
+    public MFont snapshot() {
+        return this;
+    }
+
+    /**
+     * Размеры символов снимка изменять нельзя.
+     */
+    @Override
+    protected boolean isValidSymbolWidth(int w) {
+        return false;
+    }
+
+    /**
+     * Размеры символов снимка изменять нельзя.
+     */
+    @Override
+    protected boolean isValidSymbolHeight(int h) {
+        return false;
+    }
+}
@@ -44,13 +44,18 @@ import java.util.logging.Level;
  */
 public class MSymbol extends PixselMap {
     /** Шрифт, к которому принадлежит символ. */
-    AbstractMFont              owner;
+    volatile AbstractMFont     owner;
     /** Индекс символа в шрифте. Индекс зависит от кодовой страницы шрифта. */
-    private int                code;
+    private volatile int       code;
     /** Код символа в UTF-16 */
     private int                unicode;
     /** Был ли установлен код символа. */
     private boolean            hasUnicode;
+    /**
+     * Источник пикселей копии освобождённого символа или <b>null</b>, если
+     * пиксели находятся в памяти.
+     */
+    private volatile LazyMFont.Glyph glyph;
 
     /**
      * Название свойства кода символа.
@@ -98,6 +103,38 @@ public class MSymbol extends PixselMap {
         this(i, w, h, null);
     }
 
+    /**
+     * Конструктор символа, использующего общий с <code>src</code> массив
+     * пикселей. Копируются так же код и уникод символа. Владелец и получатели
+     * сообщений не копируются. Массив копируется при первом изменении любого
+     * из символов, поэтому такой конструктор намного дешевле {@link #clone()}.
+     * <p>
+     * Если пиксели символа {@link LazyMFont} не загружены, то они не
+     * загружаются и для копии: копия запоминает источник пикселей и загрузит
+     * их сама при первом обращении.
+     * 
+     * @param src Исходный символ.
+     * @see AbstractPixselMap#share(AbstractPixselMap)
+     */
+    public MSymbol(MSymbol src) {
+        super();
+        synchronized (src.writeLock()) {
+            LazyMFont.Glyph g = src.glyph;
+            AbstractMFont o = src.owner;
+            if (g == null && o != null) g = o.glyphOf(src);
+
+            if (g != null && !src.isResident()) {
+                shareReleased(src);
+                glyph = g;
+            } else {
+                share(src);
+            }
+            code = src.code;
+            unicode = src.unicode;
+            hasUnicode = src.hasUnicode;
+        }
+    }
+
     /**
      * Создание копии символа.<br>
      * Важно знать, что <b>списки получателей сообщений не копируются</b>.
@@ -121,7 +158,10 @@ public class MSymbol extends PixselMap {
 
     /**
      * Если символ принадлежит шрифту, то возвращается объект синхронизации
-     * шрифта. Иначе возвращается объект синхронизации символа.
+     * шрифта. Иначе возвращается объект синхронизации символа.<br>
+     * Изменения кода и размеров символа, принадлежащего шрифту, меняют версию
+     * шрифта, поэтому их можно читать без блокировки, см.
+     * {@link AbstractMFont#tryOptimisticRead()}.
      */
     @Override
     protected Object writeLock() {
@@ -129,6 +169,36 @@ public class MSymbol extends PixselMap {
         return owner.getLock();
     }
 
+    /**
+     * Если символ принадлежит шрифту, то загрузка освобождённых пикселей
+     * поручается шрифту.
+     * 
+     * @see LazyMFont
+     */
+    @Override
+    protected void materialize() {
+        LazyMFont.Glyph g = glyph;
+        if (g != null) {
+            restore(g.load());
+            glyph = null;
+            return;
+        }
+
+        AbstractMFont o = owner;
+
+        if (o == null) super.materialize();
+        else o.materialize(this);
+    }
+
+    /**
+     * Символ доступен только для чтения, если он принадлежит
+     * {@linkplain AbstractMFont#isReadOnly() неизменяемому} шрифту.
+     */
+    @Override
+    public boolean isReadOnly() {
+        return owner != null && owner.isReadOnly();
+    }
+
     /**
      * Результат проверки допустимости высоты зависит от того, принадлежит ли
      * символ шрифту или нет.<br>
@@ -314,9 +384,20 @@ public class MSymbol extends PixselMap {
         if (this == s) return true;
         if (!(s instanceof MSymbol)) return false;
         MSymbol sym = (MSymbol) s;
-        if (!super.equals(sym)) return false;
+        if (!sameGlyph(sym) && !super.equals(sym)) return false;
         if (isUnicode() != sym.isUnicode()) return false;
         if (isUnicode()) return unicode == sym.unicode;
         return code == sym.code;
     }
+
+    /**
+     * Проверяет, что оба символа - не загруженные копии одного и того же
+     * символа источника, пиксели которых заведомо совпадают.
+     */
+    private boolean sameGlyph(MSymbol sym) {
+        LazyMFont.Glyph g = glyph, o = sym.glyph;
+
+        if (g == null || o == null || !g.isSame(o)) return false;
+        return getWidth() == sym.getWidth() && getHeight() == sym.getHeight();
+    }
 }
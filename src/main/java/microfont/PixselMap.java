@@ -196,6 +196,30 @@ public class PixselMap extends AbstractPixselMap {
         listeners.remove(PropertyChangeListener.class, listener);
     }
 
+    /**
+     * Добавление получателя события изменения одного свойства карты.
+     * 
+     * @param property Название свойства, например {@link #PROPERTY_SIZE}.
+     * @param listener Добавляемый получатель события.
+     * @see #removePropertyChangeListener(String, PropertyChangeListener)
+     */
+    public void addPropertyChangeListener(String property,
+                    PropertyChangeListener listener) {
+        listeners.add(PropertyChangeListener.class, property, listener);
+    }
+
+    /**
+     * Удаление получателя события изменения одного свойства карты.
+     * 
+     * @param property Название свойства.
+     * @param listener Удаляемый получатель события.
+     * @see #addPropertyChangeListener(String, PropertyChangeListener)
+     */
+    public void removePropertyChangeListener(String property,
+                    PropertyChangeListener listener) {
+        listeners.remove(PropertyChangeListener.class, property, listener);
+    }
+
     /**
      * Выпуск события изменения свойств карты. Получатели добавляются функцией
      * {@link #addPropertyChangeListener(PropertyChangeListener)}.
@@ -205,14 +229,17 @@ public class PixselMap extends AbstractPixselMap {
      * @see #firePropertyChange(String, Dimension, Dimension)
      */
     protected void firePropertyChange(PropertyChangeEvent event) {
-        Object[] listenerArray;
+        for (PropertyChangeListener listener : listeners
+                        .getListeners(PropertyChangeListener.class)) {
+            listener.propertyChange(event);
+        }
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PropertyChangeListener.class) {
-                ((PropertyChangeListener) listenerArray[i + 1])
-                                .propertyChange(event);
-            }
+        String name = event.getPropertyName();
+        if (name == null) return;
+
+        for (PropertyChangeListener listener : listeners.getListeners(
+                        PropertyChangeListener.class, name)) {
+            listener.propertyChange(event);
         }
     }
 
@@ -284,18 +311,14 @@ public class PixselMap extends AbstractPixselMap {
      */
     protected void firePixselEvent() {
         PixselMapEvent change;
-        Object[] listenerArray;
 
         if (!hasChange()) return;
 
-        change = new PixselMapEvent(this, left, top, right - left + 1, bottom
-                        - top + 1);
+        change = new PixselMapEvent(this, getChangeRegion());
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PixselMapListener.class)
-                ((PixselMapListener) listenerArray[i + 1])
-                                .pixselChanged(change);
+        for (PixselMapListener listener : listeners
+                        .getListeners(PixselMapListener.class)) {
+            listener.pixselChanged(change);
         }
     }
 
@@ -1119,7 +1142,7 @@ public class PixselMap extends AbstractPixselMap {
             x = 0;
         }
 
-        if (w >= getWidth()) w = getWidth() - 1;
+        if (x + w > getWidth()) w = getWidth() - x;
         if (w < 0) return;
 
         if (y < 0) {
@@ -1128,7 +1151,7 @@ public class PixselMap extends AbstractPixselMap {
             y = 0;
         }
 
-        if (h >= getHeight()) h = getHeight() - 1;
+        if (y + h > getHeight()) h = getHeight() - y;
         if (h < 0) return;
 
         synchronized (writeLock()) {
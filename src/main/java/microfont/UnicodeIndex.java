@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+/**
+ * Таблица для поиска символа шрифта по уникоду. Это хеш-таблица с открытой
+ * адресацией и линейным пробированием; ключи хранятся в массиве
+ * <code>int</code>, поэтому поиск не создаёт объектов.
+ * <p>
+ * Таблица не синхронизирована, все вызовы должны выполняться под монитором
+ * шрифта.
+ */
+final class UnicodeIndex {
+    /** Начальная ёмкость таблицы, должна быть степенью двойки. */
+    private static final int MIN_CAPACITY = 16;
+
+    /** Ключи таблицы. */
+    private int[]            keys;
+    /** Символы, соответствующие ключам; <b>null</b> для свободной ячейки. */
+    private MSymbol[]        values;
+    /** Количество занятых ячеек. */
+    private int              size;
+
+    /**
+     * Создание пустой таблицы.
+     */
+    UnicodeIndex() {
+        clear();
+    }
+
+    /**
+     * Удаляет все символы из таблицы.
+     */
+    void clear() {
+        keys = new int[MIN_CAPACITY];
+        values = new MSymbol[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Возвращает количество символов в таблице.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Возвращает символ с уникодом <code>unicode</code> или <b>null</b>, если
+     * такого символа нет.
+     */
+    MSymbol get(int unicode) {
+        int mask = keys.length - 1;
+
+        for (int i = hash(unicode) & mask;; i = (i + 1) & mask) {
+            MSymbol sym = values[i];
+            if (sym == null) return null;
+            if (keys[i] == unicode) return sym;
+        }
+    }
+
+    /**
+     * Добавляет символ в таблицу. Если символ с таким уникодом уже есть, то он
+     * заменяется.
+     * 
+     * @param unicode Уникод символа.
+     * @param sym Символ, не может быть <b>null</b>.
+     */
+    void put(int unicode, MSymbol sym) {
+        if ((size + 1) * 4 > keys.length * 3) rehash(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int i = hash(unicode) & mask;
+
+        while (values[i] != null) {
+            if (keys[i] == unicode) {
+                values[i] = sym;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = unicode;
+        values[i] = sym;
+        size++;
+    }
+
+    /**
+     * Удаляет символ из таблицы, если уникоду <code>unicode</code>
+     * соответствует именно символ <code>sym</code>.
+     * 
+     * @param unicode Уникод символа.
+     * @param sym Удаляемый символ.
+     */
+    void remove(int unicode, MSymbol sym) {
+        int mask = keys.length - 1;
+        int i = hash(unicode) & mask;
+
+        while (values[i] != null) {
+            if (keys[i] == unicode) {
+                if (values[i] != sym) return;
+                values[i] = null;
+                size--;
+                closeGap(i);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Сдвигает элементы, следующие за освобождённой ячейкой, чтобы цепочки
+     * пробирования не разрывались.
+     * 
+     * @param gap Освобождённая ячейка.
+     */
+    private void closeGap(int gap) {
+        int mask = keys.length - 1;
+        int i = (gap + 1) & mask;
+
+        while (values[i] != null) {
+            int home = hash(keys[i]) & mask;
+            // Элемент можно перенести, если его исходная ячейка не лежит
+            // циклически между освобождённой ячейкой и текущей позицией.
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                values[i] = null;
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Перестраивает таблицу с новой ёмкостью.
+     * 
+     * @param capacity Новая ёмкость, степень двойки.
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        MSymbol[] oldValues = values;
+
+        keys = new int[capacity];
+        values = new MSymbol[capacity];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Перемешивание битов уникода, чтобы близкие коды не попадали в соседние
+     * ячейки.
+     */
+    private static int hash(int unicode) {
+        int h = unicode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -16,12 +16,21 @@
 
 package microfont.edit;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoableEdit;
 
 /**
  * Реализация отменяемых операций <code>UndoableEdit</code>.
+ * <p>
+ * Операция сообщает примерный объём занимаемой памяти методом
+ * {@link #getSize()}. Операции, данные которых можно записать в поток, могут
+ * быть {@linkplain #spill(DataOutput) выгружены} {@linkplain UndoHistory
+ * историей} и {@linkplain #fault(DataInput) загружены} обратно перед отменой
+ * или повтором.
  */
 public class AbstractEdit implements UndoableEdit {
     private static final String DEFAULT_UNDO_NAME = "Undo";
@@ -33,6 +42,8 @@ public class AbstractEdit implements UndoableEdit {
     private boolean             isUndo;
     private boolean             isEmpty;
     private boolean             progress;
+    private boolean             spilled;
+    private boolean             sealed;
 
     /**
      * Создание отменяемой операции.
@@ -142,6 +153,107 @@ public class AbstractEdit implements UndoableEdit {
         else redoName = DEFAULT_REDO_NAME;
     }
 
+    /**
+     * Возвращает примерный объём памяти в байтах, занимаемый данными операции.
+     * Реализация по умолчанию возвращает размер самого объекта.
+     */
+    public int getSize() {
+        return 32;
+    }
+
+    /**
+     * Возвращает <code>true</code> если данные операции можно
+     * {@linkplain #spill(DataOutput) выгрузить}. Реализация по умолчанию
+     * возвращает <code>false</code>.
+     */
+    public boolean canSpill() {
+        return false;
+    }
+
+    /**
+     * Возвращает <code>true</code> если данные операции выгружены и перед
+     * отменой или повтором должны быть {@linkplain #fault(DataInput)
+     * загружены}.
+     */
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Записывает данные операции в поток и освобождает их.
+     * 
+     * @param out Поток для записи.
+     * @throws IOException при ошибке записи. Данные операции при этом не
+     *             освобождаются.
+     * @see #canSpill()
+     */
+    public void spill(DataOutput out) throws IOException {
+        if (spilled || !canSpill()) return;
+        writeData(out);
+        releaseData();
+        spilled = true;
+    }
+
+    /**
+     * Восстанавливает данные операции, записанные методом
+     * {@link #spill(DataOutput)}.
+     * 
+     * @param in Поток с данными операции.
+     * @throws IOException при ошибке чтения.
+     */
+    public void fault(DataInput in) throws IOException {
+        if (!spilled) return;
+        readData(in);
+        spilled = false;
+    }
+
+    /**
+     * Записывает данные операции. Вызывается из {@link #spill(DataOutput)}
+     * для операций, у которых {@link #canSpill()} возвращает
+     * <code>true</code>.
+     * 
+     * @param out Поток для записи.
+     * @throws IOException при ошибке записи.
+     */
+    protected void writeData(DataOutput out) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Читает данные, записанные {@link #writeData(DataOutput)}.
+     * 
+     * @param in Поток с данными.
+     * @throws IOException при ошибке чтения.
+     */
+    protected void readData(DataInput in) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Освобождает данные операции после их записи.
+     */
+    protected void releaseData() {
+    }
+
+    /**
+     * Запрещает слияние последующих операций с этой операцией. Вызывается,
+     * например, после сохранения документа, чтобы операция отмены не
+     * захватывала изменения до и после сохранения.
+     * 
+     * @see #addEdit(UndoableEdit)
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    /**
+     * Возвращает <code>true</code> если слияние с этой операцией
+     * {@linkplain #seal() запрещено}.
+     */
+    public boolean isSealed() {
+        return sealed;
+    }
+
     /**
      * Возвращает <code>true</code> если объект может принимать данные.<br>
      * После вызова {@link #end} возвращает </false>.
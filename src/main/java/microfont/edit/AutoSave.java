@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import microfont.AbstractMFont;
+import microfont.MFont;
+import microfont.ls.MFontBinary;
+
+/**
+ * Фоновое автосохранение шрифта в файл восстановления рядом с файлом шрифта.
+ * <p>
+ * Об изменениях шрифта сообщается методом {@link #changed()}, который только
+ * планирует сохранение и сразу возвращает управление. Сохранение выполняется
+ * в отдельном потоке с низким приоритетом: под блокировкой шрифта берётся
+ * его {@linkplain MFont#snapshot() снимок}, а запись снимка в
+ * {@linkplain MFontBinary двоичном формате} идёт уже без блокировки, поэтому
+ * рисование и редактирование шрифта не ждут записи.
+ * <p>
+ * Сохранения разделяются {@linkplain #getInterval() промежутком}, который не
+ * меньше {@linkplain #setMinInterval(long) заданного} и не меньше
+ * {@link #LOAD_FACTOR}-кратного времени последней записи. Пока изменения
+ * идут чаще, чем раз в {@linkplain #setIdle(long) паузу}, сохранение
+ * откладывается, но не больше чем на два промежутка.
+ * <p>
+ * После сохранения шрифта пользователем файл восстановления
+ * {@linkplain #discard() удаляется}. Оставшийся после аварийного завершения
+ * файл, более новый, чем файл шрифта, можно загрузить методом
+ * {@link #recover(File)}.
+ */
+public class AutoSave {
+    /** Промежуток между сохранениями по умолчанию, мс. */
+    public static final long DEFAULT_INTERVAL = 30000;
+    /** Пауза в изменениях по умолчанию, мс. */
+    public static final long DEFAULT_IDLE     = 2000;
+    /** Во сколько раз промежуток больше времени записи. */
+    public static final int  LOAD_FACTOR      = 20;
+
+    private final File       file;
+    private final ScheduledThreadPoolExecutor executor;
+    private volatile MFont   font;
+    private long             minInterval      = DEFAULT_INTERVAL;
+    private long             idle             = DEFAULT_IDLE;
+
+    /** Есть несохранённые изменения. */
+    private boolean          dirty;
+    /** Время первого несохранённого изменения, нс. */
+    private long             firstChange;
+    /** Время последнего изменения, нс. */
+    private long             lastChange;
+    /** Время окончания последней записи или создания объекта, нс. */
+    private long             lastSaveEnd;
+    /** Номер поколения, увеличивается при удалении файла. */
+    private int              generation;
+    private ScheduledFuture<?> pending;
+
+    private int              changes;
+    private int              saves;
+    private long             lastSaveTime;
+    private long             totalSaveTime;
+    private long             lastSaveBytes;
+    private long             bytesWritten;
+
+    private final Runnable   task             = new Runnable() {
+        @Override
+        public void run() {
+            save(false);
+        }
+    };
+
+    /**
+     * @param fontFile Файл шрифта, рядом с которым создаётся файл
+     *            восстановления.
+     */
+    public AutoSave(File fontFile) {
+        file = fileFor(fontFile);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "autosave " + file.getName());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        // Первое сохранение не раньше промежутка после открытия шрифта.
+        lastSaveEnd = System.nanoTime();
+    }
+
+    /**
+     * Возвращает файл восстановления для файла шрифта.
+     *
+     * @param fontFile Файл шрифта.
+     */
+    public static File fileFor(File fontFile) {
+        return new File(fontFile.getPath() + ".autosave");
+    }
+
+    /**
+     * Загружает шрифт из файла восстановления, если он новее файла шрифта.
+     * Устаревший файл восстановления удаляется.
+     *
+     * @param fontFile Файл шрифта.
+     * @return Восстановленный шрифт или <b>null</b>.
+     * @throws IOException При ошибке чтения файла восстановления.
+     */
+    public static MFont recover(File fontFile) throws IOException {
+        File f = fileFor(fontFile);
+        if (!f.isFile()) return null;
+        if (f.lastModified() < fontFile.lastModified()) {
+            f.delete();
+            return null;
+        }
+        return MFontBinary.load(f);
+    }
+
+    /**
+     * Возвращает файл восстановления.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Устанавливает сохраняемый шрифт.
+     */
+    public void setFont(MFont font) {
+        this.font = font;
+    }
+
+    /**
+     * Устанавливает наименьший промежуток между сохранениями.
+     *
+     * @param ms Промежуток в миллисекундах.
+     */
+    public synchronized void setMinInterval(long ms) {
+        minInterval = ms;
+    }
+
+    /**
+     * Устанавливает паузу в изменениях, после которой шрифт сохраняется.
+     *
+     * @param ms Пауза в миллисекундах.
+     */
+    public synchronized void setIdle(long ms) {
+        idle = ms;
+    }
+
+    /**
+     * Возвращает текущий промежуток между сохранениями в миллисекундах.
+     */
+    public synchronized long getInterval() {
+        return Math.max(minInterval, TimeUnit.NANOSECONDS.toMillis(
+                        lastSaveTime * LOAD_FACTOR));
+    }
+
+    /**
+     * Сообщает об изменении шрифта. Метод не ждёт сохранения.
+     */
+    public synchronized void changed() {
+        long now = System.nanoTime();
+        changes++;
+        lastChange = now;
+        if (!dirty) {
+            dirty = true;
+            firstChange = now;
+        }
+        if (pending == null) schedule(now);
+    }
+
+    /**
+     * Планирует сохранение не раньше конца промежутка после прошлой записи.
+     */
+    private void schedule(long now) {
+        if (executor.isShutdown()) return;
+        long at = Math.max(now + TimeUnit.MILLISECONDS.toNanos(idle),
+                        lastSaveEnd + TimeUnit.MILLISECONDS.toNanos(
+                                        getInterval()));
+        pending = executor.schedule(task, at - now, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Сохраняет шрифт в фоновом потоке, не дожидаясь паузы в изменениях.
+     *
+     * @return Задача сохранения.
+     */
+    public Future<?> flush() {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                save(true);
+            }
+        });
+    }
+
+    private void save(boolean now) {
+        MFont snapshot;
+        int gen;
+
+        synchronized (this) {
+            if (!now) pending = null;
+            MFont mf = font;
+            if (!dirty || mf == null) return;
+
+            long t = System.nanoTime();
+            long wait = TimeUnit.MILLISECONDS.toNanos(idle) - (t - lastChange);
+            long limit = 2 * TimeUnit.MILLISECONDS.toNanos(getInterval());
+            if (!now && wait > 0 && t - firstChange < limit) {
+                // Изменения продолжаются, сохранение откладывается.
+                pending = executor.schedule(task, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            // Изменения во время записи попадут в следующее сохранение.
+            dirty = false;
+            gen = generation;
+            snapshot = mf.snapshot();
+        }
+
+        long start = System.nanoTime();
+        try {
+            MFontBinary.save(snapshot, file);
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "autosave", e);
+            synchronized (this) {
+                lastSaveEnd = System.nanoTime();
+                if (gen == generation && !dirty) {
+                    dirty = true;
+                    firstChange = lastSaveEnd;
+                }
+                if (pending == null && dirty) schedule(lastSaveEnd);
+            }
+            return;
+        } finally {
+            snapshot.dispose();
+        }
+        long end = System.nanoTime();
+
+        synchronized (this) {
+            // Файл удалён во время записи.
+            if (gen != generation) {
+                file.delete();
+                return;
+            }
+            saves++;
+            lastSaveEnd = end;
+            lastSaveTime = end - start;
+            totalSaveTime += lastSaveTime;
+            lastSaveBytes = file.length();
+            bytesWritten += lastSaveBytes;
+            if (pending == null && dirty) schedule(end);
+        }
+    }
+
+    /**
+     * Отменяет запланированное сохранение и удаляет файл восстановления.
+     * Вызывается после сохранения шрифта пользователем или отказа от
+     * изменений. Метод не ждёт идущей записи, её результат будет удалён.
+     */
+    public synchronized void discard() {
+        generation++;
+        dirty = false;
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        file.delete();
+    }
+
+    /**
+     * Останавливает поток сохранения. Файл восстановления не удаляется.
+     */
+    public synchronized void close() {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        executor.shutdown();
+    }
+
+    /**
+     * Возвращает число сообщений об изменениях.
+     */
+    public synchronized int getChanges() {
+        return changes;
+    }
+
+    /**
+     * Возвращает число выполненных сохранений.
+     */
+    public synchronized int getSaves() {
+        return saves;
+    }
+
+    /**
+     * Возвращает время последней записи в миллисекундах.
+     */
+    public synchronized long getLastSaveTime() {
+        return TimeUnit.NANOSECONDS.toMillis(lastSaveTime);
+    }
+
+    /**
+     * Возвращает суммарное время записи в миллисекундах.
+     */
+    public synchronized long getTotalSaveTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalSaveTime);
+    }
+
+    /**
+     * Возвращает размер последней записи в байтах.
+     */
+    public synchronized long getLastSaveBytes() {
+        return lastSaveBytes;
+    }
+
+    /**
+     * Возвращает суммарный размер записей в байтах.
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.logging.Level;
+import microfont.AbstractMFont;
+import microfont.DisallowOperationException;
+import microfont.MSymbol;
+
+/**
+ * Запись и чтение данных отменяемых операций при
+ * {@linkplain AbstractEdit#spill(java.io.DataOutput) выгрузке}.
+ */
+final class EditData {
+    private EditData() {
+    }
+
+    /**
+     * Возвращает объём памяти, занимаемый пикселями символа.
+     */
+    static int sizeOf(MSymbol sym) {
+        if (sym == null) return 0;
+        return 32 + (sym.getWidth() + 7) / 8 * sym.getHeight();
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeBytes(DataOutput out, byte[] b) throws IOException {
+        if (b == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * Записывает символ без получателей сообщений и владельца.
+     *
+     * @param out Поток для записи.
+     * @param sym Символ, может быть <b>null</b>.
+     * @throws IOException при ошибке записи.
+     */
+    static void writeSymbol(DataOutput out, MSymbol sym) throws IOException {
+        out.writeBoolean(sym != null);
+        if (sym == null) return;
+
+        out.writeInt(sym.getCode());
+        out.writeBoolean(sym.isUnicode());
+        out.writeInt(sym.getUnicode());
+        out.writeInt(sym.getWidth());
+        out.writeInt(sym.getHeight());
+        writeBytes(out, sym.getBytes());
+    }
+
+    /**
+     * Читает символ, записанный {@link #writeSymbol(DataOutput, MSymbol)}.
+     *
+     * @param in Поток с данными.
+     * @return Символ или <b>null</b>.
+     * @throws IOException при ошибке чтения.
+     */
+    static MSymbol readSymbol(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+
+        int code = in.readInt();
+        boolean hasUnicode = in.readBoolean();
+        int unicode = in.readInt();
+        int w = in.readInt();
+        int h = in.readInt();
+        MSymbol sym = new MSymbol(code, w, h, readBytes(in));
+
+        if (hasUnicode) {
+            try {
+                sym.setUnicode(unicode);
+            } catch (DisallowOperationException e) {
+                // Символ без владельца, исключения быть не должно.
+                AbstractMFont.logger().log(Level.SEVERE, "read symbol", e);
+            }
+        }
+        return sym;
+    }
+}
@@ -0,0 +1,640 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import microfont.AbstractMFont;
+import microfont.AbstractPixselMap;
+import microfont.DirtyRegion;
+import microfont.MFont;
+import microfont.MSymbol;
+import microfont.PixselMap;
+import microfont.events.PixselMapEvent;
+import microfont.events.PixselMapListener;
+import microfont.ls.AtomicFile;
+
+/**
+ * Журнал изменений шрифта, записываемый рядом с файлом шрифта.
+ * <p>
+ * Журнал получает сообщения шрифта и его символов и накапливает изменившиеся
+ * области символов. При {@linkplain #flush() сбросе} в конец файла журнала
+ * дописываются записи с текущим содержимым этих областей, целыми символами,
+ * если изменились их размеры или коды, номерами удалённых символов и
+ * свойствами шрифта. Записи не зависят от истории отмен, поэтому отмена и
+ * повтор операций попадают в журнал так же, как и сами операции.
+ * <p>
+ * Заголовок журнала содержит длину и время изменения файла шрифта. При
+ * создании журнала записи из файла с совпадающим заголовком
+ * {@linkplain #getReplayed() применяются} к загруженному шрифту, поэтому
+ * изменения, не сохранённые из-за аварийного завершения, восстанавливаются.
+ * После {@linkplain #reset() полного сохранения} шрифта журнал очищается.
+ * Когда число записей превышает {@linkplain #setCompactLimit(int) предел},
+ * журнал {@linkplain #compact() уплотняется}.
+ */
+public class Journal {
+    /** Предел числа записей по умолчанию. */
+    public static final int     DEFAULT_COMPACT_LIMIT = 4096;
+
+    private static final int    MAGIC                 = 0x4D464A31;
+    private static final int    REC_PROPS             = 1;
+    private static final int    REC_SYMBOL            = 2;
+    private static final int    REC_REMOVE            = 3;
+    private static final int    REC_REGION            = 4;
+
+    private final MFont         font;
+    private final File          fontFile;
+    private final File          file;
+    private DataOutputStream    out;
+    /** Буфер для одной записи. */
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    /** Номера символов, изменённых после полного сохранения. */
+    private final TreeSet<Integer> touched = new TreeSet<Integer>();
+    /** Свойства шрифта изменялись после полного сохранения. */
+    private boolean             propsTouched;
+    private int                 records;
+    /** Число записей после последнего уплотнения. */
+    private int                 compacted;
+    private int                 compactLimit          = DEFAULT_COMPACT_LIMIT;
+    private int                 replayed;
+
+    /** Блокировка накопленных изменений. */
+    private final Object        pendingLock           = new Object();
+    /** Изменившиеся символы, <b>null</b> если символ записывается целиком. */
+    private IdentityHashMap<MSymbol, DirtyRegion> pending;
+    /** Номера символов, которые могли быть удалены. */
+    private TreeSet<Integer>    removed;
+    private boolean             props;
+
+    private final Tracker       tracker               = new Tracker();
+
+    /**
+     * Накапливает изменения шрифта и его символов до сброса журнала.
+     */
+    private class Tracker implements PixselMapListener,
+                    PropertyChangeListener {
+        @Override
+        public void pixselChanged(PixselMapEvent event) {
+            if (!(event.getSource() instanceof MSymbol)) return;
+
+            MSymbol sym = (MSymbol) event.getSource();
+            synchronized (pendingLock) {
+                DirtyRegion r = pending.get(sym);
+                if (r == null) {
+                    // Символ уже записывается целиком.
+                    if (pending.containsKey(sym)) return;
+                    r = new DirtyRegion();
+                    pending.put(sym, r);
+                }
+                for (Rectangle rect : event.rects()) {
+                    r.add(rect);
+                }
+            }
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            String name = event.getPropertyName();
+            Object src = event.getSource();
+
+            synchronized (pendingLock) {
+                if (src instanceof MSymbol) {
+                    if (MSymbol.PROPERTY_CODE.equals(name)
+                                    && event.getOldValue() instanceof Integer)
+                        removed.add((Integer) event.getOldValue());
+                    // Размер, код или уникод символа.
+                    pending.put((MSymbol) src, null);
+                } else if (AbstractMFont.PROPERTY_SYMBOLS.equals(name)) {
+                    if (event.getOldValue() instanceof MSymbol)
+                        removed.add(((MSymbol) event.getOldValue())
+                                        .getCode());
+                    if (event.getNewValue() instanceof MSymbol)
+                        pending.put((MSymbol) event.getNewValue(), null);
+                } else if (!AbstractMFont.PROPERTY_BATCH.equals(name)) {
+                    props = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Создание журнала шрифта. Если журнал уже существует и относится к
+     * текущему состоянию файла шрифта, то его записи применяются к шрифту, а
+     * сам журнал уплотняется. Иначе создаётся пустой журнал.
+     *
+     * @param fontFile Файл, из которого загружен шрифт.
+     * @param font Загруженный шрифт.
+     * @throws IOException при ошибке создания журнала.
+     */
+    public Journal(File fontFile, MFont font) throws IOException {
+        this.font = font;
+        this.fontFile = fontFile;
+        file = fileFor(fontFile);
+        clearPending();
+
+        if (file.exists()) {
+            try {
+                replay();
+            } catch (IOException e) {
+                AbstractMFont.logger().log(Level.WARNING, "replay journal", e);
+            }
+        }
+
+        if (replayed > 0) {
+            rewrite();
+        } else {
+            touched.clear();
+            propsTouched = false;
+            create();
+        }
+
+        font.addPixselMapListener(tracker);
+        font.addPropertyChangeListener(tracker);
+    }
+
+    /**
+     * Возвращает файл журнала для файла шрифта.
+     *
+     * @param fontFile Файл шрифта.
+     */
+    public static File fileFor(File fontFile) {
+        return new File(fontFile.getPath() + ".journal");
+    }
+
+    /**
+     * Возвращает файл журнала.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Возвращает число записей, применённых к шрифту при создании журнала.
+     * Если оно больше нуля, то шрифт отличается от сохранённого в файле.
+     */
+    public int getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * Возвращает число записей в журнале.
+     */
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Возвращает предел числа записей, при превышении которого журнал
+     * уплотняется.
+     */
+    public synchronized int getCompactLimit() {
+        return compactLimit;
+    }
+
+    /**
+     * Устанавливает предел числа записей, при превышении которого журнал
+     * уплотняется. Предел отсчитывается от числа записей после последнего
+     * уплотнения.
+     *
+     * @param limit Предел, больше нуля.
+     */
+    public synchronized void setCompactLimit(int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("limit=" + limit);
+        compactLimit = limit;
+    }
+
+    /**
+     * Дописывает накопленные изменения в журнал. Записи буферизуются и
+     * передаются системе одним блоком.
+     */
+    public synchronized void flush() {
+        if (out == null) return;
+
+        IdentityHashMap<MSymbol, DirtyRegion> syms;
+        TreeSet<Integer> codes;
+        boolean p;
+
+        synchronized (pendingLock) {
+            if (pending.isEmpty() && removed.isEmpty() && !props) return;
+            syms = pending;
+            codes = removed;
+            p = props;
+            clearPending();
+        }
+
+        try {
+            int n = records;
+            if (p) {
+                writeProps();
+                propsTouched = true;
+            }
+
+            for (Map.Entry<MSymbol, DirtyRegion> e : syms.entrySet()) {
+                MSymbol sym = e.getKey();
+                if (!font.isBelong(sym)) continue;
+
+                // Копия с общим массивом пикселей не меняется при записи.
+                MSymbol copy = new MSymbol(sym);
+                codes.remove(copy.getCode());
+                touched.add(copy.getCode());
+
+                DirtyRegion r = e.getValue();
+                try {
+                    if (r == null) writeSymbol(copy);
+                    else writeRegions(copy, r);
+                } finally {
+                    copy.dispose();
+                }
+            }
+
+            for (Integer code : codes) {
+                MSymbol sym = font.symbolByCode(code);
+                touched.add(code);
+                if (sym == null) writeRemove(code);
+                else writeCopy(sym);
+            }
+
+            out.flush();
+            if (records - compacted >= compactLimit && records > n) compact();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "write journal", e);
+        }
+    }
+
+    /**
+     * Переписывает журнал так, что для каждого изменённого символа остаётся
+     * одна запись с его текущим состоянием.
+     */
+    public synchronized void compact() {
+        flush();
+        try {
+            rewrite();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "compact journal", e);
+        }
+    }
+
+    /**
+     * Записывает шрифт в журнал целиком, как если бы он был полностью изменён
+     * после загрузки из файла шрифта: свойства, все символы и удаление
+     * символов файла, которых в шрифте нет. Нужен, когда шрифт получен не из
+     * файла шрифта, например {@linkplain AutoSave#recover(File) восстановлен}
+     * из автосохранения.
+     *
+     * @param base Шрифт, загруженный из файла шрифта.
+     */
+    public synchronized void rebase(MFont base) {
+        flush();
+        propsTouched = true;
+        for (int i = 0; i < base.length(); i++) {
+            touched.add(base.symbolByIndex(i).getCode());
+        }
+        for (int i = 0; i < font.length(); i++) {
+            touched.add(font.symbolByIndex(i).getCode());
+        }
+        try {
+            rewrite();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "rebase journal", e);
+        }
+    }
+
+    /**
+     * Очищает журнал после полного сохранения шрифта. Накопленные изменения
+     * отбрасываются, так как уже сохранены в файле шрифта.
+     */
+    public synchronized void reset() {
+        synchronized (pendingLock) {
+            clearPending();
+        }
+        touched.clear();
+        propsTouched = false;
+
+        try {
+            closeStream();
+            create();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "reset journal", e);
+        }
+    }
+
+    /**
+     * Сбрасывает изменения и закрывает журнал. Пустой журнал удаляется, иначе
+     * он будет применён при следующей загрузке шрифта.
+     */
+    public synchronized void close() {
+        flush();
+        detach();
+        closeStream();
+        if (records == 0) delete();
+    }
+
+    /**
+     * Закрывает и удаляет журнал. Изменения, не сохранённые в файле шрифта,
+     * теряются.
+     */
+    public synchronized void discard() {
+        detach();
+        closeStream();
+        delete();
+    }
+
+    private void clearPending() {
+        pending = new IdentityHashMap<MSymbol, DirtyRegion>();
+        removed = new TreeSet<Integer>();
+        props = false;
+    }
+
+    private void detach() {
+        font.removePixselMapListener(tracker);
+        font.removePropertyChangeListener(tracker);
+    }
+
+    private void closeStream() {
+        if (out == null) return;
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "close journal", e);
+        }
+        out = null;
+    }
+
+    private void delete() {
+        if (file.exists() && !file.delete())
+            AbstractMFont.logger().log(Level.WARNING,
+                            "can't delete journal " + file);
+    }
+
+    /**
+     * Создаёт пустой журнал для текущего состояния файла шрифта.
+     */
+    private void create() throws IOException {
+        out = open(file, false);
+        writeHeader(out);
+        out.flush();
+        records = 0;
+        compacted = 0;
+    }
+
+    /**
+     * Записывает уплотнённый журнал во временный файл и заменяет им текущий.
+     * Замена выполняется переименованием, поэтому при ошибке или аварийном
+     * завершении на месте журнала остаётся прежний журнал целиком. В любом
+     * случае журнал после вызова открыт для дописывания.
+     */
+    private void rewrite() throws IOException {
+        closeStream();
+
+        AtomicFile af = new AtomicFile(file);
+        int old = records;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                            af.startWrite()));
+            records = 0;
+            writeHeader(out);
+            if (propsTouched) writeProps();
+            for (Integer code : touched) {
+                MSymbol sym = font.symbolByCode(code);
+                if (sym == null) writeRemove(code);
+                else writeCopy(sym);
+            }
+            out.flush();
+            af.finishWrite();
+            compacted = records;
+            old = records;
+        } finally {
+            af.abortWrite();
+            records = old;
+            out = open(file, true);
+        }
+    }
+
+    private static DataOutputStream open(File f, boolean append)
+                    throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(f, append)));
+    }
+
+    private void writeHeader(DataOutputStream o) throws IOException {
+        o.writeInt(MAGIC);
+        o.writeLong(fontFile.length());
+        o.writeLong(fontFile.lastModified());
+    }
+
+    /**
+     * Применяет записи журнала к шрифту, если журнал относится к текущему
+     * состоянию файла шрифта. Повреждённый конец журнала, например после
+     * аварийного завершения посреди записи, пропускается.
+     */
+    private void replay() throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC || in.readLong() != fontFile.length()
+                            || in.readLong() != fontFile.lastModified())
+                return;
+        } catch (EOFException e) {
+            return;
+        }
+
+        MFontEdit.State last = null;
+        font.beginBatch();
+        try {
+            while (true) {
+                int type;
+                byte[] rec;
+                try {
+                    type = in.readByte();
+                    rec = new byte[in.readInt()];
+                    in.readFully(rec);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                DataInputStream r = new DataInputStream(
+                                new ByteArrayInputStream(rec));
+                try {
+                    MFontEdit.State s = apply(type, r);
+                    if (s != null) last = s;
+                } catch (RuntimeException e) {
+                    AbstractMFont.logger().log(Level.WARNING,
+                                    "bad journal record", e);
+                    break;
+                } catch (IOException e) {
+                    AbstractMFont.logger().log(Level.WARNING,
+                                    "bad journal record", e);
+                    break;
+                }
+                replayed++;
+            }
+            // Метрики проверяются по размерам символов.
+            if (last != null) last.applyRest(font);
+        } finally {
+            font.endBatch();
+        }
+    }
+
+    /**
+     * Применяет одну запись журнала.
+     *
+     * @return Свойства шрифта, если это запись свойств, иначе <b>null</b>.
+     */
+    private MFontEdit.State apply(int type, DataInputStream in)
+                    throws IOException {
+        switch (type) {
+        case REC_PROPS:
+            MFontEdit.State s = new MFontEdit.State(in);
+            s.applySize(font);
+            s.applyRest(font);
+            propsTouched = true;
+            return s;
+        case REC_SYMBOL:
+            MSymbol sym = EditData.readSymbol(in);
+            touched.add(sym.getCode());
+            font.add(sym);
+            return null;
+        case REC_REMOVE:
+            int code = in.readInt();
+            touched.add(code);
+            font.removeByCode(code);
+            return null;
+        case REC_REGION:
+            code = in.readInt();
+            int x = in.readInt(), y = in.readInt();
+            int w = in.readInt(), h = in.readInt();
+            byte[] packed = EditData.readBytes(in);
+            touched.add(code);
+            sym = font.symbolByCode(code);
+            if (sym == null) throw new IOException("no symbol " + code);
+            sym.overlay(x, y, new AbstractPixselMap(w, h, packed),
+                            PixselMap.OVERLAY_PLACE);
+            return null;
+        default:
+            throw new IOException("unknown record " + type);
+        }
+    }
+
+    private DataOutputStream record() {
+        buf.reset();
+        return new DataOutputStream(buf);
+    }
+
+    private void writeRecord(int type, DataOutputStream rec)
+                    throws IOException {
+        rec.flush();
+        out.writeByte(type);
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+        records++;
+    }
+
+    private void writeProps() throws IOException {
+        DataOutputStream rec = record();
+        new MFontEdit.State(font).write(rec);
+        writeRecord(REC_PROPS, rec);
+    }
+
+    private void writeSymbol(MSymbol sym) throws IOException {
+        DataOutputStream rec = record();
+        EditData.writeSymbol(rec, sym);
+        writeRecord(REC_SYMBOL, rec);
+    }
+
+    /**
+     * Записывает символ через временную копию с общим массивом пикселей,
+     * которая освобождается сразу после записи.
+     */
+    private void writeCopy(MSymbol sym) throws IOException {
+        MSymbol copy = new MSymbol(sym);
+        try {
+            writeSymbol(copy);
+        } finally {
+            copy.dispose();
+        }
+    }
+
+    private void writeRemove(int code) throws IOException {
+        DataOutputStream rec = record();
+        rec.writeInt(code);
+        writeRecord(REC_REMOVE, rec);
+    }
+
+    /**
+     * Записывает содержимое изменившихся областей символа. Если области
+     * занимают больше половины символа, то символ записывается целиком.
+     */
+    private void writeRegions(MSymbol sym, DirtyRegion region)
+                    throws IOException {
+        Rectangle bounds = new Rectangle(0, 0, sym.getWidth(),
+                        sym.getHeight());
+        Rectangle[] rects = region.getRectangles();
+        int area = 0;
+
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = rects[i].intersection(bounds);
+            if (!rects[i].isEmpty()) area += rects[i].width * rects[i].height;
+        }
+        if (area * 2 > bounds.width * bounds.height) {
+            writeSymbol(sym);
+            return;
+        }
+
+        for (Rectangle r : rects) {
+            if (r.isEmpty()) continue;
+
+            int n = r.width * r.height;
+            byte[] packed = new byte[(n + 7) / 8];
+            for (int i = 0; i < n; i++) {
+                if (sym.getPixsel(r.x + i % r.width, r.y + i / r.width))
+                    packed[i >> 3] |= (byte) (1 << (i & 7));
+            }
+
+            DataOutputStream rec = record();
+            rec.writeInt(sym.getCode());
+            rec.writeInt(r.x);
+            rec.writeInt(r.y);
+            rec.writeInt(r.width);
+            rec.writeInt(r.height);
+            EditData.writeBytes(rec, packed);
+            writeRecord(REC_REGION, rec);
+        }
+    }
+}
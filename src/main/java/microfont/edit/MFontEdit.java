@@ -16,55 +16,364 @@
 
 package microfont.edit;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import javax.swing.undo.UndoableEdit;
+import microfont.AbstractMFont;
+import microfont.DisallowOperationException;
 import microfont.MFont;
+import microfont.MSymbol;
+import microfont.Metrics;
 
 /**
  * Отменяемая операция для {@linkplain MFont шрифта}.
- * 
+ * <p>
+ * Операция хранит не копии всего шрифта до и после изменения, а только
+ * разницу между ними: свойства шрифта и копии тех символов, которые были
+ * изменены, добавлены или удалены. Поэтому объём памяти зависит от размера
+ * изменения, а не от размера шрифта. До {@linkplain #end() завершения}
+ * операции хранится {@linkplain MFont#snapshot() снимок} шрифта, символы
+ * которого используют общие с шрифтом массивы пикселей, пока символы шрифта
+ * не изменятся.
+ *
  * @author Nick Egorov
  */
 public class MFontEdit extends AbstractEdit {
-    MFont owner;
-    MFont before;
-    MFont after;
+    MFont               owner;
+    /** Снимок шрифта до изменения, существует до вызова {@link #end()}. */
+    MFont               before;
+    /** Свойства шрифта до изменения. */
+    State               undoState;
+    /** Свойства шрифта после изменения. */
+    State               redoState;
+    /** Изменившиеся символы до изменения, <b>null</b> для добавленных. */
+    ArrayList<MSymbol>  undoSymbols;
+    /** Изменившиеся символы после изменения, <b>null</b> для удалённых. */
+    ArrayList<MSymbol>  redoSymbols;
+
+    /**
+     * Свойства шрифта без символов.
+     */
+    static final class State {
+        final boolean   fixsed;
+        final int       width;
+        final int       height;
+        final String    codePage;
+        final Charset   charset;
+        final String    name;
+        final String    prototype;
+        final String    description;
+        final int[]     metrics;
+        final boolean[] actually;
+
+        State(MFont mf) {
+            fixsed = mf.isFixsed();
+            width = mf.getWidth();
+            height = mf.getHeight();
+            codePage = mf.getCodePage();
+            charset = mf.getCharset();
+            name = mf.getName();
+            prototype = mf.getPrototype();
+            description = mf.getDescriptin();
+            metrics = new int[Metrics.METRIC_MAX + 1];
+            actually = new boolean[Metrics.METRIC_MAX + 1];
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                metrics[i] = mf.getMetric(i);
+                actually[i] = mf.isMetricActually(i);
+            }
+        }
+
+        State(DataInput in) throws IOException {
+            fixsed = in.readBoolean();
+            width = in.readInt();
+            height = in.readInt();
+            codePage = EditData.readString(in);
+            String cs = EditData.readString(in);
+            charset = cs == null ? null : Charset.forName(cs);
+            name = EditData.readString(in);
+            prototype = EditData.readString(in);
+            description = EditData.readString(in);
+            metrics = new int[Metrics.METRIC_MAX + 1];
+            actually = new boolean[Metrics.METRIC_MAX + 1];
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                metrics[i] = in.readInt();
+                actually[i] = in.readBoolean();
+            }
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(fixsed);
+            out.writeInt(width);
+            out.writeInt(height);
+            EditData.writeString(out, codePage);
+            EditData.writeString(out, charset == null ? null : charset.name());
+            EditData.writeString(out, name);
+            EditData.writeString(out, prototype);
+            EditData.writeString(out, description);
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                out.writeInt(metrics[i]);
+                out.writeBoolean(actually[i]);
+            }
+        }
+
+        /**
+         * Устанавливает свойства, от которых зависят размеры символов. Порядок
+         * такой же, как в {@link MFont#copy(MFont)}.
+         */
+        void applySize(MFont mf) {
+            mf.setFixsed(fixsed);
+            // Для не моноширинного шрифта ширина определяется символами.
+            if (fixsed) mf.setWidth(width);
+            mf.setHeight(height);
+            if (charset != null) {
+                if (!charset.equals(mf.getCharset())) mf.setCharset(charset);
+            } else if (!equal(codePage, mf.getCodePage())) {
+                mf.setCodePage(codePage);
+            }
+        }
+
+        /**
+         * Устанавливает остальные свойства. Метрики проверяются по размерам
+         * символов, поэтому устанавливаются после символов.
+         */
+        void applyRest(MFont mf) {
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                mf.setMetricActually(i, actually[i]);
+                mf.setMetric(i, metrics[i]);
+            }
+            mf.setName(name);
+            mf.setPrototype(prototype);
+            mf.setDescriptin(description);
+        }
+
+        boolean same(State s) {
+            if (fixsed != s.fixsed || width != s.width || height != s.height)
+                return false;
+            if (!equal(codePage, s.codePage) || !equal(charset, s.charset))
+                return false;
+            if (!equal(name, s.name) || !equal(prototype, s.prototype)
+                            || !equal(description, s.description))
+                return false;
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                if (actually[i] != s.actually[i]) return false;
+                if (metrics[i] != s.metrics[i]) return false;
+            }
+            return true;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 
     public MFontEdit(MFont mf, String operation) {
         super(operation);
         owner = mf;
-        before = mf.clone();
+        before = mf.snapshot();
+        undoState = new State(before);
     }
 
     @Override
     public void undo() {
         super.undo();
 
-        owner.copy(before);
+        apply(undoState, undoSymbols, redoSymbols);
     }
 
     @Override
     public void redo() {
         super.redo();
 
-        owner.copy(after);
+        apply(redoState, redoSymbols, undoSymbols);
+    }
+
+    /**
+     * Приводит шрифт к состоянию <code>state</code> с символами
+     * <code>target</code>. Символы из <code>current</code> с теми же номерами
+     * удаляются, если соответствующий символ <code>target</code> равен
+     * <b>null</b>.
+     */
+    private void apply(State state, ArrayList<MSymbol> target,
+                    ArrayList<MSymbol> current) {
+        owner.beginBatch();
+        try {
+            state.applySize(owner);
+
+            for (int i = 0; i < target.size(); i++) {
+                MSymbol t = target.get(i);
+
+                if (t == null) {
+                    owner.removeByCode(current.get(i).getCode());
+                    continue;
+                }
+
+                MSymbol sym = owner.symbolByCode(t.getCode());
+                if (sym == null) {
+                    owner.add(t.clone());
+                    continue;
+                }
+
+                try {
+                    sym.copy(t);
+                } catch (DisallowOperationException e) {
+                    AbstractMFont.logger().log(Level.SEVERE,
+                                    "copy fail in font edit", e);
+                }
+            }
+
+            state.applyRest(owner);
+        } finally {
+            owner.endBatch();
+        }
+    }
+
+    /**
+     * Изменения символов уже входят в разницу шрифта, поэтому вложенные
+     * {@linkplain MSymbolEdit операции символов} поглощаются и уничтожаются.
+     */
+    @Override
+    public boolean addEdit(UndoableEdit anEdit) {
+        if (!(anEdit instanceof MSymbolEdit) || !isInProgress()) return false;
+
+        anEdit.die();
+        return true;
+    }
+
+    /**
+     * Возвращает объём пикселей сохранённых символов.
+     */
+    @Override
+    public int getSize() {
+        int size = super.getSize();
+        if (isSpilled() || undoSymbols == null) return size;
+
+        for (int i = 0; i < undoSymbols.size(); i++) {
+            size += EditData.sizeOf(undoSymbols.get(i));
+            size += EditData.sizeOf(redoSymbols.get(i));
+        }
+        return size;
+    }
+
+    /**
+     * Выгружать можно только завершённую операцию.
+     */
+    @Override
+    public boolean canSpill() {
+        return !isInProgress() && isLive();
+    }
+
+    @Override
+    protected void writeData(DataOutput out) throws IOException {
+        undoState.write(out);
+        redoState.write(out);
+        out.writeInt(undoSymbols.size());
+        for (int i = 0; i < undoSymbols.size(); i++) {
+            EditData.writeSymbol(out, undoSymbols.get(i));
+            EditData.writeSymbol(out, redoSymbols.get(i));
+        }
+    }
+
+    @Override
+    protected void readData(DataInput in) throws IOException {
+        undoState = new State(in);
+        redoState = new State(in);
+
+        int n = in.readInt();
+        undoSymbols = new ArrayList<MSymbol>(n);
+        redoSymbols = new ArrayList<MSymbol>(n);
+        for (int i = 0; i < n; i++) {
+            undoSymbols.add(EditData.readSymbol(in));
+            redoSymbols.add(EditData.readSymbol(in));
+        }
+    }
+
+    @Override
+    protected void releaseData() {
+        undoState = null;
+        redoState = null;
+        undoSymbols = null;
+        redoSymbols = null;
     }
 
     @Override
     public void die() {
         super.die();
         owner = null;
+        if (before != null) before.dispose();
         before = null;
-        after = null;
+        undoState = null;
+        redoState = null;
+        undoSymbols = null;
+        redoSymbols = null;
     }
 
+    /**
+     * Завершает приём изменений и вычисляет разницу между снимком и текущим
+     * состоянием шрифта. Если шрифт не изменился, то операция
+     * {@linkplain #die() уничтожается}.
+     */
     @Override
     public void end() {
+        if (!isInProgress()) return;
         super.end();
+        if (!isLive()) return;
+
+        undoSymbols = new ArrayList<MSymbol>();
+        redoSymbols = new ArrayList<MSymbol>();
 
-        if (owner.equals(before)) {
+        MFont after = owner.snapshot();
+        redoState = new State(after);
+        diff(before, after);
+        // Снимки больше не нужны, символы шрифта снова владеют массивами.
+        before.dispose();
+        after.dispose();
+        before = null;
+
+        if (undoSymbols.isEmpty() && undoState.same(redoState)) {
             die();
             return;
         }
 
-        after = owner.clone();
+        undoSymbols.trimToSize();
+        redoSymbols.trimToSize();
+    }
+
+    /**
+     * Сравнивает символы снимков. Символы обоих снимков упорядочены по
+     * возрастанию кода, поэтому достаточно одного прохода. Не изменённые
+     * символы снимков используют общие массивы пикселей, поэтому их сравнение
+     * не требует перебора пикселей.
+     */
+    private void diff(MFont old, MFont cur) {
+        int i = 0, j = 0;
+        int on = old.length(), cn = cur.length();
+
+        while (i < on || j < cn) {
+            MSymbol o = i < on ? old.symbolByIndex(i) : null;
+            MSymbol c = j < cn ? cur.symbolByIndex(j) : null;
+
+            if (c == null || (o != null && o.getCode() < c.getCode())) {
+                // Символ удалён.
+                undoSymbols.add(o.clone());
+                redoSymbols.add(null);
+                i++;
+            } else if (o == null || c.getCode() < o.getCode()) {
+                // Символ добавлен.
+                undoSymbols.add(null);
+                redoSymbols.add(c.clone());
+                j++;
+            } else {
+                if (!o.equals(c)) {
+                    undoSymbols.add(o.clone());
+                    redoSymbols.add(c.clone());
+                }
+                i++;
+                j++;
+            }
+        }
     }
 }
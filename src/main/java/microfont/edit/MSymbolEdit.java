@@ -16,25 +16,79 @@
 
 package microfont.edit;
 
+import java.awt.Rectangle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.logging.Level;
+import javax.swing.undo.UndoableEdit;
 import microfont.AbstractMFont;
+import microfont.DirtyRegion;
 import microfont.DisallowOperationException;
 import microfont.MSymbol;
+import microfont.events.PixselMapEvent;
+import microfont.events.PixselMapListener;
 
+/**
+ * Отменяемая операция для {@linkplain MSymbol символа}.
+ * <p>
+ * До {@linkplain #end() завершения} операция хранит копию символа с общим
+ * массивом пикселей и собирает области изменений из сообщений символа. При
+ * завершении вычисляется {@linkplain XorDelta разница} пикселей внутри
+ * изменившейся области, а копия освобождается. Если изменились размеры, код
+ * или уникод символа, то хранятся копии символа до и после изменения, также с
+ * общими массивами пикселей.
+ * <p>
+ * Последовательные операции с одним и тем же символом и названием,
+ * завершённые в пределах {@linkplain #setCoalesceTime(long) интервала
+ * слияния}, {@linkplain #addEdit(UndoableEdit) сливаются} в одну операцию с
+ * общей разницей. Например, штрихи рисования мышью отменяются одним шагом.
+ */
 public class MSymbolEdit extends AbstractEdit {
-    MSymbol owner;
-    MSymbol before;
-    MSymbol after;
+    /** Интервал слияния по умолчанию, мс. */
+    public static final long DEFAULT_COALESCE_TIME = 1500;
+    private static long      coalesceTime          = DEFAULT_COALESCE_TIME;
+
+    MSymbol     owner;
+    /** Символ до изменения. После завершения, только если нет разницы. */
+    MSymbol     before;
+    /** Символ после изменения, только если нет разницы. */
+    MSymbol     after;
+    /** Разница пикселей до и после изменения. */
+    XorDelta    delta;
+    /** Области изменений, собранные до завершения операции. */
+    DirtyRegion region;
+    /** Время завершения операции. */
+    long        time;
+
+    /** Собирает области изменений символа. */
+    private final PixselMapListener tracker = new PixselMapListener() {
+        @Override
+        public void pixselChanged(PixselMapEvent event) {
+            synchronized (MSymbolEdit.this) {
+                if (region == null) return;
+                for (Rectangle r : event.rects()) {
+                    region.add(r);
+                }
+            }
+        }
+    };
 
     public MSymbolEdit(MSymbol mSymbol, String operation) {
         super(operation);
         owner = mSymbol;
-        before = mSymbol.clone();
+        before = new MSymbol(mSymbol);
+        region = new DirtyRegion();
+        mSymbol.addPixselMapListener(tracker);
     }
 
     @Override
     public void undo() {
         super.undo();
+        if (delta != null) {
+            delta.apply(owner);
+            return;
+        }
         try {
             owner.copy(before);
         } catch (NullPointerException e) {
@@ -47,6 +101,10 @@ public class MSymbolEdit extends AbstractEdit {
     @Override
     public void redo() {
         super.redo();
+        if (delta != null) {
+            delta.apply(owner);
+            return;
+        }
         try {
             owner.copy(after);
         } catch (NullPointerException e) {
@@ -56,23 +114,191 @@ public class MSymbolEdit extends AbstractEdit {
         }
     }
 
+    /**
+     * Уничтожает операцию. Незавершённая операция перестаёт получать
+     * сообщения символа, копии символа освобождаются.
+     */
     @Override
     public void die() {
         super.die();
+
+        boolean tracking;
+        synchronized (this) {
+            tracking = region != null;
+            region = null;
+        }
+        if (tracking && owner != null) owner.removePixselMapListener(tracker);
+
+        dispose(before);
+        dispose(after);
         owner = null;
         before = null;
         after = null;
+        delta = null;
+    }
+
+    private static void dispose(MSymbol sym) {
+        if (sym != null) sym.dispose();
     }
 
     @Override
     public void end() {
+        if (!isInProgress()) return;
         super.end();
+        owner.removePixselMapListener(tracker);
+
+        DirtyRegion r;
+        synchronized (this) {
+            r = region;
+            region = null;
+        }
 
-        if (owner.equals(before)) {
-            die();
+        if (!isLive()) return;
+
+        time = System.currentTimeMillis();
+        MSymbol current = new MSymbol(owner);
+
+        if (!sameShape(before, current)) {
+            after = current;
+            return;
+        }
+
+        if (!r.isEmpty()) {
+            Rectangle bounds = r.getBounds().intersection(
+                            new Rectangle(0, 0, current.getWidth(),
+                                            current.getHeight()));
+            if (!bounds.isEmpty())
+                delta = XorDelta.create(before, current, bounds);
+        }
+
+        if (delta == null) {
+            // Изменения без сообщений сохраняются целиком.
+            if (before.equals(current)) {
+                current.dispose();
+                die();
+            } else {
+                after = current;
+            }
             return;
         }
 
-        after = owner.clone();
+        // Копии больше не нужны, массив пикселей символа снова не общий.
+        before.dispose();
+        current.dispose();
+        before = null;
+    }
+
+    /**
+     * Устанавливает интервал слияния операций.
+     * 
+     * @param ms Наибольшее время между завершением операций в миллисекундах,
+     *            при котором операции сливаются. Ноль запрещает слияние.
+     */
+    public static void setCoalesceTime(long ms) {
+        coalesceTime = ms < 0 ? 0 : ms;
+    }
+
+    /**
+     * Возвращает интервал слияния операций в миллисекундах.
+     */
+    public static long getCoalesceTime() {
+        return coalesceTime;
+    }
+
+    /**
+     * Сливает с этой операцией следующую за ней операцию того же символа,
+     * если обе операции завершены, хранят только разницу пикселей и
+     * завершились в пределах {@linkplain #setCoalesceTime(long) интервала
+     * слияния}. Поглощённая операция {@linkplain #die() уничтожается}.
+     */
+    @Override
+    public boolean addEdit(UndoableEdit anEdit) {
+        if (!(anEdit instanceof MSymbolEdit) || anEdit == this) return false;
+
+        MSymbolEdit next = (MSymbolEdit) anEdit;
+        if (!canMerge() || !next.canMerge()) return false;
+        if (owner != next.owner) return false;
+        if (!equal(getPresentationName(), next.getPresentationName()))
+            return false;
+        if (next.time < time || next.time - time > coalesceTime) return false;
+
+        XorDelta d = XorDelta.merge(delta, next.delta);
+        // Взаимно уничтожившиеся изменения оставляются отдельными
+        // операциями, пустую операцию нельзя отменить.
+        if (d == null) return false;
+
+        delta = d;
+        time = next.time;
+        next.die();
+        return true;
+    }
+
+    private boolean canMerge() {
+        return canUndo() && !isInProgress() && !isSealed() && !isSpilled()
+                        && delta != null;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Возвращает объём разницы или пикселей сохранённых символов.
+     */
+    @Override
+    public int getSize() {
+        if (isSpilled()) return super.getSize();
+        XorDelta d = delta;
+        if (d != null) return super.getSize() + d.size();
+        return super.getSize() + EditData.sizeOf(before)
+                        + EditData.sizeOf(after);
+    }
+
+    /**
+     * Выгружать можно только завершённую операцию.
+     */
+    @Override
+    public boolean canSpill() {
+        return !isInProgress() && isLive();
+    }
+
+    @Override
+    protected void writeData(DataOutput out) throws IOException {
+        out.writeBoolean(delta != null);
+        if (delta != null) {
+            delta.write(out);
+        } else {
+            EditData.writeSymbol(out, before);
+            EditData.writeSymbol(out, after);
+        }
+    }
+
+    @Override
+    protected void readData(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            delta = XorDelta.read(in);
+        } else {
+            before = EditData.readSymbol(in);
+            after = EditData.readSymbol(in);
+        }
+    }
+
+    @Override
+    protected void releaseData() {
+        delta = null;
+        before = null;
+        after = null;
+    }
+
+    /**
+     * Возвращает <code>true</code> если у символов совпадают размеры, код и
+     * уникод, то есть символы отличаются только пикселями.
+     */
+    private static boolean sameShape(MSymbol a, MSymbol b) {
+        if (a.getWidth() != b.getWidth()) return false;
+        if (a.getHeight() != b.getHeight()) return false;
+        if (a.getCode() != b.getCode()) return false;
+        if (a.isUnicode() != b.isUnicode()) return false;
+        return !a.isUnicode() || a.getUnicode() == b.getUnicode();
     }
 }
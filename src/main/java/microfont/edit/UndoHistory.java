@@ -0,0 +1,434 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+import microfont.AbstractMFont;
+
+/**
+ * История отменяемых операций с ограничением объёма памяти.
+ * <p>
+ * Каждая {@linkplain AbstractEdit операция} сообщает {@linkplain
+ * AbstractEdit#getSize() объём своих данных}. Если общий объём превышает
+ * {@linkplain #getBudget() бюджет}, то самые старые операции в зависимости от
+ * {@linkplain #getPolicy() политики} либо {@linkplain #POLICY_SPILL
+ * выгружаются} во временный файл, либо {@linkplain #POLICY_DROP удаляются} из
+ * истории. Выгруженные операции загружаются обратно перед отменой или
+ * повтором. Ближайшие к текущему состоянию операции отмены и повтора никогда
+ * не выгружаются. Операции, которые нельзя выгрузить, удаляются, если они
+ * самые старые в истории.
+ * <p>
+ * Данные загруженных и удалённых операций оставляют во временном файле пустые
+ * участки. Когда пустого места становится больше, чем данных, файл
+ * уплотняется.
+ */
+public class UndoHistory extends UndoManager {
+    private static final long  serialVersionUID = 1L;
+
+    /** Старые операции выгружаются во временный файл. */
+    public static final int    POLICY_SPILL     = 0;
+    /** Старые операции удаляются из истории. */
+    public static final int    POLICY_DROP      = 1;
+    /** Бюджет по умолчанию, 4 Мб. */
+    public static final long   DEFAULT_BUDGET   = 4L << 20;
+
+    private long               budget;
+    private int                policy;
+    /** Временный файл, создаётся при первой выгрузке. */
+    private transient File     temp;
+    private transient RandomAccessFile file;
+    /** Смещение и длина данных выгруженных операций в файле. */
+    private final IdentityHashMap<UndoableEdit, long[]> spilled;
+
+    /**
+     * Создание истории с бюджетом {@link #DEFAULT_BUDGET} и политикой
+     * {@link #POLICY_SPILL}.
+     */
+    public UndoHistory() {
+        this(DEFAULT_BUDGET, POLICY_SPILL);
+    }
+
+    /**
+     * Создание истории.
+     *
+     * @param budget Бюджет в байтах.
+     * @param policy {@link #POLICY_SPILL} или {@link #POLICY_DROP}.
+     */
+    public UndoHistory(long budget, int policy) {
+        spilled = new IdentityHashMap<UndoableEdit, long[]>();
+        setBudget(budget);
+        setPolicy(policy);
+    }
+
+    /**
+     * Возвращает бюджет памяти в байтах.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Устанавливает бюджет памяти.
+     *
+     * @param budget Бюджет в байтах.
+     * @throws IllegalArgumentException если бюджет отрицательный.
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("budget=" + budget);
+        this.budget = budget;
+        enforce();
+    }
+
+    /**
+     * Возвращает политику освобождения памяти.
+     */
+    public synchronized int getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Устанавливает политику освобождения памяти.
+     *
+     * @param policy {@link #POLICY_SPILL} или {@link #POLICY_DROP}.
+     */
+    public synchronized void setPolicy(int policy) {
+        if (policy != POLICY_SPILL && policy != POLICY_DROP)
+            throw new IllegalArgumentException("policy=" + policy);
+        this.policy = policy;
+    }
+
+    /**
+     * Возвращает объём памяти, занимаемый операциями истории.
+     */
+    public synchronized long getMemorySize() {
+        long size = 0;
+
+        for (UndoableEdit edit : edits) {
+            if (edit instanceof AbstractEdit)
+                size += ((AbstractEdit) edit).getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Возвращает размер временного файла, включая пустые участки.
+     */
+    public synchronized long getFileSize() {
+        if (file == null) return 0;
+
+        try {
+            return file.length();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Возвращает объём данных выгруженных операций.
+     */
+    public synchronized long getSpilledSize() {
+        long size = 0;
+
+        for (long[] pos : spilled.values()) {
+            size += pos[1];
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized boolean addEdit(UndoableEdit anEdit) {
+        boolean ret = super.addEdit(anEdit);
+        enforce();
+        return ret;
+    }
+
+    @Override
+    public synchronized void undo() throws CannotUndoException {
+        UndoableEdit edit = editToBeUndone();
+
+        if (edit != null) {
+            int from = edits.indexOf(edit);
+            for (int i = nextAdd() - 1; i >= from; i--) {
+                if (!fault(edits.get(i))) {
+                    // Данные потеряны, отменить эту и более старые
+                    // операции невозможно.
+                    trimEdits(0, i);
+                    throw new CannotUndoException();
+                }
+            }
+        }
+
+        super.undo();
+    }
+
+    @Override
+    public synchronized void redo() throws CannotRedoException {
+        UndoableEdit edit = editToBeRedone();
+
+        if (edit != null) {
+            int to = edits.indexOf(edit);
+            for (int i = nextAdd(); i <= to; i++) {
+                if (!fault(edits.get(i))) {
+                    trimEdits(i, edits.size() - 1);
+                    throw new CannotRedoException();
+                }
+            }
+        }
+
+        super.redo();
+    }
+
+    /**
+     * {@linkplain AbstractEdit#seal() Запрещает слияние} новых операций с
+     * последней операцией отмены.
+     */
+    public synchronized void seal() {
+        UndoableEdit edit = editToBeUndone();
+        if (edit instanceof AbstractEdit) ((AbstractEdit) edit).seal();
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        super.discardAllEdits();
+        spilled.clear();
+        truncate();
+    }
+
+    @Override
+    protected void trimEdits(int from, int to) {
+        for (int i = from; i <= to && i < edits.size(); i++) {
+            spilled.remove(edits.get(i));
+        }
+        super.trimEdits(from, to);
+        compact();
+    }
+
+    /**
+     * Удаляет временный файл. История может использоваться и дальше, но
+     * выгруженные операции будут удалены.
+     */
+    public synchronized void close() {
+        int next = nextAdd();
+        int undo = -1, redo = edits.size();
+
+        for (int i = 0; i < edits.size(); i++) {
+            if (!spilled.containsKey(edits.get(i))) continue;
+            if (i < next) undo = i;
+            else if (redo == edits.size()) redo = i;
+        }
+        if (redo < edits.size()) trimEdits(redo, edits.size() - 1);
+        if (undo >= 0) trimEdits(0, undo);
+
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                AbstractMFont.logger().log(Level.WARNING, "close undo file",
+                                e);
+            }
+            file = null;
+        }
+        if (temp != null) {
+            if (!temp.delete()) temp.deleteOnExit();
+            temp = null;
+        }
+    }
+
+    /**
+     * Возвращает номер операции, которая будет повторена первой, или размер
+     * истории, если повторять нечего.
+     */
+    private int nextAdd() {
+        UndoableEdit redo = editToBeRedone();
+        return redo == null ? edits.size() : edits.indexOf(redo);
+    }
+
+    /**
+     * Освобождает память, если объём операций превышает бюджет.
+     */
+    private void enforce() {
+        long size = getMemorySize();
+        if (size <= budget) return;
+
+        int next = nextAdd();
+        int undo = next - 1;
+        int drop = -1;
+
+        for (int i = 0; i < edits.size() && size > budget; i++) {
+            if (i == undo || i == next) continue;
+
+            UndoableEdit edit = edits.get(i);
+            if (!(edit instanceof AbstractEdit)) continue;
+
+            AbstractEdit ae = (AbstractEdit) edit;
+            int old = ae.getSize();
+
+            if (policy == POLICY_SPILL && spill(ae)) {
+                size -= old - ae.getSize();
+            } else if (i < undo && !ae.isSpilled()) {
+                // Удалять можно только старые операции отмены и только
+                // подряд от начала истории.
+                if (drop == i - 1) {
+                    drop = i;
+                    size -= old;
+                }
+            }
+        }
+
+        if (drop >= 0) trimEdits(0, drop);
+    }
+
+    /**
+     * Выгружает операцию во временный файл.
+     *
+     * @return <code>true</code> если операция выгружена.
+     */
+    private boolean spill(AbstractEdit edit) {
+        if (edit.isSpilled()) return true;
+        if (!edit.canSpill()) return false;
+
+        try {
+            RandomAccessFile f = file();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            edit.spill(out);
+            out.flush();
+
+            long pos = f.length();
+            f.seek(pos);
+            f.write(buf.toByteArray());
+            spilled.put(edit, new long[] {pos, buf.size()});
+            return true;
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "spill undo edit", e);
+            // Если данные уже освобождены, то операция будет удалена при
+            // попытке загрузки.
+            return edit.isSpilled();
+        }
+    }
+
+    /**
+     * Загружает выгруженную операцию.
+     *
+     * @return <code>false</code> если данные операции не удалось загрузить.
+     */
+    private boolean fault(UndoableEdit edit) {
+        if (!(edit instanceof AbstractEdit)) return true;
+
+        AbstractEdit ae = (AbstractEdit) edit;
+        if (!ae.isSpilled()) return true;
+
+        long[] pos = spilled.remove(edit);
+        if (pos == null || file == null) return false;
+
+        try {
+            byte[] data = new byte[(int) pos[1]];
+            file.seek(pos[0]);
+            file.readFully(data);
+            ae.fault(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.SEVERE, "fault undo edit", e);
+            return false;
+        }
+
+        compact();
+        return true;
+    }
+
+    private RandomAccessFile file() throws IOException {
+        if (file == null) {
+            temp = File.createTempFile("methodius", ".undo");
+            temp.deleteOnExit();
+            file = new RandomAccessFile(temp, "rw");
+        }
+        return file;
+    }
+
+    /**
+     * Уплотняет временный файл, если пустого места в нём больше, чем данных
+     * выгруженных операций. Данные переносятся к началу файла по возрастанию
+     * смещения, поэтому перенос не затирает ещё не перенесённые данные.
+     */
+    private void compact() {
+        if (file == null) return;
+        if (spilled.isEmpty()) {
+            truncate();
+            return;
+        }
+
+        try {
+            long live = getSpilledSize();
+            if (file.length() - live <= live) return;
+
+            long[][] pos = spilled.values().toArray(new long[0][]);
+            Arrays.sort(pos, BY_OFFSET);
+
+            long end = 0;
+            for (long[] p : pos) {
+                if (p[0] != end) {
+                    byte[] data = new byte[(int) p[1]];
+                    file.seek(p[0]);
+                    file.readFully(data);
+                    file.seek(end);
+                    file.write(data);
+                    p[0] = end;
+                }
+                end += p[1];
+            }
+            file.setLength(end);
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "compact undo file", e);
+        }
+    }
+
+    /** Упорядочивает участки файла по смещению. */
+    private static final Comparator<long[]> BY_OFFSET = new OffsetOrder();
+
+    private static final class OffsetOrder implements Comparator<long[]> {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+        }
+    }
+
+    /**
+     * Очищает временный файл, если в нём нет данных.
+     */
+    private void truncate() {
+        if (file == null) return;
+
+        try {
+            file.setLength(0);
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "truncate undo file", e);
+        }
+    }
+}
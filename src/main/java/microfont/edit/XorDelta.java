@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import microfont.AbstractPixselMap;
+import microfont.PixselMap;
+
+/**
+ * Разница пикселей двух карт одинакового размера внутри прямоугольной области,
+ * полученная ИСКЛЮЧАЮЩИМ ИЛИ. Наложение разницы на одну из карт операцией
+ * {@link PixselMap#OVERLAY_XOR} превращает её в другую, поэтому одна и та же
+ * разница используется и для отмены, и для повтора.
+ * <p>
+ * Пиксели области перебираются построчно. Если разница разреженная, то
+ * хранятся длины серий сброшенных пикселей перед каждым установленным,
+ * закодированные по 7 бит в байте. Иначе хранится упакованный массив
+ * пикселей в формате {@link AbstractPixselMap#getBytes()}. Выбирается более
+ * короткое представление.
+ */
+final class XorDelta {
+    private final int     x, y, width, height;
+    /** Серии или упакованные пиксели. */
+    private final byte[]  data;
+    /** <code>true</code> если {@link #data} содержит серии. */
+    private final boolean rle;
+
+    private XorDelta(Rectangle r, byte[] data, boolean rle) {
+        x = r.x;
+        y = r.y;
+        width = r.width;
+        height = r.height;
+        this.data = data;
+        this.rle = rle;
+    }
+
+    /**
+     * Вычисляет разницу карт в области <code>r</code>. Область должна
+     * находиться в пределах карт.
+     *
+     * @param a Первая карта.
+     * @param b Вторая карта того же размера.
+     * @param r Область сравнения.
+     * @return Разница или <b>null</b>, если в области карты совпадают.
+     */
+    static XorDelta create(AbstractPixselMap a, AbstractPixselMap b,
+                    Rectangle r) {
+        int n = r.width * r.height;
+        byte[] packed = new byte[(n + 7) / 8];
+
+        for (int i = 0; i < n; i++) {
+            int px = r.x + i % r.width;
+            int py = r.y + i / r.width;
+
+            if (a.getPixsel(px, py) != b.getPixsel(px, py))
+                packed[i >> 3] |= (byte) (1 << (i & 7));
+        }
+
+        return encode(r, packed);
+    }
+
+    /**
+     * Объединяет две последовательные разницы одной карты в одну. Область
+     * объединённой разницы охватывает области обеих разниц.
+     *
+     * @param a Первая разница.
+     * @param b Вторая разница.
+     * @return Объединённая разница или <b>null</b>, если разницы взаимно
+     *         уничтожились.
+     */
+    static XorDelta merge(XorDelta a, XorDelta b) {
+        Rectangle r = a.bounds().union(b.bounds());
+        byte[] pa = a.unpack(), pb = b.unpack();
+        int n = r.width * r.height;
+        byte[] packed = new byte[(n + 7) / 8];
+
+        for (int i = 0; i < n; i++) {
+            int px = r.x + i % r.width;
+            int py = r.y + i / r.width;
+
+            if (a.get(pa, px, py) != b.get(pb, px, py))
+                packed[i >> 3] |= (byte) (1 << (i & 7));
+        }
+
+        return encode(r, packed);
+    }
+
+    /**
+     * Выбирает представление разницы.
+     *
+     * @param r Область разницы.
+     * @param packed Упакованные пиксели разницы.
+     * @return Разница или <b>null</b>, если нет ни одного пикселя.
+     */
+    private static XorDelta encode(Rectangle r, byte[] packed) {
+        ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        int n = r.width * r.height;
+        int gap = 0;
+        boolean any = false;
+
+        for (int i = 0; i < n; i++) {
+            if ((packed[i >> 3] & (1 << (i & 7))) == 0) {
+                gap++;
+                continue;
+            }
+
+            any = true;
+            // Серии длиннее упакованного массива не нужны.
+            if (runs.size() < packed.length) writeRun(runs, gap);
+            gap = 0;
+        }
+
+        if (!any) return null;
+        if (runs.size() < packed.length)
+            return new XorDelta(r, runs.toByteArray(), true);
+        return new XorDelta(r, packed, false);
+    }
+
+    private Rectangle bounds() {
+        return new Rectangle(x, y, width, height);
+    }
+
+    /**
+     * Возвращает пиксель упакованной разницы по координатам карты.
+     */
+    private boolean get(byte[] packed, int px, int py) {
+        px -= x;
+        py -= y;
+        if (px < 0 || px >= width || py < 0 || py >= height) return false;
+
+        int i = py * width + px;
+        return (packed[i >> 3] & (1 << (i & 7))) != 0;
+    }
+
+    private static void writeRun(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Возвращает разницу в виде упакованного массива пикселей.
+     */
+    private byte[] unpack() {
+        if (!rle) return data;
+
+        byte[] packed = new byte[(width * height + 7) / 8];
+        int pos = 0, i = 0;
+
+        while (pos < data.length) {
+            int value = 0, shift = 0, b;
+            do {
+                b = data[pos++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            i += value;
+            packed[i >> 3] |= (byte) (1 << (i & 7));
+            i++;
+        }
+        return packed;
+    }
+
+    /**
+     * Накладывает разницу на карту. Карта должна быть того же размера, что и
+     * карты, для которых вычислена разница.
+     *
+     * @param map Изменяемая карта.
+     */
+    void apply(PixselMap map) {
+        map.overlay(x, y, new AbstractPixselMap(width, height, unpack()),
+                        PixselMap.OVERLAY_XOR);
+    }
+
+    /**
+     * Возвращает примерный объём памяти в байтах, занимаемый разницей.
+     */
+    int size() {
+        return data.length;
+    }
+
+    /**
+     * Записывает разницу в поток.
+     *
+     * @param out Поток для записи.
+     * @throws IOException при ошибке записи.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeBoolean(rle);
+        EditData.writeBytes(out, data);
+    }
+
+    /**
+     * Читает разницу, записанную {@link #write(DataOutput)}.
+     *
+     * @param in Поток с данными.
+     * @return Прочитанная разница.
+     * @throws IOException при ошибке чтения.
+     */
+    static XorDelta read(DataInput in) throws IOException {
+        Rectangle r = new Rectangle(in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt());
+        boolean rle = in.readBoolean();
+        return new XorDelta(r, EditData.readBytes(in), rle);
+    }
+
+    /**
+     * Возвращает <code>true</code> если разница хранится сериями.
+     */
+    boolean isRle() {
+        return rle;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.events;
+
+import java.awt.EventQueue;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import microfont.AbstractMFont;
+import utils.event.ListenerChain;
+
+/**
+ * Посредник для асинхронной доставки сообщений об изменении пикселей и
+ * свойств.
+ * <p>
+ * Посредник регистрируется как получатель сообщений шрифта или карты, а
+ * настоящие получатели регистрируются в посреднике. Полученные сообщения
+ * {@linkplain EventCoalescer накапливаются и объединяются} и доставляются
+ * получателям позже в потоке, который предоставляет {@link Executor}. Таким
+ * образом медленный получатель не задерживает изменение шрифта, а получает
+ * сообщения уже после освобождения монитора шрифта.
+ *
+ * <pre>
+ * AsyncDispatcher d = new AsyncDispatcher();
+ * d.addPixselMapListener(model);
+ * font.addPixselMapListener(d);
+ * </pre>
+ * <p>
+ * Получатели должны учитывать, что к моменту доставки сообщения шрифт мог
+ * измениться ещё раз.
+ */
+public class AsyncDispatcher implements PixselMapListener,
+                PropertyChangeListener {
+    /** Выполнение задач в потоке обработки событий Swing. */
+    public static final Executor EVENT_THREAD = new EventThread();
+
+    private final Executor       executor;
+    private final ListenerChain  listeners;
+    /** Накопленные сообщения. */
+    private EventCoalescer       pending;
+    /** Задача доставки уже передана исполнителю. */
+    private boolean              scheduled;
+    private final Runnable       task;
+
+    private static class EventThread implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            EventQueue.invokeLater(command);
+        }
+    }
+
+    /**
+     * Создание посредника, доставляющего сообщения в потоке обработки событий
+     * Swing.
+     */
+    public AsyncDispatcher() {
+        this(EVENT_THREAD);
+    }
+
+    /**
+     * Создание посредника.
+     *
+     * @param executor Исполнитель, в котором доставляются сообщения.
+     */
+    public AsyncDispatcher(Executor executor) {
+        if (executor == null) throw new NullPointerException("executor");
+        this.executor = executor;
+        listeners = new ListenerChain();
+        pending = new EventCoalescer();
+        task = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Добавление получателя сообщений об изменении пикселей.
+     *
+     * @param listener Добавляемый получатель.
+     */
+    public void addPixselMapListener(PixselMapListener listener) {
+        listeners.add(PixselMapListener.class, listener);
+    }
+
+    /**
+     * Удаление получателя сообщений об изменении пикселей.
+     *
+     * @param listener Удаляемый получатель.
+     */
+    public void removePixselMapListener(PixselMapListener listener) {
+        listeners.remove(PixselMapListener.class, listener);
+    }
+
+    /**
+     * Добавление получателя сообщений об изменении свойств.
+     *
+     * @param listener Добавляемый получатель.
+     */
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        listeners.add(PropertyChangeListener.class, listener);
+    }
+
+    /**
+     * Удаление получателя сообщений об изменении свойств.
+     *
+     * @param listener Удаляемый получатель.
+     */
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        listeners.remove(PropertyChangeListener.class, listener);
+    }
+
+    /**
+     * Принимает сообщение и планирует его доставку.
+     */
+    @Override
+    public void pixselChanged(PixselMapEvent event) {
+        boolean start;
+
+        synchronized (this) {
+            pending.add(event);
+            start = !scheduled;
+            scheduled = true;
+        }
+
+        if (start) schedule();
+    }
+
+    /**
+     * Принимает сообщение и планирует его доставку.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent event) {
+        boolean start;
+
+        synchronized (this) {
+            pending.add(event);
+            start = !scheduled;
+            scheduled = true;
+        }
+
+        if (start) schedule();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                scheduled = false;
+            }
+            AbstractMFont.logger().log(Level.WARNING, "dispatch rejected", e);
+        }
+    }
+
+    /**
+     * Доставляет накопленные сообщения в текущем потоке. Сначала доставляются
+     * сообщения об изменении свойств, затем об изменении пикселей.
+     */
+    public void flush() {
+        EventCoalescer events;
+
+        synchronized (this) {
+            events = pending;
+            pending = new EventCoalescer();
+            scheduled = false;
+        }
+
+        if (events.isEmpty()) return;
+
+        PropertyChangeListener[] pcl = listeners
+                        .getListeners(PropertyChangeListener.class);
+        for (PropertyChangeEvent event : events.getPropertyEvents()) {
+            for (PropertyChangeListener listener : pcl) {
+                listener.propertyChange(event);
+            }
+        }
+
+        PixselMapListener[] pml = listeners
+                        .getListeners(PixselMapListener.class);
+        for (PixselMapEvent event : events.getPixselEvents()) {
+            for (PixselMapListener listener : pml) {
+                listener.pixselChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Возвращает <code>true</code>, если есть не доставленные сообщения.
+     */
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+}
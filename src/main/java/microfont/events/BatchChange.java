@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.events;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import microfont.PixselMap;
+
+/**
+ * Сводка изменений, сделанных за одно пакетное изменение шрифта. Передаётся
+ * как новое значение события {@link microfont.AbstractMFont#PROPERTY_BATCH}.
+ * Объект не изменяется после создания.
+ */
+public class BatchChange {
+    private final List<PixselMap>                         maps;
+    private final Set<String>                             properties;
+    private final IdentityHashMap<PixselMap, Rectangle[]> regions;
+
+    /**
+     * Создание сводки.
+     *
+     * @param maps Карты, пиксели или свойства которых изменились.
+     * @param properties Названия изменившихся свойств шрифта и символов.
+     * @param regions Области карт с изменившимися пикселями.
+     */
+    public BatchChange(List<PixselMap> maps, Set<String> properties,
+                    IdentityHashMap<PixselMap, Rectangle[]> regions) {
+        this.maps = Collections.unmodifiableList(maps);
+        this.properties = Collections.unmodifiableSet(properties);
+        this.regions = regions;
+    }
+
+    /**
+     * Возвращает карты (символы шрифта), пиксели или свойства которых
+     * изменились, в порядке первого изменения.
+     */
+    public List<PixselMap> getMaps() {
+        return maps;
+    }
+
+    /**
+     * Возвращает названия изменившихся свойств шрифта и его символов.
+     */
+    public Set<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Возвращает границы области карты с изменившимися пикселями или
+     * <b>null</b>, если пиксели карты не менялись.
+     *
+     * @param map Карта из списка {@link #getMaps()}.
+     */
+    public Rectangle getRegion(PixselMap map) {
+        Rectangle[] r = regions.get(map);
+        if (r == null) return null;
+
+        Rectangle ret = new Rectangle(r[0]);
+        for (int i = 1; i < r.length; i++) {
+            ret.add(r[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Возвращает прямоугольники, покрывающие изменившиеся пиксели карты, или
+     * <b>null</b>, если пиксели карты не менялись.
+     *
+     * @param map Карта из списка {@link #getMaps()}.
+     */
+    public Rectangle[] getRectangles(PixselMap map) {
+        Rectangle[] r = regions.get(map);
+        if (r == null) return null;
+
+        Rectangle[] ret = new Rectangle[r.length];
+        for (int i = 0; i < r.length; i++) {
+            ret[i] = new Rectangle(r[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Возвращает <code>true</code>, если изменений не было.
+     */
+    public boolean isEmpty() {
+        return maps.isEmpty() && properties.isEmpty();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.events;
+
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import microfont.AbstractMFont;
+import microfont.DirtyRegion;
+import microfont.PixselMap;
+
+/**
+ * Накопитель событий. Сообщения об изменении пикселей одной карты объединяются
+ * в одно сообщение с общей {@linkplain DirtyRegion областью изменений}.
+ * Сообщения об изменении одного свойства одного источника объединяются в одно
+ * сообщение со старым значением из первого сообщения и новым значением из
+ * последнего.
+ * <p>
+ * Сообщения о {@linkplain AbstractMFont#PROPERTY_SYMBOLS составе шрифта} не
+ * объединяются: каждое из них описывает отдельное добавление, удаление или
+ * замену символа, и они передаются все в исходном порядке.
+ * <p>
+ * Класс не синхронизирован.
+ */
+public class EventCoalescer {
+    /** Карты в порядке первого изменения. */
+    private final ArrayList<PixselMap>                              maps;
+    /** Карты из {@link #maps}. */
+    private final IdentityHashMap<PixselMap, Boolean>               touched;
+    /** Объединённые области изменения пикселей. */
+    private final IdentityHashMap<PixselMap, DirtyRegion>           regions;
+    /** События изменения свойств в порядке первого изменения. */
+    private final ArrayList<PropertyChangeEvent>                    events;
+    /** Номера событий в {@link #events} по источнику и свойству. */
+    private final IdentityHashMap<Object, HashMap<String, Integer>> index;
+
+    /**
+     * Создание пустого накопителя.
+     */
+    public EventCoalescer() {
+        maps = new ArrayList<PixselMap>();
+        touched = new IdentityHashMap<PixselMap, Boolean>();
+        regions = new IdentityHashMap<PixselMap, DirtyRegion>();
+        events = new ArrayList<PropertyChangeEvent>();
+        index = new IdentityHashMap<Object, HashMap<String, Integer>>();
+    }
+
+    /**
+     * Возвращает <code>true</code>, если событий не было.
+     */
+    public boolean isEmpty() {
+        return maps.isEmpty() && events.isEmpty();
+    }
+
+    private void touch(Object source) {
+        if (!(source instanceof PixselMap)) return;
+
+        PixselMap map = (PixselMap) source;
+        if (touched.put(map, Boolean.TRUE) == null) maps.add(map);
+    }
+
+    /**
+     * Добавляет сообщение об изменении пикселей.
+     *
+     * @param event Сообщение.
+     */
+    public void add(PixselMapEvent event) {
+        PixselMap map = (PixselMap) event.getSource();
+        DirtyRegion r = regions.get(map);
+
+        if (r == null) {
+            r = new DirtyRegion();
+            regions.put(map, r);
+        }
+        for (Rectangle rect : event.rects()) {
+            r.add(rect);
+        }
+        touch(map);
+    }
+
+    /**
+     * Возвращает <code>true</code>, если сообщения с этим названием свойства
+     * не объединяются.
+     */
+    private static boolean isSeparate(String name) {
+        return name == null || AbstractMFont.PROPERTY_SYMBOLS.equals(name);
+    }
+
+    /**
+     * Добавляет сообщение об изменении свойства. Сообщения без названия
+     * свойства и сообщения о составе шрифта не объединяются.
+     *
+     * @param event Сообщение.
+     */
+    public void add(PropertyChangeEvent event) {
+        Object source = event.getSource();
+        String name = event.getPropertyName();
+
+        touch(source);
+        if (isSeparate(name)) {
+            events.add(event);
+            return;
+        }
+
+        HashMap<String, Integer> names = index.get(source);
+        if (names == null) {
+            names = new HashMap<String, Integer>();
+            index.put(source, names);
+        }
+
+        Integer i = names.get(name);
+        if (i == null) {
+            names.put(name, events.size());
+            events.add(event);
+        } else {
+            PropertyChangeEvent first = events.get(i);
+            events.set(i, new PropertyChangeEvent(source, name, first
+                            .getOldValue(), event.getNewValue()));
+        }
+    }
+
+    /**
+     * Возвращает объединённые сообщения об изменении свойств в порядке первого
+     * изменения. Объединённые сообщения, у которых старое и новое значение
+     * совпали, пропускаются.
+     */
+    public List<PropertyChangeEvent> getPropertyEvents() {
+        ArrayList<PropertyChangeEvent> ret;
+        ret = new ArrayList<PropertyChangeEvent>(events.size());
+
+        for (PropertyChangeEvent event : events) {
+            Object o = event.getOldValue();
+            if (!isSeparate(event.getPropertyName()) && o != null
+                            && o.equals(event.getNewValue())) continue;
+            ret.add(event);
+        }
+        return ret;
+    }
+
+    /**
+     * Возвращает объединённые сообщения об изменении пикселей, по одному на
+     * каждую изменившуюся карту, в порядке первого изменения.
+     */
+    public List<PixselMapEvent> getPixselEvents() {
+        ArrayList<PixselMapEvent> ret;
+        ret = new ArrayList<PixselMapEvent>(regions.size());
+
+        for (PixselMap map : maps) {
+            DirtyRegion r = regions.get(map);
+            if (r != null)
+                ret.add(new PixselMapEvent(map, r.getRectangles()));
+        }
+        return ret;
+    }
+
+    /**
+     * Возвращает сводку накопленных изменений или <b>null</b>, если изменений
+     * не было.
+     */
+    public BatchChange getChange() {
+        LinkedHashSet<String> properties = new LinkedHashSet<String>();
+        for (PropertyChangeEvent event : getPropertyEvents()) {
+            properties.add(event.getPropertyName());
+        }
+
+        if (maps.isEmpty() && properties.isEmpty()) return null;
+
+        IdentityHashMap<PixselMap, Rectangle[]> rects;
+        rects = new IdentityHashMap<PixselMap, Rectangle[]>();
+        for (PixselMap map : maps) {
+            DirtyRegion r = regions.get(map);
+            if (r != null) rects.put(map, r.getRectangles());
+        }
+
+        return new BatchChange(new ArrayList<PixselMap>(maps), properties,
+                        rects);
+    }
+}
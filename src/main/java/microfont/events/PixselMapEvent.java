@@ -22,10 +22,15 @@ import microfont.PixselMap;
 
 /**
  * Событие при изменении состояния пикселей {@link PixselMap}.
+ * <p>
+ * Изменившиеся пиксели лежат внутри фрагмента {@link #rect()}. Более точно
+ * они описываются несколькими прямоугольниками {@link #rects()}, что позволяет
+ * перерисовывать только изменённые части карты.
  */
 public class PixselMapEvent extends EventObject {
     private static final long serialVersionUID = 4283930318715669061L;
     private int               x, y, width, height;
+    private Rectangle[]       rects;
 
     /**
      * Создание события.
@@ -45,6 +50,30 @@ public class PixselMapEvent extends EventObject {
         this.height = height;
     }
 
+    /**
+     * Создание события с изменениями в нескольких фрагментах карты.
+     * 
+     * @param source Карта, в которой произошли изменения.
+     * @param rects Фрагменты карты с изменившимися пикселями. Массив не
+     *            копируется и не должен изменяться после создания события.
+     * @throws IllegalArgumentException Если массив <code>rects</code> пуст.
+     */
+    public PixselMapEvent(PixselMap source, Rectangle[] rects) {
+        super(source);
+        if (rects.length == 0) throw new IllegalArgumentException("no rects");
+
+        Rectangle bounds = new Rectangle(rects[0]);
+        for (int i = 1; i < rects.length; i++) {
+            bounds.add(rects[i]);
+        }
+
+        x = bounds.x;
+        y = bounds.y;
+        width = bounds.width;
+        height = bounds.height;
+        this.rects = rects;
+    }
+
     /**
      * Создание события.
      * 
@@ -52,7 +81,7 @@ public class PixselMapEvent extends EventObject {
      * @param rect Координаты фрагмента карты с изменившимися пикселями.
      */
     public PixselMapEvent(PixselMap source, Rectangle rect) {
-        this(source, rect.x, rect.x, rect.width, rect.height);
+        this(source, rect.x, rect.y, rect.width, rect.height);
     }
 
     /**
@@ -62,6 +91,22 @@ public class PixselMapEvent extends EventObject {
         return new Rectangle(x, y, width, height);
     }
 
+    /**
+     * Возвращает фрагменты карты с изменившимися пикселями. Фрагменты могут
+     * пересекаться.
+     * 
+     * @return Новый массив, содержащий хотя бы один элемент.
+     */
+    public Rectangle[] rects() {
+        if (rects == null) return new Rectangle[] {rect()};
+
+        Rectangle[] ret = new Rectangle[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            ret[i] = new Rectangle(rects[i]);
+        }
+        return ret;
+    }
+
     /**
      * Возвращает горизонтальную позицию начала фрагмента карты с изменившимися
      * пикселями.
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import microfont.MFont;
+
+/**
+ * Основа формата файла шрифта. Чтение и запись файла выполняются через
+ * потоки, запись идёт {@linkplain AtomicFile через временный файл}. Формат
+ * только для чтения переопределяет лишь {@link #read(InputStream,
+ * MFontLoadProgress)}.
+ */
+public abstract class AbstractFontCodec implements FontCodec {
+    private final String   name;
+    private final String[] extensions;
+    private final int      capabilities;
+
+    /**
+     * @param name Название формата.
+     * @param capabilities Возможности формата, см.
+     *            {@link FontCodec#getCapabilities()}.
+     * @param extensions Расширения имён файлов без точки.
+     */
+    protected AbstractFontCodec(String name, int capabilities,
+                    String... extensions) {
+        this.name = name;
+        this.capabilities = capabilities;
+        this.extensions = extensions.clone();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String[] getExtensions() {
+        return extensions.clone();
+    }
+
+    @Override
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Читает файл через {@link #read(InputStream, MFontLoadProgress)}, ход
+     * загрузки соответствует доле прочитанных байтов.
+     */
+    @Override
+    public MFont read(File f, MFontLoadProgress progress) throws IOException,
+                    InterruptedException {
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        if (progress != null)
+            in = new ProgressInputStream(in, progress, f.length(), 100);
+        try {
+            // Ход загрузки сообщает поток.
+            return read(in, null);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void write(MFont font, OutputStream out, MFontSaveProgress progress)
+                    throws IOException {
+        throw new UnsupportedOperationException(name + " is read only");
+    }
+
+    @Override
+    public void write(MFont font, File f, MFontSaveProgress progress)
+                    throws IOException {
+        if ((capabilities & WRITE) == 0)
+            throw new UnsupportedOperationException(name + " is read only");
+
+        AtomicFile af = new AtomicFile(f);
+        try {
+            write(font, af.startWrite(), progress);
+            af.finishWrite();
+        } finally {
+            af.abortWrite();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
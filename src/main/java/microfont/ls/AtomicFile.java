@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Запись файла через временный файл.
+ * <p>
+ * Данные пишутся во временный файл в той же папке. После успешной записи
+ * файл сбрасывается на диск и переименовывается в целевой, поэтому при
+ * аварийном завершении на месте целевого файла остаётся либо прежнее, либо
+ * новое содержимое.
+ * 
+ * <pre>
+ * AtomicFile af = new AtomicFile(file);
+ * OutputStream out = af.startWrite();
+ * try {
+ *     ... запись в out ...
+ *     af.finishWrite();
+ * } finally {
+ *     af.abortWrite();
+ * }
+ * </pre>
+ */
+public final class AtomicFile {
+    private final File       target;
+    private File             temp;
+    private FileOutputStream out;
+
+    /**
+     * @param target Целевой файл.
+     */
+    public AtomicFile(File target) {
+        this.target = target.getAbsoluteFile();
+    }
+
+    /**
+     * Возвращает целевой файл.
+     */
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * Создаёт временный файл и возвращает поток для записи в него.
+     * 
+     * @throws IOException При ошибке создания файла.
+     * @throws IllegalStateException Если запись уже начата.
+     */
+    public OutputStream startWrite() throws IOException {
+        if (out != null) throw new IllegalStateException("already started");
+
+        temp = File.createTempFile("." + target.getName() + ".", ".tmp",
+                        target.getParentFile());
+        out = new FileOutputStream(temp);
+        return out;
+    }
+
+    /**
+     * Сбрасывает временный файл на диск и заменяет им целевой файл.
+     * 
+     * @throws IOException При ошибке записи или переименования. Целевой файл
+     *             в этом случае не изменяется.
+     * @throws IllegalStateException Если запись не начата.
+     */
+    public void finishWrite() throws IOException {
+        if (out == null) throw new IllegalStateException("not started");
+
+        try {
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+            out = null;
+        }
+
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+        }
+        temp = null;
+    }
+
+    /**
+     * Отменяет запись и удаляет временный файл. После
+     * {@link #finishWrite()} ничего не делает.
+     */
+    public void abortWrite() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Файл всё равно удаляется.
+            }
+            out = null;
+        }
+        if (temp != null) {
+            temp.delete();
+            temp = null;
+        }
+    }
+}
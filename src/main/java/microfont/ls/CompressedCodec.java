@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import microfont.MFont;
+
+/**
+ * {@linkplain MFontCompressed Сжатый формат}. Блоки файла распаковываются
+ * параллельно.
+ */
+final class CompressedCodec extends AbstractFontCodec {
+
+    CompressedCodec() {
+        super("MicroFont compressed", READ | WRITE | INDEXED, "mfnz");
+    }
+
+    @Override
+    public boolean canRead(byte[] header, int length) {
+        return length >= 4 && ByteBuffer.wrap(header).getInt()
+                        == MFontCompressed.MAGIC;
+    }
+
+    @Override
+    public MFont read(File f, MFontLoadProgress progress) throws IOException {
+        MFontLoadSave.loaded(progress, 0);
+        MFont ret = MFontCompressed.load(f);
+        MFontLoadSave.loaded(progress, 100);
+        return ret;
+    }
+
+    @Override
+    public MFont read(InputStream in, MFontLoadProgress progress)
+                    throws IOException {
+        MFont ret = MFontCompressed.load(in);
+        MFontLoadSave.loaded(progress, 100);
+        return ret;
+    }
+
+    @Override
+    public void write(MFont font, OutputStream out, MFontSaveProgress progress)
+                    throws IOException {
+        MFontCompressed.save(font, out, MFontCompressed.DEFAULT_BLOCK,
+                        progress);
+    }
+
+    @Override
+    public void write(MFont font, File f, MFontSaveProgress progress)
+                    throws IOException {
+        MFontCompressed.save(font, f, progress);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import microfont.AbstractMFont;
+import microfont.LazyMFont;
+import microfont.MFont;
+
+/**
+ * Кэш разобранных текстовых шрифтов.
+ * <p>
+ * Для каждого шрифта в папке кэша хранятся два файла с именем, полученным из
+ * канонического пути шрифта: шрифт в {@linkplain MFontBinary двоичном
+ * формате} и ключ из канонического пути, размера и времени изменения
+ * исходного файла. Запись кэша действительна, пока ключ совпадает с
+ * исходным файлом, поэтому изменение шрифта другой программой приводит к
+ * повторному разбору. Ключ удаляется перед записью шрифта и записывается
+ * после неё, так что при сбое остаётся либо целая запись, либо промах.
+ * <p>
+ * При попадании шрифт {@linkplain MFontBinary#loadLazy(File, long)
+ * загружается по требованию}: читаются только заголовок и индекс, а пиксели
+ * символов берутся из отображённого файла кэша при обращении. Такой шрифт
+ * нужно {@linkplain LazyMFont#close() закрыть}, когда он станет не нужен.
+ * Запись, файл которой отображён, не вытесняется, а замена записи
+ * выполняется переименованием и не затрагивает отображённое содержимое.
+ * <p>
+ * Шрифты в форматах с {@linkplain FontCodec#INDEXED индексом символов}
+ * загружаются быстро и не кэшируются.
+ */
+public class FontCache {
+    /** Сигнатура файла ключа, "MFCK". */
+    static final int         KEY_MAGIC   = 0x4D46434B;
+    /** Число хранимых шрифтов по умолчанию. */
+    public static final int  DEFAULT_MAX    = 16;
+    /** Предел размера загруженных пикселей шрифта из кэша по умолчанию. */
+    public static final long DEFAULT_BUDGET = 1L << 20;
+    private final File       dir;
+    private int              maxEntries     = DEFAULT_MAX;
+    private long             budget         = DEFAULT_BUDGET;
+
+    /**
+     * @param dir Папка кэша. Создаётся при первой записи.
+     */
+    public FontCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Возвращает папку кэша.
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Устанавливает число хранимых шрифтов. Лишние записи, которые дольше
+     * других не использовались, удаляются при очередной записи.
+     */
+    public void setMaxEntries(int max) {
+        maxEntries = max;
+    }
+
+    /**
+     * Возвращает предел размера загруженных пикселей для шрифтов, загружаемых
+     * из кэша.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Устанавливает предел размера загруженных пикселей для шрифтов,
+     * загружаемых из кэша.
+     *
+     * @param budget Предел в байтах.
+     * @see LazyMFont#setBudget(long)
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Загружает шрифт из кэша, а при промахе
+     * {@linkplain MFontLoadSave#load(File, MFontLoadProgress) разбирает}
+     * файл и сохраняет результат в кэш. Ошибки кэша не мешают загрузке.
+     *
+     * @param f Файл шрифта.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт. Шрифт из кэша является {@link LazyMFont}.
+     * @throws IOException При ошибке чтения файла.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    public MFont load(File f, MFontLoadProgress progress)
+                    throws IOException, InterruptedException {
+        if (!isCacheable(f)) return MFontLoadSave.load(f, progress);
+
+        // Ключ снимается до разбора, изменение файла во время разбора
+        // сделает запись недействительной.
+        Key key = new Key(f);
+        MFont ret = get(key);
+        if (ret != null) {
+            MFontLoadSave.loaded(progress, 100);
+            return ret;
+        }
+
+        ret = MFontLoadSave.load(f, progress);
+        put(key, ret);
+        return ret;
+    }
+
+    private static boolean isCacheable(File f) throws IOException {
+        if (!f.isFile()) return false;
+        return (FontCodecs.sniff(f).getCapabilities()
+                        & FontCodec.INDEXED) == 0;
+    }
+
+    /**
+     * Возвращает шрифт из кэша или <b>null</b>, если записи нет или она
+     * устарела. Пиксели символов загружаются по требованию.
+     */
+    LazyMFont get(Key key) {
+        File kf = keyFile(key);
+        try {
+            if (!key.equals(Key.read(kf))) return null;
+            LazyMFont ret = MFontBinary.loadLazy(fontFile(key), budget);
+            // Время использования для вытеснения старых записей.
+            kf.setLastModified(System.currentTimeMillis());
+            return ret;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "font cache", e);
+            kf.delete();
+            return null;
+        }
+    }
+
+    private void put(Key key, MFont font) {
+        File kf = keyFile(key);
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("can't create " + dir);
+            kf.delete();
+            MFontBinary.save(font, fontFile(key));
+
+            AtomicFile af = new AtomicFile(kf);
+            try {
+                key.write(new DataOutputStream(af.startWrite()));
+                af.finishWrite();
+            } finally {
+                af.abortWrite();
+            }
+            trim();
+        } catch (IOException e) {
+            AbstractMFont.logger().log(Level.WARNING, "font cache", e);
+            kf.delete();
+        }
+    }
+
+    /**
+     * Удаляет записи сверх {@link #setMaxEntries(int) предела}.
+     */
+    private void trim() {
+        File[] keys = dir.listFiles();
+        if (keys == null) return;
+
+        int n = 0;
+        for (File k : keys) {
+            if (k.getName().endsWith(".key")) keys[n++] = k;
+        }
+        if (n <= maxEntries) return;
+
+        keys = Arrays.copyOf(keys, n);
+        Arrays.sort(keys, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = b.lastModified() - a.lastModified();
+                return d < 0 ? -1 : d > 0 ? 1 : 0;
+            }
+        });
+        for (int i = maxEntries; i < n; i++) {
+            String name = keys[i].getName();
+            File font = new File(dir, name.substring(0, name.length() - 4)
+                            + ".mfnb");
+            // Открытый шрифт читает пиксели из этого файла.
+            if (MFontBinary.isMapped(font)) continue;
+            keys[i].delete();
+            font.delete();
+        }
+    }
+
+    private File keyFile(Key key) {
+        return new File(dir, name(key.path) + ".key");
+    }
+
+    private File fontFile(Key key) {
+        return new File(dir, name(key.path) + ".mfnb");
+    }
+
+    /**
+     * Имя файлов записи из двух независимых хэшей пути.
+     */
+    private static String name(String path) {
+        CRC32 crc = new CRC32();
+        crc.update(path.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x%08x", crc.getValue(), path.hashCode());
+    }
+
+    /**
+     * Ключ записи кэша.
+     */
+    static final class Key {
+        final String path;
+        final long   size;
+        final long   modified;
+
+        Key(File f) throws IOException {
+            this(f.getCanonicalPath(), f.length(), f.lastModified());
+        }
+
+        Key(String path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Читает ключ из файла.
+         *
+         * @throws FileNotFoundException Если записи нет.
+         */
+        static Key read(File kf) throws IOException {
+            DataInputStream in = new DataInputStream(new FileInputStream(kf));
+            try {
+                if (in.readInt() != KEY_MAGIC)
+                    throw new IOException("not a cache key");
+                return new Key(in.readUTF(), in.readLong(), in.readLong());
+            } finally {
+                in.close();
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(KEY_MAGIC);
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.flush();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key k = (Key) obj;
+            return path.equals(k.path) && size == k.size
+                            && modified == k.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import microfont.MFont;
+
+/**
+ * Формат файла шрифта.
+ * <p>
+ * Формат файла определяется не по расширению, а по первым байтам файла, см.
+ * {@link #canRead(byte[], int)}. Встроенные форматы перечислены в
+ * {@link FontCodecs}, дополнительные подключаются через
+ * {@link java.util.ServiceLoader}: класс формата с открытым конструктором без
+ * параметров указывается в файле
+ * <code>META-INF/services/microfont.ls.FontCodec</code>. Вместо реализации
+ * всех методов удобно наследовать {@link AbstractFontCodec}.
+ */
+public interface FontCodec {
+    /** Формат умеет читать шрифты. */
+    int READ    = 1;
+    /** Формат умеет записывать шрифты. */
+    int WRITE   = 2;
+    /**
+     * Файл содержит индекс символов, поэтому загружается быстро и не
+     * нуждается в {@linkplain FontCache кэше}.
+     */
+    int INDEXED = 4;
+
+    /**
+     * Возвращает название формата для показа пользователю.
+     */
+    String getName();
+
+    /**
+     * Возвращает расширения имён файлов без точки, первое из них
+     * используется для новых файлов.
+     */
+    String[] getExtensions();
+
+    /**
+     * Возвращает возможности формата, сочетание {@link #READ},
+     * {@link #WRITE} и {@link #INDEXED}.
+     */
+    int getCapabilities();
+
+    /**
+     * Проверяет, записан ли файл в этом формате.
+     *
+     * @param header Первые байты файла.
+     * @param length Число прочитанных байтов, не больше
+     *            {@link FontCodecs#HEADER_SIZE}. Может быть меньше, если файл
+     *            короче.
+     * @return <b>true</b>, если формат узнаёт файл.
+     */
+    boolean canRead(byte[] header, int length);
+
+    /**
+     * Читает шрифт из потока. Поток не закрывается.
+     *
+     * @param in Поток с содержимым файла.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном содержимом.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    MFont read(InputStream in, MFontLoadProgress progress) throws IOException,
+                    InterruptedException;
+
+    /**
+     * Читает шрифт из файла.
+     *
+     * @param f Файл шрифта.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном содержимом.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    MFont read(File f, MFontLoadProgress progress) throws IOException,
+                    InterruptedException;
+
+    /**
+     * Записывает шрифт в поток. Поток не закрывается.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param out Поток для записи.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     * @throws UnsupportedOperationException Если формат не умеет
+     *             записывать шрифты.
+     */
+    void write(MFont font, OutputStream out, MFontSaveProgress progress)
+                    throws IOException;
+
+    /**
+     * Записывает шрифт в файл. При ошибке прежний файл не изменяется.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param f Файл для записи.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     * @throws UnsupportedOperationException Если формат не умеет
+     *             записывать шрифты.
+     */
+    void write(MFont font, File f, MFontSaveProgress progress)
+                    throws IOException;
+}
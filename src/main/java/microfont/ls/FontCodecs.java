@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import microfont.AbstractMFont;
+
+/**
+ * Список известных {@linkplain FontCodec форматов} файлов шрифтов.
+ * <p>
+ * Первыми проверяются {@linkplain #BINARY двоичный} и {@linkplain #COMPRESSED
+ * сжатый} форматы, затем форматы, найденные {@link ServiceLoader} и
+ * {@linkplain #register(FontCodec) добавленные} программой, а
+ * {@linkplain #TEXT текстовый} формат, узнающий почти любой файл,
+ * проверяется последним.
+ */
+public final class FontCodecs {
+    /** Число первых байтов файла, по которым определяется формат. */
+    public static final int       HEADER_SIZE = 64;
+    /** Текстовый формат {@link MFontLoadSave}. */
+    public static final FontCodec TEXT        = new TextCodec();
+    /** Двоичный формат {@link MFontBinary}. */
+    public static final FontCodec BINARY      = new BinaryCodec();
+    /** Сжатый формат {@link MFontCompressed}. */
+    public static final FontCodec COMPRESSED  = new CompressedCodec();
+    private static volatile List<FontCodec> codecs;
+
+    private FontCodecs() {
+    }
+
+    /**
+     * Возвращает неизменяемый список форматов в порядке проверки.
+     */
+    public static List<FontCodec> codecs() {
+        List<FontCodec> ret = codecs;
+        if (ret == null) {
+            synchronized (FontCodecs.class) {
+                ret = codecs;
+                if (ret == null) {
+                    ret = Collections.unmodifiableList(load());
+                    codecs = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static List<FontCodec> load() {
+        List<FontCodec> ret = new ArrayList<FontCodec>();
+        ret.add(BINARY);
+        ret.add(COMPRESSED);
+
+        Iterator<FontCodec> it = ServiceLoader.load(FontCodec.class)
+                        .iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) break;
+                ret.add(it.next());
+            } catch (ServiceConfigurationError e) {
+                // Ошибочный формат не должен мешать остальным.
+                AbstractMFont.logger().log(Level.WARNING, "font codec", e);
+            }
+        }
+
+        ret.add(TEXT);
+        return ret;
+    }
+
+    /**
+     * Добавляет формат перед текстовым форматом.
+     *
+     * @param codec Добавляемый формат.
+     */
+    public static synchronized void register(FontCodec codec) {
+        List<FontCodec> ret = new ArrayList<FontCodec>(codecs());
+        if (ret.contains(codec)) return;
+        ret.add(ret.size() - 1, codec);
+        codecs = Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Возвращает первый формат, умеющий читать файл с заданным началом.
+     *
+     * @param header Первые байты файла.
+     * @param length Число байтов в <code>header</code>.
+     * @return Формат или <b>null</b>, если файл не узнан.
+     */
+    public static FontCodec forHeader(byte[] header, int length) {
+        for (FontCodec c : codecs()) {
+            if ((c.getCapabilities() & FontCodec.READ) != 0
+                            && c.canRead(header, length))
+                return c;
+        }
+        return null;
+    }
+
+    /**
+     * Определяет формат файла по его первым байтам.
+     *
+     * @param f Файл шрифта.
+     * @return Формат файла.
+     * @throws IOException При ошибке чтения или если формат не узнан.
+     */
+    public static FontCodec sniff(File f) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int n = 0;
+        FileInputStream in = new FileInputStream(f);
+        try {
+            while (n < header.length) {
+                int r = in.read(header, n, header.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+
+        FontCodec ret = forHeader(header, n);
+        if (ret == null) throw new IOException("unknown font format " + f);
+        return ret;
+    }
+
+    /**
+     * Возвращает формат для записи файла. Существующий файл записывается в
+     * своём формате, для нового файла формат выбирается по расширению имени,
+     * а при неизвестном расширении используется {@linkplain #TEXT
+     * текстовый}.
+     *
+     * @param f Файл для записи.
+     * @return Формат или <b>null</b>, если файл существует, а его формат не
+     *         умеет записывать шрифты.
+     * @throws IOException При ошибке чтения существующего файла.
+     */
+    public static FontCodec forWrite(File f) throws IOException {
+        if (f.isFile() && f.length() > 0) {
+            FontCodec ret = sniff(f);
+            return (ret.getCapabilities() & FontCodec.WRITE) != 0 ? ret : null;
+        }
+
+        String name = f.getName().toLowerCase(Locale.ROOT);
+        for (FontCodec c : codecs()) {
+            if ((c.getCapabilities() & FontCodec.WRITE) == 0) continue;
+            for (String ext : c.getExtensions()) {
+                if (name.endsWith("." + ext.toLowerCase(Locale.ROOT)))
+                    return c;
+            }
+        }
+        return TEXT;
+    }
+}
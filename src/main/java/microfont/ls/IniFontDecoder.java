@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import microfont.MSymbol;
+import utils.ini.IniStyle;
+
+/**
+ * Разбор текстового файла шрифта с ускоренной обработкой секции
+ * <code>SYMBOLS</code>.
+ * <p>
+ * Строки секции <code>INFO</code> разбираются так же, как это делает
+ * {@link utils.ini.Parser}, и передаются {@linkplain MFontLoadSave.FontHandler
+ * обработчику}. Ключи секции <code>SYMBOLS</code> распознаются по длине и
+ * первому символу без создания строк, шестнадцатеричные байты декодируются
+ * прямо из буфера символов в один и тот же массив, а символы шрифта
+ * добавляются в шрифт одним вызовом {@link microfont.AbstractMFont#addAll(
+ * MSymbol[], int)} в конце разбора.
+ */
+final class IniFontDecoder {
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_CODE  = 1;
+    private static final int KEY_WIDTH = 2;
+    private static final int KEY_BYTES = 3;
+
+    private final Reader     reader;
+    private final IniStyle   style;
+    private final MFontLoadSave.FontHandler handler;
+    private final char[]     buf       = new char[1 << 16];
+    private int              pos;
+    private int              len;
+    private int              line;
+    /** Имя ключа текущей строки. */
+    private char[]           key       = new char[32];
+    private int              keyLength;
+    private final StringBuilder value  = new StringBuilder();
+    /** Байты символа, массив используется повторно. */
+    private byte[]           bytes     = new byte[256];
+    /** Прочитанные символы шрифта. */
+    private MSymbol[]        symbols   = new MSymbol[256];
+    private int              count;
+
+    IniFontDecoder(InputStream in, MFontLoadSave.FontHandler handler) {
+        style = IniStyle.flexible();
+        reader = new InputStreamReader(in, style.charset());
+        this.handler = handler;
+    }
+
+    /**
+     * Разбирает файл и добавляет прочитанные символы в шрифт обработчика.
+     *
+     * @throws IOException При ошибке чтения или недопустимых байтах символа.
+     * @throws InterruptedException Если разбор был прерван.
+     */
+    void decode() throws IOException, InterruptedException {
+        int ch = read();
+
+        while (ch != -1) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedException();
+            }
+            line++;
+
+            while (style.isWhiteSpace(ch)) {
+                ch = read();
+            }
+
+            if (ch == '[') ch = section();
+            else if (style.isKeyCharacter(ch)) ch = keyValue(ch);
+
+            // Комментарии и ошибочные строки пропускаются.
+            while (ch != -1 && !style.isLineEnd(ch)) {
+                ch = read();
+            }
+            while (style.isLineEnd(ch)) {
+                ch = read();
+            }
+        }
+
+        handler.font.addAll(symbols, count);
+    }
+
+    private int read() throws IOException {
+        if (pos == len) {
+            len = reader.read(buf, 0, buf.length);
+            pos = 0;
+            if (len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private int section() throws IOException {
+        value.setLength(0);
+        int ch = read();
+        while (style.isSectionCharacter(ch)) {
+            value.append((char) ch);
+            ch = read();
+        }
+        if (ch == ']') {
+            handler.section(value.toString());
+            ch = read();
+        }
+        return ch;
+    }
+
+    private int keyValue(int ch) throws IOException {
+        keyLength = 0;
+        while (style.isKeyCharacter(ch)) {
+            if (keyLength == key.length) key = Arrays.copyOf(key, keyLength * 2);
+            key[keyLength++] = (char) ch;
+            ch = read();
+        }
+
+        while (style.isWhiteSpace(ch)) {
+            ch = read();
+        }
+        if (ch != '=') return ch;
+        ch = read();
+        while (style.isWhiteSpace(ch)) {
+            ch = read();
+        }
+
+        switch (handler.section == 2 ? keyId() : KEY_OTHER) {
+        case KEY_BYTES:
+            if (handler.lazy != null) break;
+            return bytes(ch);
+        case KEY_CODE:
+            value.setLength(0);
+            ch = number(ch);
+            handler.code = Integer.parseInt(value.toString());
+            return ch;
+        case KEY_WIDTH:
+            value.setLength(0);
+            ch = number(ch);
+            handler.width = Integer.parseInt(value.toString());
+            return ch;
+        default:
+            break;
+        }
+
+        ch = string(ch);
+        handler.key(new String(key, 0, keyLength));
+        handler.value(value.toString());
+        return ch;
+    }
+
+    /**
+     * Распознаёт ключ секции <code>SYMBOLS</code>.
+     */
+    private int keyId() {
+        switch (keyLength) {
+        case 4:
+            if (isKey(MFontLoadSave.SYMBOLS_CODE)) return KEY_CODE;
+            break;
+        case 5:
+            switch (key[0] | 0x20) {
+            case 'b':
+                if (isKey(MFontLoadSave.SYMBOLS_BYTES)) return KEY_BYTES;
+                break;
+            case 'w':
+                if (isKey(MFontLoadSave.SYMBOLS_WIDTH)) return KEY_WIDTH;
+                break;
+            default:
+                break;
+            }
+            break;
+        default:
+            break;
+        }
+        return KEY_OTHER;
+    }
+
+    private boolean isKey(String name) {
+        for (int i = 0; i < keyLength; i++) {
+            if (Character.toLowerCase(key[i]) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Читает значение до конца строки с обработкой экранирования.
+     */
+    private int string(int ch) throws IOException {
+        value.setLength(0);
+        while (ch != -1 && !style.isLineEnd(ch)) {
+            if (ch == '\\') {
+                ch = read();
+                if (ch == 's') value.append(' ');
+                else if (ch == 't') value.append('\t');
+                else if (ch == 'r') value.append('\r');
+                else if (ch == 'n') value.append('\n');
+                else if (ch == '\\') value.append('\\');
+                else continue;
+            } else {
+                value.append((char) ch);
+            }
+            ch = read();
+        }
+        return ch;
+    }
+
+    private int number(int ch) throws IOException {
+        while (ch != -1 && !style.isLineEnd(ch) && !style.isWhiteSpace(ch)) {
+            value.append((char) ch);
+            ch = read();
+        }
+        return ch;
+    }
+
+    /**
+     * Декодирует байты символа и добавляет символ в список.
+     */
+    private int bytes(int ch) throws IOException {
+        int n = 0, v = 0;
+        boolean digit = false;
+
+        while (ch != -1 && !style.isLineEnd(ch)) {
+            int h;
+
+            if (ch >= '0' && ch <= '9') h = ch - '0';
+            else if (ch >= 'a' && ch <= 'f') h = ch - 'a' + 10;
+            else if (ch >= 'A' && ch <= 'F') h = ch - 'A' + 10;
+            else if (ch == ' ' || ch == '\t') {
+                if (digit) n = put(n, v);
+                digit = false;
+                v = 0;
+                ch = read();
+                continue;
+            } else {
+                throw new IOException("line " + line + ": invalid character "
+                                + ch);
+            }
+
+            v = (v << 4) | h;
+            digit = true;
+            ch = read();
+        }
+        if (digit) n = put(n, v);
+
+        // Остаток массива от предыдущего символа не должен попасть в пиксели.
+        int need = (handler.width * handler.height + 7) / 8;
+        if (need > bytes.length) bytes = Arrays.copyOf(bytes, need);
+        if (n < need) Arrays.fill(bytes, n, need, (byte) 0);
+
+        if (count == symbols.length)
+            symbols = Arrays.copyOf(symbols, count * 2);
+        symbols[count++] = new MSymbol(handler.code, handler.width,
+                        handler.height, bytes);
+        handler.index++;
+        handler.code++;
+        return ch;
+    }
+
+    private int put(int n, int v) {
+        if (n == bytes.length) bytes = Arrays.copyOf(bytes, n * 2);
+        bytes[n] = (byte) v;
+        return n + 1;
+    }
+}
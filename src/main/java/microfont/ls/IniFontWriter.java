@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import microfont.MFont;
+import microfont.MSymbol;
+import microfont.Metrics;
+import utils.ini.Formater;
+
+/**
+ * Запись шрифта в текстовом формате без промежуточных строк.
+ * <p>
+ * Результат совпадает с результатом {@link MFontLoadSave#save(MFont,
+ * Formater, MFontSaveProgress)}. Пиксели символа переносятся в один и тот же
+ * массив методом {@link MSymbol#getBytes(byte[])} и переводятся в
+ * шестнадцатеричный вид по таблице прямо в буфер вывода. Все значения секции
+ * <code>SYMBOLS</code> состоят из цифр и пробелов, поэтому экранирование для
+ * них не выполняется. Символы секции записываются в кодировке ASCII, которая
+ * совпадает с UTF-8 {@linkplain utils.ini.IniStyle#flexible() стиля} файла.
+ */
+final class IniFontWriter {
+    private static final Charset UTF8    = Charset.forName("utf-8");
+    private static final byte[]  HEX     = "0123456789abcdef".getBytes();
+    /** Признак комментария {@linkplain utils.ini.IniStyle#flexible() стиля}. */
+    private static final byte    COMMENT = ';';
+
+    private final OutputStream   out;
+    private final byte[]         lineEnd;
+    private final byte[]         buf     = new byte[1 << 16];
+    private int                  pos;
+    /** Пиксели символа, массив используется повторно. */
+    private byte[]               bytes   = new byte[256];
+
+    /**
+     * @param out Поток для записи. Поток не закрывается.
+     */
+    IniFontWriter(OutputStream out) {
+        this.out = out;
+        lineEnd = System.getProperty("line.separator").getBytes(UTF8);
+    }
+
+    /**
+     * Записывает шрифт.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     */
+    void write(MFont font, MFontSaveProgress progress) throws IOException {
+        comment(" This is MFont file. Version 0.8");
+        comment(" If yuor need edit this file use \"Methodius\".");
+
+        section(MFontLoadSave.INFO);
+        key(MFontLoadSave.INFO_CHARSET, font.getCodePage());
+        key(MFontLoadSave.INFO_NAME, font.getName());
+        key(MFontLoadSave.INFO_PROTOTIPE, font.getPrototype());
+        key(MFontLoadSave.INFO_DESCRIPTION, font.getDescriptin());
+        key(MFontLoadSave.INFO_SIZE, font.length());
+        key(MFontLoadSave.INFO_FIXSED, font.isFixsed() ? "true" : "false");
+        key(MFontLoadSave.INFO_WIDTH, font.getWidth());
+        key(MFontLoadSave.INFO_HEIGHT, font.getHeight());
+        key(MFontLoadSave.INFO_BASELINE,
+                        font.getMetric(Metrics.METRIC_BASELINE));
+        key(MFontLoadSave.INFO_ASCENT, font.getMetric(Metrics.METRIC_ASCENT));
+        key(MFontLoadSave.INFO_LINE, font.getMetric(Metrics.METRIC_LINE));
+        key(MFontLoadSave.INFO_DESCENT,
+                        font.getMetric(Metrics.METRIC_DESCENT));
+        key(MFontLoadSave.INFO_LEFT_MARGIN,
+                        font.getMetric(Metrics.METRIC_LEFT));
+        key(MFontLoadSave.INFO_RIGHT_MARGIN,
+                        font.getMetric(Metrics.METRIC_RIGHT));
+
+        comment(" Byte arrays of synbol in hex radix.");
+        section(MFontLoadSave.SYMBOLS);
+
+        int last = -1;
+        int count = font.length();
+        boolean fixsed = font.isFixsed();
+        for (int i = 0; i < count; i++) {
+            MSymbol sym = font.symbolByIndex(i);
+            if (++last != sym.getCode())
+                key(MFontLoadSave.SYMBOLS_CODE, sym.getCode());
+            last = sym.getCode();
+
+            int w = sym.getWidth();
+            if (!fixsed) key(MFontLoadSave.SYMBOLS_WIDTH, w);
+
+            int need = (w * sym.getHeight() + 7) / 8;
+            if (need > bytes.length) bytes = new byte[need];
+            symbolBytes(sym.getBytes(bytes));
+            MFontLoadSave.saved(progress, i + 1, count);
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n <= buf.length) return;
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    private void put(byte[] b) throws IOException {
+        if (b.length > buf.length) {
+            ensure(buf.length);
+            out.write(b);
+            return;
+        }
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    private void ascii(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void comment(String s) throws IOException {
+        ensure(1);
+        buf[pos++] = COMMENT;
+        put(s.getBytes(UTF8));
+        put(lineEnd);
+    }
+
+    private void section(String name) throws IOException {
+        ascii("[" + name + "]");
+        put(lineEnd);
+    }
+
+    private void key(String key, String value) throws IOException {
+        ascii(key);
+        ascii(" = ");
+        put(Formater.escape(value).getBytes(UTF8));
+        put(lineEnd);
+    }
+
+    private void key(String key, int value) throws IOException {
+        ascii(key);
+        ascii(" = ");
+        number(value);
+        put(lineEnd);
+    }
+
+    private void number(int v) throws IOException {
+        ensure(11);
+        if (v < 0) {
+            if (v == Integer.MIN_VALUE) {
+                ascii(Integer.toString(v));
+                return;
+            }
+            buf[pos++] = '-';
+            v = -v;
+        }
+
+        int digits = 1;
+        for (int t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos += digits;
+    }
+
+    /**
+     * Записывает строку <code>bytes</code> в том же виде, что и
+     * {@link Integer#toHexString(int)} через пробел.
+     */
+    private void symbolBytes(int n) throws IOException {
+        ascii(MFontLoadSave.SYMBOLS_BYTES);
+        ascii(" = ");
+        for (int i = 0; i < n; i++) {
+            ensure(3);
+            if (i > 0) buf[pos++] = ' ';
+            int b = bytes[i] & 0xff;
+            if (b >= 0x10) buf[pos++] = HEX[b >>> 4];
+            buf[pos++] = HEX[b & 0x0f];
+        }
+        put(lineEnd);
+    }
+}
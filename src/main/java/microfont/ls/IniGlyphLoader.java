@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import microfont.GlyphLoader;
+
+/**
+ * Источник пикселей символов из файла шрифта. При открытии файл
+ * просматривается один раз и запоминаются позиции значений ключей
+ * <code>bytes</code> секции <code>SYMBOLS</code>; пиксели символа читаются с
+ * этой позиции при каждой загрузке.
+ * <p>
+ * Значения ключей <code>bytes</code> состоят только из символов ASCII, поэтому
+ * позиции можно искать в байтах, не декодируя файл.
+ */
+class IniGlyphLoader implements GlyphLoader {
+    private RandomAccessFile file;
+    /** Позиции начала значений в файле. */
+    private long[]           offsets;
+    /** Длины значений в байтах. */
+    private int[]            lengths;
+    /** Количество символов. */
+    private int              count;
+    /** Буфер для чтения значения. */
+    private byte[]           buffer;
+
+    /**
+     * Открывает файл шрифта и ищет в нём позиции пикселей символов.
+     *
+     * @param f Файл шрифта.
+     * @throws IOException При ошибке чтения файла.
+     */
+    IniGlyphLoader(File f) throws IOException {
+        offsets = new long[256];
+        lengths = new int[256];
+        count = 0;
+        buffer = new byte[256];
+
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            scan(in);
+        } finally {
+            in.close();
+        }
+
+        file = new RandomAccessFile(f, "r");
+    }
+
+    /**
+     * Просмотр файла. Разбор строк упрощён по сравнению с
+     * {@link utils.ini.Parser}, но достаточен для файлов, записанных
+     * {@link MFontLoadSave}.
+     */
+    private void scan(InputStream in) throws IOException {
+        long pos = 0;
+        boolean symbols = false;
+        StringBuilder word = new StringBuilder();
+        int ch = in.read();
+
+        while (ch != -1) {
+            // Начало строки: пропуск пробелов.
+            while (ch == ' ' || ch == '\t') {
+                ch = in.read();
+                pos++;
+            }
+
+            if (ch == '[') {
+                word.setLength(0);
+                ch = in.read();
+                pos++;
+                while (ch != -1 && ch != ']' && !isLineEnd(ch)) {
+                    word.append((char) ch);
+                    ch = in.read();
+                    pos++;
+                }
+                symbols = MFontLoadSave.SYMBOLS.equals(word.toString());
+            } else if (symbols && ch != -1 && !isLineEnd(ch)) {
+                word.setLength(0);
+                while (ch != -1 && ch != '=' && ch != ' ' && ch != '\t'
+                                && !isLineEnd(ch)) {
+                    word.append((char) ch);
+                    ch = in.read();
+                    pos++;
+                }
+
+                if (MFontLoadSave.SYMBOLS_BYTES.equalsIgnoreCase(word
+                                .toString())) {
+                    while (ch == ' ' || ch == '\t' || ch == '=') {
+                        ch = in.read();
+                        pos++;
+                    }
+
+                    long start = pos;
+                    while (ch != -1 && !isLineEnd(ch)) {
+                        ch = in.read();
+                        pos++;
+                    }
+                    add(start, (int) (pos - start));
+                }
+            }
+
+            // Пропуск до конца строки.
+            while (ch != -1 && !isLineEnd(ch)) {
+                ch = in.read();
+                pos++;
+            }
+            while (isLineEnd(ch)) {
+                ch = in.read();
+                pos++;
+            }
+        }
+    }
+
+    private static boolean isLineEnd(int ch) {
+        return ch == '\n' || ch == '\r';
+    }
+
+    private void add(long offset, int length) {
+        if (count == offsets.length) {
+            long[] to = new long[count * 2];
+            int[] tl = new int[count * 2];
+            System.arraycopy(offsets, 0, to, 0, count);
+            System.arraycopy(lengths, 0, tl, 0, count);
+            offsets = to;
+            lengths = tl;
+        }
+
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    @Override
+    public int length() {
+        return count;
+    }
+
+    @Override
+    public synchronized byte[] load(int index) throws IOException {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("index " + index);
+        if (file == null) throw new IOException("closed");
+
+        int len = lengths[index];
+        if (buffer.length < len) buffer = new byte[len];
+
+        file.seek(offsets[index]);
+        file.readFully(buffer, 0, len);
+
+        return decode(buffer, len);
+    }
+
+    /**
+     * Преобразует строку шестнадцатеричных чисел, разделённых пробелами, в
+     * массив байтов.
+     *
+     * @param src Строка в кодировке ASCII.
+     * @param len Длина строки.
+     * @return Массив байтов.
+     * @throws IOException Если в строке есть недопустимые символы.
+     */
+    static byte[] decode(byte[] src, int len) throws IOException {
+        int n = 0;
+        boolean digit = false;
+
+        for (int i = 0; i < len; i++) {
+            boolean d = src[i] != ' ' && src[i] != '\t';
+            if (d && !digit) n++;
+            digit = d;
+        }
+
+        byte[] ret = new byte[n];
+        int v = 0;
+        n = 0;
+        digit = false;
+
+        for (int i = 0; i < len; i++) {
+            int c = src[i];
+            int h;
+
+            if (c >= '0' && c <= '9') h = c - '0';
+            else if (c >= 'a' && c <= 'f') h = c - 'a' + 10;
+            else if (c >= 'A' && c <= 'F') h = c - 'A' + 10;
+            else if (c == ' ' || c == '\t') {
+                if (digit) ret[n++] = (byte) v;
+                digit = false;
+                v = 0;
+                continue;
+            } else throw new IOException("invalid character " + c);
+
+            v = (v << 4) | h;
+            digit = true;
+        }
+        if (digit) ret[n] = (byte) v;
+
+        return ret;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file == null) return;
+        file.close();
+        file = null;
+    }
+}
@@ -0,0 +1,908 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import microfont.AbstractMFont;
+import microfont.DisallowOperationException;
+import microfont.GlyphLoader;
+import microfont.LazyMFont;
+import microfont.MFont;
+import microfont.MSymbol;
+import microfont.Metrics;
+
+/**
+ * Двоичный формат файла шрифта.
+ * <p>
+ * Файл состоит из заголовка, индекса символов и блока пикселей. Заголовок
+ * содержит те же сведения, что и секция <code>INFO</code> текстового формата
+ * {@link MFontLoadSave}, а так же признаки заданных метрик. Индекс содержит
+ * для каждого символа в порядке возрастания кода запись из кода, уникода или
+ * -1, ширины, смещения пикселей от начала блока и их длины. Пиксели хранятся
+ * упакованными так же, как возвращает {@link MSymbol#getBytes()}. Все числа
+ * записываются старшим байтом вперёд.
+ * <p>
+ * При {@linkplain #loadLazy(File, long) загрузке по требованию} файл
+ * {@linkplain FileChannel#map(FileChannel.MapMode, long, long) отображается в
+ * память}, разбирается только индекс, а пиксели символа копируются из
+ * отображения при первом обращении к нему. Отображение освобождается только
+ * сборщиком мусора, поэтому файл, отображённый открытым источником, не
+ * правится на месте. Полная загрузка читает файл в память и не отображает
+ * его.
+ * <p>
+ * Полное сохранение выполняется через временный файл. Если изменялись только
+ * пиксели символов, то файл можно {@linkplain #update(MFont, File,
+ * MFontSaveProgress) поправить}, записав лишь изменённые символы. Правка,
+ * прерванная сбоем, при загрузке не применяется: её нужно явно
+ * {@linkplain #recover(File) восстановить} перед открытием файла.
+ */
+public class MFontBinary {
+    /** Сигнатура файла, "MFNB". */
+    public static final int  MAGIC       = 0x4D464E42;
+    /** Версия формата. */
+    public static final int  VERSION     = 1;
+    /** Сигнатура файла правки, "MFP2". */
+    static final int         PATCH_MAGIC = 0x4D465032;
+    /** Размер заголовка файла правки в байтах. */
+    static final int         PATCH_HEAD  = 24;
+    /** Размер записи индекса в байтах. */
+    static final int         INDEX_SIZE  = 20;
+    /** Файлы, отображённые открытыми источниками, и число источников. */
+    private static final Map<File, Integer> MAPPED = new HashMap<File,
+                    Integer>();
+
+    private MFontBinary() {
+    }
+
+    /**
+     * Проверяет, записан ли файл в двоичном формате.
+     *
+     * @param f Проверяемый файл.
+     * @return <code>true</code> если файл начинается с {@link #MAGIC}.
+     * @throws IOException При ошибке чтения файла.
+     */
+    public static boolean isBinary(File f) throws IOException {
+        return readMagic(f) == MAGIC;
+    }
+
+    /**
+     * Возвращает первые четыре байта файла как число или 0, если файл
+     * короче.
+     */
+    static int readMagic(File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            byte[] b = new byte[4];
+            int n = 0;
+            while (n < 4) {
+                int r = in.read(b, n, 4 - n);
+                if (r < 0) return 0;
+                n += r;
+            }
+            return ByteBuffer.wrap(b).getInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Сохраняет шрифт в файл.
+     *
+     * @param mFont Сохраняемый шрифт.
+     * @param f Файл для записи.
+     * @throws IOException При ошибке записи.
+     */
+    public static void save(MFont mFont, File f) throws IOException {
+        save(mFont, f, null);
+    }
+
+    /**
+     * Сохраняет шрифт в файл. Файл записывается {@linkplain AtomicFile через
+     * временный файл}, при ошибке или отмене прежний файл не изменяется.
+     *
+     * @param mFont Сохраняемый шрифт.
+     * @param f Файл для записи.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     */
+    public static void save(MFont mFont, File f, MFontSaveProgress progress)
+                    throws IOException {
+        AtomicFile af = new AtomicFile(f);
+        try {
+            save(mFont, af.startWrite(), progress);
+            af.finishWrite();
+        } finally {
+            af.abortWrite();
+        }
+        // Незавершённая правка относится к прежнему содержимому.
+        patchFile(f).delete();
+    }
+
+    /**
+     * Записывает шрифт в поток. Поток не закрывается.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param os Поток для записи.
+     * @throws IOException При ошибке записи.
+     */
+    public static void save(MFont font, OutputStream os) throws IOException {
+        save(font, os, null);
+    }
+
+    /**
+     * Записывает шрифт в поток. Поток не закрывается.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param os Поток для записи.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     */
+    public static void save(MFont font, OutputStream os,
+                    MFontSaveProgress progress) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        os));
+        int count = font.length();
+
+        writeHeader(out, font);
+
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            MSymbol sym = font.symbolByIndex(i);
+            int len = glyphSize(sym);
+
+            out.writeInt(sym.getCode());
+            out.writeInt(sym.isUnicode() ? sym.getUnicode() : -1);
+            out.writeInt(sym.getWidth());
+            out.writeInt(offset);
+            out.writeInt(len);
+            offset += len;
+        }
+
+        for (int i = 0; i < count; i++) {
+            MSymbol sym = font.symbolByIndex(i);
+            byte[] b = sym.getBytes();
+            int len = b == null ? 0 : b.length;
+            if (len != glyphSize(sym))
+                throw new IOException("symbol " + sym.getCode()
+                                + " changed while saving");
+            if (b != null) out.write(b);
+            MFontLoadSave.saved(progress, i + 1, count);
+        }
+        out.flush();
+    }
+
+    /**
+     * Записывает в файл только изменённые символы шрифта.
+     * <p>
+     * Правка возможна, если заголовок файла и индекс совпадают с шрифтом,
+     * то есть изменялись только пиксели символов. Символы с установленным
+     * {@linkplain MSymbol#isModified() флагом изменений} сначала записываются
+     * в файл правки {@link #patchFile(File)}, который сбрасывается на диск, и
+     * только затем переносятся на свои места в файле шрифта. Если работа
+     * прервётся при переносе, то правку нужно {@linkplain #recover(File)
+     * применить повторно} перед следующим открытием файла.
+     * <p>
+     * Флаги изменений символов должны быть сброшены после загрузки шрифта из
+     * этого файла или после сохранения в него, иначе будут записаны все
+     * символы. Сами флаги методом не сбрасываются.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param f Двоичный файл, из которого шрифт был загружен.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>. Сообщается о каждом записанном символе.
+     * @return <b>false</b>, если файл нельзя поправить и шрифт нужно
+     *         {@linkplain #save(MFont, File, MFontSaveProgress) сохранить}
+     *         полностью. Файл в этом случае не изменяется.
+     * @throws IOException При ошибке чтения или записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено до
+     *             изменения файла.
+     */
+    public static boolean update(MFont font, File f,
+                    MFontSaveProgress progress) throws IOException {
+        // Запись в отображённый файл изменила бы пиксели открытого шрифта.
+        if (isMapped(f)) return false;
+        recover(f);
+        if (!preparePatch(font, f, progress)) return false;
+        recover(f);
+        return true;
+    }
+
+    /**
+     * Записывает {@linkplain #patchFile(File) файл правки} с изменёнными
+     * символами, не изменяя файл шрифта.
+     *
+     * @return <b>false</b>, если файл нельзя поправить.
+     * @see #update(MFont, File, MFontSaveProgress)
+     */
+    static boolean preparePatch(MFont font, File f,
+                    MFontSaveProgress progress) throws IOException {
+        if (!f.exists() || !isBinary(f)) return false;
+
+        byte[] head = header(font);
+        int count = font.length();
+        long[] pos = new long[count];
+        byte[][] data = new byte[count][];
+        int[] old = new int[count];
+        int dirty = 0;
+        long length, modified;
+
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            length = raf.length();
+            modified = f.lastModified();
+            long blob = head.length + (long) count * INDEX_SIZE;
+            if (length < blob) return false;
+
+            byte[] fh = new byte[head.length];
+            raf.readFully(fh);
+            if (!Arrays.equals(head, fh)) return false;
+
+            byte[] index = new byte[count * INDEX_SIZE];
+            raf.readFully(index);
+            ByteBuffer ib = ByteBuffer.wrap(index);
+
+            for (int i = 0; i < count; i++) {
+                MSymbol sym = font.symbolByIndex(i);
+                if (ib.getInt() != sym.getCode()) return false;
+                if (ib.getInt() != (sym.isUnicode() ? sym.getUnicode() : -1))
+                    return false;
+                if (ib.getInt() != sym.getWidth()) return false;
+                long offset = ib.getInt() & 0xffffffffL;
+                int len = ib.getInt();
+                if (len != glyphSize(sym)
+                                || blob + offset + len > raf.length())
+                    return false;
+
+                if (!sym.isModified() || len == 0) continue;
+                pos[dirty] = blob + offset;
+                data[dirty] = new byte[len];
+                sym.getBytes(data[dirty]);
+                dirty++;
+            }
+
+            // Контрольные суммы заменяемых участков позволяют отличить
+            // прерванный перенос правки от изменения файла извне.
+            for (int i = 0; i < dirty; i++) {
+                byte[] b = new byte[data[i].length];
+                raf.seek(pos[i]);
+                raf.readFully(b);
+                old[i] = crc(b);
+            }
+        } finally {
+            raf.close();
+        }
+
+        if (dirty == 0) return true;
+
+        // Файл правки полностью записывается до изменения шрифта.
+        File patch = patchFile(f);
+        FileOutputStream fos = new FileOutputStream(patch);
+        try {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(new CheckedOutputStream(
+                                            fos, crc)));
+            out.writeInt(PATCH_MAGIC);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(dirty);
+            for (int i = 0; i < dirty; i++) {
+                out.writeLong(pos[i]);
+                out.writeInt(data[i].length);
+                out.writeInt(old[i]);
+                out.write(data[i]);
+                MFontLoadSave.saved(progress, i + 1, dirty);
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            fos.close();
+            patch.delete();
+            throw e;
+        }
+        fos.close();
+        return true;
+    }
+
+    /**
+     * Возвращает файл правки для файла шрифта.
+     *
+     * @see #update(MFont, File, MFontSaveProgress)
+     */
+    public static File patchFile(File f) {
+        return new File(f.getPath() + ".patch");
+    }
+
+    /**
+     * Применяет к файлу шрифта правку, оставшуюся от прерванного
+     * {@linkplain #update(MFont, File, MFontSaveProgress) сохранения}, и
+     * удаляет файл правки. Неполная правка удаляется без применения, так как
+     * файл шрифта до её завершения не изменялся. Правка так же удаляется,
+     * если файл шрифта изменён извне: его длина не совпадает с записанной в
+     * правке, а время изменения - отличается и хотя бы один заменяемый
+     * участок не содержит ни прежних, ни новых данных.
+     * <p>
+     * Вызывается явно перед открытием файла и перед правкой, но не при
+     * загрузке, поэтому загрузка никогда не изменяет файл шрифта.
+     *
+     * @param f Файл шрифта.
+     * @throws IOException При ошибке записи в файл шрифта или если файл
+     *             отображён в память открытым источником. Файл правки в этом
+     *             случае сохраняется.
+     */
+    public static void recover(File f) throws IOException {
+        File patch = patchFile(f);
+        if (!patch.exists()) return;
+        if (isMapped(f)) throw new IOException("font file is mapped " + f);
+
+        ByteBuffer b;
+        RandomAccessFile in = new RandomAccessFile(patch, "r");
+        try {
+            if (in.length() > Integer.MAX_VALUE) {
+                b = null;
+            } else {
+                byte[] all = new byte[(int) in.length()];
+                in.readFully(all);
+                b = ByteBuffer.wrap(all);
+            }
+        } finally {
+            in.close();
+        }
+
+        if (b == null || !isValidPatch(b, f.length())) {
+            AbstractMFont.logger().log(Level.WARNING,
+                            "drop incomplete patch " + patch);
+            patch.delete();
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (b.getLong(12) != f.lastModified() && !isPatchTarget(b, raf)) {
+                AbstractMFont.logger().log(Level.WARNING,
+                                "drop stale patch " + patch);
+                patch.delete();
+                return;
+            }
+
+            b.position(PATCH_HEAD);
+            while (b.remaining() > 4) {
+                long p = b.getLong();
+                byte[] d = new byte[b.getInt()];
+                b.getInt();
+                b.get(d);
+                raf.seek(p);
+                raf.write(d);
+            }
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        patch.delete();
+    }
+
+    /**
+     * Проверяет, что каждый заменяемый правкой участок файла содержит либо
+     * прежние данные, либо уже перенесённые новые.
+     */
+    private static boolean isPatchTarget(ByteBuffer b, RandomAccessFile raf)
+                    throws IOException {
+        b.position(PATCH_HEAD);
+        while (b.remaining() > 4) {
+            long p = b.getLong();
+            byte[] d = new byte[b.getInt()];
+            int old = b.getInt();
+            b.get(d);
+
+            byte[] cur = new byte[d.length];
+            raf.seek(p);
+            raf.readFully(cur);
+            if (crc(cur) != old && !Arrays.equals(cur, d)) return false;
+        }
+        return true;
+    }
+
+    private static int crc(byte[] b) {
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Проверяет сигнатуру, контрольную сумму и записи правки.
+     */
+    private static boolean isValidPatch(ByteBuffer b, long length) {
+        int size = b.limit();
+        if (size < PATCH_HEAD + 4 || b.getInt(0) != PATCH_MAGIC) return false;
+        if (b.getLong(4) != length) return false;
+
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, size - 4);
+        if (b.getInt(size - 4) != (int) crc.getValue()) return false;
+
+        int records = b.getInt(20);
+        long p = PATCH_HEAD;
+        for (int i = 0; i < records; i++) {
+            if (p + 16 > size - 4) return false;
+            long at = b.getLong((int) p);
+            int len = b.getInt((int) p + 8);
+            if (at < 0 || len < 0 || at + len > length) return false;
+            p += 16 + len;
+        }
+        return p == size - 4;
+    }
+
+    /**
+     * Возвращает заголовок файла для шрифта.
+     */
+    private static byte[] header(MFont font) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ret);
+        writeHeader(out, font);
+        out.flush();
+        return ret.toByteArray();
+    }
+
+    /**
+     * Записывает заголовок файла вместе с сигнатурой, версией и числом
+     * символов.
+     */
+    private static void writeHeader(DataOutputStream out, MFont font)
+                    throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeInfo(out, font);
+        out.writeInt(font.length());
+    }
+
+    /**
+     * Записывает сведения о шрифте: признак фиксированной ширины, размеры,
+     * строки и метрики.
+     */
+    static void writeInfo(DataOutputStream out, MFont font)
+                    throws IOException {
+        out.writeBoolean(font.isFixsed());
+        out.writeInt(font.getWidth());
+        out.writeInt(font.getHeight());
+        writeString(out, font.getCodePage());
+        writeString(out, font.getName());
+        writeString(out, font.getPrototype());
+        writeString(out, font.getDescriptin());
+        for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+            out.writeInt(font.getMetric(i));
+            out.writeBoolean(font.isMetricActually(i));
+        }
+    }
+
+    /**
+     * Загружает шрифт целиком.
+     *
+     * @param f Файл шрифта.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static MFont load(File f) throws IOException {
+        return load(new MappedGlyphLoader(readFile(f)));
+    }
+
+    /**
+     * Загружает шрифт целиком из потока. Поток читается до конца и не
+     * закрывается. Незавершённая {@linkplain #update(MFont, File,
+     * MFontSaveProgress) правка} при этом не применяется.
+     *
+     * @param in Поток с содержимым файла шрифта.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static MFont load(InputStream in) throws IOException {
+        return load(new MappedGlyphLoader(readAll(in)));
+    }
+
+    private static MFont load(MappedGlyphLoader loader) throws IOException {
+        try {
+            MFont font = new MFont();
+            read(loader, font, null);
+            return font;
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * Загружает шрифт без пикселей символов. Пиксели копируются из
+     * отображения файла при первом обращении к символу, см.
+     * {@link LazyMFont}.
+     *
+     * @param f Файл шрифта.
+     * @param budget Предел размера загруженных пикселей в байтах.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static LazyMFont loadLazy(File f, long budget) throws IOException {
+        MappedGlyphLoader loader = new MappedGlyphLoader(f);
+        LazyMFont font = new LazyMFont(budget);
+        try {
+            read(loader, font, font);
+        } catch (IOException e) {
+            loader.close();
+            throw e;
+        }
+        font.setLoader(loader);
+        return font;
+    }
+
+    /**
+     * Заполняет шрифт по заголовку и индексу.
+     *
+     * @param lazy Тот же шрифт, если пиксели загружаются по требованию, иначе
+     *            <b>null</b>.
+     */
+    private static void read(MappedGlyphLoader loader, MFont font,
+                    LazyMFont lazy) throws IOException {
+        int[] metrics = new int[Metrics.METRIC_MAX + 1];
+        boolean[] actually = new boolean[Metrics.METRIC_MAX + 1];
+
+        readInfo(loader.header(), font, metrics, actually);
+
+        // Символы добавляются одним вызовом, по одному это квадратичная
+        // операция для больших шрифтов.
+        MSymbol[] syms = new MSymbol[lazy == null ? loader.length() : 0];
+        for (int i = 0; i < loader.length(); i++) {
+            MSymbol sym;
+            if (lazy != null) {
+                sym = new MSymbol(loader.code(i), loader.width(i), font
+                                .getHeight());
+            } else {
+                byte[] b = loader.load(i);
+                sym = new MSymbol(loader.code(i), loader.width(i), font
+                                .getHeight(), b.length == 0 ? null : b);
+            }
+            setUnicode(font, sym, loader.unicode(i));
+
+            if (lazy != null) lazy.add(sym, i);
+            else syms[i] = sym;
+        }
+        if (lazy == null) font.addAll(syms, syms.length);
+
+        applyMetrics(font, metrics, actually);
+    }
+
+    /**
+     * Читает сведения о шрифте, записанные {@link #writeInfo(DataOutputStream,
+     * MFont)}. Метрики не применяются, а возвращаются в массивах, так как они
+     * проверяются по размерам символов, см. {@link #applyMetrics(MFont,
+     * int[], boolean[])}.
+     */
+    static void readInfo(ByteBuffer h, MFont font, int[] metrics,
+                    boolean[] actually) throws IOException {
+        try {
+            boolean fixsed = h.get() != 0;
+            int width = h.getInt();
+            int height = h.getInt();
+            // Тот же порядок, что и при загрузке текстового формата.
+            font.setCodePage(readString(h));
+            font.setName(readString(h));
+            font.setPrototype(readString(h));
+            font.setDescriptin(readString(h));
+            font.setFixsed(fixsed);
+            font.setWidth(width);
+            font.setHeight(height);
+            for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+                metrics[i] = h.getInt();
+                actually[i] = h.get() != 0;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated header");
+        }
+    }
+
+    /**
+     * Пропускает сведения о шрифте, записанные {@link #writeInfo(
+     * DataOutputStream, MFont)}.
+     *
+     * @return Высота шрифта.
+     * @throws BufferUnderflowException Если сведения обрезаны.
+     * @throws IllegalArgumentException Если строка выходит за буфер.
+     */
+    static int skipInfo(ByteBuffer h) {
+        h.position(h.position() + 5);
+        int height = h.getInt();
+        for (int i = 0; i < 4; i++) {
+            if (h.get() == 0) continue;
+            int len = h.getShort() & 0xffff;
+            h.position(h.position() + len);
+        }
+        h.position(h.position() + (Metrics.METRIC_MAX + 1) * 5);
+        return height;
+    }
+
+    /**
+     * Устанавливает метрики шрифта после добавления символов.
+     */
+    static void applyMetrics(MFont font, int[] metrics, boolean[] actually) {
+        for (int i = 0; i <= Metrics.METRIC_MAX; i++) {
+            font.setMetricActually(i, actually[i]);
+            font.setMetric(i, metrics[i]);
+        }
+    }
+
+    /**
+     * Устанавливает уникод символа, если он записан и шрифт не уникодный.
+     */
+    static void setUnicode(MFont font, MSymbol sym, int u) {
+        if (u < 0 || font.isUnicode()) return;
+        try {
+            sym.setUnicode(u);
+        } catch (DisallowOperationException e) {
+            // Символ без владельца, исключения быть не должно.
+            AbstractMFont.logger().log(Level.SEVERE, "load unicode", e);
+        }
+    }
+
+    /**
+     * Возвращает размер упакованных пикселей символа.
+     */
+    static int glyphSize(MSymbol sym) {
+        return (sym.getWidth() * sym.getHeight() + 7) / 8;
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+                    throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(ByteBuffer b) throws IOException {
+        if (b.get() == 0) return null;
+
+        // Длина строки остаётся в начале массива для readUTF().
+        int len = b.getShort() & 0xffff;
+        byte[] utf = new byte[len + 2];
+        utf[0] = (byte) (len >> 8);
+        utf[1] = (byte) len;
+        b.get(utf, 2, len);
+        return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+    }
+
+    /**
+     * Отображает весь файл в память только для чтения.
+     */
+    static ByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException("file too large");
+            // Отображение остаётся действительным после закрытия файла.
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Читает весь файл в память.
+     */
+    static ByteBuffer readFile(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE)
+                throw new IOException("file too large");
+            byte[] b = new byte[(int) raf.length()];
+            raf.readFully(b);
+            return ByteBuffer.wrap(b);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Возвращает <code>true</code>, если файл отображён в память открытым
+     * {@linkplain #loadLazy(File, long) источником пикселей}.
+     */
+    static boolean isMapped(File f) {
+        synchronized (MAPPED) {
+            return MAPPED.containsKey(mappedKey(f));
+        }
+    }
+
+    /**
+     * Учитывает открытие или закрытие источника, отображающего файл.
+     */
+    private static void mapped(File f, boolean open) {
+        File key = mappedKey(f);
+        synchronized (MAPPED) {
+            Integer n = MAPPED.get(key);
+            int c = (n == null ? 0 : n) + (open ? 1 : -1);
+            if (c > 0) MAPPED.put(key, c);
+            else MAPPED.remove(key);
+        }
+    }
+
+    private static File mappedKey(File f) {
+        try {
+            return f.getCanonicalFile();
+        } catch (IOException e) {
+            return f.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Читает поток до конца в буфер.
+     */
+    static ByteBuffer readAll(InputStream in) throws IOException {
+        byte[] b = new byte[1 << 16];
+        int n = 0, r;
+        while ((r = in.read(b, n, b.length - n)) >= 0) {
+            n += r;
+            if (n == b.length) {
+                if (n == Integer.MAX_VALUE)
+                    throw new IOException("file too large");
+                b = Arrays.copyOf(b, (int) Math.min(n * 2L,
+                                Integer.MAX_VALUE));
+            }
+        }
+        return ByteBuffer.wrap(b, 0, n).slice();
+    }
+
+    /**
+     * Источник пикселей из отображённого в память двоичного файла.
+     */
+    static class MappedGlyphLoader implements GlyphLoader {
+        private ByteBuffer map;
+        /** Начало индекса. */
+        private final int  index;
+        /** Начало блока пикселей. */
+        private final int  blob;
+        private final int  count;
+        /** Высота символов. */
+        private final int  height;
+        /** Отображённый файл или <b>null</b>, если буфер в памяти. */
+        private File       file;
+
+        MappedGlyphLoader(File f) throws IOException {
+            this(map(f));
+            file = f;
+            mapped(f, true);
+        }
+
+        /**
+         * @param map Содержимое файла шрифта с позиции 0.
+         */
+        MappedGlyphLoader(ByteBuffer map) throws IOException {
+            this.map = map;
+            try {
+                if (map.getInt(0) != MAGIC) throw new IOException("not MFNB");
+                if (map.getInt(4) != VERSION)
+                    throw new IOException("version " + map.getInt(4));
+
+                ByteBuffer h = header();
+                height = skipInfo(h);
+                count = h.getInt();
+                index = h.position();
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("truncated header");
+            } catch (BufferUnderflowException e) {
+                throw new IOException("truncated header");
+            } catch (IllegalArgumentException e) {
+                throw new IOException("truncated header");
+            }
+
+            long end = index + (long) count * INDEX_SIZE;
+            if (count < 0 || end > map.limit())
+                throw new IOException("truncated index");
+            if (height < 0) throw new IOException("bad height " + height);
+            blob = (int) end;
+
+            // Все записи индекса проверяются заранее, чтобы load() не мог
+            // выйти за пределы файла.
+            for (int i = 0; i < count; i++) {
+                int w = width(i);
+                int len = glyphLength(i);
+                if (w < 0 || len != ((long) w * height + 7) / 8)
+                    throw new IOException("bad glyph " + i);
+                if (blob + (offset(i) & 0xffffffffL) + len > map.limit())
+                    throw new IOException("truncated glyph " + i);
+            }
+        }
+
+        /**
+         * Возвращает буфер, установленный на начало заголовка после сигнатуры
+         * и версии.
+         */
+        ByteBuffer header() {
+            ByteBuffer b = map.duplicate();
+            b.position(8);
+            return b;
+        }
+
+        int code(int i) {
+            return map.getInt(index + i * INDEX_SIZE);
+        }
+
+        int unicode(int i) {
+            return map.getInt(index + i * INDEX_SIZE + 4);
+        }
+
+        int width(int i) {
+            return map.getInt(index + i * INDEX_SIZE + 8);
+        }
+
+        private int offset(int i) {
+            return map.getInt(index + i * INDEX_SIZE + 12);
+        }
+
+        private int glyphLength(int i) {
+            return map.getInt(index + i * INDEX_SIZE + 16);
+        }
+
+        @Override
+        public int length() {
+            return count;
+        }
+
+        @Override
+        public synchronized byte[] load(int i) throws IOException {
+            if (i < 0 || i >= count)
+                throw new IndexOutOfBoundsException("index " + i);
+            if (map == null) throw new IOException("closed");
+
+            byte[] ret = new byte[glyphLength(i)];
+            ByteBuffer b = map.duplicate();
+            b.position(blob + offset(i));
+            b.get(ret);
+            return ret;
+        }
+
+        /**
+         * Отображение освобождается только сборщиком мусора, поэтому после
+         * закрытия источник лишь перестаёт считать файл отображённым.
+         */
+        @Override
+        public synchronized void close() {
+            map = null;
+            if (file != null) mapped(file, false);
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import microfont.GlyphLoader;
+import microfont.LazyMFont;
+import microfont.MFont;
+import microfont.MSymbol;
+import microfont.Metrics;
+
+/**
+ * Сжатый формат файла шрифта.
+ * <p>
+ * Символы объединяются в блоки по {@linkplain #getBlockCodes() диапазонам
+ * кодов}, и пиксели символов каждого блока сжимаются {@link Deflater}
+ * независимо от других блоков. Файл состоит из сигнатуры и версии, сведений о
+ * шрифте в том же виде, что и в {@linkplain MFontBinary двоичном формате},
+ * сжатой таблицы символов с кодом, уникодом или -1 и шириной каждого
+ * символа, индекса блоков и сжатых блоков. Запись индекса блока содержит
+ * номер первого символа блока, число символов, смещение сжатых данных от
+ * начала файла, их длину и длину распакованных данных. Все числа записываются старшим байтом
+ * вперёд.
+ * <p>
+ * При {@linkplain #load(File) полной загрузке} блоки распаковываются
+ * параллельно. При {@linkplain #loadLazy(File, long) загрузке по требованию}
+ * распаковывается только блок запрошенного символа.
+ */
+public class MFontCompressed {
+    /** Сигнатура файла, "MFNZ". */
+    public static final int  MAGIC          = 0x4D464E5A;
+    /** Версия формата. */
+    public static final int  VERSION        = 1;
+    /** Размер диапазона кодов блока по умолчанию. */
+    public static final int  DEFAULT_BLOCK  = 128;
+    /** Размер записи таблицы символов в байтах. */
+    static final int         SYMBOL_SIZE    = 12;
+    /** Размер записи индекса блоков в байтах. */
+    static final int         BLOCK_SIZE     = 24;
+
+    private MFontCompressed() {
+    }
+
+    /**
+     * Проверяет, записан ли файл в сжатом формате.
+     *
+     * @param f Проверяемый файл.
+     * @return <code>true</code> если файл начинается с {@link #MAGIC}.
+     * @throws IOException При ошибке чтения файла.
+     */
+    public static boolean isCompressed(File f) throws IOException {
+        return MFontBinary.readMagic(f) == MAGIC;
+    }
+
+    /**
+     * Сохраняет шрифт в файл с блоками по {@link #DEFAULT_BLOCK} кодов. Файл
+     * записывается {@linkplain AtomicFile через временный файл}.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param f Файл для записи.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     */
+    public static void save(MFont font, File f, MFontSaveProgress progress)
+                    throws IOException {
+        AtomicFile af = new AtomicFile(f);
+        try {
+            save(font, af.startWrite(), DEFAULT_BLOCK, progress);
+            af.finishWrite();
+        } finally {
+            af.abortWrite();
+        }
+    }
+
+    /**
+     * Записывает шрифт в поток. Поток не закрывается.
+     *
+     * @param font Сохраняемый шрифт.
+     * @param os Поток для записи.
+     * @param blockCodes Размер диапазона кодов одного блока.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws java.io.InterruptedIOException Если сохранение было отменено.
+     */
+    public static void save(MFont font, OutputStream os, int blockCodes,
+                    MFontSaveProgress progress) throws IOException {
+        if (blockCodes <= 0)
+            throw new IllegalArgumentException("block codes " + blockCodes);
+
+        MSymbol[] syms = new MSymbol[font.length()];
+        for (int i = 0; i < syms.length; i++) {
+            syms[i] = font.symbolByIndex(i);
+        }
+
+        // Разбиение символов на блоки по диапазонам кодов.
+        int[] first = new int[syms.length + 1];
+        int blocks = 0;
+        for (int i = 0; i < syms.length; i++) {
+            if (i == 0 || block(syms[i].getCode(), blockCodes) != block(
+                            syms[i - 1].getCode(), blockCodes))
+                first[blocks++] = i;
+        }
+        first[blocks] = syms.length;
+
+        // Сжатые блоки собираются в памяти, так как их смещения
+        // записываются в индекс перед ними.
+        byte[][] packed = new byte[blocks][];
+        int[] raw = new int[blocks];
+        byte[] table;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            ByteBuffer t = ByteBuffer.allocate(syms.length * SYMBOL_SIZE);
+            for (MSymbol sym : syms) {
+                t.putInt(sym.getCode());
+                t.putInt(sym.isUnicode() ? sym.getUnicode() : -1);
+                t.putInt(sym.getWidth());
+            }
+            table = deflate(deflater, t.array(), t.capacity());
+
+            byte[] in = new byte[256];
+            for (int b = 0; b < blocks; b++) {
+                int n = 0;
+                for (int i = first[b]; i < first[b + 1]; i++) {
+                    int len = MFontBinary.glyphSize(syms[i]);
+                    if (n + len > in.length)
+                        in = Arrays.copyOf(in, Math.max(n + len,
+                                        in.length * 2));
+                    if (len > 0 && syms[i].getBytes(in, n) != len)
+                        throw new IOException("symbol " + syms[i].getCode()
+                                        + " changed while saving");
+                    n += len;
+                    MFontLoadSave.saved(progress, i + 1, syms.length);
+                }
+                packed[b] = deflate(deflater, in, n);
+                raw[b] = n;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                        os));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        MFontBinary.writeInfo(dos, font);
+        dos.writeInt(blockCodes);
+        dos.writeInt(syms.length);
+        dos.writeInt(blocks);
+        dos.writeInt(table.length);
+        dos.write(table);
+
+        long offset = dos.size() + (long) blocks * BLOCK_SIZE;
+        for (int b = 0; b < blocks; b++) {
+            dos.writeInt(first[b]);
+            dos.writeInt(first[b + 1] - first[b]);
+            dos.writeLong(offset);
+            dos.writeInt(packed[b].length);
+            dos.writeInt(raw[b]);
+            offset += packed[b].length;
+        }
+        for (byte[] p : packed) {
+            dos.write(p);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Сжимает массив.
+     */
+    private static byte[] deflate(Deflater deflater, byte[] in, int length) {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream(length / 4 + 16);
+        byte[] buf = new byte[4096];
+        deflater.reset();
+        deflater.setInput(in, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            ret.write(buf, 0, deflater.deflate(buf));
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * Распаковывает массив, проверяя длину и контрольную сумму данных.
+     *
+     * @param in Сжатые данные.
+     * @param length Длина распакованных данных.
+     * @throws IOException Если данные повреждены или их длина не совпадает.
+     */
+    static byte[] inflate(byte[] in, int length) throws IOException {
+        byte[] out = new byte[length];
+        byte[] extra = new byte[1];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            int n = 0;
+            // Распаковка до конца потока, где проверяется контрольная сумма.
+            while (!inflater.finished()) {
+                int r = n < length ? inflater.inflate(out, n, length - n)
+                                : inflater.inflate(extra);
+                if (n >= length && r > 0) throw new IOException("too long");
+                if (r == 0 && (inflater.needsInput()
+                                || inflater.needsDictionary()))
+                    throw new IOException("truncated");
+                n += r;
+            }
+            if (n != length) throw new IOException("too short");
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return out;
+    }
+
+    /**
+     * Возвращает номер диапазона кодов, в который попадает код.
+     */
+    private static int block(int code, int blockCodes) {
+        if (code >= 0) return code / blockCodes;
+        return -((-code - 1) / blockCodes) - 1;
+    }
+
+    /**
+     * Загружает шрифт целиком, распаковывая блоки параллельно.
+     *
+     * @param f Файл шрифта.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static MFont load(File f) throws IOException {
+        return load(f, ParallelFontLoader.pool());
+    }
+
+    /**
+     * Загружает шрифт целиком.
+     *
+     * @param f Файл шрифта.
+     * @param fjp Пул потоков для распаковки блоков.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static MFont load(File f, ForkJoinPool fjp) throws IOException {
+        return load(new BlockGlyphLoader(MFontBinary.readFile(f)), fjp);
+    }
+
+    /**
+     * Загружает шрифт целиком из потока. Поток читается до конца и не
+     * закрывается.
+     *
+     * @param in Поток с содержимым файла шрифта.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static MFont load(InputStream in) throws IOException {
+        return load(new BlockGlyphLoader(MFontBinary.readAll(in)),
+                        ParallelFontLoader.pool());
+    }
+
+    private static MFont load(BlockGlyphLoader loader, ForkJoinPool fjp)
+                    throws IOException {
+        try {
+            MFont font = new MFont();
+            int[] metrics = new int[Metrics.METRIC_MAX + 1];
+            boolean[] actually = new boolean[Metrics.METRIC_MAX + 1];
+            MFontBinary.readInfo(loader.header(), font, metrics, actually);
+
+            MSymbol[] syms = new MSymbol[loader.length()];
+            try {
+                fjp.invoke(new Inflate(loader, font, syms, 0, loader
+                                .blocks()));
+            } catch (InflateError e) {
+                throw e.getCause();
+            }
+
+            font.addAll(syms, syms.length);
+            MFontBinary.applyMetrics(font, metrics, actually);
+            return font;
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * Загружает шрифт без пикселей символов. Пиксели символа распаковываются
+     * из его блока при первом обращении к символу, см. {@link LazyMFont}.
+     *
+     * @param f Файл шрифта.
+     * @param budget Предел размера загруженных пикселей в байтах.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static LazyMFont loadLazy(File f, long budget) throws IOException {
+        BlockGlyphLoader loader = new BlockGlyphLoader(f);
+        LazyMFont font = new LazyMFont(budget);
+        try {
+            int[] metrics = new int[Metrics.METRIC_MAX + 1];
+            boolean[] actually = new boolean[Metrics.METRIC_MAX + 1];
+            MFontBinary.readInfo(loader.header(), font, metrics, actually);
+
+            for (int i = 0; i < loader.length(); i++) {
+                MSymbol sym = new MSymbol(loader.code(i), loader.width(i),
+                                font.getHeight());
+                MFontBinary.setUnicode(font, sym, loader.unicode(i));
+                font.add(sym, i);
+            }
+            MFontBinary.applyMetrics(font, metrics, actually);
+        } catch (IOException e) {
+            loader.close();
+            throw e;
+        }
+        font.setLoader(loader);
+        return font;
+    }
+
+    /**
+     * Исключение распаковки, передаваемое из потоков пула.
+     */
+    private static final class InflateError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        InflateError(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Распаковка диапазона блоков и создание их символов.
+     */
+    private static final class Inflate extends RecursiveAction {
+        private static final long      serialVersionUID = 1L;
+        private final BlockGlyphLoader loader;
+        private final MFont            font;
+        private final MSymbol[]        syms;
+        private final int              from, to;
+
+        Inflate(BlockGlyphLoader loader, MFont font, MSymbol[] syms,
+                        int from, int to) {
+            this.loader = loader;
+            this.font = font;
+            this.syms = syms;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Inflate(loader, font, syms, from, mid),
+                                new Inflate(loader, font, syms, mid, to));
+                return;
+            }
+
+            for (int b = from; b < to; b++) {
+                byte[] raw;
+                try {
+                    raw = loader.inflate(b);
+                } catch (IOException e) {
+                    throw new InflateError(e);
+                }
+
+                int height = font.getHeight();
+                int p = 0;
+                for (int i = loader.first(b); i < loader.first(b + 1); i++) {
+                    int w = loader.width(i);
+                    int len = (w * height + 7) / 8;
+                    byte[] g = len == 0 ? null : Arrays.copyOfRange(raw, p,
+                                    p + len);
+                    p += len;
+                    syms[i] = new MSymbol(loader.code(i), w, height, g);
+                    MFontBinary.setUnicode(font, syms[i], loader.unicode(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Источник пикселей из сжатых блоков отображённого в память файла.
+     * Последний распакованный блок запоминается, поэтому символы одного
+     * блока, загружаемые подряд, не требуют повторной распаковки.
+     */
+    static class BlockGlyphLoader implements GlyphLoader {
+        private ByteBuffer   map;
+        private final int    height;
+        private final int    count;
+        private final int    blocks;
+        /** Распакованная таблица символов. */
+        private final ByteBuffer table;
+        /** Начало индекса блоков. */
+        private final int    index;
+        /** Номер блока каждого символа. */
+        private final int[]  blockOf;
+        /** Смещение пикселей каждого символа в распакованном блоке. */
+        private final int[]  offsetOf;
+        private int          cached = -1;
+        private byte[]       cache;
+
+        BlockGlyphLoader(File f) throws IOException {
+            this(MFontBinary.map(f));
+        }
+
+        /**
+         * @param map Содержимое файла шрифта с позиции 0.
+         */
+        BlockGlyphLoader(ByteBuffer map) throws IOException {
+            this.map = map;
+            try {
+                if (map.getInt(0) != MAGIC) throw new IOException("not MFNZ");
+                if (map.getInt(4) != VERSION)
+                    throw new IOException("version " + map.getInt(4));
+
+                ByteBuffer h = header();
+                height = MFontBinary.skipInfo(h);
+                h.getInt();
+                count = h.getInt();
+                blocks = h.getInt();
+                if (count < 0 || blocks < 0 || blocks > count)
+                    throw new IOException("bad index");
+                byte[] t = new byte[h.getInt()];
+                h.get(t);
+                table = ByteBuffer.wrap(MFontCompressed.inflate(t,
+                                count * SYMBOL_SIZE));
+                index = h.position();
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("truncated header");
+            } catch (BufferUnderflowException e) {
+                throw new IOException("truncated header");
+            } catch (IllegalArgumentException e) {
+                throw new IOException("truncated header");
+            }
+
+            if (index + (long) blocks * BLOCK_SIZE > map.limit())
+                throw new IOException("truncated index");
+
+            blockOf = new int[count];
+            offsetOf = new int[count];
+            for (int b = 0; b < blocks; b++) {
+                int p = 0;
+                if (first(b) < 0 || first(b + 1) > count
+                                || first(b) > first(b + 1)
+                                || offset(b) + packed(b) > map.limit())
+                    throw new IOException("bad block " + b);
+                for (int i = first(b); i < first(b + 1); i++) {
+                    blockOf[i] = b;
+                    offsetOf[i] = p;
+                    p += (width(i) * height + 7) / 8;
+                }
+                if (p != map.getInt(index + b * BLOCK_SIZE + 20))
+                    throw new IOException("bad block " + b);
+            }
+        }
+
+        /**
+         * Возвращает буфер, установленный на начало сведений о шрифте.
+         */
+        ByteBuffer header() {
+            ByteBuffer b = map.duplicate();
+            b.position(8);
+            return b;
+        }
+
+        int blocks() {
+            return blocks;
+        }
+
+        /**
+         * Возвращает номер первого символа блока или число символов для
+         * номера блока, равного их числу.
+         */
+        int first(int b) {
+            if (b == blocks) return count;
+            return map.getInt(index + b * BLOCK_SIZE);
+        }
+
+        private long offset(int b) {
+            return map.getLong(index + b * BLOCK_SIZE + 8);
+        }
+
+        private int packed(int b) {
+            return map.getInt(index + b * BLOCK_SIZE + 16);
+        }
+
+        int code(int i) {
+            return table.getInt(i * SYMBOL_SIZE);
+        }
+
+        int unicode(int i) {
+            return table.getInt(i * SYMBOL_SIZE + 4);
+        }
+
+        int width(int i) {
+            return table.getInt(i * SYMBOL_SIZE + 8);
+        }
+
+        /**
+         * Распаковывает блок. Может вызываться из нескольких потоков.
+         */
+        byte[] inflate(int b) throws IOException {
+            ByteBuffer m = map;
+            if (m == null) throw new IOException("closed");
+
+            byte[] in = new byte[packed(b)];
+            ByteBuffer d = m.duplicate();
+            d.position((int) offset(b));
+            d.get(in);
+
+            try {
+                return MFontCompressed.inflate(in, m.getInt(index + b
+                                * BLOCK_SIZE + 20));
+            } catch (IOException e) {
+                throw new IOException("block " + b + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public int length() {
+            return count;
+        }
+
+        @Override
+        public synchronized byte[] load(int i) throws IOException {
+            if (i < 0 || i >= count)
+                throw new IndexOutOfBoundsException("index " + i);
+
+            int b = blockOf[i];
+            if (b != cached) {
+                cache = inflate(b);
+                cached = b;
+            }
+            int len = (width(i) * height + 7) / 8;
+            return Arrays.copyOfRange(cache, offsetOf[i], offsetOf[i] + len);
+        }
+
+        @Override
+        public synchronized void close() {
+            // Отображение освобождается сборщиком мусора.
+            map = null;
+            cache = null;
+        }
+    }
+}
@@ -16,6 +16,18 @@
 
 package microfont.ls;
 
+/**
+ * Получатель сведений о ходе загрузки шрифта. Методы вызываются в потоке,
+ * который загружает шрифт.
+ */
 public interface MFontLoadProgress {
+    /**
+     * Сообщает о ходе загрузки. Вызывается при каждом изменении процента.
+     *
+     * @param percent Процент загрузки от 0 до 100, для текстового файла
+     *            соответствует доле прочитанных байтов.
+     * @return <b>false</b>, если загрузку нужно отменить. Тогда загрузка
+     *         завершается исключением {@link InterruptedException}.
+     */
     public boolean parseString(int percent);
 }
@@ -19,10 +19,15 @@ package microfont.ls;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.StringTokenizer;
 import utils.ini.Handler;
 import utils.ini.Parser;
 import utils.ini.Formater;
+import microfont.GlyphLoader;
+import microfont.LazyMFont;
 import microfont.MFont;
 import microfont.MSymbol;
 import microfont.Metrics;
@@ -47,14 +52,19 @@ public class MFontLoadSave {
     protected static final String SYMBOLS_CODE      = "code";
     protected static final String SYMBOLS_WIDTH     = "width";
     protected static final String SYMBOLS_BYTES     = "bytes";
+    /** Размер текстового файла, начиная с которого загрузка параллельна. */
+    static final long             PARALLEL_THRESHOLD = 1 << 20;
 
     /**
      * Сохраняет шрифт в заданном файле.
      * 
      * @param mFont Сохраняемый шрифт.
      * @param svr Файл для записи шрифта.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
      * @throws NullPointerException Если файл <b>svr</b> равен <b>null</b>.
-     * @throws IOException
+     * @throws IOException При ошибке записи.
+     * @throws InterruptedIOException Если сохранение было отменено.
      */
     public static void save(MFont mFont, Formater svr,
                     MFontSaveProgress progress) throws NullPointerException,
@@ -124,6 +134,7 @@ public class MFontLoadSave {
                     buff.append(Integer.toHexString(bt & 0x00ff));
                 }
                 svr.key(SYMBOLS_BYTES, buff.toString());
+                saved(progress, i + 1, mFont.length());
             }
         } catch (IOException e) {
             svr.close();
@@ -133,42 +144,197 @@ public class MFontLoadSave {
         svr.close();
     }
 
+    /**
+     * Сохраняет шрифт в текстовом формате, записывая байты символов прямо в
+     * буфер потока. Результат совпадает с результатом
+     * {@link #save(MFont, Formater, MFontSaveProgress)}.
+     * 
+     * @param mFont Сохраняемый шрифт.
+     * @param os Поток для записи шрифта. Поток не закрывается.
+     * @param progress Получатель сведений о ходе сохранения, может быть
+     *            <b>null</b>.
+     * @throws IOException При ошибке записи.
+     * @throws InterruptedIOException Если сохранение было отменено.
+     */
+    public static void save(MFont mFont, OutputStream os,
+                    MFontSaveProgress progress) throws IOException {
+        new IniFontWriter(os).write(mFont, progress);
+    }
+
+    /**
+     * Сообщает о ходе сохранения.
+     *
+     * @param progress Получатель или <b>null</b>.
+     * @param index Число записанных символов.
+     * @param count Число символов шрифта.
+     * @throws InterruptedIOException Если получатель отменил сохранение.
+     */
+    static void saved(MFontSaveProgress progress, int index, int count)
+                    throws InterruptedIOException {
+        if (progress != null && !progress.saveSymbol(index, count))
+            throw new InterruptedIOException("save cancelled");
+    }
+
+    /**
+     * Сообщает о ходе загрузки.
+     *
+     * @param progress Получатель или <b>null</b>.
+     * @param percent Процент загрузки.
+     * @throws InterruptedIOException Если получатель отменил загрузку.
+     */
+    static void loaded(MFontLoadProgress progress, int percent)
+                    throws InterruptedIOException {
+        if (progress != null && !progress.parseString(percent))
+            throw new InterruptedIOException("load cancelled");
+    }
+
     public static void save(MFont mFont, Formater svr)
                     throws NullPointerException, IOException {
         save(mFont, svr, null);
     }
 
+    /**
+     * Загружает шрифт из файла. Формат файла определяется по его первым
+     * байтам, см. {@link FontCodecs#sniff(File)}. Большие текстовые файлы на
+     * многоядерных машинах загружаются {@linkplain ParallelFontLoader
+     * параллельно}.
+     * 
+     * @param f Файл шрифта.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения файла.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
     public static MFont load(File f, MFontLoadProgress progress)
                     throws IOException, InterruptedException {
-        FileInputStream inp = new FileInputStream(f);
+        try {
+            return FontCodecs.sniff(f).read(f, progress);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+    }
 
+    /**
+     * Загружает шрифт из текстового файла.
+     */
+    static MFont loadText(File f, MFontLoadProgress progress)
+                    throws IOException, InterruptedException {
+        if (f.length() >= PARALLEL_THRESHOLD
+                        && Runtime.getRuntime().availableProcessors() > 1)
+            return ParallelFontLoader.load(f, progress);
+
+        InputStream inp = new FileInputStream(f);
+        if (progress != null)
+            inp = new ProgressInputStream(inp, progress, f.length(), 100);
+        try {
+            return loadText(inp);
+        } finally {
+            inp.close();
+        }
+    }
+
+    /**
+     * Загружает шрифт из текстового потока. Поток не закрывается.
+     */
+    static MFont loadText(InputStream inp) throws IOException,
+                    InterruptedException {
         FontHandler fhandler = new FontHandler();
+        new IniFontDecoder(inp, fhandler).decode();
+        return fhandler.font;
+    }
+
+    public static MFont load(File f) throws IOException, InterruptedException {
+        return load(f, null);
+    }
+
+    /**
+     * Загружает шрифт без пикселей символов. Пиксели загружаются из файла при
+     * первом обращении к ним, см. {@link LazyMFont}. Файл остаётся открытым до
+     * вызова {@link LazyMFont#close()}. Файл может быть записан и в
+     * {@linkplain MFontBinary двоичном} или {@linkplain MFontCompressed
+     * сжатом} формате.
+     * 
+     * @param f Файл шрифта.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @param budget Предел размера загруженных пикселей в байтах.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения файла.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    public static LazyMFont loadLazy(File f, MFontLoadProgress progress,
+                    long budget) throws IOException, InterruptedException {
+        int magic = MFontBinary.readMagic(f);
+        if (magic == MFontBinary.MAGIC) return MFontBinary.loadLazy(f, budget);
+        if (magic == MFontCompressed.MAGIC)
+            return MFontCompressed.loadLazy(f, budget);
+
+        InputStream inp = new FileInputStream(f);
+        if (progress != null)
+            inp = new ProgressInputStream(inp, progress, f.length(), 100);
+
+        LazyMFont font = new LazyMFont(budget);
+        FontHandler fhandler = new FontHandler(font);
         Parser parser = new Parser(inp);
         try {
             parser.parse(fhandler);
-        } catch (IOException e) {
-            parser.close();
-            throw (e);
-        } catch (InterruptedException e) {
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } finally {
             parser.close();
-            throw (e);
         }
 
-        parser.close();
-        return fhandler.font;
+        IniGlyphLoader loader = new IniGlyphLoader(f);
+        if (loader.length() != fhandler.index) {
+            loader.close();
+            throw new IOException("symbols " + fhandler.index
+                            + ", glyphs found " + loader.length());
+        }
+
+        font.setLoader(loader);
+        return font;
     }
 
-    public static MFont load(File f) throws IOException, InterruptedException {
-        return load(f, null);
+    /**
+     * Открывает источник пикселей символов файла шрифта, записанного в любом
+     * из поддерживаемых форматов. Используется, чтобы после сохранения
+     * {@linkplain LazyMFont#rebind(GlyphLoader) перепривязать} шрифт к
+     * записанному файлу.
+     * 
+     * @param f Файл шрифта.
+     * @return Источник пикселей. Закрывается вызывающим.
+     * @throws IOException При ошибке чтения или неверном формате файла.
+     */
+    public static GlyphLoader openGlyphs(File f) throws IOException {
+        int magic = MFontBinary.readMagic(f);
+        if (magic == MFontBinary.MAGIC)
+            return new MFontBinary.MappedGlyphLoader(f);
+        if (magic == MFontCompressed.MAGIC)
+            return new MFontCompressed.BlockGlyphLoader(f);
+        return new IniGlyphLoader(f);
     }
 
     static class FontHandler implements Handler {
-        MFont  font    = new MFont();
+        MFont  font;
+        /** Шрифт с загрузкой по требованию или <b>null</b>. */
+        LazyMFont lazy;
         int    section = 0;
         String key     = null;
         int    code    = 0;
         int    width   = 0;
         int    height  = 0;
+        /** Порядковый номер символа в файле. */
+        int    index   = 0;
+
+        FontHandler() {
+            font = new MFont();
+        }
+
+        FontHandler(LazyMFont font) {
+            this.font = font;
+            lazy = font;
+        }
 
         @Override
         public void value(String value) {
@@ -219,6 +385,9 @@ public class MFontLoadSave {
                     code = Integer.parseInt(value);
                 } else if (key.equalsIgnoreCase(SYMBOLS_WIDTH)) {
                     width = Integer.parseInt(value);
+                } else if (key.equalsIgnoreCase(SYMBOLS_BYTES) && lazy != null) {
+                    lazy.add(new MSymbol(code, width, height), index++);
+                    code++;
                 } else if (key.equalsIgnoreCase(SYMBOLS_BYTES)) {
                     StringTokenizer st = new StringTokenizer(value, " ", false);
                     byte[] bytes = new byte[st.countTokens()];
@@ -227,6 +396,7 @@ public class MFontLoadSave {
                     }
 
                     font.add(new MSymbol(code, width, height, bytes));
+                    index++;
                     code++;
                 }
             } else {
@@ -16,6 +16,18 @@
 
 package microfont.ls;
 
+/**
+ * Получатель сведений о ходе сохранения шрифта. Методы вызываются в потоке,
+ * который сохраняет шрифт.
+ */
 public interface MFontSaveProgress {
-
+    /**
+     * Сообщает о записи символа.
+     *
+     * @param index Число записанных символов.
+     * @param count Число символов шрифта.
+     * @return <b>false</b>, если сохранение нужно отменить. Тогда сохранение
+     *         завершается исключением {@link java.io.InterruptedIOException}.
+     */
+    public boolean saveSymbol(int index, int count);
 }
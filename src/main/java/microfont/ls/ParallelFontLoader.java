@@ -0,0 +1,518 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import microfont.MFont;
+import microfont.MSymbol;
+
+/**
+ * Параллельная загрузка текстового файла шрифта.
+ * <p>
+ * Секция <code>INFO</code> разбирается {@link IniFontDecoder}. Секция
+ * <code>SYMBOLS</code> делится по границам строк на части, которые
+ * декодируются независимо в {@link ForkJoinPool}. Код и ширина символа
+ * зависят от предыдущих строк <code>code</code> и <code>width</code>, поэтому
+ * часть запоминает символы до первой такой строки как неизвестные, а после
+ * декодирования их код и ширина последовательно уточняются по предыдущим
+ * частям. Затем символы создаются параллельно и добавляются в шрифт одним
+ * вызовом {@link microfont.AbstractMFont#addAll(MSymbol[], int)}. Результат
+ * совпадает с результатом последовательной загрузки.
+ * <p>
+ * Прерывание потока, вызвавшего загрузку, отменяет задачи пула: потоки пула
+ * не видят прерывания вызывающего потока, поэтому они проверяют общий
+ * признак отмены, который устанавливается вызывающим потоком.
+ */
+public final class ParallelFontLoader {
+    /** Наименьший размер части секции в байтах. */
+    static final int            MIN_CHUNK = 1 << 16;
+
+    private static ForkJoinPool pool;
+
+    private ParallelFontLoader() {
+    }
+
+    /**
+     * Возвращает общий пул потоков загрузки.
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool();
+        return pool;
+    }
+
+    /**
+     * Загружает шрифт, используя общий пул потоков.
+     *
+     * @param f Файл шрифта в текстовом формате.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или недопустимых байтах символа.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    public static MFont load(File f) throws IOException, InterruptedException {
+        return load(f, pool(), null);
+    }
+
+    /**
+     * Загружает шрифт, используя общий пул потоков.
+     *
+     * @param f Файл шрифта в текстовом формате.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или недопустимых байтах символа.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    public static MFont load(File f, MFontLoadProgress progress)
+                    throws IOException, InterruptedException {
+        return load(f, pool(), progress);
+    }
+
+    /**
+     * Загружает шрифт. Чтение файла составляет первую половину хода
+     * загрузки, декодирование и создание символов — вторую.
+     *
+     * @param f Файл шрифта в текстовом формате.
+     * @param fjp Пул потоков для декодирования.
+     * @param progress Получатель сведений о ходе загрузки, может быть
+     *            <b>null</b>.
+     * @return Загруженный шрифт.
+     * @throws IOException При ошибке чтения или недопустимых байтах символа.
+     * @throws InterruptedException Если загрузка была прервана.
+     */
+    public static MFont load(File f, ForkJoinPool fjp,
+                    MFontLoadProgress progress) throws IOException,
+                    InterruptedException {
+        if (f.length() > Integer.MAX_VALUE)
+            throw new IOException("file too large");
+
+        byte[] data = new byte[(int) f.length()];
+        InputStream in = new FileInputStream(f);
+        if (progress != null)
+            in = new ProgressInputStream(in, progress, data.length, 50);
+        try {
+            int n = 0;
+            while (n < data.length) {
+                int r = in.read(data, n, data.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            if (n < data.length) data = Arrays.copyOf(data, n);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } finally {
+            in.close();
+        }
+
+        try {
+            return load(data, fjp, MIN_CHUNK, progress);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+    }
+
+    /**
+     * Загружает шрифт из массива байтов файла.
+     *
+     * @param minChunk Наименьший размер части секции символов.
+     * @throws InterruptedIOException Если получатель отменил загрузку.
+     */
+    static MFont load(byte[] data, ForkJoinPool fjp, int minChunk,
+                    MFontLoadProgress progress) throws IOException,
+                    InterruptedException {
+        MFontLoadSave.FontHandler handler = new MFontLoadSave.FontHandler();
+        int start = symbolsStart(data);
+
+        new IniFontDecoder(new ByteArrayInputStream(data, 0, start), handler)
+                        .decode();
+        if (start == data.length || handler.section != 2) {
+            // Секции символов нет или заголовки не распознаны.
+            if (start < data.length) {
+                handler = new MFontLoadSave.FontHandler();
+                new IniFontDecoder(new ByteArrayInputStream(data), handler)
+                                .decode();
+            }
+            MFontLoadSave.loaded(progress, 100);
+            return handler.font;
+        }
+
+        int chunk = Math.max(minChunk, (data.length - start)
+                        / (fjp.getParallelism() * 4));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ArrayList<Chunk> chunks = await(fjp, new Decode(data, start,
+                        data.length, chunk, cancelled), cancelled);
+        MFontLoadSave.loaded(progress, 75);
+
+        // Уточнение кодов и ширин по предыдущим частям.
+        int code = handler.code;
+        int width = handler.width;
+        int total = 0;
+        for (Chunk c : chunks) {
+            c.first = total;
+            total += c.count;
+            for (int i = 0; i < c.codeLead; i++) {
+                c.codes[i] = code + i;
+            }
+            for (int i = 0; i < c.widthLead; i++) {
+                c.widths[i] = width;
+            }
+            code = c.codeSet ? c.code : code + c.count;
+            if (c.widthSet) width = c.width;
+        }
+
+        MSymbol[] symbols = new MSymbol[total];
+        await(fjp, new Build(chunks, 0, chunks.size(), symbols,
+                        handler.height, cancelled), cancelled);
+        handler.font.addAll(symbols, total);
+        MFontLoadSave.loaded(progress, 100);
+        return handler.font;
+    }
+
+    /**
+     * Выполняет задачу в пуле и ждёт её завершения. Если вызывающий поток
+     * прерван во время ожидания, то устанавливается признак отмены, по
+     * которому задачи пула прекращают работу.
+     *
+     * @throws IOException Ошибка декодирования из потока пула.
+     * @throws InterruptedException Если ожидание было прервано.
+     */
+    private static <T> T await(ForkJoinPool fjp, ForkJoinTask<T> task,
+                    AtomicBoolean cancelled) throws IOException,
+                    InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        fjp.execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            task.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof DecodeError) throw ((DecodeError) c).getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof Error) throw (Error) c;
+            throw new IOException(c);
+        }
+    }
+
+    /**
+     * Возвращает смещение строки, следующей за заголовком секции
+     * <code>SYMBOLS</code>, или длину массива, если заголовка нет.
+     */
+    static int symbolsStart(byte[] data) {
+        byte[] name = ("[" + MFontLoadSave.SYMBOLS + "]").getBytes();
+        int p = 0;
+
+        while (p < data.length) {
+            int q = p;
+            while (q < data.length && (data[q] == ' ' || data[q] == '\t')) {
+                q++;
+            }
+
+            boolean match = q + name.length <= data.length;
+            for (int i = 0; match && i < name.length; i++) {
+                match = data[q + i] == name[i];
+            }
+
+            while (p < data.length && data[p] != '\n' && data[p] != '\r') {
+                p++;
+            }
+            while (p < data.length && (data[p] == '\n' || data[p] == '\r')) {
+                p++;
+            }
+            if (match) return p;
+        }
+        return data.length;
+    }
+
+    /**
+     * Результат декодирования части секции символов.
+     */
+    static final class Chunk {
+        int      count;
+        int[]    codes  = new int[64];
+        int[]    widths = new int[64];
+        byte[][] bytes  = new byte[64][];
+        /** Число символов до первой строки <code>code</code>. */
+        int      codeLead;
+        /** Число символов до первой строки <code>width</code>. */
+        int      widthLead;
+        /** В части была строка <code>code</code>. */
+        boolean  codeSet;
+        /** Код следующего символа после части, если {@link #codeSet}. */
+        int      code;
+        boolean  widthSet;
+        /** Последняя ширина части, если {@link #widthSet}. */
+        int      width;
+        /** Номер первого символа части в шрифте. */
+        int      first;
+
+        void add(byte[] b) {
+            if (count == codes.length) {
+                codes = Arrays.copyOf(codes, count * 2);
+                widths = Arrays.copyOf(widths, count * 2);
+                bytes = Arrays.copyOf(bytes, count * 2);
+            }
+            if (codeSet) codes[count] = code++;
+            else codeLead++;
+            if (widthSet) widths[count] = width;
+            else widthLead++;
+            bytes[count++] = b;
+        }
+    }
+
+    /**
+     * Исключение декодирования, передаваемое из потоков пула.
+     */
+    private static final class DecodeError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DecodeError(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Декодирование диапазона байтов секции символов.
+     */
+    private static final class Decode extends RecursiveTask<ArrayList<Chunk>> {
+        private static final long serialVersionUID = 1L;
+        private final byte[]      data;
+        private final int         from, to, chunk;
+        /** Признак отмены загрузки, общий для всех задач. */
+        private final AtomicBoolean cancelled;
+
+        Decode(byte[] data, int from, int to, int chunk,
+                        AtomicBoolean cancelled) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected ArrayList<Chunk> compute() {
+            if (to - from > chunk) {
+                // Деление по концу строки.
+                int mid = from + (to - from) / 2;
+                while (mid < to && data[mid] != '\n' && data[mid] != '\r') {
+                    mid++;
+                }
+                if (mid < to) {
+                    Decode left = new Decode(data, from, mid, chunk,
+                                    cancelled);
+                    Decode right = new Decode(data, mid, to, chunk,
+                                    cancelled);
+                    left.fork();
+                    ArrayList<Chunk> r = right.compute();
+                    ArrayList<Chunk> ret = left.join();
+                    ret.addAll(r);
+                    return ret;
+                }
+            }
+
+            ArrayList<Chunk> ret = new ArrayList<Chunk>(1);
+            if (cancelled.get()) return ret;
+            try {
+                ret.add(decode());
+            } catch (IOException e) {
+                throw new DecodeError(e);
+            }
+            return ret;
+        }
+
+        private Chunk decode() throws IOException {
+            Chunk c = new Chunk();
+            byte[] buf = new byte[256];
+            int p = from;
+
+            while (p < to && !cancelled.get()) {
+                int end = p;
+                while (end < to && data[end] != '\n' && data[end] != '\r') {
+                    end++;
+                }
+                buf = line(c, p, end, buf);
+                p = end + 1;
+            }
+            return c;
+        }
+
+        private static boolean isSpace(int b) {
+            return b == ' ' || b == '\t' || b == 0x0b || b == 0x0c
+                            || (b >= 0x1c && b <= 0x1f);
+        }
+
+        private static boolean isKey(int b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                            || (b >= '0' && b <= '9') || b == '_';
+        }
+
+        /**
+         * Разбирает одну строку так же, как {@link IniFontDecoder}.
+         */
+        private byte[] line(Chunk c, int p, int end, byte[] buf)
+                        throws IOException {
+            while (p < end && isSpace(data[p])) {
+                p++;
+            }
+            int k = p;
+            while (p < end && isKey(data[p])) {
+                p++;
+            }
+            int keyLength = p - k;
+            if (keyLength == 0) return buf;
+
+            while (p < end && isSpace(data[p])) {
+                p++;
+            }
+            if (p == end || data[p] != '=') return buf;
+            p++;
+            while (p < end && isSpace(data[p])) {
+                p++;
+            }
+
+            if (isName(k, keyLength, MFontLoadSave.SYMBOLS_BYTES)) {
+                return bytes(c, p, end, buf);
+            } else if (isName(k, keyLength, MFontLoadSave.SYMBOLS_CODE)) {
+                c.code = number(p, end);
+                c.codeSet = true;
+            } else if (isName(k, keyLength, MFontLoadSave.SYMBOLS_WIDTH)) {
+                c.width = number(p, end);
+                c.widthSet = true;
+            }
+            return buf;
+        }
+
+        private boolean isName(int k, int length, String name) {
+            if (length != name.length()) return false;
+            for (int i = 0; i < length; i++) {
+                if ((data[k + i] | 0x20) != name.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private int number(int p, int end) {
+            int q = p;
+            while (q < end && !isSpace(data[q])) {
+                q++;
+            }
+            return Integer.parseInt(new String(data, p, q - p));
+        }
+
+        private byte[] bytes(Chunk c, int p, int end, byte[] buf)
+                        throws IOException {
+            int n = 0, v = 0;
+            boolean digit = false;
+
+            for (; p < end; p++) {
+                int ch = data[p], h;
+
+                if (ch >= '0' && ch <= '9') h = ch - '0';
+                else if (ch >= 'a' && ch <= 'f') h = ch - 'a' + 10;
+                else if (ch >= 'A' && ch <= 'F') h = ch - 'A' + 10;
+                else if (ch == ' ' || ch == '\t') {
+                    if (digit) {
+                        if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+                        buf[n++] = (byte) v;
+                    }
+                    digit = false;
+                    v = 0;
+                    continue;
+                } else {
+                    throw new IOException("offset " + p
+                                    + ": invalid character " + ch);
+                }
+
+                v = (v << 4) | h;
+                digit = true;
+            }
+            if (digit) {
+                if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+                buf[n++] = (byte) v;
+            }
+
+            c.add(Arrays.copyOf(buf, n));
+            return buf;
+        }
+    }
+
+    /**
+     * Создание символов частей.
+     */
+    private static final class Build extends RecursiveAction {
+        private static final long      serialVersionUID = 1L;
+        private final ArrayList<Chunk> chunks;
+        private final int              from, to;
+        private final MSymbol[]        symbols;
+        private final int              height;
+        private final AtomicBoolean    cancelled;
+
+        Build(ArrayList<Chunk> chunks, int from, int to, MSymbol[] symbols,
+                        int height, AtomicBoolean cancelled) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.symbols = symbols;
+            this.height = height;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) / 2;
+                invokeAll(new Build(chunks, from, mid, symbols, height,
+                                cancelled), new Build(chunks, mid, to,
+                                symbols, height, cancelled));
+                return;
+            }
+
+            for (int i = from; i < to && !cancelled.get(); i++) {
+                Chunk c = chunks.get(i);
+                for (int j = 0; j < c.count; j++) {
+                    // Недостающие байты считаются нулевыми.
+                    byte[] b = c.bytes[j];
+                    int need = (c.widths[j] * height + 7) / 8;
+                    if (b.length < need) b = Arrays.copyOf(b, need);
+                    symbols[c.first + j] = new MSymbol(c.codes[j],
+                                    c.widths[j], height, b);
+                    c.bytes[j] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Поток, сообщающий {@linkplain MFontLoadProgress получателю} долю
+ * прочитанных байтов. Если получатель отказывается продолжать загрузку, то
+ * чтение завершается исключением {@link InterruptedIOException}.
+ */
+final class ProgressInputStream extends FilterInputStream {
+    private final MFontLoadProgress progress;
+    private final long              length;
+    private final int               scale;
+    private long                    done;
+    private int                     percent = -1;
+
+    /**
+     * @param in Исходный поток.
+     * @param progress Получатель сведений о ходе загрузки.
+     * @param length Ожидаемое число байтов в потоке.
+     * @param scale Процент загрузки, соответствующий концу потока.
+     */
+    ProgressInputStream(InputStream in, MFontLoadProgress progress,
+                    long length, int scale) {
+        super(in);
+        this.progress = progress;
+        this.length = length;
+        this.scale = scale;
+    }
+
+    private void count(long n) throws InterruptedIOException {
+        if (n <= 0) return;
+        done += n;
+        int p = length <= 0 ? scale : (int) (Math.min(done, length) * scale
+                        / length);
+        if (p != percent) {
+            percent = p;
+            MFontLoadSave.loaded(progress, p);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        count(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long s = super.skip(n);
+        count(s);
+        return s;
+    }
+}
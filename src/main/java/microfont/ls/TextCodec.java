@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import microfont.MFont;
+
+/**
+ * Текстовый формат {@link MFontLoadSave}. Формат узнаёт любой файл без
+ * управляющих символов в начале, поэтому проверяется последним.
+ */
+final class TextCodec extends AbstractFontCodec {
+
+    TextCodec() {
+        super("MicroFont", READ | WRITE, "mfnt");
+    }
+
+    @Override
+    public boolean canRead(byte[] header, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = header[i] & 0xff;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r') return false;
+        }
+        return true;
+    }
+
+    @Override
+    public MFont read(File f, MFontLoadProgress progress) throws IOException,
+                    InterruptedException {
+        return MFontLoadSave.loadText(f, progress);
+    }
+
+    @Override
+    public MFont read(InputStream in, MFontLoadProgress progress)
+                    throws IOException, InterruptedException {
+        MFont ret = MFontLoadSave.loadText(in);
+        MFontLoadSave.loaded(progress, 100);
+        return ret;
+    }
+
+    @Override
+    public void write(MFont font, OutputStream out, MFontSaveProgress progress)
+                    throws IOException {
+        MFontLoadSave.save(font, out, progress);
+    }
+}
@@ -890,8 +890,6 @@ public class PixselMapRender implements Render, ColorIndex, Metrics {
      */
     private class PixselListener implements PixselMapListener,
                     PropertyChangeListener {
-        Rectangle rect = new Rectangle();
-
         @Override
         public void propertyChange(PropertyChangeEvent evt) {
             if (!evt.getPropertyName().equals(PixselMap.PROPERTY_SIZE)) return;
@@ -902,9 +900,9 @@ public class PixselMapRender implements Render, ColorIndex, Metrics {
 
         @Override
         public void pixselChanged(PixselMapEvent event) {
-            rect.setBounds(event.x(), event.y(), event.width(), event.height());
-            rect = toPointRect(rect, rect);
-            requestRepaint(rect);
+            for (Rectangle rect : event.rects()) {
+                requestRepaint(toPointRect(rect, rect));
+            }
         }
     }
 }
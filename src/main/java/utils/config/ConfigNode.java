@@ -1093,41 +1093,29 @@ public class ConfigNode {
     }
 
     protected void fireConfigChangeEvent(String key, String value) {
-        synchronized (listeners) {
-            ConfigChangeEvent event = new ConfigChangeEvent(this, key, value);
-            Object[] listenerArray = listeners.getListenerList();
+        ConfigChangeEvent event = new ConfigChangeEvent(this, key, value);
 
-            for (int i = 0; i < listenerArray.length; i += 2) {
-                if (listenerArray[i] == ConfigChangeListener.class)
-                    ((ConfigChangeListener) listenerArray[i + 1])
-                                    .configChange(event);
-            }
+        for (ConfigChangeListener listener : listeners
+                        .getListeners(ConfigChangeListener.class)) {
+            listener.configChange(event);
         }
     }
 
     protected void fireChildAddedEvent(ConfigNode child) {
-        synchronized (listeners) {
-            NodeChangeEvent event = new NodeChangeEvent(this, child);
-            Object[] listenerArray = listeners.getListenerList();
+        NodeChangeEvent event = new NodeChangeEvent(this, child);
 
-            for (int i = 0; i < listenerArray.length; i += 2) {
-                if (listenerArray[i] == NodeChangeListener.class)
-                    ((NodeChangeListener) listenerArray[i + 1])
-                                    .childAdded(event);
-            }
+        for (NodeChangeListener listener : listeners
+                        .getListeners(NodeChangeListener.class)) {
+            listener.childAdded(event);
         }
     }
 
     protected void fireChildRemovedEvent(ConfigNode child) {
-        synchronized (listeners) {
-            NodeChangeEvent event = new NodeChangeEvent(this, child);
-            Object[] listenerArray = listeners.getListenerList();
+        NodeChangeEvent event = new NodeChangeEvent(this, child);
 
-            for (int i = 0; i < listenerArray.length; i += 2) {
-                if (listenerArray[i] == NodeChangeListener.class)
-                    ((NodeChangeListener) listenerArray[i + 1])
-                                    .childRemoved(event);
-            }
+        for (NodeChangeListener listener : listeners
+                        .getListeners(NodeChangeListener.class)) {
+            listener.childRemoved(event);
         }
     }
 }
@@ -16,6 +16,7 @@
 
 package utils.event;
 
+import java.lang.reflect.Array;
 import java.util.EventListener;
 
 /**
@@ -24,7 +25,11 @@ import java.util.EventListener;
  * {@link #add(Class, EventListener) добавление} одного и того же получателя
  * возможно только один раз.
  * <p>
- * 
+ * Получатели хранятся в отдельных массивах для каждого класса получателя.
+ * Массивы не изменяются после создания: при добавлении или удалении
+ * получателя создаётся новый массив. Поэтому выпуск сообщения не требует ни
+ * синхронизации, ни создания объектов, а получатели других классов не
+ * просматриваются.
  * 
  * <pre>
  * // Пример использования ListenerChain для обслуживания UndoableEditEvent.
@@ -43,57 +48,197 @@ import java.util.EventListener;
  * 
  *     // Выпуск сообщения.
  *     protected void fireUndoEvent(UndoableEditEvent event) {
- *         Object[] listenerArray = listeners.getListenerList();
- * 
- *         for (int i = 0; i &lt; listenerArray.length; i += 2) {
- *             if (listenerArray[i] == UndoableEditListener.class)
- *                 ((UndoableEditListener) listenerArray[i + 1])
- *                                 .undoableEditHappened(event);
+ *         for (UndoableEditListener listener : listeners
+ *                         .getListeners(UndoableEditListener.class)) {
+ *             listener.undoableEditHappened(event);
  *         }
  *     }
  * }
  * </pre>
  */
 public class ListenerChain {
+    /** Пустой массив пар. */
+    private static final Object[] EMPTY = new Object[0];
+
     /**
-     * Шаг изменения размера массива {@link #items}. ВАЖНО! Шаг должен быть
-     * кратен двум.
+     * Получатели одного класса и одного ключа. Объект не изменяется после
+     * создания.
      */
-    protected static int ARRAY_STEP_SIZE = 4;
-    /** Число занятых ячеек массива {@link #items}. */
-    private int          actualSize;
-    /** Массив для хранения пар <code>класс:получатель</code>. */
-    private Object[]     items;
+    private static final class Bucket {
+        final Class<?>        type;
+        /** Ключ или <b>null</b> для получателей без ключа. */
+        final String          key;
+        final EventListener[] listeners;
+        /** Пустой массив того же класса. */
+        final EventListener[] empty;
+
+        Bucket(Class<?> type, String key, EventListener[] listeners,
+                        EventListener[] empty) {
+            this.type = type;
+            this.key = key;
+            this.listeners = listeners;
+            this.empty = empty;
+        }
+
+        boolean is(Class<?> t, String k) {
+            return type == t && (key == k || (key != null && key.equals(k)));
+        }
+    }
+
+    /** Массивы получателей по классам и ключам. */
+    private volatile Bucket[] buckets;
+    /** Массив пар <code>класс:получатель</code> в порядке добавления. */
+    private volatile Object[] items;
 
     /**
      *
      */
     public ListenerChain() {
-        actualSize = 0;
-        items = new Object[ARRAY_STEP_SIZE];
+        buckets = new Bucket[0];
+        items = EMPTY;
+    }
+
+    /**
+     * Возвращает массив получателей класса <code>lClass</code>. Возвращаемый
+     * массив не изменяется и может использоваться без синхронизации; его нельзя
+     * изменять.
+     * 
+     * @param <С> Тип получателя сообщений.
+     * @param lClass Класс получателя сообщений.
+     * @return Массив получателей, возможно пустой.
+     */
+    public <С extends EventListener> С[] getListeners(Class<С> lClass) {
+        return getListeners(lClass, null);
     }
 
     /**
-     * При необходимости изменяет размер массива {@link #items}. Переменная
-     * {@link #actualSize} принимает значение <code>size</size>.
+     * Возвращает массив получателей класса <code>lClass</code>, добавленных с
+     * ключом <code>key</code>. Возвращаемый массив не изменяется и может
+     * использоваться без синхронизации; его нельзя изменять.
      * 
-     * @param size Требуемый размер массива.
+     * @param <С> Тип получателя сообщений.
+     * @param lClass Класс получателя сообщений.
+     * @param key Ключ, например, название свойства. Если <b>null</b>, то
+     *            возвращаются получатели, добавленные без ключа.
+     * @return Массив получателей, возможно пустой.
+     * @see #add(Class, String, EventListener)
      */
-    protected void allocate(int size) {
-        int sz;
+    @SuppressWarnings("unchecked")
+    public <С extends EventListener> С[] getListeners(Class<С> lClass,
+                    String key) {
+        Bucket[] b = buckets;
+        Bucket any = null;
+
+        for (int i = 0; i < b.length; i++) {
+            if (b[i].is(lClass, key)) return (С[]) b[i].listeners;
+            if (b[i].type == lClass) any = b[i];
+        }
+        if (any != null) return (С[]) any.empty;
 
-        if (size == actualSize) return;
+        // Пустой массив создаётся один раз для каждого класса.
+        synchronized (this) {
+            return (С[]) bucket(lClass, null).empty;
+        }
+    }
+
+    /**
+     * Возвращает <code>true</code> если есть получатели класса
+     * <code>lClass</code>, добавленные без ключа.
+     * 
+     * @param lClass Класс получателя сообщений.
+     */
+    public boolean hasListeners(Class<? extends EventListener> lClass) {
+        Bucket[] b = buckets;
 
-        sz = ((size + ARRAY_STEP_SIZE - 1) / ARRAY_STEP_SIZE) * ARRAY_STEP_SIZE;
+        for (int i = 0; i < b.length; i++) {
+            if (b[i].is(lClass, null)) return b[i].listeners.length != 0;
+        }
+        return false;
+    }
 
-        actualSize = size;
+    /**
+     * Возвращает массив получателей класса <code>lClass</code> с ключом
+     * <code>key</code>, при необходимости создавая пустой. Вызывается под
+     * монитором.
+     */
+    private Bucket bucket(Class<?> lClass, String key) {
+        Bucket[] b = buckets;
+        EventListener[] empty = null;
 
-        if (items.length == sz) return;
+        for (int i = 0; i < b.length; i++) {
+            if (b[i].is(lClass, key)) return b[i];
+            if (b[i].type == lClass) empty = b[i].empty;
+        }
 
-        Object[] temp = new Object[sz];
-        System.arraycopy(items, 0, temp, 0, sz < items.length ? sz
-                        : items.length);
-        items = temp;
+        if (empty == null)
+            empty = (EventListener[]) Array.newInstance(lClass, 0);
+        Bucket ret = new Bucket(lClass, key, empty, empty);
+        Bucket[] t = new Bucket[b.length + 1];
+        System.arraycopy(b, 0, t, 0, b.length);
+        t[b.length] = ret;
+        buckets = t;
+        return ret;
+    }
+
+    /**
+     * Заменяет массив получателей класса <code>lClass</code> с ключом
+     * <code>key</code>. Массив получателей с ключом удаляется, если он стал
+     * пустым. Вызывается под монитором.
+     */
+    private void replace(Class<?> lClass, String key, EventListener[] listeners) {
+        Bucket[] b = buckets;
+
+        if (key != null && listeners.length == 0) {
+            Bucket[] t = new Bucket[b.length - 1];
+            for (int i = 0, j = 0; i < b.length; i++) {
+                if (!b[i].is(lClass, key)) t[j++] = b[i];
+            }
+            buckets = t;
+            return;
+        }
+
+        Bucket[] t = new Bucket[b.length];
+        for (int i = 0; i < b.length; i++) {
+            if (b[i].is(lClass, key))
+                t[i] = new Bucket(lClass, key, listeners, b[i].empty);
+            else t[i] = b[i];
+        }
+        buckets = t;
+    }
+
+    /**
+     * Добавляет получателя в массив получателей класса <code>lClass</code> с
+     * ключом <code>key</code>. Вызывается под монитором.
+     */
+    private void addTo(Class<?> lClass, String key, EventListener listener) {
+        EventListener[] old = bucket(lClass, key).listeners;
+        EventListener[] ls = (EventListener[]) Array.newInstance(lClass,
+                        old.length + 1);
+        System.arraycopy(old, 0, ls, 0, old.length);
+        ls[old.length] = listener;
+        replace(lClass, key, ls);
+    }
+
+    /**
+     * Удаляет получателя из массива получателей класса <code>lClass</code> с
+     * ключом <code>key</code>. Вызывается под монитором.
+     */
+    private void removeFrom(Class<?> lClass, String key, EventListener listener) {
+        EventListener[] old = bucket(lClass, key).listeners;
+
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] != listener) continue;
+
+            EventListener[] ls = (EventListener[]) Array.newInstance(lClass,
+                            old.length - 1);
+            System.arraycopy(old, 0, ls, 0, i);
+            System.arraycopy(old, i + 1, ls, i, old.length - i - 1);
+            replace(lClass, key, ls);
+            return;
+        }
+
+        // Не оставлять пустой массив для ключа.
+        if (key != null && old.length == 0) replace(lClass, key, old);
     }
 
     /**
@@ -104,9 +249,13 @@ public class ListenerChain {
      * @param listener Добавляемый получатель сообщений.
      */
     protected <С extends EventListener> void pAdd(Class<С> lClass, С listener) {
-        allocate(actualSize + 2);
-        items[actualSize - 2] = lClass;
-        items[actualSize - 1] = listener;
+        addTo(lClass, null, listener);
+
+        Object[] t = new Object[items.length + 2];
+        System.arraycopy(items, 0, t, 0, items.length);
+        t[items.length] = lClass;
+        t[items.length + 1] = listener;
+        items = t;
     }
 
     /**
@@ -119,12 +268,15 @@ public class ListenerChain {
      * @param listener Удаляемый получатель сообщений.
      */
     protected <С extends EventListener> void pRemove(Class<С> lClass, С listener) {
-        for (int i = 0; i < actualSize; i += 2) {
-            if (items[i] == lClass && items[i + 1] == listener) {
-                items[i] = null;
-                items[i + 1] = null;
-                System.arraycopy(items, i + 2, items, i, actualSize - i - 2);
-                allocate(actualSize - 2);
+        removeFrom(lClass, null, listener);
+
+        Object[] it = items;
+        for (int i = 0; i < it.length; i += 2) {
+            if (it[i] == lClass && it[i + 1] == listener) {
+                Object[] t = new Object[it.length - 2];
+                System.arraycopy(it, 0, t, 0, i);
+                System.arraycopy(it, i + 2, t, i, it.length - i - 2);
+                items = t;
                 break;
             }
         }
@@ -133,7 +285,10 @@ public class ListenerChain {
     /**
      * Возвращает массив с парами <code>класс:получатель</code>. Чётные элементы
      * массива содержат класс получателя; нечётные - самого получателя
-     * сообщений.
+     * сообщений. Массив не изменяется после создания, его нельзя изменять.
+     * Получатели, добавленные с ключом, в массив не входят.
+     * <p>
+     * Для выпуска сообщений лучше использовать {@link #getListeners(Class)}.
      * 
      * Подробнее в {@linkplain ListenerChain общем описание}
      */
@@ -159,6 +314,30 @@ public class ListenerChain {
         pAdd(lClass, listener);
     }
 
+    /**
+     * Добавляет получателя сообщений с ключом. Такой получатель возвращается
+     * только из {@link #getListeners(Class, String)} с тем же ключом, что
+     * позволяет, например, хранить получателей отдельно для каждого свойства.
+     * Как и в {@link #add(Class, EventListener)}, сочетание
+     * <code>класс:ключ:получатель</code> возможно только одно.
+     * 
+     * @param <С> Тип получателя сообщений.
+     * @param lClass Класс получателя сообщений.
+     * @param key Ключ. Если <b>null</b>, то получатель добавляется без ключа.
+     * @param listener Добавляемый получатель сообщений.
+     */
+    public synchronized <С extends EventListener> void add(Class<С> lClass,
+                    String key, С listener) {
+        if (key == null) {
+            add(lClass, listener);
+            return;
+        }
+        if (listener == null) return;
+
+        removeFrom(lClass, key, listener);
+        addTo(lClass, key, listener);
+    }
+
     /**
      * Удаляет зарегистрированного получателя сообщений. Удаление происходит при
      * совпадении <code>lClass</code> и <code>listener</code>.
@@ -173,4 +352,24 @@ public class ListenerChain {
 
         pRemove(lClass, listener);
     }
+
+    /**
+     * Удаляет получателя сообщений, добавленного с ключом.
+     * 
+     * @param <С> Тип получателя сообщений.
+     * @param lClass Класс получателя сообщений.
+     * @param key Ключ.
+     * @param listener Удаляемый получатель сообщений.
+     * @see #add(Class, String, EventListener)
+     */
+    public synchronized <С extends EventListener> void remove(Class<С> lClass,
+                    String key, С listener) {
+        if (key == null) {
+            remove(lClass, listener);
+            return;
+        }
+        if (listener == null) return;
+
+        removeFrom(lClass, key, listener);
+    }
 }
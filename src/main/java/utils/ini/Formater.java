@@ -62,6 +62,14 @@ public class Formater implements Closeable {
         return s;
     }
 
+    /**
+     * Возвращает значение ключа в том виде, в каком его записывает
+     * {@link #key(String, String)}.
+     */
+    public static String escape(String value) {
+        return checkString(value);
+    }
+
     public void newLine() throws IOException {
         out.write(style.lineEnd);
     }
@@ -207,12 +207,9 @@ public class RecentFiles {
     }
 
     protected void fireSelectFile(File f) {
-        Object[] listenerArray;
-
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == SelectFileListener.class)
-                ((SelectFileListener) listenerArray[i + 1]).fileSelected(f);
+        for (SelectFileListener listener : listeners
+                        .getListeners(SelectFileListener.class)) {
+            listener.fileSelected(f);
         }
     }
 }
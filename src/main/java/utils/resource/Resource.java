@@ -237,15 +237,11 @@ public class Resource implements Cloneable {
     }
 
     protected void fireEvent(PropertyChangeEvent event) {
-        Object[] listenerArray;
-
         if (listeners == null) return;
 
-        listenerArray = listeners.getListenerList();
-        for (int i = 0; i < listenerArray.length; i += 2) {
-            if (listenerArray[i] == PropertyChangeListener.class)
-                ((PropertyChangeListener) listenerArray[i + 1])
-                                .propertyChange(event);
+        for (PropertyChangeListener listener : listeners
+                        .getListeners(PropertyChangeListener.class)) {
+            listener.propertyChange(event);
         }
     }
 
@@ -111,6 +111,51 @@ public class AbstractPixselMapTest {
         assertArrayEquals(array, apm.getBytes());
     }
 
+    @Test
+    public void testGetBytesArray() {
+        java.util.Random rnd = new java.util.Random(7);
+
+        for (int w = 1; w <= 19; w++) {
+            for (int h = 1; h <= 5; h++) {
+                byte[] src = new byte[(w * h + 7) / 8];
+                rnd.nextBytes(src);
+                AbstractPixselMap apm = createAbstractPixselMap(w, h, src);
+
+                byte[] expected = apm.getBytes();
+                byte[] dst = new byte[expected.length + 2];
+                assertEquals(expected.length, apm.getBytes(dst));
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i], dst[i]);
+                }
+            }
+        }
+        assertEquals(0, createAbstractPixselMap(0, 5, null).getBytes(
+                        new byte[0]));
+    }
+
+    @Test
+    public void testConstructorBytes() {
+        java.util.Random rnd = new java.util.Random(11);
+
+        for (int w = 1; w <= 19; w++) {
+            for (int h = 1; h <= 5; h++) {
+                // Короткий массив оставляет остальные пиксели пустыми.
+                byte[] src = new byte[(w * h + 7) / 8 - (w + h) % 2];
+                rnd.nextBytes(src);
+                AbstractPixselMap apm = createAbstractPixselMap(w, h, src);
+
+                for (int y = 0; y < h; y++) {
+                    for (int x = 0; x < w; x++) {
+                        int bit = y * w + x;
+                        boolean set = bit / 8 < src.length
+                                        && (src[bit / 8] & (1 << bit % 8)) != 0;
+                        assertEquals(set, apm.getPixsel(x, y));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void testEmptyLeft() {
         AbstractPixselMap apm;
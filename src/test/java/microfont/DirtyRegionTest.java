@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import static org.junit.Assert.*;
+import java.awt.Rectangle;
+import org.junit.Test;
+
+public class DirtyRegionTest {
+    @Test
+    public void testAdd() {
+        DirtyRegion region = new DirtyRegion();
+        assertTrue(region.isEmpty());
+        assertNull(region.getBounds());
+
+        // Соседние точки объединяются.
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 3; y++) {
+                region.add(x, y);
+            }
+        }
+        assertEquals(1, region.size());
+        assertEquals(new Rectangle(0, 0, 4, 3), region.getRectangles()[0]);
+
+        region.add(10, 10);
+        assertEquals(2, region.size());
+        assertEquals(new Rectangle(0, 0, 11, 11), region.getBounds());
+
+        // Прямоугольник, касающийся обоих, объединяет их.
+        region.add(4, 3, 6, 7);
+        assertEquals(1, region.size());
+        assertEquals(new Rectangle(0, 0, 11, 11), region.getRectangles()[0]);
+
+        region.clear();
+        assertTrue(region.isEmpty());
+    }
+
+    @Test
+    public void testLimit() {
+        DirtyRegion region = new DirtyRegion(3);
+
+        region.add(0, 0);
+        region.add(2, 0);
+        region.add(20, 20);
+        region.add(40, 0);
+        assertEquals(3, region.size());
+
+        // Объединяются две близкие точки.
+        boolean found = false;
+        for (Rectangle r : region.getRectangles()) {
+            if (r.equals(new Rectangle(0, 0, 3, 1))) found = true;
+            assertTrue(r.width * r.height <= 3);
+        }
+        assertTrue(found);
+        assertEquals(new Rectangle(0, 0, 41, 21), region.getBounds());
+    }
+}
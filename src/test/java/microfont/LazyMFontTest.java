@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import microfont.ls.MFontLoadSave;
+import org.junit.Before;
+import org.junit.Test;
+import utils.ini.Formater;
+
+public class LazyMFontTest {
+    static final int SYMBOLS = 100;
+    MFont            source;
+    LazyMFont        font;
+    MemoryLoader     loader;
+
+    /**
+     * Источник пикселей в памяти.
+     */
+    static class MemoryLoader implements GlyphLoader {
+        byte[][] glyphs;
+        int      loads;
+
+        MemoryLoader(MFont mf) {
+            glyphs = new byte[mf.length()][];
+            for (int i = 0; i < glyphs.length; i++) {
+                glyphs[i] = mf.symbolByIndex(i).getBytes();
+            }
+        }
+
+        @Override
+        public int length() {
+            return glyphs.length;
+        }
+
+        @Override
+        public byte[] load(int index) throws IOException {
+            loads++;
+            return glyphs[index];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        source = new MFont();
+        source.setHeight(8);
+        for (int i = 0; i < SYMBOLS; i++) {
+            MSymbol sym = new MSymbol(i, 8, 8);
+            sym.setPixsel(i % 8, i / 8 % 8, true);
+            source.add(sym);
+        }
+
+        loader = new MemoryLoader(source);
+        // Места хватает на 10 символов.
+        font = new LazyMFont(80);
+        font.setHeight(8);
+        for (int i = 0; i < SYMBOLS; i++) {
+            font.add(new MSymbol(i, 8, 8), i);
+        }
+        font.setLoader(loader);
+    }
+
+    @Test
+    public void testLoadOnDemand() {
+        assertEquals(0, font.getResidentBytes());
+        assertEquals(SYMBOLS, font.length());
+
+        for (int i = 0; i < SYMBOLS; i++) {
+            MSymbol sym = font.symbolByIndex(i);
+            assertEquals(source.symbolByIndex(i), sym);
+            assertTrue(font.getResidentBytes() <= 80);
+        }
+        assertEquals(SYMBOLS, loader.loads);
+
+        // Недавно использованный символ остаётся в памяти.
+        MSymbol sym = font.symbolByIndex(SYMBOLS - 1);
+        assertTrue(sym.isResident());
+        assertFalse(font.symbolByIndex(0).isResident());
+    }
+
+    @Test
+    public void testDirtyPinned() {
+        MSymbol sym = font.symbolByIndex(3);
+        sym.setPixsel(7, 7, true);
+
+        for (int i = 0; i < SYMBOLS; i++) {
+            font.symbolByIndex(i).getPixsel(0, 0);
+        }
+
+        assertTrue(sym.isResident());
+        assertTrue(sym.getPixsel(7, 7));
+        assertTrue(font.getResidentBytes() <= 80);
+
+        // После сохранения символ может быть выгружен.
+        source.symbolByIndex(3).setPixsel(7, 7, true);
+        font.rebind(new MemoryLoader(source));
+        for (int i = 0; i < SYMBOLS; i++) {
+            font.symbolByIndex(i).getPixsel(0, 0);
+        }
+        assertFalse(sym.isResident());
+        assertTrue(sym.getPixsel(7, 7));
+    }
+
+    @Test
+    public void testSnapshotNotLoaded() {
+        MFont snap = font.snapshot();
+        assertEquals(0, loader.loads);
+        assertEquals(0, font.getResidentBytes());
+
+        // Пиксели копии читаются из источника только при обращении.
+        assertEquals(source.symbolByIndex(5), snap.symbolByIndex(5));
+        assertEquals(1, loader.loads);
+        assertFalse(font.symbolByIndex(5).isResident());
+
+        // Не загруженные копии одного символа равны без чтения пикселей.
+        MFont other = font.snapshot();
+        assertEquals(snap.symbolByIndex(7), other.symbolByIndex(7));
+        assertEquals(1, loader.loads);
+
+        // Закрытие источника не мешает читать снимок.
+        font.rebind(new MemoryLoader(source));
+        assertEquals(source.symbolByIndex(9), snap.symbolByIndex(9));
+    }
+
+    @Test
+    public void testRemove() {
+        MSymbol sym = font.symbolByCode(5);
+        font.remove(sym);
+
+        assertTrue(sym.isResident());
+        assertEquals(source.symbolByCode(5).getBytes().length,
+                        sym.getBytes().length);
+        assertTrue(sym.getPixsel(5, 0));
+    }
+
+    @Test
+    public void testLoadLazy() throws IOException, InterruptedException {
+        File f = File.createTempFile("lazy", ".mfnt");
+        f.deleteOnExit();
+        MFontLoadSave.save(source, new Formater(new FileOutputStream(f)));
+
+        LazyMFont lf = MFontLoadSave.loadLazy(f, null, 64);
+        try {
+            assertEquals(source.length(), lf.length());
+            assertEquals(0, lf.getResidentBytes());
+            for (int i = 0; i < source.length(); i++) {
+                assertEquals(source.symbolByIndex(i), lf.symbolByIndex(i));
+            }
+            assertEquals(source.length(), lf.getLoadCount());
+            assertTrue(lf.getResidentBytes() <= 64);
+        } finally {
+            lf.close();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont;
+
+import static org.junit.Assert.*;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import microfont.events.BatchChange;
+import microfont.events.PixselMapEvent;
+import microfont.events.PixselMapListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MFontTest {
+    MFont font;
+
+    @Before
+    public void setUp() {
+        font = new MFont();
+        font.setHeight(8);
+        font.add(new MSymbol(0x30, 4, 8));
+        font.add(new MSymbol(0x31, 6, 8));
+        font.add(new MSymbol(0x32, 8, 8));
+    }
+
+    @Test
+    public void testWidth() {
+        assertEquals(6, font.getWidth());
+        assertEquals(4, font.getMinWidth());
+        assertEquals(8, font.getMaxWidth());
+
+        // Удаление самого узкого и самого широкого символов.
+        font.remove(font.symbolByCode(0x30));
+        assertEquals(7, font.getWidth());
+        assertEquals(6, font.getMinWidth());
+        assertEquals(8, font.getMaxWidth());
+
+        font.remove(font.symbolByCode(0x32));
+        assertEquals(6, font.getWidth());
+        assertEquals(6, font.getMinWidth());
+        assertEquals(6, font.getMaxWidth());
+    }
+
+    @Test
+    public void testAddAll() {
+        MFont one = font.clone();
+        MSymbol[] syms = new MSymbol[] { new MSymbol(0x40, 5, 8),
+                        new MSymbol(0x31, 3, 8), null, new MSymbol(0x20, 2, 8),
+                        new MSymbol(0x40, 7, 8) };
+        for (MSymbol sym : syms) {
+            if (sym != null) one.add(sym.clone());
+        }
+
+        font.addAll(syms, syms.length);
+        assertEquals(one, font);
+        assertEquals(5, font.length());
+        assertEquals(7, font.symbolByCode(0x40).getWidth());
+        assertEquals(3, font.symbolByCode(0x31).getWidth());
+        assertEquals(2, font.getMinWidth());
+        assertTrue(font.isBelong(syms[4]));
+        assertFalse(font.isBelong(syms[0]));
+    }
+
+    @Test
+    public void testWidthAfterSymbolChange() throws DisallowOperationException {
+        font.symbolByCode(0x32).setWidth(2);
+        assertEquals(4, font.getWidth());
+        assertEquals(2, font.getMinWidth());
+        assertEquals(6, font.getMaxWidth());
+
+        font.symbolByCode(0x30).setWidth(12);
+        assertEquals(2, font.getMinWidth());
+        assertEquals(12, font.getMaxWidth());
+    }
+
+    @Test
+    public void testWidthAfterReplace() {
+        // Символ с тем же кодом заменяет старый.
+        font.add(new MSymbol(0x32, 3, 8));
+        assertEquals(3, font.length());
+        assertEquals(3, font.getMinWidth());
+        assertEquals(6, font.getMaxWidth());
+
+        MFont copy = font.clone();
+        assertEquals(font.getWidth(), copy.getWidth());
+        assertEquals(3, copy.getMinWidth());
+        assertEquals(6, copy.getMaxWidth());
+    }
+
+    @Test
+    public void testWidthFixsed() {
+        font.setFixsed(true);
+        assertEquals(8, font.getWidth());
+        assertEquals(8, font.getMinWidth());
+        assertEquals(8, font.getMaxWidth());
+
+        font.setFixsed(false);
+        assertEquals(8, font.getMinWidth());
+        assertEquals(8, font.getMaxWidth());
+    }
+
+    @Test
+    public void testOptimisticRead() throws DisallowOperationException {
+        int stamp = font.tryOptimisticRead();
+        assertTrue(stamp != 0);
+        assertTrue(font.validate(stamp));
+        assertFalse(font.validate(0));
+
+        // Изменение пикселей не меняет структуру шрифта.
+        font.symbolByCode(0x30).setPixsel(0, 0, true);
+        assertTrue(font.validate(stamp));
+
+        font.symbolByCode(0x30).setWidth(5);
+        assertFalse(font.validate(stamp));
+
+        stamp = font.tryOptimisticRead();
+        font.add(new MSymbol(0x33, 4, 8));
+        assertFalse(font.validate(stamp));
+
+        stamp = font.tryOptimisticRead();
+        font.symbolByCode(0x33).setCode(0x20);
+        assertFalse(font.validate(stamp));
+        assertEquals(0x20, font.symbolByIndex(0).getCode());
+        assertEquals(0, font.indexAt(font.symbolByCode(0x20)));
+        assertNull(font.symbolByCode(0x33));
+    }
+
+    @Test
+    public void testSnapshot() throws DisallowOperationException {
+        font.setName("test");
+        font.setMetric(MFont.METRIC_BASELINE, 6);
+        MFont snap = font.snapshot();
+
+        assertTrue(snap.isReadOnly());
+        assertFalse(font.isReadOnly());
+        assertEquals(font, snap);
+        assertEquals("test", snap.getName());
+        assertEquals(6, snap.getMetric(MFont.METRIC_BASELINE));
+        assertEquals(font.length(), snap.length());
+        assertEquals(4, snap.getMinWidth());
+        assertEquals(8, snap.getMaxWidth());
+        assertSame(snap, snap.snapshot());
+
+        // Изменения шрифта не видны в снимке.
+        MSymbol sym = font.symbolByCode(0x31);
+        sym.setPixsel(1, 1, true);
+        sym.setWidth(2);
+        font.remove(font.symbolByCode(0x30));
+        font.setName("changed");
+
+        assertEquals(3, snap.length());
+        assertEquals("test", snap.getName());
+        assertEquals(6, snap.symbolByCode(0x31).getWidth());
+        assertFalse(snap.symbolByCode(0x31).getPixsel(1, 1));
+        assertTrue(sym.getPixsel(1, 1));
+
+        int n = 0;
+        for (MSymbol s : snap) {
+            assertTrue(snap.isBelong(s));
+            assertTrue(s.isReadOnly());
+            n++;
+        }
+        assertEquals(3, n);
+
+        // Копия снимка изменяема.
+        MFont copy = snap.clone();
+        assertFalse(copy.isReadOnly());
+        copy.setName("copy");
+        assertEquals("copy", copy.getName());
+    }
+
+    @Test
+    public void testSnapshotReadOnly() {
+        MFont snap = font.snapshot();
+        MSymbol sym = snap.symbolByIndex(0);
+
+        try {
+            sym.setPixsel(0, 0, true);
+            fail("pixsel changed");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            sym.setWidth(3);
+            fail("width changed");
+        } catch (DisallowOperationException e) {
+        }
+        try {
+            snap.add(new MSymbol(0x40, 4, 8));
+            fail("symbol added");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            snap.setName("name");
+            fail("name changed");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            sym.setCode(0x50);
+            fail("code changed");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        assertFalse(sym.getPixsel(0, 0));
+        assertEquals(3, snap.length());
+        assertNull(snap.getName());
+    }
+
+    @Test
+    public void testSymbolByUnicode() throws DisallowOperationException {
+        font.setCodePage("cp1251");
+        font.add(new MSymbol(0xc0, 4, 8));
+
+        assertSame(font.symbolByCode(0x31), font.symbolByUnicode('1'));
+        assertSame(font.symbolByCode(0xc0), font.symbolByUnicode(0x410));
+        assertNull(font.symbolByUnicode('z'));
+
+        // Смена кода меняет и уникод.
+        MSymbol sym = font.symbolByCode(0x31);
+        sym.setCode(0x7a);
+        assertNull(font.symbolByUnicode('1'));
+        assertSame(sym, font.symbolByUnicode('z'));
+
+        sym.setUnicode(0x411);
+        assertNull(font.symbolByUnicode('z'));
+        assertSame(sym, font.symbolByUnicode(0x411));
+        assertEquals(0xc1, sym.getCode());
+
+        font.remove(sym);
+        assertNull(font.symbolByUnicode(0x411));
+
+        font.setCodePage(null);
+        assertNull(font.symbolByUnicode(0x410));
+    }
+
+    @Test
+    public void testSymbolByUnicodeDecodeOnly() {
+        // Эта кодировка не умеет кодировать символы.
+        font.setCodePage("ISO-2022-CN");
+        assertTrue(font.isUnicode());
+
+        assertSame(font.symbolByCode(0x30), font.symbolByUnicode('0'));
+        assertSame(font.symbolByCode(0x32), font.symbolByUnicode('2'));
+        assertEquals(0, font.indexAt(font.symbolByUnicode('0')));
+        assertNull(font.symbolByUnicode('z'));
+    }
+
+    @Test
+    public void testUnicodeIndex() {
+        UnicodeIndex index = new UnicodeIndex();
+        MSymbol[] syms = new MSymbol[1000];
+
+        for (int i = 0; i < syms.length; i++) {
+            syms[i] = new MSymbol(i, 1, 1);
+            index.put(i * 16, syms[i]);
+        }
+        assertEquals(1000, index.size());
+
+        for (int i = 0; i < syms.length; i += 2) {
+            index.remove(i * 16, syms[i]);
+        }
+        // Удаление чужого символа не меняет таблицу.
+        index.remove(16, syms[0]);
+        assertEquals(500, index.size());
+
+        for (int i = 0; i < syms.length; i++) {
+            if ((i & 1) == 0) assertNull(index.get(i * 16));
+            else assertSame(syms[i], index.get(i * 16));
+        }
+    }
+
+    static class Recorder implements PixselMapListener, PropertyChangeListener {
+        ArrayList<PixselMapEvent>      pixsels    = new ArrayList<PixselMapEvent>();
+        ArrayList<PropertyChangeEvent> properties = new ArrayList<PropertyChangeEvent>();
+
+        @Override
+        public void pixselChanged(PixselMapEvent event) {
+            pixsels.add(event);
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+            properties.add(event);
+        }
+
+        int count(String property) {
+            int ret = 0;
+            for (PropertyChangeEvent e : properties) {
+                if (property.equals(e.getPropertyName())) ret++;
+            }
+            return ret;
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        final Recorder rec = new Recorder();
+        final MSymbol sym = font.symbolByCode(0x32);
+        font.addPixselMapListener(rec);
+        font.addPropertyChangeListener(rec);
+
+        font.runBatch(new Runnable() {
+            @Override
+            public void run() {
+                sym.setPixsel(0, 0, true);
+                sym.setPixsel(5, 6, true);
+                assertTrue(rec.pixsels.isEmpty());
+            }
+        });
+
+        assertEquals(1, rec.pixsels.size());
+        assertSame(sym, rec.pixsels.get(0).getSource());
+        assertEquals(new Rectangle(0, 0, 6, 7), rec.pixsels.get(0).rect());
+        assertEquals(1, rec.count(AbstractMFont.PROPERTY_BATCH));
+
+        BatchChange change = (BatchChange) rec.properties.get(
+                        rec.properties.size() - 1).getNewValue();
+        assertEquals(1, change.getMaps().size());
+        assertSame(sym, change.getMaps().get(0));
+        assertFalse(font.isBatch());
+    }
+
+    @Test
+    public void testBatchFontWide() {
+        Recorder rec = new Recorder();
+        font.addPropertyChangeListener(rec);
+
+        font.removeLeft(1);
+        assertEquals(3, font.getMinWidth());
+        assertEquals(1, rec.count(AbstractMFont.PROPERTY_WIDTH));
+        assertEquals(3, rec.count(PixselMap.PROPERTY_SIZE));
+        assertEquals(1, rec.count(AbstractMFont.PROPERTY_BATCH));
+
+        // Пустой пакет не выпускает сообщений.
+        rec.properties.clear();
+        font.beginBatch();
+        font.endBatch();
+        assertTrue(rec.properties.isEmpty());
+    }
+
+    @Test
+    public void testFilteredListeners() {
+        Recorder height = new Recorder();
+        Recorder range = new Recorder();
+        font.addPropertyChangeListener(AbstractMFont.PROPERTY_HEIGHT, height);
+        font.addPixselMapListener(0x31, 0x32, range);
+
+        font.symbolByCode(0x30).setPixsel(0, 0, true);
+        font.symbolByCode(0x31).setPixsel(0, 0, true);
+        font.setName("name");
+        assertTrue(height.properties.isEmpty());
+        assertEquals(1, range.pixsels.size());
+        assertSame(font.symbolByCode(0x31), range.pixsels.get(0).getSource());
+
+        font.setHeight(10);
+        assertEquals(1, height.properties.size());
+        assertEquals(10, height.properties.get(0).getNewValue());
+
+        range.pixsels.clear();
+        font.removePropertyChangeListener(AbstractMFont.PROPERTY_HEIGHT, height);
+        font.removePixselMapListener(0x31, 0x32, range);
+        font.setHeight(8);
+        font.symbolByCode(0x32).setPixsel(0, 0, true);
+        assertEquals(1, height.properties.size());
+        assertTrue(range.pixsels.isEmpty());
+    }
+}
@@ -843,6 +843,34 @@ public class MSymbolTest extends PixselMapTest {
         assertFalse(result);
     }
 
+    @Test
+    public void testShareDispose() {
+        MSymbol sym = new MSymbol(0x31, 4, 4);
+        sym.setPixsel(0, 0, true);
+        MSymbol a = new MSymbol(sym);
+        MSymbol b = new MSymbol(sym);
+
+        // Освобождение одной копии не должно затрагивать другую.
+        a.dispose();
+        assertEquals(0, a.getWidth());
+        assertEquals(0, a.getHeight());
+        sym.setPixsel(1, 1, true);
+        assertTrue(b.getPixsel(0, 0));
+        assertFalse(b.getPixsel(1, 1));
+
+        // Изменение копии не видно в исходном символе.
+        MSymbol c = new MSymbol(sym);
+        c.setPixsel(2, 2, true);
+        assertFalse(sym.getPixsel(2, 2));
+        assertTrue(c.getPixsel(1, 1));
+
+        b.dispose();
+        c.dispose();
+        sym.setPixsel(3, 3, true);
+        assertTrue(sym.getPixsel(1, 1));
+        assertTrue(sym.getPixsel(3, 3));
+    }
+
     @Override
     @Test
     public void testRotate() {
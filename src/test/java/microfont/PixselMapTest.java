@@ -18,6 +18,9 @@ package microfont;
 
 import static org.junit.Assert.*;
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import microfont.events.PixselMapEvent;
+import microfont.events.PixselMapListener;
 import org.junit.Test;
 
 /**
@@ -1626,4 +1629,36 @@ public class PixselMapTest extends AbstractPixselMapTest {
         actual.xor(2, 3, stamp);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testPixselEventRegion() {
+        final PixselMapEvent[] event = new PixselMapEvent[1];
+        PixselMap map = createPixselMap(16, 16, null);
+        map.addPixselMapListener(new PixselMapListener() {
+            @Override
+            public void pixselChanged(PixselMapEvent e) {
+                event[0] = e;
+            }
+        });
+
+        map.set(0, 0, 2, 2, true);
+        assertEquals(1, event[0].rects().length);
+        assertEquals(new Rectangle(0, 0, 2, 2), event[0].rect());
+
+        // Разрозненные изменения не помечают всю карту.
+        map.set(0, 0, 16, 16, true);
+        map.setArray(new byte[32]);
+        Rectangle[] rects = event[0].rects();
+        assertEquals(new Rectangle(0, 0, 16, 16), event[0].rect());
+        assertEquals(1, rects.length);
+
+        map.xor(0, 0, new AbstractPixselMap(12, 12, new byte[] {1, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0x80 }));
+        rects = event[0].rects();
+        assertEquals(new Rectangle(0, 0, 12, 12), event[0].rect());
+        assertEquals(2, rects.length);
+        if (rects[0].x != 0) rects = new Rectangle[] {rects[1], rects[0]};
+        assertEquals(new Rectangle(0, 0, 1, 1), rects[0]);
+        assertEquals(new Rectangle(11, 11, 1, 1), rects[1]);
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoSaveTest {
+    File     fontFile;
+    MFont    font;
+    AutoSave as;
+
+    @Before
+    public void setUp() throws IOException {
+        fontFile = File.createTempFile("autosave", ".mfnt");
+        FileOutputStream out = new FileOutputStream(fontFile);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        fontFile.setLastModified(System.currentTimeMillis() - 10000);
+
+        font = new MFont();
+        font.setHeight(16);
+        for (int i = 0x30; i < 0x40; i++) {
+            font.add(new MSymbol(i, 16, 16));
+        }
+        as = new AutoSave(fontFile);
+        as.setFont(font);
+    }
+
+    @After
+    public void tearDown() {
+        as.close();
+        as.getFile().delete();
+        fontFile.delete();
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        // Без изменений сохранять нечего.
+        as.flush().get();
+        assertEquals(0, as.getSaves());
+        assertFalse(as.getFile().exists());
+
+        font.symbolByCode(0x31).setPixsel(3, 4, true);
+        as.changed();
+        as.flush().get();
+        assertEquals(1, as.getSaves());
+        assertEquals(as.getFile().length(), as.getBytesWritten());
+        assertTrue(as.getInterval() >= AutoSave.DEFAULT_INTERVAL);
+
+        MFont recovered = AutoSave.recover(fontFile);
+        assertNotNull(recovered);
+        assertEquals(font.symbolByCode(0x31), recovered.symbolByCode(0x31));
+
+        as.discard();
+        assertFalse(as.getFile().exists());
+        assertNull(AutoSave.recover(fontFile));
+    }
+
+    @Test
+    public void testScheduled() throws Exception {
+        as.setMinInterval(0);
+        as.setIdle(50);
+        for (int i = 0; i < 5; i++) {
+            font.symbolByCode(0x32).setPixsel(i, i, true);
+            as.changed();
+        }
+        assertEquals(5, as.getChanges());
+
+        for (int i = 0; i < 100 && as.getSaves() == 0; i++) {
+            Thread.sleep(20);
+        }
+        // Частые изменения сохраняются одной записью.
+        assertEquals(1, as.getSaves());
+        assertEquals(font.symbolByCode(0x32), AutoSave.recover(fontFile)
+                        .symbolByCode(0x32));
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        font.setName("stale");
+        as.changed();
+        as.flush().get();
+        assertTrue(as.getFile().exists());
+
+        // Файл шрифта сохранён позже автосохранения.
+        fontFile.setLastModified(as.getFile().lastModified() + 2000);
+        assertNull(AutoSave.recover(fontFile));
+        assertFalse(as.getFile().exists());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalTest {
+    File  fontFile;
+    MFont saved;
+    MFont font;
+
+    @Before
+    public void setUp() throws IOException {
+        fontFile = File.createTempFile("journal", ".mfnt");
+        FileOutputStream out = new FileOutputStream(fontFile);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        saved = new MFont();
+        saved.setHeight(16);
+        for (int i = 0x30; i < 0x40; i++) {
+            saved.add(new MSymbol(i, 16, 16));
+        }
+        font = saved.clone();
+    }
+
+    @After
+    public void tearDown() {
+        Journal.fileFor(fontFile).delete();
+        fontFile.delete();
+    }
+
+    private void edit(Journal j) {
+        font.symbolByCode(0x30).setPixsel(3, 4, true);
+        j.flush();
+        font.symbolByCode(0x31).neg(0, 0, 16, 16);
+        font.removeByCode(0x32);
+        j.flush();
+        font.add(new MSymbol(0x50, 8, 16));
+        font.setName("journal");
+        j.flush();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Journal j = new Journal(fontFile, font);
+        assertEquals(0, j.getReplayed());
+        edit(j);
+        assertTrue(j.getRecords() > 0);
+        j.close();
+        assertTrue(j.getFile().exists());
+
+        MFont recovered = saved.clone();
+        Journal r = new Journal(fontFile, recovered);
+        assertTrue(r.getReplayed() > 0);
+        assertEquals(font, recovered);
+        assertEquals("journal", recovered.getName());
+
+        // После сохранения журнал очищается.
+        r.reset();
+        r.close();
+        assertFalse(r.getFile().exists());
+    }
+
+    @Test
+    public void testRebase() throws IOException {
+        // Шрифт получен не из файла, например из автосохранения.
+        MFont other = saved.clone();
+        other.symbolByCode(0x30).setPixsel(3, 4, true);
+        other.removeByCode(0x32);
+        other.add(new MSymbol(0x50, 8, 16));
+        other.setName("rebase");
+
+        Journal j = new Journal(fontFile, other);
+        j.rebase(saved);
+        other.symbolByCode(0x31).neg(0, 0, 16, 16);
+        j.close();
+
+        MFont recovered = saved.clone();
+        Journal r = new Journal(fontFile, recovered);
+        assertTrue(r.getReplayed() > 0);
+        assertEquals(other, recovered);
+        r.discard();
+    }
+
+    @Test
+    public void testBatchReplay() throws IOException {
+        Journal j = new Journal(fontFile, font);
+        font.beginBatch();
+        font.removeByCode(0x31);
+        font.removeByCode(0x33);
+        font.add(new MSymbol(0x40, 8, 16));
+        font.add(new MSymbol(0x41, 8, 16));
+        font.endBatch();
+        j.close();
+
+        MFont recovered = saved.clone();
+        Journal r = new Journal(fontFile, recovered);
+        assertNull(recovered.symbolByCode(0x33));
+        assertNotNull(recovered.symbolByCode(0x40));
+        assertEquals(font, recovered);
+        r.discard();
+    }
+
+    @Test
+    public void testStale() throws IOException {
+        Journal j = new Journal(fontFile, font);
+        edit(j);
+        j.close();
+
+        FileOutputStream out = new FileOutputStream(fontFile, true);
+        out.write(4);
+        out.close();
+
+        MFont other = saved.clone();
+        Journal r = new Journal(fontFile, other);
+        assertEquals(0, r.getReplayed());
+        assertEquals(saved, other);
+        r.discard();
+        assertFalse(r.getFile().exists());
+    }
+
+    @Test
+    public void testCompactAndTail() throws IOException {
+        Journal j = new Journal(fontFile, font);
+        j.setCompactLimit(3);
+        for (int i = 0; i < 16; i++) {
+            font.symbolByCode(0x33).setPixsel(i, i, true);
+            j.flush();
+        }
+        assertTrue(j.getRecords() < 4);
+        edit(j);
+        j.close();
+
+        // Запись, оборванная аварийным завершением.
+        FileOutputStream out = new FileOutputStream(j.getFile(), true);
+        out.write(new byte[] {2, 0, 0, 1});
+        out.close();
+
+        MFont recovered = saved.clone();
+        Journal r = new Journal(fontFile, recovered);
+        assertEquals(font, recovered);
+        r.discard();
+    }
+}
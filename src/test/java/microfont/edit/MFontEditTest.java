@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import static org.junit.Assert.*;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MFontEditTest {
+    MFont font;
+
+    @Before
+    public void setUp() {
+        font = new MFont();
+        font.setHeight(8);
+        font.setName("test");
+        for (int i = 0x30; i < 0x40; i++) {
+            font.add(new MSymbol(i, 6, 8));
+        }
+    }
+
+    @Test
+    public void testUndoRedo() {
+        MFont orig = font.clone();
+        MFontEdit edit = new MFontEdit(font, "edit");
+
+        font.symbolByCode(0x31).setPixsel(1, 1, true);
+        font.remove(font.symbolByCode(0x32));
+        font.add(new MSymbol(0x50, 4, 8));
+        font.setName("changed");
+        edit.end();
+
+        // Сохраняются только изменившиеся символы.
+        assertEquals(3, edit.undoSymbols.size());
+        assertNull(edit.before);
+
+        MFont changed = font.clone();
+        edit.undo();
+        assertEquals(orig, font);
+        assertEquals("test", font.getName());
+        assertNull(font.symbolByCode(0x50));
+
+        edit.redo();
+        assertEquals(changed, font);
+        assertEquals("changed", font.getName());
+        assertTrue(font.symbolByCode(0x31).getPixsel(1, 1));
+    }
+
+    @Test
+    public void testNoChange() {
+        MFontEdit edit = new MFontEdit(font, "edit");
+
+        edit.end();
+        assertFalse(edit.canUndo());
+        assertFalse(edit.isLive());
+    }
+
+    @Test
+    public void testSize() {
+        MFont orig = font.clone();
+        MFontEdit edit = new MFontEdit(font, "edit");
+
+        font.setHeight(10);
+        edit.end();
+
+        edit.undo();
+        assertEquals(orig, font);
+        assertEquals(8, font.symbolByCode(0x35).getHeight());
+        edit.redo();
+        assertEquals(10, font.symbolByCode(0x35).getHeight());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import static org.junit.Assert.*;
+import microfont.DisallowOperationException;
+import microfont.MSymbol;
+import microfont.events.PixselMapListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MSymbolEditTest {
+    MSymbol sym;
+
+    @Before
+    public void setUp() {
+        sym = new MSymbol(0x41, 32, 32);
+        sym.set(0, 0, 32, 16, true);
+    }
+
+    @Test
+    public void testPixsel() {
+        MSymbol orig = sym.clone();
+        MSymbolEdit edit = new MSymbolEdit(sym, "paint");
+
+        sym.setPixsel(2, 20, true);
+        sym.setPixsel(29, 30, true);
+        edit.end();
+
+        // Хранится только разница.
+        assertNull(edit.before);
+        assertNull(edit.after);
+        assertTrue(edit.delta.isRle());
+        assertTrue(edit.delta.size() <= 3);
+
+        MSymbol changed = sym.clone();
+        edit.undo();
+        assertEquals(orig, sym);
+        edit.redo();
+        assertEquals(changed, sym);
+    }
+
+    @Test
+    public void testDense() {
+        MSymbol orig = sym.clone();
+        MSymbolEdit edit = new MSymbolEdit(sym, "neg");
+
+        sym.neg(0, 0, 32, 32);
+        edit.end();
+        assertFalse(edit.delta.isRle());
+        assertEquals(32 * 32 / 8, edit.delta.size());
+
+        edit.undo();
+        assertEquals(orig, sym);
+        edit.redo();
+        assertFalse(sym.getPixsel(0, 0));
+        assertTrue(sym.getPixsel(31, 31));
+    }
+
+    @Test
+    public void testResize() throws DisallowOperationException {
+        MSymbol orig = sym.clone();
+        MSymbolEdit edit = new MSymbolEdit(sym, "resize");
+
+        sym.setWidth(10);
+        edit.end();
+        assertNull(edit.delta);
+
+        edit.undo();
+        assertEquals(orig, sym);
+        edit.redo();
+        assertEquals(10, sym.getWidth());
+    }
+
+    @Test
+    public void testDieInProgress() {
+        Tracked tracked = new Tracked();
+        MSymbolEdit edit = new MSymbolEdit(tracked, "paint");
+        assertTrue(tracked.isTracked());
+
+        // Незавершённая операция, поглощённая операцией шрифта.
+        edit.die();
+        assertFalse(tracked.isTracked());
+        assertNull(edit.region);
+        tracked.setPixsel(1, 1, true);
+        assertTrue(tracked.getPixsel(1, 1));
+    }
+
+    /** Символ, сообщающий о наличии получателей изменений пикселей. */
+    static class Tracked extends MSymbol {
+        Tracked() {
+            super(0x42, 8, 8);
+        }
+
+        boolean isTracked() {
+            return listeners.hasListeners(PixselMapListener.class);
+        }
+    }
+
+    @Test
+    public void testNoChange() {
+        MSymbolEdit edit = new MSymbolEdit(sym, "none");
+
+        sym.setPixsel(0, 0, true);
+        edit.end();
+        assertFalse(edit.isLive());
+    }
+
+    @Test
+    public void testCoalesce() {
+        MSymbol orig = sym.clone();
+        MSymbolEdit first = new MSymbolEdit(sym, "paint");
+        sym.setPixsel(2, 20, true);
+        first.end();
+
+        MSymbolEdit second = new MSymbolEdit(sym, "paint");
+        sym.setPixsel(29, 30, true);
+        second.end();
+
+        assertTrue(first.addEdit(second));
+        assertFalse(second.isLive());
+
+        // Другая операция не сливается.
+        MSymbolEdit other = new MSymbolEdit(sym, "neg");
+        sym.neg(0, 0, 4, 4);
+        other.end();
+        assertFalse(first.addEdit(other));
+
+        other.undo();
+        first.undo();
+        assertEquals(orig, sym);
+        first.redo();
+        assertTrue(sym.getPixsel(2, 20));
+        assertTrue(sym.getPixsel(29, 30));
+
+        // Запрет слияния.
+        first.seal();
+        MSymbolEdit third = new MSymbolEdit(sym, "paint");
+        sym.setPixsel(5, 20, true);
+        third.end();
+        assertFalse(first.addEdit(third));
+    }
+}
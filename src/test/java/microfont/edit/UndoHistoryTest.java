@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.edit;
+
+import static org.junit.Assert.*;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UndoHistoryTest {
+    MFont       font;
+    UndoHistory history;
+
+    @Before
+    public void setUp() {
+        font = new MFont();
+        font.setHeight(16);
+        for (int i = 0x30; i < 0x40; i++) {
+            font.add(new MSymbol(i, 16, 16));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (history != null) history.close();
+    }
+
+    /**
+     * Операция, инвертирующая символ целиком.
+     */
+    private AbstractEdit negate(int code) {
+        MSymbolEdit edit = new MSymbolEdit(font.symbolByCode(code), "neg");
+        font.symbolByCode(code).neg(0, 0, 16, 16);
+        edit.end();
+        return edit;
+    }
+
+    @Test
+    public void testSpill() {
+        history = new UndoHistory(100, UndoHistory.POLICY_SPILL);
+        AbstractEdit first = negate(0x30);
+        MFont orig = font.clone();
+
+        history.addEdit(first);
+        history.addEdit(negate(0x31));
+        history.addEdit(negate(0x32));
+        history.addEdit(negate(0x33));
+
+        assertTrue(first.isSpilled());
+        assertTrue(history.getSpilledSize() > 0);
+        assertTrue(history.getMemorySize() < 4 * first.getSize() + 100);
+
+        history.undo();
+        history.undo();
+        history.undo();
+        assertEquals(orig, font);
+        history.undo();
+        assertFalse(first.isSpilled());
+        assertFalse(font.symbolByCode(0x30).getPixsel(0, 0));
+
+        history.redo();
+        assertTrue(font.symbolByCode(0x30).getPixsel(0, 0));
+    }
+
+    @Test
+    public void testSpillFileBounded() {
+        history = new UndoHistory(100, UndoHistory.POLICY_SPILL);
+        history.setLimit(6);
+
+        // Старые операции удаляются по пределу истории, а место их данных
+        // освобождается уплотнением файла.
+        for (int i = 0; i < 40; i++) {
+            history.addEdit(negate(0x30 + i % 16));
+            assertTrue(history.getFileSize() <= 2 * history.getSpilledSize());
+        }
+        assertTrue(history.getSpilledSize() > 0);
+
+        while (history.canUndo()) {
+            history.undo();
+        }
+        assertEquals(0, history.getFileSize());
+    }
+
+    @Test
+    public void testDrop() {
+        history = new UndoHistory(150, UndoHistory.POLICY_DROP);
+
+        history.addEdit(negate(0x30));
+        history.addEdit(negate(0x31));
+        history.addEdit(negate(0x32));
+        history.addEdit(negate(0x33));
+
+        assertTrue(history.getMemorySize() <= 150);
+        assertEquals(0, history.getSpilledSize());
+
+        int n = 0;
+        while (history.canUndo()) {
+            history.undo();
+            n++;
+        }
+        assertTrue(n < 4);
+        assertTrue(font.symbolByCode(0x30).getPixsel(0, 0));
+    }
+}
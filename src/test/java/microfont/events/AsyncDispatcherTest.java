@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.events;
+
+import static org.junit.Assert.*;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncDispatcherTest {
+    ArrayList<Runnable>            tasks;
+    ArrayList<PixselMapEvent>      pixsels;
+    ArrayList<PropertyChangeEvent> properties;
+    AsyncDispatcher                dispatcher;
+    MFont                          font;
+
+    @Before
+    public void setUp() {
+        tasks = new ArrayList<Runnable>();
+        pixsels = new ArrayList<PixselMapEvent>();
+        properties = new ArrayList<PropertyChangeEvent>();
+
+        dispatcher = new AsyncDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        dispatcher.addPixselMapListener(new PixselMapListener() {
+            @Override
+            public void pixselChanged(PixselMapEvent event) {
+                pixsels.add(event);
+            }
+        });
+        dispatcher.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                properties.add(event);
+            }
+        });
+
+        font = new MFont();
+        font.setHeight(8);
+        font.add(new MSymbol(0x30, 8, 8));
+        font.add(new MSymbol(0x31, 8, 8));
+        font.addPixselMapListener(dispatcher);
+        font.addPropertyChangeListener(dispatcher);
+    }
+
+    @Test
+    public void testCoalesce() {
+        MSymbol sym = font.symbolByCode(0x30);
+        sym.setPixsel(0, 0, true);
+        sym.setPixsel(7, 7, true);
+        font.symbolByCode(0x31).setPixsel(1, 1, true);
+        font.setName("a");
+        font.setName("b");
+
+        // Доставка только после выполнения задачи.
+        assertTrue(pixsels.isEmpty());
+        assertTrue(dispatcher.hasPending());
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+        assertFalse(dispatcher.hasPending());
+        assertEquals(2, pixsels.size());
+        assertSame(sym, pixsels.get(0).getSource());
+        assertEquals(new Rectangle(0, 0, 8, 8), pixsels.get(0).rect());
+        assertEquals(2, pixsels.get(0).rects().length);
+
+        assertEquals(1, properties.size());
+        assertEquals("b", properties.get(0).getNewValue());
+
+        // После доставки планируется новая задача.
+        sym.setPixsel(3, 3, true);
+        assertEquals(1, tasks.size());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import microfont.MFont;
+
+/**
+ * Сравнение размера и скорости загрузки текстового и
+ * {@linkplain MFontCompressed сжатого} файлов шрифта. Запускается вручную:
+ * 
+ * <pre>
+ * java microfont.ls.CompressedBenchmark [размер текстового файла в Мб]
+ * </pre>
+ */
+public class CompressedBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        // Символ в среднем занимает в текстовом файле около 85 байт.
+        int count = mb * 12000;
+        MFont font = IniFontDecoderTest.createFont(count, false);
+        font.setHeight(32);
+        byte[] data = IniFontDecoderTest.save(font);
+
+        File ini = File.createTempFile("benchmark", ".mfnt");
+        File mfnz = File.createTempFile("benchmark", ".mfnz");
+        try {
+            FileOutputStream out = new FileOutputStream(ini);
+            out.write(data);
+            out.close();
+            MFont loaded = MFontLoadSave.load(ini);
+            MFontCompressed.save(loaded, mfnz, null);
+
+            ByteArrayOutputStream bin = new ByteArrayOutputStream();
+            MFontBinary.save(loaded, bin);
+            System.out.printf("%d symbols: text %.1f Mb, binary %.1f Mb, "
+                            + "compressed %.1f Mb%n", count,
+                            ini.length() / 1e6, bin.size() / 1e6,
+                            mfnz.length() / 1e6);
+
+            for (int round = 0; round < 5; round++) {
+                long t0 = System.nanoTime();
+                MFont a = MFontLoadSave.load(ini);
+                long t1 = System.nanoTime();
+                MFont b = MFontCompressed.load(mfnz);
+                long t2 = System.nanoTime();
+
+                if (a.length() != b.length())
+                    throw new AssertionError("fonts differ");
+                System.out.printf("text %6d ms, compressed %6d ms on %d "
+                                + "cpu%n", (t1 - t0) / 1000000,
+                                (t2 - t1) / 1000000, Runtime.getRuntime()
+                                                .availableProcessors());
+            }
+        } finally {
+            ini.delete();
+            mfnz.delete();
+        }
+    }
+}
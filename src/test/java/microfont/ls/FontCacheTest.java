@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import microfont.LazyMFont;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.ini.Formater;
+
+public class FontCacheTest {
+    File      dir;
+    File      ini;
+    FontCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cache", "");
+        dir.delete();
+        ini = File.createTempFile("cache", ".mfnt");
+        cache = new FontCache(dir);
+        write(0x20, 0x60);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) {
+            f.delete();
+        }
+        dir.delete();
+        ini.delete();
+    }
+
+    private void write(int first, int last) throws IOException {
+        MFont font = new MFont();
+        font.setName("cache");
+        font.setHeight(8);
+        for (int i = first; i < last; i++) {
+            MSymbol sym = new MSymbol(i, 2 + i % 5, 8);
+            sym.setPixsel(i % sym.getWidth(), i % 8, true);
+            font.add(sym);
+        }
+        MFontLoadSave.save(font, new Formater(new FileOutputStream(ini)));
+    }
+
+    @Test
+    public void testHit() throws IOException, InterruptedException {
+        MFont parsed = cache.load(ini, null);
+        assertEquals(2, dir.list().length);
+        assertEquals(MFontLoadSave.load(ini), parsed);
+
+        // Повторная загрузка берётся из кэша, а не из файла.
+        FontCache.Key key = new FontCache.Key(ini);
+        LazyMFont cached = cache.get(key);
+        assertNotNull(cached);
+        // Пиксели не читаются до обращения к символам.
+        assertEquals(0, cached.getLoadCount());
+        assertEquals(parsed, cached);
+        cached.close();
+
+        MFont loaded = cache.load(ini, null);
+        assertTrue(loaded instanceof LazyMFont);
+        assertEquals(parsed, loaded);
+        ((LazyMFont) loaded).close();
+    }
+
+    @Test
+    public void testModified() throws IOException, InterruptedException {
+        cache.load(ini, null);
+        long modified = ini.lastModified();
+
+        write(0x30, 0x40);
+        ini.setLastModified(modified - 2000);
+        assertNull(cache.get(new FontCache.Key(ini)));
+        MFont font = cache.load(ini, null);
+        assertEquals(0x10, font.length());
+        assertEquals(MFontLoadSave.load(ini), font);
+    }
+
+    @Test
+    public void testBinaryNotCached() throws IOException,
+                    InterruptedException {
+        File bin = File.createTempFile("cache", ".mfnb");
+        try {
+            MFontBinary.save(MFontLoadSave.load(ini), bin);
+            cache.load(bin, null);
+            assertFalse(dir.exists());
+        } finally {
+            bin.delete();
+        }
+    }
+
+    @Test
+    public void testTrim() throws IOException, InterruptedException {
+        cache.setMaxEntries(1);
+        cache.load(ini, null);
+        for (File f : dir.listFiles()) {
+            f.setLastModified(f.lastModified() - 10000);
+        }
+        File other = File.createTempFile("cache", ".mfnt");
+        try {
+            MFontLoadSave.save(MFontLoadSave.load(ini), new Formater(
+                            new FileOutputStream(other)));
+            cache.load(other, null);
+            assertEquals(2, dir.list().length);
+            LazyMFont font = cache.get(new FontCache.Key(other));
+            assertNotNull(font);
+
+            // Отображённая запись не вытесняется.
+            for (File f : dir.listFiles()) {
+                f.setLastModified(f.lastModified() - 10000);
+            }
+            ini.setLastModified(ini.lastModified() - 2000);
+            cache.load(ini, null);
+            assertEquals(4, dir.list().length);
+            assertEquals(MFontLoadSave.load(other), font);
+            font.close();
+        } finally {
+            other.delete();
+        }
+    }
+}
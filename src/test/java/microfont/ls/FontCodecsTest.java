@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FontCodecsTest {
+    MFont font;
+    File  file;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        MFont mf = new MFont();
+        mf.setName("codecs");
+        mf.setHeight(10);
+        for (int i = 0x30; i < 0x50; i++) {
+            MSymbol sym = new MSymbol(i, 1 + i % 7, 10);
+            sym.setPixsel(i % sym.getWidth(), i % 10, true);
+            mf.add(sym);
+        }
+        // Расширение не совпадает ни с одним форматом.
+        file = File.createTempFile("codecs", ".font");
+        FontCodecs.TEXT.write(mf, file, null);
+        font = MFontLoadSave.load(file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void assertSymbols(MFont expected, MFont actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.symbolByIndex(i), actual.symbolByIndex(i));
+        }
+    }
+
+    @Test
+    public void testSniff() throws IOException, InterruptedException {
+        FontCodec[] all = { FontCodecs.TEXT, FontCodecs.BINARY,
+                        FontCodecs.COMPRESSED };
+        for (FontCodec c : all) {
+            c.write(font, file, null);
+            assertSame(c, FontCodecs.sniff(file));
+            assertSame(c, FontCodecs.forWrite(file));
+            assertSymbols(font, MFontLoadSave.load(file));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.write(font, out, null);
+            assertSymbols(font, c.read(new ByteArrayInputStream(out
+                            .toByteArray()), null));
+        }
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 0, 1, 2, 3 });
+        out.close();
+        try {
+            MFontLoadSave.load(file);
+            fail("unknown format loaded");
+        } catch (IOException e) {
+            // Ожидаемое исключение.
+        }
+    }
+
+    @Test
+    public void testForWrite() throws IOException {
+        assertSame(FontCodecs.TEXT, FontCodecs.forWrite(new File("a.font")));
+        assertSame(FontCodecs.BINARY, FontCodecs.forWrite(new File("a.MFNB")));
+        assertSame(FontCodecs.COMPRESSED, FontCodecs.forWrite(new File(
+                        "a.mfnz")));
+    }
+
+    @Test
+    public void testRegister() throws IOException, InterruptedException {
+        FontCodec codec = new AbstractFontCodec("Test", FontCodec.READ,
+                        "test") {
+            @Override
+            public boolean canRead(byte[] header, int length) {
+                return length > 0 && header[0] == '!';
+            }
+
+            @Override
+            public MFont read(InputStream in, MFontLoadProgress progress)
+                            throws IOException {
+                MFont ret = new MFont();
+                ret.setName("test");
+                return ret;
+            }
+        };
+        FontCodecs.register(codec);
+        assertSame(FontCodecs.TEXT, FontCodecs.codecs().get(FontCodecs
+                        .codecs().size() - 1));
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("!test".getBytes("US-ASCII"));
+        out.close();
+        assertSame(codec, FontCodecs.sniff(file));
+        assertEquals("test", MFontLoadSave.load(file).getName());
+
+        // Формат только для чтения не перезаписывает файл.
+        assertNull(FontCodecs.forWrite(file));
+        try {
+            codec.write(font, file, null);
+            fail("read only codec wrote file");
+        } catch (UnsupportedOperationException e) {
+            // Ожидаемое исключение.
+        }
+    }
+}
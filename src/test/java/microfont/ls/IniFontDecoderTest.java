@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.Test;
+import utils.ini.Formater;
+import utils.ini.Parser;
+
+public class IniFontDecoderTest {
+
+    static MFont createFont(int count, boolean fixsed) {
+        MFont font = new MFont();
+        font.setName("decoder");
+        font.setDescriptin(" описание\\ с пробелом");
+        font.setFixsed(fixsed);
+        font.setWidth(9);
+        font.setHeight(11);
+        for (int i = 0; i < count; i++) {
+            // Пропуски в кодах записываются ключом code.
+            MSymbol sym = new MSymbol(i * 3 / 2, 1 + i % 13, 11);
+            for (int p = 0; p < sym.getWidth(); p++) {
+                sym.setPixsel(p, (i + p) % 11, true);
+            }
+            font.add(sym);
+        }
+        return font;
+    }
+
+    static byte[] save(MFont font) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MFontLoadSave.save(font, new Formater(out));
+        return out.toByteArray();
+    }
+
+    static MFont parse(byte[] data) throws IOException, InterruptedException {
+        MFontLoadSave.FontHandler handler = new MFontLoadSave.FontHandler();
+        Parser parser = new Parser(new ByteArrayInputStream(data));
+        try {
+            parser.parse(handler);
+        } finally {
+            parser.close();
+        }
+        return handler.font;
+    }
+
+    static MFont decode(byte[] data) throws IOException, InterruptedException {
+        MFontLoadSave.FontHandler handler = new MFontLoadSave.FontHandler();
+        new IniFontDecoder(new ByteArrayInputStream(data), handler).decode();
+        return handler.font;
+    }
+
+    @Test
+    public void testSameAsParser() throws IOException, InterruptedException {
+        for (boolean fixsed : new boolean[] { false, true }) {
+            byte[] data = save(createFont(300, fixsed));
+            MFont expected = parse(data);
+            MFont actual = decode(data);
+
+            assertEquals(expected, actual);
+            assertEquals(expected.getDescriptin(), actual.getDescriptin());
+            assertArrayEquals(save(expected), save(actual));
+        }
+    }
+
+    @Test
+    public void testInvalidByte() throws InterruptedException {
+        byte[] data = "[INFO]\nheight=8\n[SYMBOLS]\nbytes=1 zz\n".getBytes();
+        try {
+            decode(data);
+            fail("invalid byte accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("line 4"));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import microfont.MFont;
+import org.junit.Test;
+
+public class IniFontWriterTest {
+
+    @Test
+    public void testSameAsFormater() throws IOException {
+        for (boolean fixsed : new boolean[] { false, true }) {
+            MFont font = IniFontDecoderTest.createFont(500, fixsed);
+            font.setPrototype("строка\nс переводом");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MFontLoadSave.save(font, out, null);
+
+            assertArrayEquals(IniFontDecoderTest.save(font), out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import microfont.MFont;
+
+/**
+ * Сравнение скорости загрузки текстового файла шрифта через
+ * {@link utils.ini.Parser} и {@link IniFontDecoder}. Запускается вручную:
+ * 
+ * <pre>
+ * java microfont.ls.LoadBenchmark [размер файла в Мб]
+ * </pre>
+ */
+public class LoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        // Символ в среднем занимает в файле около 85 байт.
+        int count = mb * 12000;
+        MFont font = IniFontDecoderTest.createFont(count, false);
+        font.setHeight(32);
+        byte[] data = IniFontDecoderTest.save(font);
+        System.out.printf("file %.1f Mb, %d symbols%n", data.length / 1e6,
+                        count);
+
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            MFont a = IniFontDecoderTest.parse(data);
+            long t1 = System.nanoTime();
+            MFont b = IniFontDecoderTest.decode(data);
+            long t2 = System.nanoTime();
+            MFont c = ParallelFontLoader.load(data, ParallelFontLoader.pool(),
+                            ParallelFontLoader.MIN_CHUNK, null);
+            long t3 = System.nanoTime();
+
+            if (!a.equals(b) || !a.equals(c))
+                throw new AssertionError("fonts differ");
+            System.out.printf("parser %6d ms, decoder %6d ms, x%.1f, "
+                            + "parallel %6d ms on %d cpu%n",
+                            (t1 - t0) / 1000000, (t2 - t1) / 1000000,
+                            (double) (t1 - t0) / (t2 - t1),
+                            (t3 - t2) / 1000000, Runtime.getRuntime()
+                                            .availableProcessors());
+        }
+    }
+}
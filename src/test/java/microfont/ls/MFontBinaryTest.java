@@ -0,0 +1,321 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import microfont.LazyMFont;
+import microfont.MFont;
+import microfont.MSymbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.ini.Formater;
+
+public class MFontBinaryTest {
+    MFont font;
+    File  ini;
+    File  bin;
+
+    @Before
+    public void setUp() throws IOException {
+        font = new MFont();
+        font.setName("binary");
+        font.setDescriptin("Тестовый шрифт");
+        font.setHeight(12);
+        for (int i = 0x20; i < 0x80; i++) {
+            MSymbol sym = new MSymbol(i, 3 + i % 9, 12);
+            sym.setPixsel(i % sym.getWidth(), i % 12, true);
+            font.add(sym);
+        }
+        // Пропуск в кодах.
+        font.add(new MSymbol(0xA0, 5, 12));
+
+        ini = File.createTempFile("binary", ".mfnt");
+        bin = File.createTempFile("binary", ".mfnb");
+    }
+
+    @After
+    public void tearDown() {
+        ini.delete();
+        bin.delete();
+        MFontBinary.patchFile(bin).delete();
+    }
+
+    private static byte[] toIni(MFont mf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MFontLoadSave.save(mf, new Formater(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, InterruptedException {
+        MFontLoadSave.save(font, new Formater(new FileOutputStream(ini)));
+        MFont fromIni = MFontLoadSave.load(ini);
+
+        MFontBinary.save(fromIni, bin);
+        assertTrue(MFontBinary.isBinary(bin));
+        assertFalse(MFontBinary.isBinary(ini));
+
+        MFont fromBin = MFontLoadSave.load(bin);
+        assertEquals(fromIni, fromBin);
+        assertArrayEquals(toIni(fromIni), toIni(fromBin));
+    }
+
+    @Test
+    public void testLazy() throws IOException, InterruptedException {
+        MFontBinary.save(font, bin);
+
+        LazyMFont lf = MFontLoadSave.loadLazy(bin, null, 64);
+        try {
+            assertEquals(font.length(), lf.length());
+            assertEquals(0, lf.getResidentBytes());
+            assertEquals(font.getName(), lf.getName());
+            assertEquals(font.getDescriptin(), lf.getDescriptin());
+
+            assertEquals(font.symbolByCode(0x41), lf.symbolByCode(0x41));
+            assertEquals(1, lf.getLoadCount());
+            for (int i = 0; i < font.length(); i++) {
+                assertEquals(font.symbolByIndex(i), lf.symbolByIndex(i));
+            }
+            assertTrue(lf.getResidentBytes() <= 64);
+        } finally {
+            lf.close();
+        }
+    }
+
+    @Test
+    public void testRebindAfterSave() throws IOException,
+                    InterruptedException {
+        MFontBinary.save(font, bin);
+
+        LazyMFont lf = MFontLoadSave.loadLazy(bin, null, 64);
+        try {
+            // Изменённые символы не выгружаются до сохранения.
+            for (int i = 0; i < lf.length(); i++) {
+                MSymbol sym = lf.symbolByIndex(i);
+                sym.neg(0, 0, sym.getWidth(), sym.getHeight());
+            }
+            assertTrue(lf.getResidentBytes() > 64);
+            MFont expected = lf.clone();
+
+            FileOutputStream out = new FileOutputStream(ini);
+            MFontLoadSave.save(lf, new Formater(out));
+            lf.rebind(MFontLoadSave.openGlyphs(ini));
+            assertTrue(lf.getResidentBytes() <= 64);
+            for (int i = 0; i < lf.length(); i++) {
+                assertEquals(expected.symbolByIndex(i), lf.symbolByIndex(i));
+            }
+        } finally {
+            lf.close();
+        }
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MFontBinary.save(font, out);
+
+        FileOutputStream f = new FileOutputStream(bin);
+        f.write(out.toByteArray(), 0, out.size() - 1);
+        f.close();
+
+        try {
+            MFontBinary.load(bin);
+            fail("truncated file loaded");
+        } catch (IOException e) {
+            // Ожидаемое исключение.
+        }
+    }
+
+    @Test
+    public void testBadIndexEntry() throws IOException {
+        MFontBinary.save(font, bin);
+
+        // Начало индекса: всё, что не индекс и не пиксели.
+        long glyphs = 0;
+        for (int i = 0; i < font.length(); i++) {
+            glyphs += MFontBinary.glyphSize(font.symbolByIndex(i));
+        }
+        long index = bin.length() - glyphs - (long) font.length()
+                        * MFontBinary.INDEX_SIZE;
+
+        // Смещение пикселей одного символа из середины индекса.
+        RandomAccessFile raf = new RandomAccessFile(bin, "rw");
+        raf.seek(index + 5 * MFontBinary.INDEX_SIZE + 12);
+        raf.writeInt(0x7FFFFF00);
+        raf.close();
+
+        try {
+            MFontBinary.load(bin);
+            fail("bad index loaded");
+        } catch (IOException e) {
+            // Ожидаемое исключение.
+        }
+    }
+
+    @Test
+    public void testMappedNotPatched() throws IOException,
+                    InterruptedException {
+        MFontBinary.save(font, bin);
+        font = MFontBinary.load(bin);
+        font.clearModified();
+        font.symbolByCode(0x41).setPixsel(1, 1, true);
+
+        // Пока файл отображён, правка на месте не выполняется.
+        LazyMFont lf = MFontLoadSave.loadLazy(bin, null, 64);
+        assertFalse(MFontBinary.update(font, bin, null));
+        assertFalse(MFontBinary.patchFile(bin).exists());
+        lf.close();
+        assertTrue(MFontBinary.update(font, bin, null));
+        assertEquals(font, MFontBinary.load(bin));
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        MFontBinary.save(font, bin);
+        font = MFontBinary.load(bin);
+        font.clearModified();
+        long length = bin.length();
+
+        // Без изменений файл не переписывается.
+        assertTrue(MFontBinary.update(font, bin, null));
+        font.symbolByCode(0x41).setPixsel(1, 1, true);
+        font.symbolByCode(0x7E).neg(0, 0, 2, 12);
+        assertTrue(MFontBinary.update(font, bin, null));
+        assertEquals(length, bin.length());
+        assertFalse(MFontBinary.patchFile(bin).exists());
+        assertEquals(font, MFontBinary.load(bin));
+
+        // Новый символ меняет индекс, нужна полная запись.
+        font.add(new MSymbol(0xA1, 5, 12));
+        assertFalse(MFontBinary.update(font, bin, null));
+        MFontBinary.save(font, bin);
+        MFont loaded = MFontBinary.load(bin);
+        assertEquals(font.length(), loaded.length());
+        for (int i = 0; i < font.length(); i++) {
+            assertEquals(font.symbolByIndex(i), loaded.symbolByIndex(i));
+        }
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        MFontBinary.save(font, bin);
+        MFont saved = MFontBinary.load(bin);
+        font = MFontBinary.load(bin);
+        font.clearModified();
+
+        font.symbolByCode(0x50).setPixsel(2, 3, true);
+        assertTrue(MFontBinary.preparePatch(font, bin, null));
+        // Файл шрифта до применения правки не изменялся.
+        assertEquals(saved, MFontBinary.load(copyOf(bin)));
+
+        // Загрузка не применяет правку и не изменяет файл.
+        assertEquals(saved, MFontBinary.load(bin));
+        assertTrue(MFontBinary.patchFile(bin).exists());
+
+        // Правка применяется явно после сбоя, даже если изменилось только
+        // время изменения файла.
+        assertTrue(bin.setLastModified(bin.lastModified() - 10000));
+        MFontBinary.recover(bin);
+        assertEquals(font, MFontBinary.load(bin));
+        assertFalse(MFontBinary.patchFile(bin).exists());
+
+        // Неполная правка отбрасывается.
+        font.symbolByCode(0x51).setPixsel(2, 3, true);
+        assertTrue(MFontBinary.preparePatch(font, bin, null));
+        File patch = MFontBinary.patchFile(bin);
+        RandomAccessFile raf = new RandomAccessFile(patch, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        MFontBinary.recover(bin);
+        MFont loaded = MFontBinary.load(bin);
+        assertFalse(patch.exists());
+        assertFalse(font.equals(loaded));
+        assertEquals(font.symbolByCode(0x50), loaded.symbolByCode(0x50));
+    }
+
+    @Test
+    public void testRecoverStale() throws IOException {
+        MFontBinary.save(font, bin);
+        font = MFontBinary.load(bin);
+        font.clearModified();
+
+        font.symbolByCode(0x50).setPixsel(2, 3, true);
+        assertTrue(MFontBinary.preparePatch(font, bin, null));
+
+        // Файл шрифта той же длины перезаписан извне.
+        MFont other = MFontBinary.load(bin);
+        MSymbol sym = other.symbolByCode(0x50);
+        sym.neg(0, 0, sym.getWidth(), sym.getHeight());
+        FileOutputStream out = new FileOutputStream(bin);
+        MFontBinary.save(other, out);
+        out.close();
+        assertTrue(MFontBinary.patchFile(bin).exists());
+        assertTrue(bin.setLastModified(bin.lastModified() + 10000));
+
+        MFontBinary.recover(bin);
+        assertFalse(MFontBinary.patchFile(bin).exists());
+        assertEquals(other, MFontBinary.load(bin));
+    }
+
+    private File copyOf(File f) throws IOException {
+        File ret = File.createTempFile("binary", ".mfnb");
+        ret.deleteOnExit();
+        Files.copy(f.toPath(), ret.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+        return ret;
+    }
+
+    @Test
+    public void testAtomicFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(bin);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        AtomicFile af = new AtomicFile(bin);
+        try {
+            af.startWrite().write(new byte[] { 4, 5 });
+            // Запись прервана до завершения.
+        } finally {
+            af.abortWrite();
+        }
+        assertEquals(3, bin.length());
+
+        af = new AtomicFile(bin);
+        try {
+            af.startWrite().write(new byte[] { 4, 5 });
+            af.finishWrite();
+        } finally {
+            af.abortWrite();
+        }
+        assertEquals(2, bin.length());
+        assertEquals(0, bin.getParentFile().listFiles(
+                        new java.io.FilenameFilter() {
+                            @Override
+                            public boolean accept(File dir, String name) {
+                                return name.startsWith("." + bin.getName());
+                            }
+                        }).length);
+    }
+}
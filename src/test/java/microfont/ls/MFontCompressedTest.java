@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import microfont.LazyMFont;
+import microfont.MFont;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MFontCompressedTest {
+    MFont font;
+    File  file;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        // Шрифт в том виде, в каком он загружается из файла.
+        font = IniFontDecoderTest.decode(IniFontDecoderTest
+                        .save(IniFontDecoderTest.createFont(700, false)));
+        file = File.createTempFile("compressed", ".mfnz");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(int blockCodes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            MFontCompressed.save(font, out, blockCodes, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, InterruptedException {
+        ForkJoinPool fjp = new ForkJoinPool(3);
+        try {
+            for (int n : new int[] { 1, 7, 128, 1 << 20 }) {
+                write(n);
+                assertTrue(MFontCompressed.isCompressed(file));
+                assertEquals(font, MFontCompressed.load(file, fjp));
+            }
+        } finally {
+            fjp.shutdown();
+        }
+
+        MFontCompressed.save(font, file, null);
+        MFont loaded = MFontLoadSave.load(file);
+        assertEquals(font, loaded);
+        assertArrayEquals(IniFontDecoderTest.save(font), IniFontDecoderTest
+                        .save(loaded));
+    }
+
+    @Test
+    public void testLazy() throws IOException, InterruptedException {
+        write(16);
+
+        LazyMFont lf = MFontLoadSave.loadLazy(file, null, 256);
+        try {
+            assertEquals(font.length(), lf.length());
+            assertEquals(0, lf.getResidentBytes());
+            assertEquals(font.symbolByCode(300), lf.symbolByCode(300));
+            assertEquals(1, lf.getLoadCount());
+            for (int i = font.length() - 1; i >= 0; i--) {
+                assertEquals(font.symbolByIndex(i), lf.symbolByIndex(i));
+            }
+        } finally {
+            lf.close();
+        }
+    }
+
+    @Test
+    public void testSmaller() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MFontCompressed.save(font, out, MFontCompressed.DEFAULT_BLOCK, null);
+        assertTrue(out.size() * 3 < IniFontDecoderTest.save(font).length);
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MFontCompressed.save(font, out, 32, null);
+        byte[] data = out.toByteArray();
+        // Порча последнего сжатого блока.
+        for (int i = data.length - 8; i < data.length; i++) {
+            data[i] ^= 0x5A;
+        }
+
+        FileOutputStream f = new FileOutputStream(file);
+        f.write(data);
+        f.close();
+
+        try {
+            MFontCompressed.load(file);
+            fail("corrupted file loaded");
+        } catch (IOException e) {
+            // Ожидаемое исключение.
+        }
+    }
+}
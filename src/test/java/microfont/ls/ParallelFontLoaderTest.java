@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import microfont.MFont;
+import org.junit.Test;
+
+public class ParallelFontLoaderTest {
+
+    @Test
+    public void testSameAsDecoder() throws IOException, InterruptedException {
+        ForkJoinPool fjp = new ForkJoinPool(4);
+        try {
+            for (boolean fixsed : new boolean[] { false, true }) {
+                byte[] data = IniFontDecoderTest.save(IniFontDecoderTest
+                                .createFont(500, fixsed));
+                MFont expected = IniFontDecoderTest.decode(data);
+
+                // Мелкие части, чтобы границы попадали между code и bytes.
+                for (int chunk : new int[] { 1, 37, 500, data.length }) {
+                    MFont actual = ParallelFontLoader.load(data, fjp, chunk,
+                                    null);
+                    assertEquals(expected, actual);
+                    assertArrayEquals(IniFontDecoderTest.save(expected),
+                                    IniFontDecoderTest.save(actual));
+                }
+            }
+        } finally {
+            fjp.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final byte[] data = IniFontDecoderTest.save(IniFontDecoderTest
+                        .createFont(500, false));
+        final ForkJoinPool fjp = new ForkJoinPool(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Exception[] result = new Exception[1];
+
+        // Единственный поток пула занят, декодирование ждёт в очереди.
+        fjp.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Поток пула завершается.
+                }
+            }
+        });
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ParallelFontLoader.load(data, fjp, 1, null);
+                } catch (Exception e) {
+                    result[0] = e;
+                }
+            }
+        };
+        try {
+            t.start();
+            Thread.sleep(100);
+            t.interrupt();
+            t.join(5000);
+
+            assertFalse(t.isAlive());
+            assertTrue(result[0] instanceof InterruptedException);
+        } finally {
+            release.countDown();
+            fjp.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidByte() throws InterruptedException {
+        byte[] data = ("[INFO]\nheight = 8\n[SYMBOLS]\nwidth = 8\n"
+                        + "bytes = 0f\nbytes = zz\n").getBytes();
+        ForkJoinPool fjp = new ForkJoinPool(2);
+        try {
+            ParallelFontLoader.load(data, fjp, 1, null);
+            fail("invalid byte accepted");
+        } catch (IOException e) {
+            // Ожидаемое исключение.
+        } finally {
+            fjp.shutdown();
+        }
+    }
+}
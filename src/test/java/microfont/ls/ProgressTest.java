@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package microfont.ls;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ForkJoinPool;
+import microfont.MFont;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.ini.Formater;
+
+public class ProgressTest {
+    MFont font;
+    File  file;
+
+    /**
+     * Запоминает последний процент и отменяет задачу после заданного числа
+     * сообщений.
+     */
+    static class Counter implements MFontLoadProgress, MFontSaveProgress {
+        int calls;
+        int last = -1;
+        int total;
+        int limit;
+
+        Counter(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean parseString(int percent) {
+            assertTrue(percent >= last);
+            last = percent;
+            return ++calls < limit;
+        }
+
+        @Override
+        public boolean saveSymbol(int index, int count) {
+            assertEquals(last + 1, index);
+            last = index;
+            total = count;
+            return ++calls < limit;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        font = IniFontDecoderTest.createFont(2000, false);
+        file = File.createTempFile("progress", ".mfnt");
+        MFontLoadSave.save(font, new Formater(new FileOutputStream(file)));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLoad() throws IOException, InterruptedException {
+        Counter c = new Counter(Integer.MAX_VALUE);
+        MFont loaded = MFontLoadSave.load(file, c);
+        assertEquals(100, c.last);
+        assertTrue(c.calls > 2);
+        assertEquals(IniFontDecoderTest.decode(IniFontDecoderTest.save(font)),
+                        loaded);
+
+        c = new Counter(Integer.MAX_VALUE);
+        ForkJoinPool fjp = new ForkJoinPool(2);
+        try {
+            ParallelFontLoader.load(file, fjp, c);
+        } finally {
+            fjp.shutdown();
+        }
+        assertEquals(100, c.last);
+    }
+
+    @Test
+    public void testLoadCancel() throws IOException {
+        try {
+            MFontLoadSave.load(file, new Counter(3));
+            fail("load not cancelled");
+        } catch (InterruptedException e) {
+            // Ожидаемое исключение.
+        }
+    }
+
+    @Test
+    public void testSave() throws IOException {
+        Counter c = new Counter(Integer.MAX_VALUE);
+        c.last = 0;
+        MFontBinary.save(font, new ByteArrayOutputStream(), c);
+        assertEquals(font.length(), c.last);
+        assertEquals(font.length(), c.total);
+
+        c = new Counter(10);
+        c.last = 0;
+        try {
+            MFontLoadSave.save(font, new Formater(new ByteArrayOutputStream()),
+                            c);
+            fail("save not cancelled");
+        } catch (InterruptedIOException e) {
+            assertEquals(10, c.last);
+        }
+    }
+}
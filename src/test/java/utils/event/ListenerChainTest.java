@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2022 © Nick Egorrov, nicegorov@yandex.ru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package utils.event;
+
+import static org.junit.Assert.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ListenerChainTest {
+    ListenerChain chain;
+
+    static class Listener implements PropertyChangeListener, ChangeListener {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+        }
+
+        @Override
+        public void stateChanged(ChangeEvent e) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        chain = new ListenerChain();
+    }
+
+    @Test
+    public void testGetListeners() {
+        Listener a = new Listener();
+        Listener b = new Listener();
+
+        PropertyChangeListener[] empty = chain
+                        .getListeners(PropertyChangeListener.class);
+        assertEquals(0, empty.length);
+        assertSame(empty, chain.getListeners(PropertyChangeListener.class));
+
+        chain.add(PropertyChangeListener.class, a);
+        chain.add(ChangeListener.class, b);
+        chain.add(PropertyChangeListener.class, b);
+        chain.add(PropertyChangeListener.class, a);
+
+        PropertyChangeListener[] pcl = chain
+                        .getListeners(PropertyChangeListener.class);
+        assertArrayEquals(new Object[] {b, a}, pcl);
+        assertSame(pcl, chain.getListeners(PropertyChangeListener.class));
+        assertArrayEquals(new Object[] {b},
+                        chain.getListeners(ChangeListener.class));
+        assertEquals(6, chain.getListenerList().length);
+        assertTrue(chain.hasListeners(ChangeListener.class));
+    }
+
+    @Test
+    public void testRemove() {
+        Listener a = new Listener();
+        Listener b = new Listener();
+
+        chain.add(PropertyChangeListener.class, a);
+        chain.add(PropertyChangeListener.class, b);
+        chain.add(ChangeListener.class, a);
+
+        PropertyChangeListener[] old = chain
+                        .getListeners(PropertyChangeListener.class);
+        chain.remove(PropertyChangeListener.class, a);
+
+        // Ранее полученный массив не изменяется.
+        assertArrayEquals(new Object[] {a, b}, old);
+        assertArrayEquals(new Object[] {b},
+                        chain.getListeners(PropertyChangeListener.class));
+        assertArrayEquals(new Object[] {a},
+                        chain.getListeners(ChangeListener.class));
+
+        chain.remove(ChangeListener.class, a);
+        assertFalse(chain.hasListeners(ChangeListener.class));
+        assertEquals(2, chain.getListenerList().length);
+    }
+
+    @Test
+    public void testKey() {
+        Listener a = new Listener();
+        Listener b = new Listener();
+
+        chain.add(PropertyChangeListener.class, "x", a);
+        chain.add(PropertyChangeListener.class, "y", b);
+        chain.add(PropertyChangeListener.class, "x", a);
+
+        assertArrayEquals(new Object[] {a},
+                        chain.getListeners(PropertyChangeListener.class, "x"));
+        assertArrayEquals(new Object[] {b},
+                        chain.getListeners(PropertyChangeListener.class, "y"));
+        assertEquals(0, chain.getListeners(PropertyChangeListener.class,
+                        "z").length);
+        assertEquals(0, chain.getListeners(PropertyChangeListener.class).length);
+        assertEquals(0, chain.getListenerList().length);
+
+        chain.remove(PropertyChangeListener.class, "x", a);
+        assertEquals(0, chain.getListeners(PropertyChangeListener.class,
+                        "x").length);
+        assertArrayEquals(new Object[] {b},
+                        chain.getListeners(PropertyChangeListener.class, "y"));
+    }
+}